@@ -0,0 +1,188 @@
+/*  File Bench.java */
+
+package bench;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.regex.*;
+
+// A small benchmark harness for the buffer manager and disk manager hot
+// paths. Each benchmark is an operation run in a loop for a number of
+// timed warmup and measurement iterations; for the measurement iterations
+// it reports the time per operation, operations per second, bytes
+// allocated per operation and the garbage collections that ran.
+
+// Settings are system properties, all optional:
+//   bench.filter      regular expression a benchmark name must contain
+//   bench.warmup      warmup iterations (default 3)
+//   bench.iterations  measurement iterations (default 5)
+//   bench.time        milliseconds per iteration (default 1000)
+//   bench.replacer    replacer of the pinPage benchmarks (default Clock)
+
+// NOTE: Benchmarks use fixed seeds and sizes so runs are comparable, run
+// them on an otherwise idle machine with the same JVM and heap settings.
+// Allocations are counted for the benchmark thread only.
+public class Bench {
+
+  // Operations run between two reads of the clock
+  private static final int BATCH = 64;
+
+  // Selects the benchmarks run
+  private final Pattern filter;
+
+  // Iterations and their length in nanoseconds
+  private final int warmup;
+  private final int iterations;
+  private final long iterationNanos;
+
+  // Counts the bytes allocated by the benchmark thread, null if the JVM
+  // cannot
+  private final com.sun.management.ThreadMXBean threads;
+
+  // Results of the operations, kept so the JIT cannot drop them
+  private long sink;
+
+  // Published once at the end so sink is not dead either
+  public static volatile long consumed;
+
+
+  // An operation measured by the harness, the value returned is consumed
+  public interface Op {
+    long run() throws Exception;
+  } // end Op
+
+
+  // Constructor, reads the settings from the system properties
+  public Bench() {
+    filter = Pattern.compile(System.getProperty("bench.filter", ""));
+    warmup = Integer.getInteger("bench.warmup", 3);
+    iterations = Integer.getInteger("bench.iterations", 5);
+    iterationNanos = Long.getLong("bench.time", 1000) * 1000000L;
+
+    ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    if ((mx instanceof com.sun.management.ThreadMXBean)
+        && ((com.sun.management.ThreadMXBean)mx).isThreadAllocatedMemorySupported()) {
+      threads = (com.sun.management.ThreadMXBean)mx;
+      threads.setThreadAllocatedMemoryEnabled(true);
+    } else {
+      threads = null;
+    }
+  } // end constructor
+
+
+  // Returns true if the benchmark name is selected, so a benchmark that
+  // is not run can skip its setup
+  public boolean selected(String name) {
+    return filter.matcher(name).find();
+  } // end selected()
+
+
+  // Returns the replacer the pinPage benchmarks use
+  public String replacer() {
+    return System.getProperty("bench.replacer", "Clock");
+  } // end replacer()
+
+
+  // Runs op as the benchmark name, if selected, and prints its results
+  public void run(String name, Op op) throws Exception {
+    if (selected(name) == false)
+      return;
+
+    for (int i = 0; i < warmup; i++)
+      iteration(op);
+
+    double[] nanosPerOp = new double[iterations];
+    long ops = 0;
+    long nanos = 0;
+    long bytes = 0;
+    long gcs = gcCount();
+    long gcMillis = gcMillis();
+    for (int i = 0; i < iterations; i++) {
+      long start = allocated();
+      long[] r = iteration(op);
+      bytes += allocated() - start;
+      ops += r[0];
+      nanos += r[1];
+      nanosPerOp[i] = (double)r[1] / r[0];
+    } // end for
+    gcs = gcCount() - gcs;
+    gcMillis = gcMillis() - gcMillis;
+
+    double mean = (double)nanos / ops;
+    double sd = 0;
+    for (int i = 0; i < iterations; i++)
+      sd += (nanosPerOp[i] - mean) * (nanosPerOp[i] - mean);
+    sd = (iterations > 1) ? Math.sqrt(sd / (iterations - 1)) : 0;
+
+    System.out.printf("%-44s %12.1f %10.1f %14.0f %10s %6d %8d%n",
+      name, mean, sd, ops * 1e9 / nanos,
+      (threads == null) ? "n/a" : String.format("%.1f", (double)bytes / ops),
+      gcs, gcMillis);
+  } // end run()
+
+
+  // Runs op for one iteration, returns the operations run and the
+  // nanoseconds they took
+  private long[] iteration(Op op) throws Exception {
+    long ops = 0;
+    long start = System.nanoTime();
+    long now;
+    long s = 0;
+    do {
+      for (int i = 0; i < BATCH; i++)
+        s += op.run();
+      ops += BATCH;
+      now = System.nanoTime();
+    } while (now - start < iterationNanos);
+    sink += s;
+    return new long[] { ops, now - start };
+  } // end iteration()
+
+
+  // Returns the bytes allocated so far by this thread, 0 if not counted
+  private long allocated() {
+    return (threads == null) ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  } // end allocated()
+
+
+  // Returns the collections run so far by all collectors
+  private static long gcCount() {
+    long n = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      n += Math.max(0, gc.getCollectionCount());
+    return n;
+  } // end gcCount()
+
+
+  // Returns the milliseconds spent in collections so far
+  private static long gcMillis() {
+    long n = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      n += Math.max(0, gc.getCollectionTime());
+    return n;
+  } // end gcMillis()
+
+
+  // Prints the settings and the column headings
+  private void header() {
+    System.out.println("# " + System.getProperty("java.vm.name") + " " 
+                       + System.getProperty("java.vm.version") + ", max heap "
+                       + (Runtime.getRuntime().maxMemory() >> 20) + " MB, "
+                       + Runtime.getRuntime().availableProcessors() + " cpus");
+    System.out.println("# " + warmup + " warmup and " + iterations + " measurement iterations of "
+                       + (iterationNanos / 1000000) + " ms, replacer " + replacer());
+    System.out.printf("%-44s %12s %10s %14s %10s %6s %8s%n",
+      "Benchmark", "ns/op", "sd", "ops/s", "B/op", "gc", "gc ms");
+  } // end header()
+
+
+  // Runs every selected benchmark
+  public static void main(String[] args) throws Exception {
+    Bench bench = new Bench();
+    bench.header();
+    bufmgr.BufMgrBench.run(bench);
+    diskmgr.DBBench.run(bench);
+    consumed = bench.sink;
+  } // end main()
+
+} // end Bench
@@ -0,0 +1,353 @@
+/*  File Workload.java */
+
+package bench;
+
+import bufmgr.*;
+import diskmgr.*;
+import global.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+// A YCSB-style load generator for the buffer manager and disk manager.
+// Threads pin pages of a database for a set time, reading them or
+// updating them, with the pages chosen from a uniform, Zipfian, latest
+// or sequential scan distribution. Every interval it prints the
+// throughput, the latency percentiles, the hit ratio and the pages read
+// and written, and a summary at the end.
+
+// Settings are system properties, all optional:
+//   workload.threads       threads pinning pages (default 4)
+//   workload.pool          frames in the buffer pool (default 1024)
+//   workload.pages         pages in the database (default 65536)
+//   workload.readRatio     share of operations that only read (default 0.95)
+//   workload.distribution  uniform, zipfian, latest or scan (default zipfian)
+//   workload.theta         skew of the zipfian and latest distributions (default 0.99)
+//   workload.scanLength    pages read by a scan (default 64)
+//   workload.duration      seconds to run (default 30)
+//   workload.interval      seconds between reports (default 1)
+//   workload.replacer      replacement policy (default Clock)
+//   workload.seed          seed of the page choices (default 42)
+//   workload.bgwriter      clean ratio of a background writer, 0 for none (default 0)
+//   workload.readahead     read-ahead window in pages, 0 for none (default 0)
+//   workload.admission     use the W-TinyLFU admission filter (default false)
+//   workload.offheap       keep the buffer pool off the heap (default false)
+//   workload.trace         file to record the page accesses to (default none)
+
+// The distributions, as in YCSB:
+//   uniform  every page is as likely
+//   zipfian  a few hot pages spread over the database take most accesses
+//   latest   updates insert pages at the end of the data, reads favour the
+//            pages inserted last; half of the database is loaded at start
+//   scan     reads are runs of scanLength pages from a uniform start page,
+//            updates are of single uniform pages
+
+// NOTE: Latencies are counted in power of two buckets (see Histogram), so
+// a percentile is the upper bound of its bucket, exact to a factor of two.
+public class Workload {
+
+  // Settings
+  private final int threads = Integer.getInteger("workload.threads", 4);
+  private final int pool = Integer.getInteger("workload.pool", 1024);
+  private final int pages = Integer.getInteger("workload.pages", 65536);
+  private final double readRatio = Double.parseDouble(System.getProperty("workload.readRatio", "0.95"));
+  private final String distribution = System.getProperty("workload.distribution", "zipfian");
+  private final double theta = Double.parseDouble(System.getProperty("workload.theta", "0.99"));
+  private final int scanLength = Integer.getInteger("workload.scanLength", 64);
+  private final int duration = Integer.getInteger("workload.duration", 30);
+  private final int interval = Integer.getInteger("workload.interval", 1);
+  private final String replacer = System.getProperty("workload.replacer", "Clock");
+  private final long seed = Long.getLong("workload.seed", 42);
+  private final double bgwriter = Double.parseDouble(System.getProperty("workload.bgwriter", "0"));
+  private final int readahead = Integer.getInteger("workload.readahead", 0);
+  private final boolean admission = Boolean.getBoolean("workload.admission");
+  private final boolean offheap = Boolean.getBoolean("workload.offheap");
+  private final String trace = System.getProperty("workload.trace");
+
+  // The database file and the buffer manager under load
+  private String dbpath;
+  private BufMgr bm;
+
+  // First page of the data
+  private int first;
+
+  // Zipfian choice of a page, shared by the threads (it is read only)
+  private Zipfian zipfian;
+
+  // Pages inserted so far by the latest distribution
+  private final AtomicInteger latest = new AtomicInteger();
+
+  // Operations and their latencies in nanoseconds
+  private final LongAdder ops = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final Histogram latency = new Histogram();
+
+  // Cleared to stop the threads
+  private volatile boolean running = true;
+
+
+  // Chooses pages with a Zipfian distribution over n items, item 0 the
+  // most popular, computed as in YCSB's ZipfianGenerator (Gray et al.,
+  // Quickly Generating Billion-Record Synthetic Databases)
+  private static class Zipfian {
+
+    private final long n;
+    private final double theta;
+    private final double alpha;
+    private final double zetan;
+    private final double eta;
+
+
+    // Constructor
+    Zipfian(long n, double theta) {
+      this.n = n;
+      this.theta = theta;
+      alpha = 1.0 / (1.0 - theta);
+      zetan = zeta(n, theta);
+      eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+    } // end constructor
+
+
+    // Returns the sum of 1 / i^theta for i from 1 to n
+    private static double zeta(long n, double theta) {
+      double sum = 0;
+      for (long i = 1; i <= n; i++)
+        sum += 1 / Math.pow(i, theta);
+      return sum;
+    } // end zeta()
+
+
+    // Returns an item in [0, n) for u uniform in [0, 1)
+    long next(double u) {
+      double uz = u * zetan;
+      if (uz < 1)
+        return 0;
+      if (uz < 1 + Math.pow(0.5, theta))
+        return 1;
+      return Math.min(n - 1, (long)(n * Math.pow(eta * u - eta + 1, alpha)));
+    } // end next()
+
+  } // end Zipfian
+
+
+  // Spreads item over [0, n) so the hot pages are not next to each other,
+  // with the FNV-1a hash as YCSB's ScrambledZipfianGenerator does
+  private static int scramble(long item, int n) {
+    long h = 0xCBF29CE484222325L;
+    for (int i = 0; i < 8; i++) {
+      h ^= (item >>> (i * 8)) & 0xFF;
+      h *= 0x100000001B3L;
+    }
+    return (int)Math.floorMod(h, (long)n);
+  } // end scramble()
+
+
+  // Creates the database and the buffer manager and writes every page
+  private void load() throws Exception {
+    dbpath = "/tmp/workload" + System.getProperty("user.name") + ".minibase-db";
+    new File(dbpath).delete();
+    SystemDefs sysdef = new SystemDefs(dbpath, pages + 100, pool, replacer);
+
+    bm = new BufMgr(pool, replacer, threads, offheap);
+    SystemDefs.JavabaseBM = bm;
+    bm.setAdmissionFilter(admission);
+    if (readahead > 0)
+      bm.setReadAhead(readahead);
+
+    PageId pid = bm.newPage(new Page(), pages);
+    bm.unpinPage(pid, false);
+    first = pid.pid;
+
+    Page page = new Page();
+    for (int i = 0; i < pages; i++) {
+      PageId p = new PageId(first + i);
+      bm.pinPage(p, page, true);
+      page.getpage()[0] = (byte)i;
+      bm.unpinPage(p, true);
+    } // end for
+    bm.flushAllPages();
+
+    if (!distribution.equals("uniform") && !distribution.equals("scan"))
+      zipfian = new Zipfian(pages, theta);
+    latest.set(pages / 2);
+
+    if (bgwriter > 0)
+      bm.startBackgroundWriter(bgwriter, 10);
+    if (trace != null)
+      bm.startTrace(trace, 1 << 20);
+    bm.getMetrics().reset();
+  } // end load()
+
+
+  // Pins pid and unpins it, dirty if update is true
+  private void access(int pid, boolean update, boolean emptyPage, Page page) throws Exception {
+    PageId p = new PageId(first + pid);
+    bm.pinPage(p, page, emptyPage);
+    if (update)
+      page.getpage()[1]++;
+    bm.unpinPage(p, update);
+  } // end access()
+
+
+  // Runs one operation
+  private void operation(SplittableRandom random, Page page) throws Exception {
+    boolean read = random.nextDouble() < readRatio;
+
+    if (distribution.equals("uniform")) {
+      access(random.nextInt(pages), !read, false, page);
+    }
+
+    else if (distribution.equals("zipfian")) {
+      access(scramble(zipfian.next(random.nextDouble()), pages), !read, false, page);
+    }
+
+    else if (distribution.equals("latest")) {
+      if (read == false) {
+
+        // Insert the next page, or update the last once the data is full
+        int pid = latest.getAndIncrement();
+        if (pid >= pages) {
+          latest.set(pages);
+          access(pages - 1, true, false, page);
+        } else {
+          access(pid, true, true, page);
+        }
+        return;
+      } // end if
+
+      int last = Math.min(latest.get(), pages) - 1;
+      long back;
+      do {
+        back = zipfian.next(random.nextDouble());
+      } while (back > last);
+      access(last - (int)back, false, false, page);
+    }
+
+    else {
+      if (read == false) {
+        access(random.nextInt(pages), true, false, page);
+        return;
+      } // end if
+
+      int start = random.nextInt(pages);
+      for (int i = 0; i < scanLength; i++)
+        access((start + i) % pages, false, false, page);
+    } // end if
+  } // end operation()
+
+
+  // Runs operations until stopped
+  private void worker(int index) {
+    SplittableRandom random = new SplittableRandom(seed + index);
+    Page page = new Page();
+    while (running) {
+      long start = System.nanoTime();
+      try {
+        operation(random, page);
+      } catch (Exception e) {
+        errors.increment();
+        continue;
+      } // end try
+      latency.record(System.nanoTime() - start);
+      ops.increment();
+    } // end while
+  } // end worker()
+
+
+  // Prints one line of figures for the time between two points
+  private static void report(String label, double seconds, long ops, long errors, long[] counts,
+                             MetricsSnapshot now, MetricsSnapshot then) {
+    long hits = now.getHits() - then.getHits();
+    long misses = now.getMisses() - then.getMisses();
+    System.out.printf("%8s %10.0f %8.1f %8.1f %8.1f %8.1f %7.4f %9d %9d %9d %9d %6d%n",
+      label, ops / seconds,
+      Histogram.percentile(counts, 0.50) / 1000.0,
+      Histogram.percentile(counts, 0.95) / 1000.0,
+      Histogram.percentile(counts, 0.99) / 1000.0,
+      Histogram.percentile(counts, 0.999) / 1000.0,
+      (hits + misses == 0) ? 0 : (double)hits / (hits + misses),
+      now.getPagesRead() - then.getPagesRead(),
+      now.getPagesWritten() - then.getPagesWritten(),
+      now.getEvictions() - then.getEvictions(),
+      now.getDirtyWriteBacks() - then.getDirtyWriteBacks(),
+      errors);
+  } // end report()
+
+
+  // Loads the database, runs the threads and prints the figures
+  private void run() throws Exception {
+    if (distribution.matches("uniform|zipfian|latest|scan") == false)
+      throw new IllegalArgumentException ("Unknown distribution " + distribution
+                                          + ", expected uniform, zipfian, latest or scan");
+    System.out.println("# " + threads + " threads, " + pool + " frames, " + pages + " pages, "
+                       + distribution + (distribution.matches("zipfian|latest") ? " theta " + theta : "")
+                       + ", read ratio " + readRatio + ", " + replacer + ", " + duration + " s");
+    load();
+
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      final int index = i;
+      workers[i] = new Thread(() -> worker(index), "workload-" + i);
+    } // end for
+
+    System.out.printf("%8s %10s %8s %8s %8s %8s %7s %9s %9s %9s %9s %6s%n",
+      "time s", "ops/s", "p50 us", "p95 us", "p99 us", "p999 us", "hits",
+      "read", "written", "evicted", "dirtyWB", "errors");
+
+    MetricsSnapshot start = bm.getMetrics().snapshot();
+    MetricsSnapshot then = start;
+    long[] thenCounts = latency.counts();
+    long thenOps = 0;
+    long thenErrors = 0;
+    for (Thread t : workers)
+      t.start();
+
+    long end = start.getTime() + duration * 1000000000L;
+    long next = start.getTime();
+    while (next < end) {
+      next = Math.min(end, next + interval * 1000000000L);
+      long sleep = next - System.nanoTime();
+      if (sleep > 0)
+        Thread.sleep(sleep / 1000000, (int)(sleep % 1000000));
+
+      MetricsSnapshot now = bm.getMetrics().snapshot();
+      long[] counts = latency.counts();
+      long[] delta = new long[counts.length];
+      for (int i = 0; i < counts.length; i++)
+        delta[i] = counts[i] - thenCounts[i];
+      long nowOps = ops.sum();
+      long nowErrors = errors.sum();
+
+      report(String.format("%.0f", (now.getTime() - start.getTime()) / 1e9),
+             (now.getTime() - then.getTime()) / 1e9,
+             nowOps - thenOps, nowErrors - thenErrors, delta, now, then);
+
+      then = now;
+      thenCounts = counts;
+      thenOps = nowOps;
+      thenErrors = nowErrors;
+    } // end while
+
+    running = false;
+    for (Thread t : workers)
+      t.join();
+    bm.stopBackgroundWriter();
+    bm.stopTrace();
+
+    MetricsSnapshot last = bm.getMetrics().snapshot();
+    report("total", (last.getTime() - start.getTime()) / 1e9, ops.sum(), errors.sum(),
+           latency.counts(), last, start);
+    System.out.println();
+    System.out.println(last);
+
+    bm.flushAllPages();
+    SystemDefs.JavabaseDB.closeDB();
+    new File(dbpath).delete();
+  } // end run()
+
+
+  public static void main(String[] args) throws Exception {
+    new Workload().run();
+  } // end main()
+
+} // end Workload
@@ -0,0 +1,164 @@
+/*  File BufMgrBench.java */
+
+package bufmgr;
+
+import bench.Bench;
+import global.*;
+import diskmgr.*;
+import java.io.*;
+import java.util.*;
+
+// Benchmarks of the buffer manager hot paths: pinPage()/unpinPage() of a
+// page in the pool and of a page read in, the Clock replacer finding a
+// victim with a share of the frames pinned, and the Page Table lookup at
+// pool sizes from 50 to 1M frames.
+
+// NOTE: In package bufmgr so the replacer and the Page Table can be
+// measured on their own, without the rest of pinPage().
+public class BufMgrBench implements GlobalConst {
+
+  // Pages in the benchmark database
+  private static final int DB_PAGES = 8192;
+
+  // Pages pinned over and over by the hit benchmark, all in the pool
+  private static final int HOT_PAGES = 512;
+
+  // Frames of the replacer benchmark
+  private static final int CLOCK_FRAMES = 4096;
+
+
+  // Runs the selected buffer manager benchmarks
+  public static void run(Bench bench) throws Exception {
+    pinPages(bench);
+    pickVictim(bench);
+    lookup(bench);
+  } // end run()
+
+
+  // pinPage() and unpinPage() of a page in the pool, of a clean page read
+  // in and of a page read in that replaces a dirty page
+  private static void pinPages(Bench bench) throws Exception {
+    String rep = bench.replacer();
+    String hit = "pinPage.hit";
+    String miss = "pinPage.miss";
+    String dirty = "pinPage.missDirtyVictim";
+    if (!bench.selected(hit) && !bench.selected(miss) && !bench.selected(dirty))
+      return;
+
+    String dbpath = "/tmp/bench" + System.getProperty("user.name") + ".minibase-db";
+    new File(dbpath).delete();
+    SystemDefs sysdef = new SystemDefs(dbpath, DB_PAGES + 100, 1024, rep);
+    BufMgr bm = SystemDefs.JavabaseBM;
+
+    final PageId[] pids = new PageId[DB_PAGES];
+    PageId first = bm.newPage(new Page(), DB_PAGES);
+    bm.unpinPage(first, false);
+    for (int i = 0; i < DB_PAGES; i++)
+      pids[i] = new PageId(first.pid + i);
+    bm.flushAllPages();
+
+    final BufMgr hot = bm;
+    final Page page = new Page();
+    bench.run(hit, new Bench.Op() {
+      int i;
+      public long run() throws Exception {
+        PageId pid = pids[i++ & (HOT_PAGES - 1)];
+        hot.pinPage(pid, page, false);
+        hot.unpinPage(pid, false);
+        return page.getpage().length;
+      }
+    });
+
+    // A pool much smaller than the pages scanned, every pin reads its page
+    final BufMgr small = new BufMgr(64, rep);
+    SystemDefs.JavabaseBM = small;
+    bench.run(miss, new Bench.Op() {
+      int i;
+      public long run() throws Exception {
+        PageId pid = pids[i++ % DB_PAGES];
+        small.pinPage(pid, page, false);
+        small.unpinPage(pid, false);
+        return page.getpage().length;
+      }
+    });
+    bench.run(dirty, new Bench.Op() {
+      int i;
+      public long run() throws Exception {
+        PageId pid = pids[i++ % DB_PAGES];
+        small.pinPage(pid, page, false);
+        small.unpinPage(pid, true);
+        return page.getpage().length;
+      }
+    });
+    small.flushAllPages();
+
+    SystemDefs.JavabaseDB.closeDB();
+    new File(dbpath).delete();
+  } // end pinPages()
+
+
+  // Clock.pick_victim() with a share of the frames pinned, each victim is
+  // released again so the next search starts from the same state
+  private static void pickVictim(Bench bench) throws Exception {
+    double[] ratios = { 0, 0.5, 0.9, 0.99 };
+    for (int r = 0; r < ratios.length; r++) {
+      String name = String.format("Clock.pick_victim.pinned%02.0f", ratios[r] * 100);
+      if (bench.selected(name) == false)
+        continue;
+
+      BufMgr mgr = new BufMgr(CLOCK_FRAMES, "Clock");
+      final Replacer clock = ReplacerRegistry.create("Clock", mgr);
+      clock.setBufferManager(mgr);
+
+      // Pin a random share of the frames
+      Integer[] order = new Integer[CLOCK_FRAMES];
+      for (int i = 0; i < CLOCK_FRAMES; i++)
+        order[i] = i;
+      Collections.shuffle(Arrays.asList(order), new Random(r));
+      int pinned = (int)(CLOCK_FRAMES * ratios[r]);
+      for (int i = 0; i < pinned; i++)
+        clock.pin(order[i]);
+
+      bench.run(name, new Bench.Op() {
+        public long run() throws Exception {
+          int frameNo = clock.pick_victim();
+          clock.unpin(frameNo);
+          return frameNo;
+        }
+      });
+    } // end for
+  } // end pickVictim()
+
+
+  // BufHashTbl.lookup() of pages in a table holding one page per frame,
+  // the pages looked up are spread over the table at random
+  private static void lookup(Bench bench) throws Exception {
+    int[] sizes = { 50, 1000, 100000, 1000000 };
+    for (int s = 0; s < sizes.length; s++) {
+      int n = sizes[s];
+      String name = "BufHashTbl.lookup." + n;
+      if (bench.selected(name) == false)
+        continue;
+
+      final BufHashTbl table = new BufHashTbl(n);
+      Random random = new Random(s);
+      int[] pids = new int[n];
+      for (int i = 0; i < n; i++) {
+        pids[i] = i * 3 + random.nextInt(3);
+        table.insert(pids[i], i);
+      } // end for
+
+      final PageId[] keys = new PageId[4096];
+      for (int i = 0; i < keys.length; i++)
+        keys[i] = new PageId(pids[random.nextInt(n)]);
+
+      bench.run(name, new Bench.Op() {
+        int i;
+        public long run() {
+          return table.lookup(keys[i++ & (keys.length - 1)]);
+        }
+      });
+    } // end for
+  } // end lookup()
+
+} // end BufMgrBench
@@ -0,0 +1,142 @@
+/* File DBBench.java */
+
+package diskmgr;
+
+import bench.Bench;
+import global.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Benchmarks of the disk manager: allocate_page() on a space map broken
+ * into many small free runs, and get_file_entry() in a file directory of
+ * thousands of entries.
+ */
+public class DBBench implements GlobalConst {
+
+  /**
+   * Pages in the database of the allocate_page() benchmarks
+   */
+  private static final int ALLOC_PAGES = 65536;
+
+  /**
+   * Entries in the file directories of the get_file_entry() benchmarks
+   */
+  private static final int[] ENTRIES = { 1000, 10000 };
+
+  /**
+   * Run the selected disk manager benchmarks.
+   *
+   * @param bench the harness
+   */
+  public static void run(Bench bench) throws Exception {
+    allocatePage(bench);
+    getFileEntry(bench);
+  }
+
+  /**
+   * Returns the path of a benchmark database.
+   */
+  private static String dbpath(String name) {
+    return "/tmp/bench" + name + System.getProperty("user.name") + ".minibase-db";
+  }
+
+  /**
+   * allocate_page() of a run of 1 and of 8 pages, each run is given back
+   * so the map stays as fragmented. The map is filled with runs of 1 to
+   * 16 pages and a random half of them freed.
+   */
+  private static void allocatePage(Bench bench) throws Exception {
+    final int[] runs = { 1, 8 };
+    boolean any = false;
+    for (int r = 0; r < runs.length; r++)
+      any |= bench.selected("DB.allocate_page.fragmented.run" + runs[r]);
+    if (any == false)
+      return;
+
+    String path = dbpath("alloc");
+    new File(path).delete();
+    SystemDefs sysdef = new SystemDefs(path, ALLOC_PAGES, 64, "Clock");
+    final DB db = SystemDefs.JavabaseDB;
+
+    // Fill the map with short runs, then free every other one at random
+    Random random = new Random(7);
+    List<int[]> allocated = new ArrayList<int[]>();
+    while (true) {
+      int size = 1 + random.nextInt(16);
+      PageId pid = new PageId();
+      try {
+        db.allocate_page(pid, size);
+      } catch (OutOfSpaceException e) {
+        if (size == 1)
+          break;
+        continue;
+      }
+      allocated.add(new int[] { pid.pid, size });
+    }
+    for (int[] run : allocated)
+      if (random.nextBoolean())
+        db.deallocate_page(new PageId(run[0]), run[1]);
+
+    for (int r = 0; r < runs.length; r++) {
+      final int size = runs[r];
+      final PageId pid = new PageId();
+      bench.run("DB.allocate_page.fragmented.run" + size, new Bench.Op() {
+        public long run() throws Exception {
+          db.allocate_page(pid, size);
+          db.deallocate_page(pid, size);
+          return pid.pid;
+        }
+      });
+    }
+
+    db.closeDB();
+    new File(path).delete();
+  }
+
+  /**
+   * get_file_entry() of a file in the directory and of a file not in it.
+   */
+  private static void getFileEntry(Bench bench) throws Exception {
+    for (int n : ENTRIES) {
+      String found = "DB.get_file_entry." + n;
+      String missing = "DB.get_file_entry.missing." + n;
+      if (!bench.selected(found) && !bench.selected(missing))
+        continue;
+
+      String path = dbpath("dir");
+      new File(path).delete();
+      SystemDefs sysdef = new SystemDefs(path, 4 * n + 1000, 64, "Clock");
+      final DB db = SystemDefs.JavabaseDB;
+
+      for (int i = 0; i < n; i++)
+        db.add_file_entry("file" + i, new PageId(1000 + i));
+      SystemDefs.JavabaseBM.flushAllPages();
+
+      Random random = new Random(n);
+      final String[] names = new String[4096];
+      final String[] unknown = new String[4096];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = "file" + random.nextInt(n);
+        unknown[i] = "none" + random.nextInt(n);
+      }
+
+      bench.run(found, new Bench.Op() {
+        int i;
+        public long run() throws Exception {
+          return db.get_file_entry(names[i++ & (names.length - 1)]).pid;
+        }
+      });
+      bench.run(missing, new Bench.Op() {
+        int i;
+        public long run() throws Exception {
+          return (db.get_file_entry(unknown[i++ & (unknown.length - 1)]) == null) ? 0 : 1;
+        }
+      });
+
+      db.closeDB();
+      new File(path).delete();
+    }
+  }
+
+}
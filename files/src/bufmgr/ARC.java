@@ -0,0 +1,285 @@
+/*  File ARC.java */
+
+package bufmgr;
+
+import global.*;
+
+// An Adaptive Replacement Cache algorithm for buffer pool replacement
+// policy. Resident pages are split into T1, pages referenced once since
+// they were read in, and T2, pages referenced again. The ghost lists B1 
+// and B2 remember the pages recently evicted from T1 and T2. A miss on a
+// page in B1 means T1 was too small and grows the target size p of T1, 
+// a miss on a page in B2 shrinks it. A large scan only passes through T1
+// and cannot evict the hot pages in T2.
+
+// NOTE: T1 and T2 count pinned frames too, but only unpinned frames are
+// kept in the candidate lists T1u and T2u (least recently used first), 
+// so a victim is found in O(1)
+class ARC extends Replacer {
+  
+  // Values of list[]
+  private static final int NONE = 0;
+  private static final int T1 = 1;
+  private static final int T2 = 2;
+  
+  // Number of frames (c in the ARC paper), follows the buffer pool size
+  private int c;
+  
+  // Target size of T1
+  private int p;
+  
+  // list[f] is the list the page in frame f belongs to
+  private int[] list;
+  
+  // Number of frames in T1 and T2, pinned or not
+  private int t1Size;
+  private int t2Size;
+  
+  // The unpinned frames of T1 and T2, least recently used first
+  private FrameList t1u;
+  private FrameList t2u;
+  
+  // Frames that do not hold a page
+  private FrameList empty;
+  
+  // Pages recently evicted from T1 and T2
+  private GhostList b1;
+  private GhostList b2;
+  
+  
+  // Constructor
+  public ARC(BufMgr javamgr) {
+    super(javamgr);
+    reset(javamgr.getMaxBuffers(), javamgr.getNumBuffers());
+  } // end constructor
+  
+  
+  // Empties all the lists, they can hold up to capacity frames
+  private void reset(int capacity, int numBuffers) {
+    c = numBuffers;
+    p = 0;
+    list = new int[capacity];
+    t1Size = 0;
+    t2Size = 0;
+    t1u = new FrameList(capacity);
+    t2u = new FrameList(capacity);
+    empty = new FrameList(capacity);
+    b1 = new GhostList(capacity);
+    b2 = new GhostList(capacity);
+    for (int i = 0; i < c; i++)
+      empty.addLast(i);
+  } // end reset()
+  
+  
+  // Resets the lists along with the state array
+  protected synchronized void setBufferManager(BufMgr mgrArg) {
+    super.setBufferManager(mgrArg);
+    reset(mgrArg.getMaxBuffers(), mgrArg.getNumBuffers());
+  } // end setBufferManager()
+  
+  
+  // A hit moves the page to the most recently used end of T2
+  public synchronized void pin(int frameNo) throws InvalidFrameNumberException {
+    super.pin(frameNo);
+    if (list[frameNo] == T1) {
+      t1Size--;
+      t2Size++;
+      list[frameNo] = T2;
+    }
+    t1u.remove(frameNo);
+    t2u.remove(frameNo);
+  } // end pin()
+  
+  
+  // A frame becomes a candidate of its list when its last pin is released
+  public synchronized boolean unpin(int frameNo) throws 
+    InvalidFrameNumberException, 
+    PageUnpinnedException {
+    
+    boolean unpinned = super.unpin(frameNo);
+    if ((mgr.frameTable())[frameNo].pin_count() == 0) {
+      if (list[frameNo] == T2)
+        t2u.addLast(frameNo);
+      else
+        t1u.addLast(frameNo);
+    }
+    return unpinned;
+  } // end unpin()
+  
+  
+  // A freed frame leaves T1 or T2 and is reused first
+  public synchronized void free(int frameNo) throws PagePinnedException {
+    super.free(frameNo);
+    if (list[frameNo] == T1)
+      t1Size--;
+    else if (list[frameNo] == T2)
+      t2Size--;
+    list[frameNo] = NONE;
+    t1u.remove(frameNo);
+    t2u.remove(frameNo);
+    empty.addLast(frameNo);
+  } // end free()
+  
+  
+  // A retired frame leaves T1 or T2 and every list
+  public synchronized void retire(int frameNo) {
+    super.retire(frameNo);
+    if (list[frameNo] == T1)
+      t1Size--;
+    else if (list[frameNo] == T2)
+      t2Size--;
+    list[frameNo] = NONE;
+    t1u.remove(frameNo);
+    t2u.remove(frameNo);
+    empty.remove(frameNo);
+  } // end retire()
+  
+  
+  // An unpinned frame moves to the least recently used end of T1
+  public synchronized void demote(int frameNo) {
+    if ((mgr.frameTable())[frameNo].pin_count() != 0 || list[frameNo] == NONE)
+      return;
+    if (list[frameNo] == T2) {
+      t2Size--;
+      t1Size++;
+      list[frameNo] = T1;
+    }
+    t2u.remove(frameNo);
+    t1u.addFirst(frameNo);
+  } // end demote()
+  
+  
+  // Lists the unpinned frames of the list REPLACE takes from first, then
+  // those of the other list
+  public synchronized int next_victims(int[] frames) {
+    FrameList first = (t1Size > p) ? t1u : t2u;
+    FrameList second = (first == t1u) ? t2u : t1u;
+    int n = 0;
+    for (int f = first.first(); (f >= 0) && (n < frames.length); f = first.next(f))
+      frames[n++] = f;
+    for (int f = second.first(); (f >= 0) && (n < frames.length); f = second.next(f))
+      frames[n++] = f;
+    return n;
+  } // end next_victims()
+  
+  
+  // Determine which frame will be replaced, without knowing the new page
+  public int pick_victim() throws 
+    BufferPoolExceededException, 
+    PagePinnedException {
+    return pick_victim(new PageId(INVALID_PAGE));
+  } // end pick_victim()
+  
+  
+  // Determine which frame will be replaced by pageNo, adapting the
+  // target size of T1 if pageNo is in a ghost list
+  public synchronized int pick_victim(PageId pageNo) throws 
+    BufferPoolExceededException, 
+    PagePinnedException {
+    
+    FrameDesc[] frames = mgr.frameTable();
+    int pid = pageNo.pid;
+    int target = T1;
+    boolean inB2 = false;
+    
+    // The buffer pool may have been resized
+    c = mgr.getNumBuffers();
+    p = Math.min(p, c);
+    
+    // A page evicted from T1 too early, favour recency
+    if (b1.contains(pid)) {
+      p = Math.min(c, p + Math.max(b2.size() / b1.size(), 1));
+      target = T2;
+    }
+    // A page evicted from T2 too early, favour frequency
+    else if (b2.contains(pid)) {
+      p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+      target = T2;
+      inB2 = true;
+    }
+    
+    // A frame the buffer manager holds to write or retire it stays in its
+    // list, it is released without going through the replacer
+    int frameNo = empty.claimFirst(frames);
+    int looked = empty.skipped() + 1;
+    if (frameNo < 0) {
+      
+      // REPLACE: take from T1 when it exceeds its target, from the other
+      // list if every frame of the first one is held
+      FrameList first = t2u;
+      FrameList second = t1u;
+      if ((t1u.size() > 0) && ((t2u.size() == 0) || (t1Size > p) 
+                               || (inB2 && (t1Size == p)))) {
+        first = t1u;
+        second = t2u;
+      }
+      frameNo = first.claimFirst(frames);
+      looked += first.skipped();
+      if (frameNo < 0) {
+        frameNo = second.claimFirst(frames);
+        looked += second.skipped();
+      }
+    } // end if
+    
+    if (frameNo < 0)
+      throw new BufferPoolExceededException (null, "ARC: The Buffer Pool is full.");
+    
+    // Remember the evicted page in the ghost list of its list
+    int from = list[frameNo];
+    int oldpid = frames[frameNo].pageNo.pid;
+    if (from == T1) {
+      t1Size--;
+      if (oldpid != INVALID_PAGE)
+        b1.add(oldpid);
+    }
+    else if (from == T2) {
+      t2Size--;
+      if (oldpid != INVALID_PAGE)
+        b2.add(oldpid);
+    }
+    
+    // Take the new page out of the ghost lists and keep |T1| + |B1| <= c 
+    // and |T1| + |T2| + |B1| + |B2| <= 2c
+    b1.remove(pid);
+    b2.remove(pid);
+    while ((b1.size() > 0) && (t1Size + b1.size() > c))
+      b1.removeFirst();
+    while ((b2.size() > 0) && (t1Size + t2Size + b1.size() + b2.size() > 2 * c))
+      b2.removeFirst();
+    
+    list[frameNo] = target;
+    if (target == T1)
+      t1Size++;
+    else
+      t2Size++;
+    
+    state_bit[frameNo].state = Pinned;
+    searched(looked);
+    return frameNo;
+  } // end pick_victim()
+  
+  
+  // Counts the unpinned frames from the candidate lists
+  public synchronized int getNumUnpinnedBuffers() {
+    return t1u.size() + t2u.size() + empty.size();
+  } // end getNumUnpinnedBuffers()
+  
+  
+  // Returns the replacer being used
+  public String name() { 
+    return "ARC"; 
+  } // end name()
+  
+  
+  // Displays the information from the current replacer subclass
+  public synchronized void info() {
+    super.info();
+    System.out.println ("p:\t" + p);
+    System.out.println ("T1:\t" + t1Size + " (" + t1u.size() + " unpinned)");
+    System.out.println ("T2:\t" + t2Size + " (" + t2u.size() + " unpinned)");
+    System.out.println ("B1:\t" + b1.size());
+    System.out.println ("B2:\t" + b2.size());
+    System.out.println ("empty:\t" + empty.size());
+  } // end info()
+  
+} // end ARC
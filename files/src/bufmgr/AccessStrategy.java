@@ -0,0 +1,92 @@
+/*  File AccessStrategy.java */
+
+package bufmgr;
+
+import java.util.*;
+import global.*;
+
+// An access strategy for a bulk operation. A scan, bulk write or vacuum
+// pins pages with a strategy so that its misses recycle a small ring of
+// frames instead of taking frames from the whole buffer pool, which would
+// replace every page other threads use. Pages already in the buffer pool
+// are still pinned from it.
+
+// NOTE: Each operation gets its own strategy from BufMgr.getAccessStrategy()
+// and uses it from one thread. A frame of the ring is reused on a later
+// miss if it still holds the page the ring read into it and is unpinned,
+// otherwise another frame is taken from the replacer in its place. Pins
+// with a strategy are not counted or admitted by the admission filter.
+public class AccessStrategy implements GlobalConst {
+
+  // The kinds of access
+  public enum Type {
+
+    // Pages go through the replacer like any other pin
+    NORMAL,
+
+    // A read of every page of a large file
+    SEQUENTIAL_SCAN,
+
+    // Writing many new pages
+    BULK_WRITE,
+
+    // Visiting every page of a file to clean it up
+    VACUUM
+  }
+
+  // The kind of access
+  private final Type type;
+
+  // Frames of the ring, -1 for a slot not used yet
+  private final int[] frames;
+
+  // Page the ring read into each frame
+  private final int[] pids;
+
+  // Slot of the ring used by the next miss
+  private int current;
+
+
+  // Constructor
+  AccessStrategy(Type type, int ringSize) {
+    this.type = type;
+    frames = new int[ringSize];
+    pids = new int[ringSize];
+    Arrays.fill(frames, -1);
+    Arrays.fill(pids, INVALID_PAGE);
+  } // end constructor
+
+
+  // Returns the kind of access
+  public Type getType() {
+    return type;
+  } // end getType()
+
+
+  // Returns the number of frames in the ring
+  public int getRingSize() {
+    return frames.length;
+  } // end getRingSize()
+
+
+  // Returns the frame in the current slot, -1 if the slot is not used yet
+  int frame() {
+    return frames[current];
+  } // end frame()
+
+
+  // Returns the page the ring read into the frame in the current slot
+  int pid() {
+    return pids[current];
+  } // end pid()
+
+
+  // Puts frameNo holding page pid in the current slot and moves on to the
+  // next slot
+  void put(int frameNo, int pid) {
+    frames[current] = frameNo;
+    pids[current] = pid;
+    current = (current + 1) % frames.length;
+  } // end put()
+
+} // end AccessStrategy
@@ -0,0 +1,192 @@
+/*  File BackgroundWriter.java */
+
+package bufmgr;
+
+// A background writer for the buffer pool. It writes the dirty pages in
+// the frames the replacer will pick next and clears their dirty bit, so
+// that a miss rarely has to write a victim before it can read its page.
+
+// NOTE: The writer looks at the next cleanRatio * numBuffers victims, the
+// pages stay in the buffer pool and their replacement order is unchanged.
+// A miss that finds a dirty victim wakes the writer up early.
+public class BackgroundWriter implements Runnable {
+
+  // The buffer manager whose frames are cleaned
+  private final BufMgr mgr;
+
+  // Fraction of the buffer pool kept clean ahead of the replacer
+  private final double cleanRatio;
+
+  // Milliseconds between two passes
+  private final long interval;
+
+  // The next victims, filled on each pass
+  private final int[] window;
+
+  // The writer thread, null once stopped
+  private Thread thread;
+
+  // false once the writer is asked to stop
+  private volatile boolean running;
+
+  // true if a pass was requested before the interval is over
+  private boolean wakeup;
+
+  // Pages written since the writer started
+  private volatile long pagesWritten;
+
+  // Pages that could not be written
+  private volatile long writeErrors;
+
+  // Dirty frames among the next victims when the last pass started
+  private volatile int lag;
+
+  // Pages written per second, measured over about one second
+  private volatile double writeRate;
+
+  // Start and page count of the current rate measurement
+  private long rateStart;
+  private long rateWrites;
+
+
+  // Constructor
+  BackgroundWriter(BufMgr mgr, double cleanRatio, long intervalMillis) {
+    this.mgr = mgr;
+    this.cleanRatio = cleanRatio;
+    this.interval = Math.max(1, intervalMillis);
+    window = new int[Math.max(1, (int)Math.ceil(cleanRatio * mgr.getNumBuffers()))];
+  } // end constructor
+
+
+  // Starts the writer thread
+  synchronized void start() {
+    running = true;
+    rateStart = System.nanoTime();
+    thread = new Thread(this, "BufMgr background writer");
+    thread.setDaemon(true);
+    thread.start();
+  } // end start()
+
+
+  // Stops the writer thread and waits for it to finish its pass
+  void stop() {
+    Thread t;
+    synchronized (this) {
+      running = false;
+      notifyAll();
+      t = thread;
+      thread = null;
+    }
+
+    if ((t == null) || (t == Thread.currentThread()))
+      return;
+
+    boolean interrupted = false;
+    while (t.isAlive()) {
+      try {
+        t.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  } // end stop()
+
+
+  // Asks for a pass without waiting for the interval to be over
+  synchronized void wakeUp() {
+    if (!wakeup) {
+      wakeup = true;
+      notifyAll();
+    }
+  } // end wakeUp()
+
+
+  // Cleans the next victims every interval until stopped
+  public void run() {
+    while (running) {
+      pass();
+
+      synchronized (this) {
+        if (!wakeup && running) {
+          try {
+            wait(interval);
+          } catch (InterruptedException e) {
+            running = false;
+          }
+        }
+        wakeup = false;
+      }
+    }
+  } // end run()
+
+
+  // Writes the dirty pages among the next victims
+  private void pass() {
+    FrameDesc[] frames = mgr.frameTable();
+    int n = mgr.nextVictims(window);
+
+    int dirty = 0;
+    for (int i = 0; i < n; i++) {
+      if (frames[window[i]].dirty)
+        dirty++;
+    }
+    lag = dirty;
+
+    for (int i = 0; (i < n) && running; i++) {
+      try {
+        if (mgr.cleanFrame(window[i]))
+          pagesWritten++;
+      } catch (BufMgrException e) {
+        writeErrors++;
+      }
+    }
+
+    // Update the write rate about once a second
+    long now = System.nanoTime();
+    if (now - rateStart >= 1000000000L) {
+      writeRate = (pagesWritten - rateWrites) * 1e9 / (now - rateStart);
+      rateStart = now;
+      rateWrites = pagesWritten;
+    }
+  } // end pass()
+
+
+  // Returns the fraction of the buffer pool kept clean ahead of the replacer
+  public double getCleanRatio() {
+    return cleanRatio;
+  } // end getCleanRatio()
+
+
+  // Returns the number of pages written since the writer started
+  public long getPagesWritten() {
+    return pagesWritten;
+  } // end getPagesWritten()
+
+
+  // Returns the number of pages the writer failed to write
+  public long getWriteErrors() {
+    return writeErrors;
+  } // end getWriteErrors()
+
+
+  // Returns the pages written per second
+  public double getWriteRate() {
+    return writeRate;
+  } // end getWriteRate()
+
+
+  // Returns the number of dirty frames among the next victims when the
+  // last pass started, 0 if the writer keeps up
+  public int getLag() {
+    return lag;
+  } // end getLag()
+
+
+  // Returns true while the writer thread runs
+  public boolean isRunning() {
+    return running;
+  } // end isRunning()
+
+} // end BackgroundWriter
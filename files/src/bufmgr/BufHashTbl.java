@@ -0,0 +1,221 @@
+/*  File BufHashTbl.java */
+
+package bufmgr;
+
+import java.util.*;
+import global.*;
+
+// A buffer hashtable to keep track of pages in the buffer pool. 
+// It inserts, retrieves and removes pages from the hash table. 
+
+// The Page Table is an open addressing (linear probing) table stored as two
+// parallel primitive arrays, so insert, lookup and remove never allocate.
+// NOTE: The table doubles itself once it is half full, so lookups stay O(1)
+// no matter how large the buffer pool is
+class BufHashTbl implements GlobalConst {
+    
+  // Default number of slots when the pool size is not known
+  private static final int DEFAULT_CAPACITY = 32;
+  
+  // Marks an empty slot in the keys array
+  private static final int EMPTY = INVALID_PAGE;
+  
+  // Page numbers stored in the table, EMPTY if the slot is unused
+  private int[] keys;
+  
+  // Frame numbers, values[i] is the frame holding page keys[i]
+  private int[] values;
+  
+  // keys.length - 1, used to wrap the probe sequence
+  private int mask;
+  
+  // Number of pages currently stored
+  private int size;
+  
+  // Table grows when size reaches this value
+  private int threshold;
+
+
+  // Contructor  
+  public BufHashTbl() {
+    this(DEFAULT_CAPACITY / 2);
+  } // end constructor
+  
+  
+  // Constructor sized for the expected number of pages (i.e. numBuffers)
+  public BufHashTbl(int expected) {
+    int capacity = DEFAULT_CAPACITY;
+    while (capacity < expected * 2)
+      capacity <<= 1;
+    allocate(capacity);
+  } // end constructor
+  
+
+  // Allocates an empty table with the given power of two capacity
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = new int[capacity];
+    Arrays.fill(keys, EMPTY);
+    mask = capacity - 1;
+    threshold = capacity / 2;
+    size = 0;
+  } // end allocate()
+  
+  
+  // The hash function for placement into the page table
+  // NOTE: Fibonacci hashing spreads consecutive page numbers over the table
+  private int hash(int pid) {
+    int h = pid * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & mask;
+  } // end hash()
+  
+  
+  // Returns the slot holding pid, or -1 if pid is not in the table
+  private int find(int pid) {
+    for (int i = hash(pid); keys[i] != EMPTY; i = (i + 1) & mask) {
+      if (keys[i] == pid)
+        return i;
+    }
+    return -1;
+  } // end find()
+  
+  
+  // Doubles the table and rehashes every entry
+  private void grow() {
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+    
+    allocate(oldKeys.length * 2);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY)
+        put(oldKeys[i], oldValues[i]);
+    }
+  } // end grow()
+  
+  
+  // Stores pid -> frameNo, replacing any existing mapping for pid
+  private void put(int pid, int frameNo) {
+    int i = hash(pid);
+    while (keys[i] != EMPTY && keys[i] != pid)
+      i = (i + 1) & mask;
+    if (keys[i] == EMPTY)
+      size++;
+    keys[i] = pid;
+    values[i] = frameNo;
+  } // end put()
+  
+
+  // Inserts the association between page's pageNo and frame's frameNo 
+  public boolean insert(PageId pageNo, int frameNo) {
+    return insert(pageNo.pid, frameNo);
+  } // end insert()
+  
+  
+  // Inserts the association between page number pid and frameNo
+  public boolean insert(int pid, int frameNo) {
+    
+    // INVALID_PAGE is used to mark empty slots and cannot be stored
+    if (pid == INVALID_PAGE)
+      return false;
+    
+    if (size >= threshold)
+      grow();
+    
+    put(pid, frameNo);
+    return true;
+    
+  } // end insert()
+  
+  
+  // Removes the association to the page's pageNo
+  public boolean remove(PageId pageNo) {
+    
+    // false if the pageNo is not in the Page Table, the caller reports it
+    return remove(pageNo.pid);
+  } // end remove()
+  
+  
+  // Removes the association to page number pid, returns false if the 
+  // page is not in the Page Table
+  public boolean remove(int pid) {
+      
+    // Removes INVALID_PAGE
+    if (pid == INVALID_PAGE)
+      return true;
+    
+    int i = find(pid);
+    if (i < 0)
+      return false;
+    
+    // Shift the following entries of the probe run back so that no
+    // tombstone is needed and lookups never probe past a deleted slot
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      if (keys[j] == EMPTY)
+        break;
+      
+      // Move keys[j] into the hole unless its home slot lies cyclically in (i, j]
+      int home = hash(keys[j]);
+      if ((i <= j) ? (i < home && home <= j) : (i < home || home <= j))
+        continue;
+      
+      keys[i] = keys[j];
+      values[i] = values[j];
+      i = j;
+    }
+    keys[i] = EMPTY;
+    size--;
+    
+    // The pageNo was removed from the Page Table
+    return true;
+    
+  } //end remove()
+
+
+  // Lookup the index of the page in the hashtable
+  // If the page does not exist return an INVALID_PAGE
+  public int lookup(PageId pageNo) {
+    return lookup(pageNo.pid);
+  } // end lookup()
+  
+  
+  // Lookup the frame of page number pid in the hashtable
+  // If the page does not exist return an INVALID_PAGE
+  public int lookup(int pid) {
+
+    // If the page does not exist return an INVALID_PAGE
+    if (pid == INVALID_PAGE)
+      return INVALID_PAGE;
+
+    int i = find(pid);
+    
+    // pageNo was not in the Page Table
+    if (i < 0)
+      return(INVALID_PAGE);
+    
+    return(values[i]);
+
+  } // end lookup()
+  
+  
+  // Returns the number of pages in the Page Table
+  public int size() {
+    return size;
+  } // end size()
+
+
+  // Display the contents of the entire Page Table
+  public void display() {
+    
+    System.out.println("HASH Table contents :FrameNo[PageNo]");
+    
+    // Interate through the Page Table array
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY)
+        System.out.println("Slot " + i + ":\t" + values[i] + "[" + keys[i] + "]");
+    }
+    System.out.println("");
+  } // end display()
+  
+}  // end BufHashTbl
@@ -3,329 +3,98 @@
 package bufmgr;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.lang.management.ManagementFactory;
+import javax.management.*;
 import diskmgr.*;
 import global.*;
  
 
-// A frame description class. It describes each page in the buffer
-// pool, the page number in the file, whether it is dirty or not,
-// its pin count, and the pin count change when pinning or unpinning 
-// a page.
-
-// The Buffer Table
-class FrameDesc implements GlobalConst {
-  
-  // The page within file, or INVALID_PAGE if the frame is empty. 
-  public PageId pageNo;     
-  
-  // true if altered since last write
-  public boolean dirty;     
-                         
-  // pin count 
-  public int pin_cnt;   
-
-
-  // Constructor
-  public FrameDesc() {
-    pageNo = new PageId();
-    pageNo.pid = INVALID_PAGE;
-    dirty   = false;
-    pin_cnt = 0;
-  } // end constructor
-
-
-  // getPinCount
-  public int pin_count() { 
-    return(pin_cnt); 
-  } // end pin_count()
-
-  
-  // increments pin count
-  public int pin() { 
-    return(++pin_cnt); 
-  } // end pin()
+// The buffer manager class, it allocates new pages for the
+// buffer pool, pins and unpins the frame, frees the frame 
+// page, and uses the replacement algorithm to replace the 
+// page.
 
+// NOTE: The buffer manager is thread safe. The Page Table is split into
+// stripes, each guarded by its own lock, so threads pinning pages in
+// different stripes do not contend. Pin counts are atomic and a victim is
+// claimed by the replacer before the Page Table is changed.
+// NOTE: Only the Clock replacer lets pins scale with threads, the other
+// replacers serialize every pin and unpin on their own monitor (see
+// Replacer).
+ 
+public class BufMgr implements GlobalConst {
   
-  // decrements pin count
-  public int unpin() {
-    pin_cnt = (pin_cnt <= 0) ? 0 : pin_cnt - 1;
-    return(pin_cnt);
-  } // end unpin()
-
-} // end FrameDesc
-
-
-
-
-// A buffer hashtable entry description class. It describes 
-// each entry for the buffer hash table, the page number and 
-// frame number for that page, the pointer points to the next
-// hash table entry.
-
-// An Entry node in the page table linked list
-class BufHTEntry {
-
-  // The next entry in this hashtable bucket.
-  public BufHTEntry next;     
+  // The Page Table split into stripes, a page lives in stripe hashStripe(pid)
+  // NOTE: each stripe is also the lock guarding its own entries
+  private BufHashTbl[] hashTable; 
   
-  // Page number 
-  public PageId pageNo = new PageId(); 
+  // Number of stripes - 1, the number of stripes is a power of two
+  private int stripeMask;
   
-  // The buffer pool frame the page is stored in
-  public int frameNo;  
-
-} // end BufHTEntry
-
-
-
-
-// A buffer hashtable to keep track of pages in the buffer pool. 
-// It inserts, retrieves and removes pages from the h ash table. 
-
-// The Page Table array containing the head of the entry linked list
-class BufHashTbl implements GlobalConst {
-    
-  // Size of the hashtable
-  // NOTE: Using a non-prime number as the hash table size is not optimal 
-  private static final int HTSIZE = 20;   
-  
-  // Page table array
-  private BufHTEntry ht[] = new BufHTEntry[HTSIZE];       
-
-
-  // Contructor  
-  public BufHashTbl() {
-    // initializes all entries in the Page Table to null
-    for (int i=0; i < HTSIZE; i++)
-      ht[i] = null;
-  } // end constructor
-
+  // Number of frames in the Buffer Pool
+  // NOTE: volatile as resize() changes it while other threads use the pool
+  private volatile int  numBuffers;  
   
-  // The hash function for placement into the page table
-  // NOTE: This is not a very effective hash function
-  private int hash(PageId pageNo) {
-    return (pageNo.pid % HTSIZE);
-  } // end hash()
+  // Number of frames the Buffer Pool can grow to, the Buffer Table and the
+  // replacer are sized for this many frames. Frames from numBuffers up
+  // have no page memory and stay pinned so that they are never picked.
+  private int maxBuffers;
   
-
-  // Inserts the association between page's pageNo and frame's frameNo 
-  public boolean insert(PageId pageNo, int frameNo) {
-      
-    // Instantiate a new entry
-    BufHTEntry entry = new BufHTEntry();
-      
-    // Set entry properties
-    // NOTE: this should be part of the constructor or through a setter method
-    entry.pageNo.pid = pageNo.pid;
-    entry.frameNo = frameNo;
-      
-    // Determine the pageNo's bucket using the hash function
-    int index = hash(pageNo);
-      
-    // Insert entry into top of linked list for a time complexity of O(1)
-    entry.next = ht[index];
-    ht[index] = entry;
-      
-    return true;
-    
-  } // end insert()
+  // Held by resize() so that one resize runs at a time
+  private final Object resizing = new Object();
   
+  // Longest a resize() waits for the frames it retires to be unpinned
+  private static final long RESIZE_TIMEOUT = 10000;
   
-  // Removes the association to the page's pageNo
-  public boolean remove(PageId pageNo) {
-      
-    // Instantiate current and previous entries
-    BufHTEntry cur, prev = null;
-      
-    // Removes INVALID_PAGE
-    if (pageNo.pid == INVALID_PAGE)
-      return true;
-    
-    // Determine the pageNo's bucket using the hash function  
-    int index = hash(pageNo);
-    
-    // Iterate through the Page Table linked list until the pageNo is found
-    // or the end of the linked list is found
-    for (cur = ht[index]; cur != null; cur = cur.next) {
-      if (cur.pageNo.pid == pageNo.pid)
-        break;
-      prev = cur;
-    }
-    
-    // If the current entry is not null, remove the current entry
-    if (cur != null) {
-      // If the there is more than one entry in this bucket
-      if (prev != null)
-        prev.next = cur.next;
-      // There is only one entry in this bucket 
-      else
-        ht[index] = cur.next;
-    // The current entry is null meaning the pageNo is not in the Page Table
-    } else {
-      System.out.println ("ERROR: Page " + pageNo.pid + " was not found in hashtable.");
-      // The pageNo was not removed from the Page Table
-      return false;
-    }
-    
-    // The pageNo was removed from the Page Table
-    return true;
-    
-  } //end remove()
-
-
-  // Lookup the index of the page in the hashtable
-  // If the page does not exist return an INVALID_PAGE
-  public int lookup(PageId pageNo) {
-
-    // Instantiate a new entry
-    BufHTEntry entry;
-    int index;
-
-    // If the page does not exist return an INVALID_PAGE
-    if (pageNo.pid == INVALID_PAGE)
-      return INVALID_PAGE;
-
-    // Determine which bucket in Page Table array that the pageNo would be in
-    index = hash(pageNo);
-
-    // Iterate through Page Table linked list searching for the pageNo specified
-    // If found, return index in array, else return an INVALID_PAGE
-    for (entry = ht[index]; entry != null; entry = entry.next) {
-      if (entry.pageNo.pid == pageNo.pid) {
-        return(entry.frameNo);
-      }
-    }
-
-    // pageNo was not in the Page Table
-    return(INVALID_PAGE);
-
-  } // end lookup()
-
-
-  // Display the contents of the entire Page Table (array and linked lists)
-  public void display() {
-    
-    // Instantiate an Entry
-    BufHTEntry cur;
-    
-    System.out.println("HASH Table contents :FrameNo[PageNo]");
-    
-    // Interate through the Page Table array
-    for (int i = 0; i < HTSIZE; i++) {
-      System.out.println("Array Index: " + i);
-      if (ht[i] != null) {
-        // Iterate through the linked list in the current bucket
-        for (cur = ht[i]; cur != null; cur = cur.next) 
-          System.out.println("\t" + cur.frameNo + "[" + cur.pageNo.pid + "]");
-      } else {
-        System.out.println("\t EMPTY");
-      }
-    }
-    System.out.println("");
-  } // end display()
+  // Longest a shrink waits for an unpin before it looks at the frames
+  // again, a frame latched for a write is released without one
+  private static final long RETIRE_POLL = 10;
   
-}  // end BufHasTbl
-
-
-
-
-// A clock algorithm for buffer pool replacement policy. 
-// It picks up the frame in the buffer pool to be replaced. 
-// This is the default replacement policy.
-
-// NOTE: Storing the state in the seperate replacer class decouples the replacer
-// from the buffer manager and enables the program to change replacers on the fly 
-class Clock extends Replacer {
+  // Frames from retireFrom up are being retired, their last unpin bumps
+  // retireSignals and wakes the shrink waiting on retireWait
+  private volatile int retireFrom = Integer.MAX_VALUE;
+  private final Object retireWait = new Object();
+  private int retireSignals;
   
-  // Constructor
-  // NOTE: javamgr is stored as the public internal variable mgr
-  public Clock(BufMgr javamgr) {
-      super(javamgr);
-  }
+  // Number of shrinks that timed out or were interrupted before every
+  // frame was retired
+  private volatile long shrinkFailures;
   
-  // Determine which frame will be replaced
-  public int pick_victim() throws 
-    BufferPoolExceededException, 
-    PagePinnedException {
-    
-    // The current frame in the Buffer Table
-    FrameDesc frame;
-      
-    // num is used to determine how many times we have iterated through the state array
-    int num = 0;
-      
-    // numBuffers is the size of the state array
-    int numBuffers = mgr.getNumBuffers();
-      
-    // Mod by the numBuffers to ensure the head (aka clock hand) is within the array 
-    // NOTE: head is a member variable of replacer class
-    head = ( head + 1) % numBuffers;
-      
-    // Iterate through the state array to find an available frame in the buffer pool
-    while ( state_bit[head].state != Available ) {
-        
-      // On first pass, set all referenced states to available
-      if ( state_bit[head].state == Referenced )
-        state_bit[head].state = Available;
-  
-      // If you have iterated through the array twice without an available frame
-      // then there are no available frames in the buffer pool. 
-      if ( num == numBuffers * 2 ) 
-        throw new BufferPoolExceededException (null, "CLOCK: The Buffer Pool is full.");
-        
-      // Increment num
-      num++;
-        
-      // Move to the next position in the array
-      head = (head+1) % numBuffers;
-    } // end while
-    
-    // Set the current frame
-    frame = (mgr.frameTable())[head];
-    
-    // Confirm the page is not pinned
-    if (frame.pin_count() != 0) {
-      throw new PagePinnedException (null, "CLOCK: Current page is still pinned");
-    } // end if
-      
-    // Pin the current frame to ensure other processes don't try to use it
-    state_bit[head].state = Pinned;        
-    frame.pin();    
-      
-    return head;
-  } // end pick_victim()
+  // The Buffer Pool stored as a two-dimensional array [frameNo][pageContents]
+  // NOTE: Must be byte array due to other methods within MINIBASE
+  // NOTE: null in the off-heap mode, bufPool[i] is null for a frame not in use
+  private byte[][] bufPool;  
   
-  // Returns the replacer being used
-  public final String name() { 
-    return "Clock"; 
-  } // end name()
+  // Largest direct buffer allocated for the off-heap arena
+  private static final int ARENA_CHUNK = 1 << 30;
   
-  // Displays the information from the current replacer subclass
-  public void info() {
-    super.info();
-    System.out.println ("head:\t" + head);
-  } // end info()
+  // Size of an arena chunk when the pool can be resized, so that a chunk
+  // is allocated when its first frame is added and freed with its frames
+  private static final int RESIZE_CHUNK = 1 << 24;
   
-} // end of Clock
-
-
-// The buffer manager class, it allocates new pages for the
-// buffer pool, pins and unpins the frame, frees the frame 
-// page, and uses the replacement algorithm to replace the 
-// page.
- 
-public class BufMgr implements GlobalConst {
+  // The off-heap Buffer Pool, frame i is at (i % framesPerChunk) * MAX_SPACE
+  // in arena[i / framesPerChunk]. null unless the pool is off-heap, a chunk
+  // is null while none of its frames are in use.
+  // NOTE: a direct buffer holds at most 2GB so a large arena is split in chunks
+  private ByteBuffer[] arena;
   
-  // Instantiates the Page Table
-  private BufHashTbl hashTable = new BufHashTbl(); 
+  // Number of frames in each arena chunk
+  private int framesPerChunk;
   
-  // Number of frames in the Buffer Pool
-  private int  numBuffers;  
+  // Heap copy of each pinned off-heap frame handed out to MINIBASE, which
+  // only works on byte arrays. The copy is taken when the frame is first
+  // pinned and written back to the arena when it is last unpinned, unless
+  // the frame is clean.
+  // NOTE: the copy is 4KB of heap per pinned frame, so the pool is only
+  // off-heap while its frames are unpinned
+  private byte[][] staged;
   
-  // The Buffer Pool stored as a two-dimensional array [frameNo][pageContents]
-  // NOTE: Must be byte array due to other methods within MINIBASE
-  private byte[][] bufPool;  
+  // Heap copies not in use, so that pinning does not allocate
+  private ArrayDeque<byte[]> stagingPool;
 
   // The Buffer Table stored as an array where size = numBuffers
   // NOTE: frmeTable is misspelled to allow for the frameTable() method
@@ -335,21 +104,108 @@ public class BufMgr implements GlobalConst {
   
   // The replacer algorithm
   private Replacer replacer;
+  
+  // Largest run of contiguous pages written with one call when flushing
+  private static final int FLUSH_RUN = 64;
+  
+  // Most threads writing the runs of one flush, the calling thread included
+  private static final int MAX_FLUSH_THREADS = 8;
+  
+  // Seconds an idle flush thread is kept before it ends
+  private static final long FLUSH_KEEP_ALIVE = 30;
+  
+  // The threads that help the flushes write their runs
+  // NOTE: a thread is only started by a flush with more than one thread
+  // and ends once idle for FLUSH_KEEP_ALIVE seconds, so an unused buffer
+  // manager holds none
+  private final ThreadPoolExecutor flushPool = newFlushPool();
+  
+  // The admission filter consulted on a miss, null if disabled
+  private TinyLFU admission;
+  
+  // Ring size of each kind of access strategy, by Type.ordinal()
+  private int[] ringSizes = { 0, 16, 32, 16 };
+  
+  // The background writer, null unless started
+  private volatile BackgroundWriter writer;
+  
+  // The sequential read-ahead, null if disabled
+  private volatile ReadAhead readAhead;
+  
+  // Shrinks the Buffer Pool when the heap runs short, null unless started
+  private MemoryPressureListener pressure;
+  
+  // Records the page accesses to a file, null unless started
+  private volatile TraceRecorder trace;
+  
+  // Counters and histograms of the buffer manager
+  private final BufMgrMetrics metrics = new BufMgrMetrics(this);
+  
+  // Name the metrics are registered under with JMX, null if they are not
+  private ObjectName mbeanName;
 
 
   // constructor
   public BufMgr( int numbufs, String replacerArg ) {
+    this(numbufs, replacerArg, 1);
+  } // end constructor
+  
+  
+  // Constructor for the concurrent mode, concurrencyLevel is the number of
+  // threads expected to use the buffer manager at the same time
+  // NOTE: a concurrencyLevel of 1 uses a single Page Table stripe
+  public BufMgr( int numbufs, String replacerArg, int concurrencyLevel ) {
+    this(numbufs, replacerArg, concurrencyLevel, false);
+  } // end constructor
+  
+  
+  // Constructor for the off-heap mode, if offHeap is true the frames are
+  // slices of one direct memory arena instead of one byte array each, so the
+  // garbage collector does not have to trace or copy the Buffer Pool
+  public BufMgr( int numbufs, String replacerArg, int concurrencyLevel, boolean offHeap ) {
+    this(numbufs, replacerArg, concurrencyLevel, offHeap, numbufs);
+  } // end constructor
+  
+  
+  // Constructor for a resizable Buffer Pool, which starts with numbufs
+  // frames and can be grown by resize() up to maxBuffers frames
+  public BufMgr( int numbufs, String replacerArg, int concurrencyLevel, boolean offHeap, int maxBuffers ) {
+    
+    if ((numbufs < 1) || (maxBuffers < numbufs))
+      throw new IllegalArgumentException("BUFMGR: bad number of buffers");
     
     numBuffers = numbufs;  
-    frmeTable = new FrameDesc[numBuffers];
-    bufPool = new byte[numBuffers][MAX_SPACE];
-    frmeTable = new FrameDesc[numBuffers];
+    this.maxBuffers = maxBuffers;
+    frmeTable = new FrameDesc[maxBuffers];
+    if (offHeap)
+      allocateArena();
+    else {
+      bufPool = new byte[maxBuffers][];
+      for (int i = 0; i < numBuffers; i++)
+        bufPool[i] = new byte[MAX_SPACE];
+    }
     
-    // Initialize the Buffer Table with empty frame descriptions
-    for (int i = 0; i < numBuffers; i++)
+    // Use a few stripes per thread so that two threads rarely share one
+    int stripes = 1;
+    if (concurrencyLevel > 1) {
+      while (stripes < concurrencyLevel * 4)
+        stripes <<= 1;
+    }
+    stripeMask = stripes - 1;
+    hashTable = new BufHashTbl[stripes];
+    for (int i = 0; i < stripes; i++)
+      hashTable[i] = new BufHashTbl(numBuffers / stripes + 1);
+    
+    // Initialize the Buffer Table with empty frame descriptions, the frames
+    // not in use yet are held by a pin
+    for (int i = 0; i < maxBuffers; i++) {
       frmeTable[i] = new FrameDesc();
+      if (i >= numBuffers)
+        frmeTable[i].pin();
+    }
     
-    replacer = new Clock(this);
+    // Build the replacement policy named by replacerArg
+    replacer = ReplacerRegistry.create(replacerArg, this);
     
     // You must setBufferManager or the state array is not initialized
     // NOTE: This seems redundant and should be part of the replacer constructor
@@ -358,6 +214,99 @@ public class BufMgr implements GlobalConst {
   } // end constructor
   
   
+  // Allocates the off-heap Buffer Pool
+  private void allocateArena() {
+    framesPerChunk = ((maxBuffers > numBuffers) ? RESIZE_CHUNK : ARENA_CHUNK) / MAX_SPACE;
+    int chunks = (maxBuffers + framesPerChunk - 1) / framesPerChunk;
+    arena = new ByteBuffer[chunks];
+    for (int i = 0; i * framesPerChunk < numBuffers; i++)
+      allocateChunk(i);
+    staged = new byte[maxBuffers][];
+    stagingPool = new ArrayDeque<byte[]>();
+  } // end allocateArena()
+  
+  
+  // Allocates arena chunk i, which holds the frames i * framesPerChunk up
+  // to at most maxBuffers
+  private void allocateChunk(int i) {
+    int frames = Math.min(framesPerChunk, maxBuffers - i * framesPerChunk);
+    arena[i] = ByteBuffer.allocateDirect(frames * MAX_SPACE);
+  } // end allocateChunk()
+  
+  
+  // Returns true if the Buffer Pool is off-heap
+  public boolean isOffHeap() {
+    return arena != null;
+  } // end isOffHeap()
+  
+  
+  // Returns the page used to read or write the frame from disk
+  // NOTE: an off-heap page wraps the frame memory so I/O goes straight into it
+  private Page framePage(int frameNo) {
+    if (arena == null)
+      return new Page(bufPool[frameNo]);
+    
+    ByteBuffer chunk = arena[frameNo / framesPerChunk];
+    return new Page(chunk.slice((frameNo % framesPerChunk) * MAX_SPACE, MAX_SPACE));
+  } // end framePage()
+  
+  
+  // Returns the byte array handed out for the pinned frame
+  private byte[] pageData(int frameNo) {
+    if (arena == null)
+      return bufPool[frameNo];
+    
+    FrameDesc frame = frmeTable[frameNo];
+    synchronized (frame) {
+      byte[] data = staged[frameNo];
+      if (data == null) {
+        synchronized (stagingPool) {
+          data = stagingPool.poll();
+        }
+        if (data == null)
+          data = new byte[MAX_SPACE];
+        arena[frameNo / framesPerChunk].get((frameNo % framesPerChunk) * MAX_SPACE, data);
+        staged[frameNo] = data;
+      } // end if
+      return data;
+    } // end synchronized
+  } // end pageData()
+  
+  
+  // Drops the heap copy of an off-heap frame, writing it back to the arena
+  // first if writeBack is true
+  // NOTE: the caller must hold the frame's lock
+  private void unstage(int frameNo, boolean writeBack) {
+    byte[] data = staged[frameNo];
+    if (data == null)
+      return;
+    
+    if (writeBack)
+      arena[frameNo / framesPerChunk].put((frameNo % framesPerChunk) * MAX_SPACE, data);
+    staged[frameNo] = null;
+    synchronized (stagingPool) {
+      stagingPool.push(data);
+    }
+  } // end unstage()
+  
+  
+  // Returns the page used to write a claimed victim frame to disk
+  // NOTE: a thread that pinned the page after the frame was claimed sees a
+  // pin count above 1 when it unpins and leaves its heap copy behind. The
+  // copy is written back to the arena but kept, if the page was dirtied
+  // again meanwhile the victim is given up and the copy is written again.
+  private Page victimPage(int frameNo) {
+    if (arena != null) {
+      synchronized (frmeTable[frameNo]) {
+        byte[] data = staged[frameNo];
+        if (data != null)
+          arena[frameNo / framesPerChunk].put((frameNo % framesPerChunk) * MAX_SPACE, data);
+      }
+    } // end if
+    return framePage(frameNo);
+  } // end victimPage()
+  
+  
   // Returns the number of frames in the buffer pool
 
   public int getNumBuffers() { 
@@ -365,16 +314,483 @@ public class BufMgr implements GlobalConst {
   } // end getNumBuffers()
   
   
+  // Returns the number of frames the buffer pool can be resized to
+  public int getMaxBuffers() {
+    return maxBuffers;
+  } // end getMaxBuffers()
+  
+  
+  // Changes the number of frames in the Buffer Pool to newNumBuffers, from
+  // 1 up to getMaxBuffers(), while other threads go on using the pool.
+  // Growing adds empty frames. Shrinking retires the frames from
+  // newNumBuffers up: each is taken once it is unpinned, its page is
+  // written if dirty and dropped from the Page Table, then its memory is
+  // freed. If a frame is still pinned after RESIZE_TIMEOUT milliseconds
+  // or the thread is interrupted while waiting, the pool keeps the frames
+  // not retired yet.
+  // Returns the number of frames in the pool.
+  public int resize(int newNumBuffers) throws
+    BufMgrException {
+  
+    return resize(newNumBuffers, RESIZE_TIMEOUT);
+  } // end resize()
+  
+  
+  // Same as resize(newNumBuffers), waiting at most timeoutMillis
+  // milliseconds for the pinned frames to be unpinned when shrinking.
+  // A shrink that stops short is counted in getShrinkFailures().
+  // Returns the number of frames in the pool.
+  public int resize(int newNumBuffers, long timeoutMillis) throws
+    BufMgrException {
+  
+    if ((newNumBuffers < 1) || (newNumBuffers > maxBuffers))
+      throw new IllegalArgumentException("BUFMGR: number of buffers must be in [1, " + maxBuffers + "]");
+    if (timeoutMillis <= 0)
+      throw new IllegalArgumentException("BUFMGR: timeout must be positive");
+  
+    synchronized (resizing) {
+      int oldNumBuffers = numBuffers;
+      if (newNumBuffers > oldNumBuffers)
+        grow(oldNumBuffers, newNumBuffers);
+      else if (newNumBuffers < oldNumBuffers)
+        shrink(oldNumBuffers, newNumBuffers, timeoutMillis);
+      return numBuffers;
+    } // end synchronized
+  } // end resize()
+  
+  
+  // Returns the number of shrinks that timed out or were interrupted
+  // before every frame was retired
+  public long getShrinkFailures() {
+    return shrinkFailures;
+  } // end getShrinkFailures()
+  
+  
+  // Adds the frames from up to to - 1 to the Buffer Pool
+  // NOTE: the frames are pinned until the replacer frees them, so none is
+  // picked before its memory is allocated
+  private void grow(int from, int to) throws
+    BufMgrException {
+  
+    for (int i = from; i < to; i++)
+      allocateFrame(i);
+    numBuffers = to;
+  
+    for (int i = from; i < to; i++)
+      addFrame(i);
+  } // end grow()
+  
+  
+  // Retires the frames to up to from - 1 from the Buffer Pool, they are
+  // looked at again each time one of them is unpinned until every one of
+  // them has been retired or timeoutMillis milliseconds have passed
+  private void shrink(int from, int to, long timeoutMillis) throws
+    BufMgrException {
+  
+    // Clock and the frame loops stop at the new size from now on
+    numBuffers = to;
+    retireFrom = to;
+  
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    boolean[] retired = new boolean[from - to];
+    int left = retired.length;
+    try {
+      while (left > 0) {
+        int signals;
+        synchronized (retireWait) {
+          signals = retireSignals;
+        }
+  
+        for (int i = from - 1; i >= to; i--) {
+          if (!retired[i - to] && retireFrame(i)) {
+            retired[i - to] = true;
+            left--;
+          }
+        } // end for
+        if (left == 0)
+          break;
+  
+        // Wait for a frame being retired to be unpinned
+        long wait = deadline - System.nanoTime();
+        if (wait <= 0)
+          break;
+        synchronized (retireWait) {
+          if (retireSignals == signals)
+            TimeUnit.NANOSECONDS.timedWait(retireWait,
+                                           Math.min(wait, TimeUnit.MILLISECONDS.toNanos(RETIRE_POLL)));
+        }
+      } // end while
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      retireFrom = Integer.MAX_VALUE;
+      if (left > 0)
+        shrinkFailures++;
+  
+      // Give back the retired frames below the highest one still in use
+      int top = from;
+      while ((top > to) && retired[top - 1 - to])
+        top--;
+      for (int i = to; i < top; i++) {
+        if (retired[i - to])
+          addFrame(i);
+      }
+      numBuffers = top;
+      releaseFrames(top, from);
+    } // end try
+  } // end shrink()
+  
+  
+  // Takes frameNo out of the Buffer Pool, writing its page first if it is
+  // dirty. Returns false if the frame is pinned.
+  // NOTE: the frame is claimed so that no other thread can pin or pick it,
+  // the stripe lock then waits for any thread still writing the page. The
+  // claim bypasses the replacer, which keeps the held frame in its list
+  // or heap and passes over it. A frame that is not retired is released
+  // with unpinFrame(), the replacer then sees it unpinned as usual, and
+  // a retired one is taken out with replacer.retire().
+  private boolean retireFrame(int frameNo) throws
+    BufMgrException {
+  
+    FrameDesc frame = frmeTable[frameNo];
+    if ((frame.pin_count() != 0) || (frame.claim() == false))
+      return false;
+  
+    try {
+      int pid = frame.pageNo.pid;
+      if (pid != INVALID_PAGE) {
+        if (frame.dirty) {
+          frame.dirty = false;
+          try {
+            write_page(new PageId(pid), victimPage(frameNo));
+          } catch (BufMgrException e) {
+            frame.dirty = true;
+            unpinFrame(frameNo);
+            throw e;
+          } // end try
+        } // end if
+  
+        BufHashTbl stripe = hashStripe(pid);
+        synchronized (stripe) {
+  
+          // The page was pinned or dirtied again before the lock was taken
+          if ((frame.pin_count() != 1) || frame.dirty || (frame.pageNo.pid != pid)) {
+            unpinFrame(frameNo);
+            return false;
+          }
+  
+          stripe.remove(pid);
+          if (arena != null) {
+            synchronized (frame) {
+              unstage(frameNo, false);
+            }
+          }
+          frame.pageNo.pid = INVALID_PAGE;
+          frame.probation = false;
+        } // end synchronized
+      } // end if
+    } catch (InvalidFrameNumberException | PageUnpinnedException e) {
+      throw new BufMgrException(e, "BUFMGR: Unable to release frame.");
+    } // end try
+  
+    replacer.retire(frameNo);
+    return true;
+  } // end retireFrame()
+  
+  
+  // Hands a frame held by resize() to the replacer as an empty frame
+  private void addFrame(int frameNo) throws
+    BufMgrException {
+  
+    try {
+      replacer.free(frameNo);
+    } catch (PagePinnedException e) {
+      throw new BufMgrException(e, "BUFMGR: Unable to add frame.");
+    } // end try
+  } // end addFrame()
+  
+  
+  // Allocates the memory of a frame being added to the Buffer Pool
+  private void allocateFrame(int frameNo) {
+    if (arena == null)
+      bufPool[frameNo] = new byte[MAX_SPACE];
+    else if (arena[frameNo / framesPerChunk] == null)
+      allocateChunk(frameNo / framesPerChunk);
+  } // end allocateFrame()
+  
+  
+  // Frees the memory of the retired frames from up to to - 1, an arena
+  // chunk is freed once all of its frames are retired
+  private void releaseFrames(int from, int to) {
+    if (arena == null) {
+      for (int i = from; i < to; i++)
+        bufPool[i] = null;
+      return;
+    }
+  
+    for (int c = (from + framesPerChunk - 1) / framesPerChunk; c * framesPerChunk < to; c++)
+      arena[c] = null;
+  } // end releaseFrames()
+  
+  
   // Returns the number of unpinned buffers from the replacer
   public int getNumUnpinnedBuffers() {
     return replacer.getNumUnpinnedBuffers();
   } // end getNumUnpinnedBuffers()
   
+  
+  // Returns the name of the replacer in use
+  public String getReplacerName() {
+    return replacer.name();
+  } // end getReplacerName()
+  
+  
+  // Returns the counters and histograms of the buffer manager, snapshot()
+  // reads them all
+  public BufMgrMetrics getMetrics() {
+    return metrics;
+  } // end getMetrics()
+  
+  
+  // Publishes the metrics through JMX as bufmgr:type=BufMgr,name=<name>,
+  // replacing any name they were registered under before
+  public synchronized ObjectName registerMBean(String name) throws 
+    BufMgrException {
+    
+    unregisterMBean();
+    try {
+      ObjectName on = new ObjectName("bufmgr:type=BufMgr,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, on);
+      mbeanName = on;
+      return on;
+    } catch (JMException e) {
+      throw new BufMgrException(e, "BUFMGR: Unable to register the MBean.");
+    } // end try
+  } // end registerMBean()
+  
+  
+  // Takes the metrics out of JMX
+  public synchronized void unregisterMBean() throws 
+    BufMgrException {
+    
+    if (mbeanName == null)
+      return;
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+    } catch (InstanceNotFoundException e) {
+    } catch (JMException e) {
+      throw new BufMgrException(e, "BUFMGR: Unable to unregister the MBean.");
+    } finally {
+      mbeanName = null;
+    } // end try
+  } // end unregisterMBean()
+  
+  // Enables or disables the W-TinyLFU admission filter. With the filter
+  // a page missed is read into the victim frame only if it is estimated
+  // to be more popular than the victim's page, otherwise the victim is
+  // kept and the page is read into a frame of the filter's window.
+  // NOTE: should be called before the buffer manager is used
+  public void setAdmissionFilter(boolean enabled) {
+    admission = enabled ? new TinyLFU(numBuffers) : null;
+  } // end setAdmissionFilter()
+  
+  
+  // Starts a background writer that keeps the next cleanRatio * numBuffers
+  // victims clean, looking at them every intervalMillis milliseconds.
+  // A writer already running is stopped first.
+  public synchronized BackgroundWriter startBackgroundWriter(double cleanRatio, long intervalMillis) {
+    if ((cleanRatio <= 0) || (cleanRatio > 1))
+      throw new IllegalArgumentException("BUFMGR: clean ratio must be in (0, 1]");
+    
+    stopBackgroundWriter();
+    BackgroundWriter w = new BackgroundWriter(this, cleanRatio, intervalMillis);
+    w.start();
+    writer = w;
+    return w;
+  } // end startBackgroundWriter()
+  
+  
+  // Stops the background writer if it runs
+  public synchronized void stopBackgroundWriter() {
+    BackgroundWriter w = writer;
+    writer = null;
+    if (w != null)
+      w.stop();
+  } // end stopBackgroundWriter()
+  
+  
+  // Shrinks the Buffer Pool by a quarter, down to minBuffers frames, each
+  // time a heap memory pool is still over threshold of its maximum size
+  // after a garbage collection. A listener already started is stopped first.
+  public synchronized MemoryPressureListener startMemoryPressureResize(double threshold, int minBuffers) {
+    if ((threshold <= 0) || (threshold >= 1))
+      throw new IllegalArgumentException("BUFMGR: threshold must be in (0, 1)");
+    
+    stopMemoryPressureResize();
+    pressure = new MemoryPressureListener(this, threshold, minBuffers);
+    pressure.start();
+    return pressure;
+  } // end startMemoryPressureResize()
+  
+  
+  // Stops shrinking the Buffer Pool on memory pressure
+  public synchronized void stopMemoryPressureResize() {
+    if (pressure != null)
+      pressure.stop();
+    pressure = null;
+  } // end stopMemoryPressureResize()
+  
+  
+  // Sets the number of frames in the ring of the strategies of a kind
+  // handed out from now on
+  public synchronized void setRingSize(AccessStrategy.Type type, int frames) {
+    if ((type != AccessStrategy.Type.NORMAL) && (frames < 1))
+      throw new IllegalArgumentException("BUFMGR: a ring needs at least one frame");
+    ringSizes[type.ordinal()] = frames;
+  } // end setRingSize()
+  
+  
+  // Returns a new access strategy of the given kind for one operation
+  // NOTE: a ring is kept to an eighth of the buffer pool
+  public synchronized AccessStrategy getAccessStrategy(AccessStrategy.Type type) {
+    int size = 0;
+    if (type != AccessStrategy.Type.NORMAL)
+      size = Math.min(ringSizes[type.ordinal()], Math.max(1, numBuffers / 8));
+    return new AccessStrategy(type, size);
+  } // end getAccessStrategy()
+  
+  
+  // Enables read-ahead of up to maxWindow pages for sequential page
+  // accesses, or disables it if maxWindow is 0
+  // NOTE: the window is kept to a quarter of the buffer pool so that the
+  // frames being read ahead never starve the threads pinning pages
+  public synchronized void setReadAhead(int maxWindow) {
+    ReadAhead ra = readAhead;
+    readAhead = null;
+    if (ra != null)
+      ra.stop();
+    
+    if (maxWindow > 0) {
+      ra = new ReadAhead(this, Math.min(maxWindow, Math.max(1, numBuffers / 4)));
+      ra.start();
+      readAhead = ra;
+    } // end if
+  } // end setReadAhead()
+  
+  
+  // Returns the read-ahead, null if disabled
+  public ReadAhead getReadAhead() {
+    return readAhead;
+  } // end getReadAhead()
+  
+  
+  // Returns the background writer, null unless started
+  public BackgroundWriter getBackgroundWriter() {
+    return writer;
+  } // end getBackgroundWriter()
+  
+  
+  // Starts recording every pin, unpin and free to the file path through a
+  // ring of capacity records, see TraceRecorder. A trace already being
+  // recorded is stopped first.
+  public synchronized TraceRecorder startTrace(String path, int capacity) throws 
+    BufMgrException {
+    
+    stopTrace();
+    TraceRecorder t;
+    try {
+      t = new TraceRecorder(path, capacity);
+    } catch (IOException e) {
+      throw new BufMgrException (e, "BUFMGR: Unable to create trace file " + path);
+    } // end try
+    t.start();
+    trace = t;
+    return t;
+  } // end startTrace()
+  
+  
+  // Stops recording the page accesses, once the records made so far are
+  // in the file
+  public synchronized void stopTrace() {
+    TraceRecorder t = trace;
+    trace = null;
+    if (t != null)
+      t.stop();
+  } // end stopTrace()
+  
+  
+  // Returns the trace recorder, null unless started
+  public TraceRecorder getTrace() {
+    return trace;
+  } // end getTrace()
+  
+  
+  // Fills frames with the next victims of the replacer, returns their number
+  int nextVictims(int[] frames) {
+    return replacer.next_victims(frames);
+  } // end nextVictims()
+  
+  
+  // Writes the page in an unpinned dirty frame and clears its dirty bit,
+  // the page stays in the buffer pool. Returns false if the frame is
+  // pinned, clean or empty.
+  // NOTE: the page is latched with startIO() under its stripe lock and
+  // written once the lock is released. A thread that pins the page waits
+  // for the write as for a read, and so does a thread that replaces it
+  // (see installFrame()), so the page does not change while it is written.
+  boolean cleanFrame(int frameNo) throws 
+    BufMgrException {
+    
+    FrameDesc frame = frmeTable[frameNo];
+    int pid = frame.pageNo.pid;
+    if ((pid == INVALID_PAGE) || (frame.dirty == false) || (frame.pin_count() != 0))
+      return false;
+    
+    BufHashTbl stripe = hashStripe(pid);
+    synchronized (stripe) {
+      
+      // The page was pinned, replaced or cleaned before the lock was taken
+      if ((frame.pageNo.pid != pid) || (frame.dirty == false) || (frame.claim() == false))
+        return false;
+      
+      // The frame is claimed so that no replacer takes it before it is
+      // latched, nobody else can pin it while the stripe is locked
+      frame.dirty = false;
+      frame.startIO();
+      frame.unpin();
+    } // end synchronized
+    
+    try {
+      write_page(new PageId(pid), framePage(frameNo));
+    } catch (BufMgrException e) {
+      frame.dirty = true;
+      throw e;
+    } finally {
+      frame.endIO();
+    } // end try
+    
+    return true;
+  } // end cleanFrame()
+  
+  
   // returns the private member variable frmeTable
   // NOTE: should be getFrameTable()
   public FrameDesc[] frameTable() { 
     return frmeTable; 
   } // end frameTable()
+  
+  
+  // Returns the index of the Page Table stripe that holds the page
+  private int stripeIndex(int pid) {
+    int h = pid * 0x9E3779B9;
+    return (h >>> 16) & stripeMask;
+  } // end stripeIndex()
+  
+  
+  // Returns the Page Table stripe that holds the page
+  private BufHashTbl hashStripe(int pid) {
+    return hashTable[stripeIndex(pid)];
+  } // end hashStripe()
 
 
   // Check if this page is in buffer pool, otherwise
@@ -388,108 +804,771 @@ public class BufMgr implements GlobalConst {
     HashOperationException, 
     PageUnpinnedException, 
     InvalidFrameNumberException, 
-    PageNotReadException, 
-    BufferPoolExceededException, 
-    PagePinnedException, 
-    BufMgrException,
-    IOException {
-       
-    // Current frame descriptor index
-    int frameNo = hashTable.lookup(pin_pgid);
+    PageNotReadException, 
+    BufferPoolExceededException, 
+    PagePinnedException, 
+    BufMgrException,
+    IOException {
+    
+    // Current frame descriptor index
+    int frameNo;
+    
+    // The page in the victim frame
+    int victimPid;
+    
+    TraceRecorder t = trace;
+    if (t != null)
+      t.record(TraceRecorder.PIN, pin_pgid.pid, emptyPage ? TraceRecorder.EMPTY : 0);
+    
+    // Count the reference for the admission filter
+    TinyLFU filter = admission;
+    if (filter != null)
+      filter.increment(pin_pgid.pid);
+    
+    // Another thread may load the same page while we look for a victim,
+    // in which case we start over and find it in the Page Table
+    while (true) {
+      
+      frameNo = pinResident(pin_pgid);
+  
+      // The page is in the buffer pool
+      if (frameNo >= 0) {
+        pinHit(frameNo, pin_pgid, page);
+        return;
+      } // end if
+      
+      // Let the read-ahead follow the page's stream, the first pin of a
+      // page read ahead does so in pinHit()
+      ReadAhead ra = readAhead;
+      if (ra != null)
+        ra.access(pin_pgid.pid);
+      
+      PageMissEvent event = new PageMissEvent();
+      event.begin();
+      
+      // pick a frame in the buffer pool to store the            
+      frameNo = replacer.pick_victim(pin_pgid); 
+      
+      // No frames available in the buffer pool
+      if (frameNo < 0)  
+        throw new ReplacerException (null, "BUFMGR: Buffer Pool is full.");  
+      
+      // A page not admitted by the filter leaves the victim in the buffer
+      // pool and goes to the window
+      victimPid = frmeTable[frameNo].pageNo.pid;
+      boolean windowed = (filter != null) && (filter.admit(pin_pgid.pid, victimPid) == false);
+      if (windowed)
+        frameNo = windowFrame(filter, frameNo);
+      
+      if (loadFrame(frameNo, pin_pgid, emptyPage)) {
+        metrics.miss();
+        missed(event, frameNo, pin_pgid, emptyPage);
+        if (windowed)
+          filter.enterWindow(frameNo, pin_pgid.pid);
+        
+        // load page into the buffer pool
+        page.setpage(pageData(frameNo));
+        return;
+      } // end if
+    } // end while
+  } // end pinPage()
+  
+  
+  // Pins a page like pinPage() for an operation using an access strategy.
+  // A page in the buffer pool is pinned from it, any other page is read
+  // into the next frame of the strategy's ring, or into a frame taken from
+  // the replacer that then joins the ring. A null or NORMAL strategy pins
+  // the page like pinPage().
+  public void pinPage(PageId pin_pgid, Page page, boolean emptyPage, AccessStrategy strategy) throws 
+    ReplacerException, 
+    HashOperationException, 
+    PageUnpinnedException, 
+    InvalidFrameNumberException, 
+    PageNotReadException, 
+    BufferPoolExceededException, 
+    PagePinnedException, 
+    BufMgrException,
+    IOException {
+    
+    if ((strategy == null) || (strategy.getType() == AccessStrategy.Type.NORMAL)) {
+      pinPage(pin_pgid, page, emptyPage);
+      return;
+    } // end if
+    
+    TraceRecorder t = trace;
+    if (t != null)
+      t.record(TraceRecorder.PIN, pin_pgid.pid, emptyPage ? TraceRecorder.EMPTY : 0);
+    
+    // The admission filter is left out: the ring takes at most its size in
+    // frames from the replacer, and counting the operation's references,
+    // each page once, would only age the counts of the pages other threads
+    // use. The pages the ring reads never enter the filter's window.
+    while (true) {
+      
+      // The page is in the buffer pool
+      int frameNo = pinResident(pin_pgid);
+      if (frameNo >= 0) {
+        pinHit(frameNo, pin_pgid, page);
+        return;
+      } // end if
+      
+      // Let the read-ahead follow the page's stream, the first pin of a
+      // page read ahead does so in pinHit()
+      ReadAhead ra = readAhead;
+      if (ra != null)
+        ra.access(pin_pgid.pid);
+      
+      PageMissEvent event = new PageMissEvent();
+      event.begin();
+      
+      // Reuse the ring's frame, or take one from the replacer
+      frameNo = pinRingFrame(strategy);
+      if (frameNo < 0)
+        frameNo = replacer.pick_victim(pin_pgid);
+      
+      // No frames available in the buffer pool
+      if (frameNo < 0)  
+        throw new ReplacerException (null, "BUFMGR: Buffer Pool is full.");  
+      
+      if (loadFrame(frameNo, pin_pgid, emptyPage)) {
+        metrics.miss();
+        missed(event, frameNo, pin_pgid, emptyPage);
+        strategy.put(frameNo, pin_pgid.pid);
+        page.setpage(pageData(frameNo));
+        return;
+      } // end if
+    } // end while
+  } // end pinPage()
+  
+  
+  // Pins the frame in the current slot of the ring if it still holds the
+  // page the ring read into it and nobody uses it, as loadFrame() expects
+  // of a victim. Returns the frame, or -1 if it cannot be reused.
+  private int pinRingFrame(AccessStrategy strategy) throws 
+    InvalidFrameNumberException {
+    
+    int frameNo = strategy.frame();
+    if (frameNo < 0)
+      return -1;
+    
+    // The page is pinned under its stripe lock like a resident page, which
+    // takes the frame out of the replacer's candidates
+    int pid = strategy.pid();
+    FrameDesc frame = frmeTable[frameNo];
+    synchronized (hashStripe(pid)) {
+      if ((frame.pageNo.pid != pid) || (frame.pin_count() != 0))
+        return -1;
+      replacer.pin(frameNo);
+    }
+    return frameNo;
+  } // end pinRingFrame()
+  
+  
+  // Hands out the resident page pinned in frameNo, once it is read in if
+  // another thread is still reading it
+  private void pinHit(int frameNo, PageId pin_pgid, Page page) throws 
+    InvalidFrameNumberException, 
+    PageUnpinnedException, 
+    PageNotReadException {
+    
+    // Wait for the page if another thread is still reading or writing it
+    FrameDesc frame = frmeTable[frameNo];
+    frame.waitIO();
+    
+    // The other thread could not read the page
+    if (frame.pageNo.pid != pin_pgid.pid) {
+      unpinFrame(frameNo);
+      throw new PageNotReadException (null, "BUFMGR: Could not read page from database.");
+    }
+    
+    // A page read ahead is no longer on probation once pinned, its first
+    // pin lets the read-ahead follow its stream
+    if (frame.probation) {
+      frame.probation = false;
+      ReadAhead ra = readAhead;
+      if (ra != null)
+        ra.access(pin_pgid.pid);
+    } // end if
+    metrics.hit();
+    
+    // load the page into the buffer pool
+    page.setpage(pageData(frameNo));
+  } // end pinHit()
+  
+  
+  // Pins a batch of pages, pages[i] is set to the page pageIds[i].
+  // The pages in the buffer pool are pinned first, then a victim is picked
+  // for each of the others in one pass of the replacer and the missing
+  // pages are read in page order, each run of contiguous pages with one
+  // call. If a page cannot be pinned none of the batch is left pinned.
+  public void pinPages(PageId[] pageIds, Page[] pages, boolean emptyPage) throws 
+    ReplacerException, 
+    HashOperationException, 
+    PageUnpinnedException, 
+    InvalidFrameNumberException, 
+    PageNotReadException, 
+    BufferPoolExceededException, 
+    PagePinnedException, 
+    BufMgrException,
+    IOException {
+    
+    // The pages of the batch pinned so far
+    boolean[] pinned = new boolean[pageIds.length];
+    
+    // Unpin what was pinned, a failure to unpin is kept with the error
+    try {
+      pinBatch(pageIds, pages, emptyPage, pinned);
+    } catch (Exception e) {
+      for (int i = 0; i < pageIds.length; i++) {
+        if (pinned[i]) {
+          try {
+            unpinPage(pageIds[i], false);
+          } catch (Exception unpin) {
+            e.addSuppressed(unpin);
+          } // end try
+        } // end if
+      } // end for
+      throw e;
+    } // end try
+  } // end pinPages()
+  
+  
+  // Does the work of pinPages(), pinned[i] is set once page i is pinned
+  private void pinBatch(PageId[] pageIds, Page[] pages, boolean emptyPage, boolean[] pinned) throws 
+    ReplacerException, 
+    HashOperationException, 
+    PageUnpinnedException, 
+    InvalidFrameNumberException, 
+    PageNotReadException, 
+    BufferPoolExceededException, 
+    PagePinnedException, 
+    BufMgrException,
+    IOException {
+    
+    TinyLFU filter = admission;
+    TraceRecorder t = trace;
+    
+    // The pages not in the buffer pool as (page number << 32) | index
+    long[] misses = new long[pageIds.length];
+    int m = 0;
+    
+    for (int i = 0; i < pageIds.length; i++) {
+      if (t != null)
+        t.record(TraceRecorder.PIN, pageIds[i].pid, emptyPage ? TraceRecorder.EMPTY : 0);
+      if (filter != null)
+        filter.increment(pageIds[i].pid);
+      
+      int frameNo = pinResident(pageIds[i]);
+      if (frameNo < 0) {
+        misses[m++] = ((long)pageIds[i].pid << 32) | i;
+        continue;
+      } // end if
+      
+      pinHit(frameNo, pageIds[i], pages[i]);
+      pinned[i] = true;
+    } // end for
+    
+    if (m == 0)
+      return;
+    
+    Arrays.sort(misses, 0, m);
+    PageId[] missIds = new PageId[m];
+    for (int k = 0; k < m; k++)
+      missIds[k] = new PageId((int)(misses[k] >>> 32));
+    
+    int[] frames = new int[m];
+    boolean[] windowed = new boolean[m];
+    boolean[] installed = new boolean[m];
+    int v = replacer.pick_victims(missIds, m, frames);
+    
+    // Put the pages in the victim frames, a page another thread loaded
+    // in the meantime is pinned afterwards like the pages left without
+    // a frame
+    for (int k = 0; k < v; k++) {
+      try {
+        
+        // A page not admitted by the filter leaves the victim in the 
+        // buffer pool and goes to the window
+        if ((filter != null) && (filter.admit(missIds[k].pid, frmeTable[frames[k]].pageNo.pid) == false)) {
+          windowed[k] = true;
+          frames[k] = windowFrame(filter, frames[k]);
+        } // end if
+        
+        installed[k] = installFrame(frames[k], missIds[k], emptyPage);
+      } catch (Exception e) {
+        abandonBatch(frames, missIds, installed, k, v, emptyPage, e);
+        throw e;
+      } // end try
+      
+      if (installed[k] && emptyPage) {
+        pinned[(int)misses[k]] = true;
+        metrics.miss();
+      }
+    } // end for
+    
+    // Read each run of contiguous pages. The pages of a run that cannot be
+    // read are dropped, each with a PageNotReadException suppressed in the
+    // one thrown for the batch.
+    PageNotReadException failure = null;
+    int k = 0;
+    while ((emptyPage == false) && (k < v)) {
+      if (installed[k] == false) {
+        k++;
+        continue;
+      } // end if
+      
+      int start = k;
+      while ((k < v) && installed[k] && (missIds[k].pid == missIds[start].pid + (k - start)))
+        k++;
+      
+      Page[] run = new Page[k - start];
+      for (int j = start; j < k; j++)
+        run[j - start] = framePage(frames[j]);
+      
+      try {
+        read_pages(missIds[start], run);
+      } catch (BufMgrException e) {
+        if (failure == null)
+          failure = new PageNotReadException (e, "BUFMGR: Could not read page from database.");
+        for (int j = start; j < k; j++) {
+          installed[j] = false;
+          try {
+            dropFrame(frames[j], missIds[j], e);
+          } catch (Exception dropped) {
+            failure.addSuppressed(dropped);
+          } // end try
+        } // end for
+        continue;
+      } // end try
+      
+      for (int j = start; j < k; j++) {
+        frmeTable[frames[j]].endIO();
+        pinned[(int)misses[j]] = true;
+        metrics.miss();
+      } // end for
+    } // end while
+    
+    if (failure != null)
+      throw failure;
+    
+    for (k = 0; k < m; k++) {
+      int i = (int)misses[k];
+      
+      // A page without a frame is pinned on its own
+      if ((k >= v) || (installed[k] == false)) {
+        pinPage(pageIds[i], pages[i], emptyPage);
+        pinned[i] = true;
+        continue;
+      } // end if
+      
+      if (windowed[k])
+        filter.enterWindow(frames[k], missIds[k].pid);
+      
+      pages[i].setpage(pageData(frames[k]));
+    } // end for
+  } // end pinBatch()
+  
+  
+  // Gives back the frames of a batch that could not be filled: the pages
+  // put in frames[0] to frames[k - 1] are dropped unless empty and the
+  // victims frames[k + 1] to frames[v - 1] are released. Each page dropped
+  // and each frame that cannot be given back is added to failure, the
+  // error that stopped the batch, as a suppressed exception.
+  private void abandonBatch(int[] frames, PageId[] missIds, boolean[] installed, 
+                            int k, int v, boolean emptyPage, Exception failure) {
+    
+    for (int j = 0; j < k; j++) {
+      if (installed[j] && (emptyPage == false)) {
+        installed[j] = false;
+        try {
+          dropFrame(frames[j], missIds[j], failure);
+        } catch (Exception e) {
+          failure.addSuppressed(e);
+        } // end try
+      } // end if
+    } // end for
+    
+    for (int j = k + 1; j < v; j++) {
+      try {
+        unpinFrame(frames[j]);
+      } catch (Exception e) {
+        failure.addSuppressed(e);
+      } // end try
+    } // end for
+  } // end abandonBatch()
+  
+  
+  // Returns the frame a page the filter did not admit is read into in
+  // place of the victim frameNo: the frame of the oldest page of the 
+  // window, pinned like a resident page, once the victim is released.
+  // Returns frameNo while the window is not full or if the oldest page
+  // is gone or in use.
+  private int windowFrame(TinyLFU filter, int frameNo) throws 
+    InvalidFrameNumberException, 
+    PageUnpinnedException {
+    
+    long oldest = filter.oldest();
+    if (oldest < 0)
+      return frameNo;
+    
+    int windowFrame = (int)(oldest >>> 32);
+    int pid = (int)oldest;
+    FrameDesc frame = frmeTable[windowFrame];
+    synchronized (hashStripe(pid)) {
+      if ((frame.pageNo.pid != pid) || (frame.pin_count() != 0))
+        return frameNo;
+      replacer.pin(windowFrame);
+    }
+    
+    unpinFrame(frameNo);
+    return windowFrame;
+  } // end windowFrame()
+  
+  
+  // Looks the page up in the Page Table and pins it if it is resident
+  // Returns the frame number, or INVALID_PAGE if the page is not resident
+  private int pinResident(PageId pin_pgid) throws 
+    InvalidFrameNumberException {
+    
+    BufHashTbl stripe = hashStripe(pin_pgid.pid);
+    
+    // The page must be pinned under the stripe lock so that it cannot be
+    // chosen as a victim between the lookup and the pin
+    synchronized (stripe) {
+      int frameNo = stripe.lookup(pin_pgid);
+      if (frameNo >= 0)
+        replacer.pin(frameNo);
+      return frameNo;
+    }
+  } // end pinResident()
+  
+  
+  // Replaces the page in the victim frameNo (already pinned by the replacer)
+  // with pin_pgid and reads it in unless emptyPage is true.
+  // Returns false if another thread used the old page or loaded pin_pgid in
+  // the meantime; the victim is then released and the caller must retry.
+  private boolean loadFrame(int frameNo, PageId pin_pgid, boolean emptyPage) throws 
+    ReplacerException, 
+    HashOperationException, 
+    PageUnpinnedException, 
+    InvalidFrameNumberException, 
+    PageNotReadException, 
+    BufMgrException {
+    
+    if (installFrame(frameNo, pin_pgid, emptyPage) == false)
+      return false;
+    
+    // If the curPage is not empty, read page into the buffer pool
+    if (emptyPage == false) {
+      try {
+        read_page(pin_pgid, framePage(frameNo));
+        
+      // If read_page fails, reset the Page Table and frame descriptor
+      } catch (Exception e) {
+        dropFrame(frameNo, pin_pgid, e);
+      } // end try 
+      
+      frmeTable[frameNo].endIO();
+    } // end if
+    
+    return true;
+  } // end loadFrame()
+  
+  
+  // Commits a PageMiss event for pin_pgid read into frameNo if a recording
+  // has it enabled
+  private void missed(PageMissEvent event, int frameNo, PageId pin_pgid, boolean emptyPage) {
+    if (event.shouldCommit()) {
+      event.pageId = pin_pgid.pid;
+      event.frame = frameNo;
+      event.emptyPage = emptyPage;
+      event.replacer = getReplacerName();
+      event.commit();
+    } // end if
+  } // end missed()
+  
+  
+  // Puts pin_pgid in the victim frameNo (already pinned by the replacer) in
+  // place of its page, which is written first if dirty. Unless emptyPage is
+  // true the frame is left marked as being read, the caller reads the page
+  // and calls endIO(), or dropFrame() if the read fails.
+  // Returns false if another thread used the old page or loaded pin_pgid in
+  // the meantime; the victim is then released.
+  private boolean installFrame(int frameNo, PageId pin_pgid, boolean emptyPage) throws 
+    ReplacerException, 
+    HashOperationException, 
+    PageUnpinnedException, 
+    InvalidFrameNumberException, 
+    BufMgrException {
     
-    // Current frame descriptor
-    FrameDesc frame;
+    PageEvictionEvent eviction = new PageEvictionEvent();
+    eviction.begin();
+    
+    // Set current frame descriptor
+    FrameDesc frame = frmeTable[frameNo];
     
-    // Current page
-    Page curPage;
+    // Wait until the old page is no longer being written by cleanFrame()
+    // or a flush
+    frame.waitIO();
     
     // Page being replaced
-    PageId oldpageNo = new PageId(-1);
+    PageId oldpageNo = new PageId(frame.pageNo.pid);
+    boolean written = false;
     
-    // Determines if oldPageNo needs to be written to disk
-    boolean dirty = false;
-
-    // Frame is not in the buffer pool
-    if (frameNo < 0) {
-      // pick a frame in the buffer pool to store the            
-      frameNo = replacer.pick_victim(); 
+    // If the old page is dirty, write it to disk while it is still in the
+    // Page Table so no other thread can read a stale copy from disk
+    if ((oldpageNo.pid != INVALID_PAGE) && (frame.dirty == true)) {
       
-      // No frames available in the buffer pool
-      if (frameNo < 0)  
-        throw new ReplacerException (null, "BUFMGR: Buffer Pool is full.");  
+      // The background writer is behind, let it catch up
+      BackgroundWriter w = writer;
+      if (w != null)
+        w.wakeUp();
+      
+      DirtyWriteBackEvent event = new DirtyWriteBackEvent();
+      event.begin();
+      
+      frame.dirty = false;
+      try {
+        write_page(oldpageNo, victimPage(frameNo));
+      } catch (BufMgrException e) {
+        frame.dirty = true;
+        unpinFrame(frameNo);
+        throw e;
+      } // end try
+      metrics.dirtyWriteBack();
+      written = true;
+      
+      if (event.shouldCommit()) {
+        event.pageId = oldpageNo.pid;
+        event.pages = 1;
+        event.frame = frameNo;
+        event.cause = "victim";
+        event.commit();
+      } // end if
+    } // end if
     
-      // Set current frame descriptor
-      frame = frmeTable[frameNo];
+    int oldIndex = stripeIndex(oldpageNo.pid);
+    int newIndex = stripeIndex(pin_pgid.pid);
+    BufHashTbl oldStripe = hashTable[oldIndex];
+    BufHashTbl newStripe = hashTable[newIndex];
     
-      // If the old page is dirty, remember to write it to disk
-      // NOTE: Cannot write until new page has been inserted
-      if ((frame.pageNo.pid != INVALID_PAGE) && (frame.dirty == true) ) {
-        dirty = true;
-        oldpageNo.pid = frame.pageNo.pid;
-      }
-  
-      // Remove the old page
-      boolean removed = hashTable.remove(frame.pageNo);
-      if (removed == false) 
-        throw new HashOperationException (null, "BUFMGR: Cannot remove old page from Page Table");
+    // Lock both stripes, always in index order to avoid deadlock
+    BufHashTbl first = hashTable[Math.min(oldIndex, newIndex)];
+    BufHashTbl second = hashTable[Math.max(oldIndex, newIndex)];
+    
+    synchronized (first) {
+      synchronized (second) {
+        
+        // Another thread loaded the page, or pinned, dirtied or freed the
+        // old page after the replacer chose it
+        if ((newStripe.lookup(pin_pgid) >= 0) || (frame.pin_count() != 1)
+            || (frame.dirty == true) || (frame.pageNo.pid != oldpageNo.pid)) {
+          unpinFrame(frameNo);
+          return false;
+        } // end if
+        
+        // Remove the old page
+        boolean removed = oldStripe.remove(oldpageNo);
+        if (removed == false) 
+          throw new HashOperationException (null, "BUFMGR: Cannot remove old page from Page Table");
+        
+        // A thread that pinned the old page after the replacer chose it may
+        // have left its heap copy behind, the copy belongs to the old page
+        if (arena != null) {
+          synchronized (frame) {
+            unstage(frameNo, false);
+          }
+        } // end if
+        
+        // Reset the frame descriptor
+        // NOTE: this should be a FrameDesc method 
+        frame.pageNo.pid = pin_pgid.pid;
+        frame.dirty = false;             
+        frame.probation = false;
+        
+        // Insert the new page
+        boolean inserted = newStripe.insert(pin_pgid,frameNo);
+        if (inserted == false)  
+          throw new HashOperationException (null, "BUFMGR: Unable to insert page into Page Table");
+        
+        // Threads that find the page before it is read wait for the read 
+        if (emptyPage == false)
+          frame.startIO();
+      } // end synchronized
+    } // end synchronized
+    
+    if (oldpageNo.pid != INVALID_PAGE) {
+      metrics.eviction();
+      if (eviction.shouldCommit()) {
+        eviction.evictedPageId = oldpageNo.pid;
+        eviction.pageId = pin_pgid.pid;
+        eviction.frame = frameNo;
+        eviction.dirty = written;
+        eviction.replacer = getReplacerName();
+        eviction.commit();
+      } // end if
+    } // end if
+    return true;
+  } // end installFrame()
   
-      // Reset the frame descriptor
-      // NOTE: this should be a FrameDesc method 
-      frame.pageNo.pid = pin_pgid.pid;
-      frame.dirty = false;             
   
-      // Insert the new page
-      boolean inserted = hashTable.insert(pin_pgid,frameNo);
-      if (inserted == false)  
-        throw new HashOperationException (null, "BUFMGR: Unable to insert page into Page Table");
+  // Removes pin_pgid, which could not be read into frameNo, from the
+  // Page Table and releases the frame, then throws PageNotReadException
+  private void dropFrame(int frameNo, PageId pin_pgid, Exception e) throws 
+    ReplacerException, 
+    HashOperationException, 
+    PageUnpinnedException, 
+    InvalidFrameNumberException, 
+    PageNotReadException {
+    
+    FrameDesc frame = frmeTable[frameNo];
+    BufHashTbl newStripe = hashStripe(pin_pgid.pid);
+    
+    boolean removed;
+    synchronized (newStripe) {
+      removed = newStripe.remove(pin_pgid);
       
-      // Set the curPage
-      curPage = new Page(bufPool[frameNo]);
+      // Reset the frame descriptor
+      // NOTE: this should be a FrameDesc method
+      frame.pageNo.pid = INVALID_PAGE;
+      frame.dirty = false;
+      frame.probation = false;
+    } // end synchronized
+    frame.endIO();
+    
+    if (removed == false)
+      throw new HashOperationException (e, "BUFMGR: Unable to remove page from Page Table.");
+    
+    boolean unpinned = replacer.unpin(frameNo);
+    
+    if (unpinned == false)
+      throw new ReplacerException (e, "BUFMGR: Unable to unpin page in Buffer Table.");
+    
+    throw new PageNotReadException (e, "BUFMGR: Could not read page " + pin_pgid.pid + " from database.");
+  } // end dropFrame()
   
-      // Write the oldPage
-      if (dirty)  
-        write_page(oldpageNo, curPage);   
   
-      // If the curPage is not empty, read page into the buffer pool
-      if (emptyPage == false) {
-        try {
-          curPage.setpage(bufPool[frameNo]);
-          read_page(pin_pgid, curPage);
-          
-        // If read_page fails, reset the Page Table and frame descriptor
-        } catch (Exception e) {
-          
-          removed = hashTable.remove(frame.pageNo);
-          if (removed == false)
-            throw new HashOperationException (e, "BUFMGR: Unable to remove page from Page Table.");
+  // Reads the pages start to start + count - 1 that are not in the buffer
+  // pool into frames holding clean unpinned pages, each run of contiguous
+  // pages with one call. The pages are put on probation so that they are
+  // replaced first unless they are pinned. Stops at the first victim that
+  // is dirty or when no frame is left.
+  // Returns the number of pages read.
+  int prefetch(int start, int count) {
+    
+    int end = start + count;
+    try {
+      end = Math.min(end, SystemDefs.JavabaseDB.db_num_pages());
+    } catch (Exception e) {
+      return 0;
+    } // end try
+    
+    // The pages waiting to be read and their frames
+    int[] frames = new int[Math.max(0, end - start)];
+    int first = start;
+    int n = 0;
+    int read = 0;
+    
+    for (int pid = start; pid < end; pid++) {
       
-          // Reset the frame descriptor
-          // NOTE: this should be a FrameDesc method
-          frame.pageNo.pid = INVALID_PAGE;
-          frame.dirty = false;
+      // A resident page ends the run
+      BufHashTbl stripe = hashStripe(pid);
+      int resident;
+      synchronized (stripe) {
+        resident = stripe.lookup(pid);
+      }
+      if (resident >= 0) {
+        read += readRun(first, frames, n);
+        first = pid + 1;
+        n = 0;
+        continue;
+      } // end if
       
-          boolean unpinned = replacer.unpin(frameNo);
+      int frameNo;
+      try {
+        frameNo = replacer.pick_victim(new PageId(pid));
+      } catch (Exception e) {
+        frameNo = -1;
+      } // end try
+      if (frameNo < 0)
+        break;
       
-          if (unpinned == false)
-            throw new ReplacerException (e, "BUFMGR: Unable to unpin page in Buffer Table.");
+      try {
+        
+        // A dirty page is left for the background writer or a real miss
+        if (frmeTable[frameNo].dirty) {
+          unpinFrame(frameNo);
+          replacer.demote(frameNo);
+          break;
+        } // end if
+        
+        if (installFrame(frameNo, new PageId(pid), false)) {
+          frames[n++] = frameNo;
+          continue;
+        } // end if
+      } catch (Exception e) {
+        break;
+      } // end try
       
-          throw new PageNotReadException (e, "BUFMGR: Could not read page from database.");
-        } // end try 
+      // Another thread loaded the page
+      read += readRun(first, frames, n);
+      first = pid + 1;
+      n = 0;
+    } // end for
     
-      } // end if
-  
-      // load page into the buffer pool
-      page.setpage(bufPool[frameNo]);
+    return read + readRun(first, frames, n);
+  } // end prefetch()
   
-    // The page is in the buffer pool
-    } else {    
   
-      // load the page into the buffer pool
-      page.setpage(bufPool[frameNo]);
-      replacer.pin(frameNo);
+  // Reads the n pages starting at first into the frames installed for them
+  // by prefetch(), then releases the frames with the pages on probation
+  // Returns the number of pages read.
+  private int readRun(int first, int[] frames, int n) {
+    
+    if (n == 0)
+      return 0;
+    
+    Page[] pages = new Page[n];
+    for (int i = 0; i < n; i++)
+      pages[i] = framePage(frames[i]);
+    
+    // read_pages() counts the pages of a failed read in the metrics.
+    // dropFrame() takes each page out of the Page Table and releases its
+    // frame before it throws, so the next pin reads the page again. A
+    // thread already waiting for the page gets PageNotReadException, as
+    // it would if another thread's miss had failed.
+    try {
+      read_pages(new PageId(first), pages);
+    } catch (BufMgrException e) {
+      for (int i = 0; i < n; i++) {
+        try {
+          dropFrame(frames[i], new PageId(first + i), e);
+        } catch (Exception dropped) {
+        } // end try
+      } // end for
+      return 0;
+    } // end try
+    
+    for (int i = 0; i < n; i++) {
+      FrameDesc frame = frmeTable[frames[i]];
+      
+      // Set before the frame is marked as read, a thread waiting for
+      // the page takes it off probation when it gets the page
+      frame.probation = true;
+      frame.endIO();
+      
+      try {
+        unpinFrame(frames[i]);
+      } catch (Exception e) {
+        continue;
+      } // end try
+      if (frame.probation && (frame.pin_count() == 0))
+        replacer.demote(frames[i]);
+    } // end for
+    
+    return n;
+  } // end readRun()
   
-    } // end if
-  } // end pinPage()
   
   // To unpin a page specified by a pageId.
   // If pincount>0, decrement it and if it becomes zero,
@@ -502,11 +1581,16 @@ public class BufMgr implements GlobalConst {
     InvalidFrameNumberException {
       
     // Current frame descriptor index
-    int frameNo = hashTable.lookup(PageId_in_a_DB);
+    int frameNo;
     
     // Current frame descriptor
     FrameDesc frame; 
     
+    BufHashTbl stripe = hashStripe(PageId_in_a_DB.pid);
+    synchronized (stripe) {
+      frameNo = stripe.lookup(PageId_in_a_DB);
+    }
+    
     // If the pageId is not found in the Page Table
     if (frameNo < 0) 
       throw new HashEntryNotFoundException (null, "BUFMGR: Hash entry not found");
@@ -518,71 +1602,335 @@ public class BufMgr implements GlobalConst {
     if (frame.pageNo.pid == INVALID_PAGE)
       throw new InvalidFrameNumberException (null, "BUFMGR: Invalid page no.");
     
-    // If we are unable to unpin the frame
-    if ((replacer.unpin(frameNo)) == false) 
-      throw new ReplacerException (null, "BUFMGR: Unable to unpin page in the replacer.");
-    
     // Sets the dirty bit in the frame descriptor
+    // NOTE: must be set before the unpin, once the pin count drops to zero
+    // another thread may choose the frame as a victim
     if (dirty == true)
       frame.dirty = dirty;
+    
+    // If we are unable to unpin the frame
+    if (unpinFrame(frameNo) == false) 
+      throw new ReplacerException (null, "BUFMGR: Unable to unpin page in the replacer.");
+    metrics.unpin();
+    
+    TraceRecorder t = trace;
+    if (t != null)
+      t.record(TraceRecorder.UNPIN, PageId_in_a_DB.pid, dirty ? TraceRecorder.DIRTY : 0);
+    
+    // A page on probation is replaced first once it is unpinned
+    if (frame.probation && (frame.pin_count() == 0))
+      replacer.demote(frameNo);
       
   }  // end unpinPage()
   
   
   
+  // Unpins a batch of pages, pageIds[i] is marked dirty if dirty[i] is true.
+  // A null dirty unpins every page clean. Every page is unpinned even if one of them fails,
+  // the first failure is then thrown.
+  public void unpinPages(PageId[] pageIds, boolean[] dirty) throws 
+    ReplacerException, 
+    PageUnpinnedException, 
+    HashEntryNotFoundException, 
+    InvalidFrameNumberException {
+    
+    for (int i = 0; i < pageIds.length; i++) {
+      try {
+        unpinPage(pageIds[i], (dirty != null) && dirty[i]);
+      } catch (Exception e) {
+        
+        // Unpin the rest before giving up
+        for (int j = i + 1; j < pageIds.length; j++) {
+          try {
+            unpinPage(pageIds[j], (dirty != null) && dirty[j]);
+          } catch (Exception unpin) {
+            e.addSuppressed(unpin);
+          } // end try
+        } // end for
+        throw e;
+      } // end try
+    } // end for
+  } // end unpinPages()
+  
+  
+  // Unpins the frame in the replacer. An off-heap frame unpinned for the
+  // last time has its heap copy written back before it can be replaced,
+  // a clean frame's copy is dropped as the arena already holds the page.
+  private boolean unpinFrame(int frameNo) throws 
+    InvalidFrameNumberException, 
+    PageUnpinnedException {
+    
+    boolean unpinned;
+    if (arena == null)
+      unpinned = replacer.unpin(frameNo);
+    else {
+    
+      // The frame lock keeps pageData() from handing out the copy while it
+      // is dropped, a thread that pins the frame after it copies the arena again
+      FrameDesc frame = frmeTable[frameNo];
+      synchronized (frame) {
+        if (frame.pin_count() == 1)
+          unstage(frameNo, frame.dirty);
+        unpinned = replacer.unpin(frameNo);
+      }
+    } // end else
+    
+    // Wake a shrink waiting for this frame
+    if ((frameNo >= retireFrom) && (frmeTable[frameNo].pin_count() == 0)) {
+      synchronized (retireWait) {
+        retireSignals++;
+        retireWait.notifyAll();
+      }
+    } // end if
+    return unpinned;
+  } // end unpinFrame()
+  
+  
   // private Flush Pages method used to factor out the common code for flushPage() 
   // and flushAllPages()
-  private void privFlushPages(PageId pageid, int all_pages) throws 
-    HashOperationException, 
-    PageUnpinnedException,  
+  // The dirty pages are sorted by page number and each run of contiguous
+  // pages is written with a single call, the runs are shared out among
+  // ioThreads threads. The pages stay in the buffer pool and are clean
+  // once written.
+  private void privFlushPages(PageId pageid, int all_pages, int ioThreads) throws 
     PagePinnedException, 
-    PageNotFoundException,
-    BufMgrException,
-    IOException {
-    
-    // The current page
-    Page curPage;
+    BufMgrException {
     
-    // The current frame descriptor
-    FrameDesc frame;
+    // The dirty pages as (page number << 32) | frame number
+    long[] dirtyPages = new long[maxBuffers];
+    int count = 0;
       
     // Iterate through the Buffer Pool
-    for (int i=0; i < numBuffers; i++) {
+    for (int i=0; i < maxBuffers; i++) {
+      
+      FrameDesc frame = frmeTable[i];
+      int pid = frame.pageNo.pid;
       
       // If flushAllPages() or pageId specified in flushPage()
-      if ( (all_pages == 1) || (frmeTable[i].pageNo.pid == pageid.pid)) {
-    
-        // If the pin_count isn't 0, the page is still in use and can't be flushed
-        if ( frmeTable[i].pin_count() != 0 )
-          throw new PagePinnedException (null, "BUFMGR: Page is still pinned.");
-    
-        // If page is dirty
-        if (frmeTable[i].dirty) {
-          
-          // You cannot write an INVALID_PAGE
-          if (frmeTable[i].pageNo.pid == INVALID_PAGE)
-            throw new PageNotFoundException( null, "BUFMGR: Page not found");
-          
-          // Set the current frame and current page
-          frame = frmeTable[i];
-          curPage = new Page(bufPool[i]);
-
-          pageid.pid = frame.pageNo.pid;
-      
-          // Write the dirty page
-          write_page(pageid, curPage);
-      
-          // Remove the page from the Page Table
-          hashTable.remove(pageid);
-      
-          // Reset the Buffer Table
-          // NOTE: this should be a FrameDesc method
-          frmeTable[i].pageNo.pid = INVALID_PAGE; // frame is empty
-          frmeTable[i].dirty = false ;
-        } // end if
-      } // end if
+      if ((pid == INVALID_PAGE) || ((all_pages != 1) && (pid != pageid.pid)))
+        continue;
+    
+      // If the pin_count isn't 0, the page is still in use and can't be flushed
+      if ( frame.pin_count() != 0 )
+        throw new PagePinnedException (null, "BUFMGR: Page is still pinned.");
+      
+      if (frame.dirty)
+        dirtyPages[count++] = ((long)pid << 32) | i;
+    } // end for
+    
+    Arrays.sort(dirtyPages, 0, count);
+    
+    // Split the pages in runs of at most FLUSH_RUN contiguous pages,
+    // run r is dirtyPages[runStart[r]] to dirtyPages[runStart[r + 1] - 1]
+    int[] runStart = new int[count + 1];
+    int runs = 0;
+    for (int i = 0; i < count; i++) {
+      if ((i == 0) || ((int)(dirtyPages[i] >>> 32) != (int)(dirtyPages[i - 1] >>> 32) + 1)
+          || (i - runStart[runs - 1] == FLUSH_RUN))
+        runStart[runs++] = i;
     } // end for
+    runStart[runs] = count;
+    
+    if ((ioThreads <= 1) || (runs <= 1)) {
+      for (int r = 0; r < runs; r++)
+        flushRun(dirtyPages, runStart[r], runStart[r + 1]);
+      return;
+    } // end if
+    
+    flushRuns(dirtyPages, runStart, runs, Math.min(Math.min(ioThreads, runs), MAX_FLUSH_THREADS));
   } // end privFlushPages()
+  
+  
+  // Writes the runs with ioThreads threads, each taking the next run left
+  // Throws the first error met once every thread is done
+  // NOTE: the calling thread is one of the writers, the others come from
+  // flushPool. A helper that had not started by the time the runs were
+  // all taken is cancelled rather than waited for.
+  private void flushRuns(final long[] dirtyPages, final int[] runStart, final int runs, 
+                         int ioThreads) throws 
+    BufMgrException {
+    
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicReference<BufMgrException> failure = new AtomicReference<BufMgrException>();
+    
+    Runnable writer = new Runnable() {
+      public void run() {
+        int r;
+        while ((failure.get() == null) && ((r = next.getAndIncrement()) < runs)) {
+          try {
+            flushRun(dirtyPages, runStart[r], runStart[r + 1]);
+          } catch (BufMgrException e) {
+            failure.compareAndSet(null, e);
+          } // end try
+        } // end while
+      }
+    };
+    
+    List<Future<?>> helpers = new ArrayList<Future<?>>(ioThreads - 1);
+    for (int t = 1; t < ioThreads; t++)
+      helpers.add(flushPool.submit(writer));
+    writer.run();
+    
+    boolean interrupted = false;
+    for (Future<?> helper : helpers) {
+      if (helper.cancel(false))
+        continue;
+      while (true) {
+        try {
+          helper.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          failure.compareAndSet(null, new BufMgrException(e, "BUFMGR: flush thread failed"));
+          break;
+        } // end try
+      } // end while
+    } // end for
+    if (interrupted)
+      Thread.currentThread().interrupt();
+    
+    if (failure.get() != null)
+      throw failure.get();
+  } // end flushRuns()
+  
+  
+  // Returns a pool of MAX_FLUSH_THREADS - 1 daemon threads for flushRuns()
+  private static ThreadPoolExecutor newFlushPool() {
+    ThreadFactory factory = new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "BufMgr flush " + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_FLUSH_THREADS - 1, MAX_FLUSH_THREADS - 1, 
+                                                     FLUSH_KEEP_ALIVE, TimeUnit.SECONDS, 
+                                                     new LinkedBlockingQueue<Runnable>(), factory);
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  } // end newFlushPool()
+  
+  
+  // Writes the run of contiguous pages dirtyPages[from] to dirtyPages[to - 1].
+  // The pages are latched with startIO() while the stripes of the run are
+  // locked and written once the locks are released, like cleanFrame() 
+  // does, so that they cannot be pinned or replaced while they are written
+  // and no pin of another page of those stripes waits for the disk.
+  // NOTE: the stripes are locked in index order like loadFrame() does
+  private void flushRun(long[] dirtyPages, int from, int to) throws 
+    BufMgrException {
+    
+    int[] stripes = new int[to - from];
+    for (int i = from; i < to; i++)
+      stripes[i - from] = stripeIndex((int)(dirtyPages[i] >>> 32));
+    Arrays.sort(stripes);
+    
+    int n = 0;
+    for (int i = 0; i < stripes.length; i++) {
+      if ((n == 0) || (stripes[i] != stripes[n - 1]))
+        stripes[n++] = stripes[i];
+    } // end for
+    
+    boolean[] latched = new boolean[to - from];
+    latchRun(stripes, 0, n, dirtyPages, from, to, latched);
+    
+    // A page pinned, cleaned or replaced since it was found splits the run
+    int i = from;
+    try {
+      while (i < to) {
+        while ((i < to) && (latched[i - from] == false))
+          i++;
+        
+        int start = i;
+        while ((i < to) && latched[i - from])
+          i++;
+        
+        if (start < i)
+          writeRun(dirtyPages, start, i);
+      } // end while
+    } catch (BufMgrException e) {
+      
+      // The pages after the run that failed were not written either
+      for (; i < to; i++) {
+        if (latched[i - from])
+          frmeTable[(int)dirtyPages[i]].dirty = true;
+      } // end for
+      throw e;
+    } finally {
+      for (int j = from; j < to; j++) {
+        if (latched[j - from])
+          frmeTable[(int)dirtyPages[j]].endIO();
+      } // end for
+    } // end try
+  } // end flushRun()
+  
+  
+  // Locks stripes[s] to stripes[n - 1] then latches the pages of the run
+  // that are still dirty and unpinned, latched[i - from] is set for each
+  private void latchRun(int[] stripes, int s, int n, long[] dirtyPages, int from, int to, 
+                        boolean[] latched) {
+    
+    if (s < n) {
+      synchronized (hashTable[stripes[s]]) {
+        latchRun(stripes, s + 1, n, dirtyPages, from, to, latched);
+      }
+      return;
+    } // end if
+    
+    // The frame is claimed so that no replacer takes it before it is
+    // latched, nobody else can pin it while the stripes are locked. A
+    // replacer that meets the claimed frame keeps it in place (see
+    // FrameList.claimFirst()).
+    for (int i = from; i < to; i++) {
+      FrameDesc frame = frmeTable[(int)dirtyPages[i]];
+      if (isFlushable(dirtyPages[i]) && frame.claim()) {
+        frame.dirty = false;
+        frame.startIO();
+        frame.unpin();
+        latched[i - from] = true;
+      } // end if
+    } // end for
+  } // end latchRun()
+  
+  
+  // Returns true if the frame still holds the page, unpinned and dirty
+  private boolean isFlushable(long dirtyPage) {
+    FrameDesc frame = frmeTable[(int)dirtyPage];
+    return (frame.pageNo.pid == (int)(dirtyPage >>> 32)) && frame.dirty 
+      && (frame.pin_count() == 0);
+  } // end isFlushable()
+  
+  
+  // Writes the latched pages dirtyPages[from] to dirtyPages[to - 1] with
+  // one call, they are marked dirty again if the write fails
+  private void writeRun(long[] dirtyPages, int from, int to) throws 
+    BufMgrException {
+    
+    DirtyWriteBackEvent event = new DirtyWriteBackEvent();
+    event.begin();
+    
+    Page[] pages = new Page[to - from];
+    for (int i = from; i < to; i++)
+      pages[i - from] = framePage((int)dirtyPages[i]);
+    
+    try {
+      write_pages(new PageId((int)(dirtyPages[from] >>> 32)), pages);
+    } catch (BufMgrException e) {
+      for (int i = from; i < to; i++)
+        frmeTable[(int)dirtyPages[i]].dirty = true;
+      throw e;
+    } // end try
+    
+    if (event.shouldCommit()) {
+      event.pageId = (int)(dirtyPages[from] >>> 32);
+      event.pages = to - from;
+      event.frame = (int)dirtyPages[from];
+      event.cause = "flush";
+      event.commit();
+    } // end if
+  } // end writeRun()
 
   // Added to flush a particular page of the buffer pool to disk
   // @param pageid the page number in the database. 
@@ -596,12 +1944,34 @@ public class BufMgr implements GlobalConst {
     IOException {
     
     // send to private method with the common code for all flush methods
-    privFlushPages(pageid, 0);  
+    ReadAhead ra = pauseReadAhead();
+    try {
+      privFlushPages(pageid, 0, 1);  
+    } finally {
+      if (ra != null)
+        ra.resume();
+    } // end try
+    flush_file();
   } // end flushPage()
   
   
   // Flushes all pages of the buffer pool to disk 
   public void flushAllPages() throws 
+    HashOperationException, 
+    PageUnpinnedException,  
+    PagePinnedException, 
+    PageNotFoundException,
+    BufMgrException,
+    IOException {
+      
+      flushAllPages(1);
+    } // end flushAllPages()
+  
+  
+  // Flushes all pages of the buffer pool to disk, the runs of contiguous
+  // pages are written by ioThreads threads at the same time, at most
+  // MAX_FLUSH_THREADS
+  public void flushAllPages(int ioThreads) throws 
     HashOperationException, 
     PageUnpinnedException,  
     PagePinnedException, 
@@ -611,10 +1981,28 @@ public class BufMgr implements GlobalConst {
       
       // send to the private method with the common coe for all flush methods
       PageId pageId = new PageId(INVALID_PAGE);
-      privFlushPages(pageId ,1); 
+      ReadAhead ra = pauseReadAhead();
+      try {
+        privFlushPages(pageId, 1, ioThreads); 
+      } finally {
+        if (ra != null)
+          ra.resume();
+      } // end try
+      flush_file();
     } // end flushAllPages()
   
   
+  // Waits until the read-ahead holds no frame and keeps it from taking
+  // any, so that its frames are not taken for pinned pages. Returns the
+  // read-ahead to resume, or null if it is disabled.
+  private ReadAhead pauseReadAhead() {
+    ReadAhead ra = readAhead;
+    if (ra != null)
+      ra.pause();
+    return ra;
+  } // end pauseReadAhead()
+  
+  
   // Call DB object to allocate a run of new pages and 
   // find a frame in the buffer pool for the first page
   // and pin it. If buffer is full, ask DB to deallocate 
@@ -670,39 +2058,66 @@ public class BufMgr implements GlobalConst {
     IOException {
 
     // Current frame descriptor index
-    int frameNo = hashTable.lookup(globalPageId); 
+    int frameNo;
 
     // The current frame descriptor
     FrameDesc frame;
     
-    // if globalPageId is not in pool, frameNo < 0 then deallocate 
-    if (frameNo < 0) {
-      deallocate_page(globalPageId);
-      return;
-    } // end if
+    TraceRecorder t = trace;
+    if (t != null)
+      t.record(TraceRecorder.FREE, globalPageId.pid, 0);
     
-    if (frameNo >= numBuffers) {
-      throw new InvalidBufferException(null, "BUFMGR: Invalid buffer."); 
-    } // end if
+    BufHashTbl stripe = hashStripe(globalPageId.pid);
     
-    frame = frmeTable[frameNo];
+    while (true) {
+      synchronized (stripe) {
+        frameNo = stripe.lookup(globalPageId); 
+    
+        // if globalPageId is not in pool, frameNo < 0 then deallocate 
+        if (frameNo < 0)
+          break;
+    
+        if (frameNo >= maxBuffers) {
+          throw new InvalidBufferException(null, "BUFMGR: Invalid buffer."); 
+        } // end if
+    
+        frame = frmeTable[frameNo];
+        
+        // An unpinned page is claimed first so the replacer cannot choose
+        // it while it is freed. If the claim fails the replacer already
+        // has it, so wait until the page is replaced or released.
+        if ((frame.pin_count() == 0) && (frame.claim() == false)) {
+          Thread.yield();
+          continue;
+        } // end if
       
-    try {
-      replacer.free(frameNo);
-    } catch(Exception e) {
-      throw new ReplacerException(e, "BUFMGR: Unable to free from replacer.");
-    } // end try
+        try {
+          replacer.free(frameNo);
+        } catch(Exception e) {
+          throw new ReplacerException(e, "BUFMGR: Unable to free from replacer.");
+        } // end try
     
-    try {
-      hashTable.remove(frame.pageNo);
-    } catch (Exception e) {
-      throw new HashOperationException(e, "BUFMGR, Unable to remove from Page Table");
-    } // end try
+        try {
+          stripe.remove(frame.pageNo);
+        } catch (Exception e) {
+          throw new HashOperationException(e, "BUFMGR, Unable to remove from Page Table");
+        } // end try
+    
+        // The contents of a freed off-heap page are not written back
+        if (arena != null) {
+          synchronized (frame) {
+            unstage(frameNo, false);
+          }
+        } // end if
     
-    // Reset frame descriptor
-    // NOTE: this should be a FrameDesc method
-    frame.pageNo.pid = INVALID_PAGE; 
-    frame.dirty = false;
+        // Reset frame descriptor
+        // NOTE: this should be a FrameDesc method
+        frame.pageNo.pid = INVALID_PAGE; 
+        frame.dirty = false;
+        frame.probation = false;
+        break;
+      } // end synchronized
+    } // end while
       
     deallocate_page(globalPageId);
       
@@ -734,30 +2149,80 @@ public class BufMgr implements GlobalConst {
   private void write_page (PageId pageno, Page page) throws 
     BufMgrException {
     
+    long start = System.nanoTime();
     try {
       SystemDefs.JavabaseDB.write_page(pageno, page);
     } catch (Exception e) {
       throw new BufMgrException(e, "BUFMGR: write_page() failed");
     } // end try
+    metrics.write(1, System.nanoTime() - start);
     
   } // end write_page()
 
 
+  private void write_pages (PageId pageno, Page[] pages) throws 
+    BufMgrException {
+    
+    long start = System.nanoTime();
+    try {
+      SystemDefs.JavabaseDB.write_pages(pageno, pages);
+    } catch (Exception e) {
+      throw new BufMgrException(e, "BUFMGR: write_pages() failed");
+    } // end try
+    metrics.write(pages.length, System.nanoTime() - start);
+    
+  } // end write_pages()
+
+
+  private void flush_file () throws 
+    BufMgrException {
+    
+    try {
+      SystemDefs.JavabaseDB.flush();
+    } catch (Exception e) {
+      throw new BufMgrException(e, "BUFMGR: flush() failed");
+    } // end try
+    
+  } // end flush_file()
+
+
+  private void read_pages (PageId pageno, Page[] pages) throws 
+    BufMgrException {
+    
+    long start = System.nanoTime();
+    try {
+      SystemDefs.JavabaseDB.read_pages(pageno, pages);
+    } catch (Exception e) {
+      metrics.readFailure(pages.length);
+      throw new BufMgrException(e, "BUFMGR: read_pages() failed");
+    } // end try
+    metrics.read(pages.length, System.nanoTime() - start);
+    
+  } // end read_pages()
+
+
   private void read_page (PageId pageno, Page page) throws 
     BufMgrException {
     
+    long start = System.nanoTime();
     try {
       SystemDefs.JavabaseDB.read_page(pageno, page);
     } catch (Exception e) {
+      metrics.readFailure(1);
       throw new BufMgrException(e, "BUFMGR: read_page() failed");
     } // end try
+    metrics.read(1, System.nanoTime() - start);
     
   } // end read_page()
 
   
   // Display the Page Table
   private void bmhashdisplay() {
-    hashTable.display();
+    for (int i = 0; i < hashTable.length; i++) {
+      synchronized (hashTable[i]) {
+        hashTable[i].display();
+      }
+    }
   } // end dmhashdisplay()
 
 }
@@ -0,0 +1,52 @@
+/*  File BufMgrMXBean.java */
+
+package bufmgr;
+
+// The buffer manager metrics published through JMX, see
+// BufMgr.registerMBean(). Each attribute is read from a new snapshot,
+// rates are per second over at least the last second.
+public interface BufMgrMXBean {
+
+  // Name of the replacer in use
+  String getReplacer();
+
+  // Frames in the buffer pool, pinned and holding a dirty page
+  int getNumBuffers();
+  int getPinnedFrames();
+  int getDirtyFrames();
+
+  // Pins, and how many found their page in the buffer pool
+  long getPins();
+  long getHits();
+  long getMisses();
+  double getHitRatio();
+
+  // Pages replaced, and dirty victims written before their frame was reused
+  long getEvictions();
+  long getDirtyWriteBacks();
+
+  // Pages unpinned
+  long getUnpins();
+
+  // Pins, unpins and evictions per second
+  double getPinRate();
+  double getUnpinRate();
+  double getEvictionRate();
+
+  // Frames looked at to find a victim
+  double getMeanVictimSearch();
+  long getP99VictimSearch();
+
+  // Pages read and written, pages that could not be read, and the latency of a read or write call
+  long getPagesRead();
+  long getPagesWritten();
+  long getReadFailures();
+  double getMeanReadMicros();
+  double getP99ReadMicros();
+  double getMeanWriteMicros();
+  double getP99WriteMicros();
+
+  // Clears the counters and histograms
+  void reset();
+
+} // end BufMgrMXBean
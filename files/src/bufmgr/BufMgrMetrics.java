@@ -0,0 +1,238 @@
+/*  File BufMgrMetrics.java */
+
+package bufmgr;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and histograms of a buffer manager: hits, misses, evictions,
+// dirty write-backs, unpins, pages that could not be read, victim search lengths and read and write
+// latencies. snapshot() reads them all at once, and the same figures are
+// published through JMX as a BufMgrMXBean.
+
+// NOTE: Every counter is a LongAdder, so the threads pinning pages update
+// separate cells and never wait on each other. The pinned and dirty frame
+// counts are worked out from the Buffer Table when a snapshot is taken.
+public class BufMgrMetrics implements BufMgrMXBean {
+
+  // The buffer manager measured
+  private final BufMgr mgr;
+
+  // Counters read by MetricsSnapshot
+  final LongAdder hits = new LongAdder();
+  final LongAdder misses = new LongAdder();
+  final LongAdder evictions = new LongAdder();
+  final LongAdder dirtyWriteBacks = new LongAdder();
+  final LongAdder unpins = new LongAdder();
+  final LongAdder pagesRead = new LongAdder();
+  final LongAdder pagesWritten = new LongAdder();
+  final LongAdder readFailures = new LongAdder();
+
+  // Latencies of read and write calls in nanoseconds
+  final Histogram readLatency = new Histogram();
+  final Histogram writeLatency = new Histogram();
+
+  // Frames looked at by the replacer for each victim
+  final Histogram victimSearch = new Histogram();
+
+  // The snapshot JMX rates are measured from, replaced about once a second
+  private MetricsSnapshot rateBase;
+
+
+  // Constructor
+  BufMgrMetrics(BufMgr mgr) {
+    this.mgr = mgr;
+  } // end constructor
+
+
+  // Counts a pin of a page in the buffer pool
+  void hit() {
+    hits.increment();
+  } // end hit()
+
+
+  // Counts a pin of a page read in
+  void miss() {
+    misses.increment();
+  } // end miss()
+
+
+  // Counts a page replaced
+  void eviction() {
+    evictions.increment();
+  } // end eviction()
+
+
+  // Counts a dirty victim written before its frame was reused
+  void dirtyWriteBack() {
+    dirtyWriteBacks.increment();
+  } // end dirtyWriteBack()
+
+
+  // Counts a page unpinned
+  void unpin() {
+    unpins.increment();
+  } // end unpin()
+
+
+  // Records the number of frames looked at to find a victim
+  void victimSearch(int frames) {
+    victimSearch.record(frames);
+  } // end victimSearch()
+
+
+  // Records a read call of pages pages that took nanos nanoseconds
+  void read(int pages, long nanos) {
+    pagesRead.add(pages);
+    readLatency.record(nanos);
+  } // end read()
+
+
+  // Counts pages pages that a read call failed to read
+  void readFailure(int pages) {
+    readFailures.add(pages);
+  } // end readFailure()
+
+
+  // Records a write call of pages pages that took nanos nanoseconds
+  void write(int pages, long nanos) {
+    pagesWritten.add(pages);
+    writeLatency.record(nanos);
+  } // end write()
+
+
+  // Returns the current metrics
+  public MetricsSnapshot snapshot() {
+    return new MetricsSnapshot(this, mgr);
+  } // end snapshot()
+
+
+  // Clears the counters and histograms
+  public synchronized void reset() {
+    hits.reset();
+    misses.reset();
+    evictions.reset();
+    dirtyWriteBacks.reset();
+    unpins.reset();
+    pagesRead.reset();
+    pagesWritten.reset();
+    readFailures.reset();
+    readLatency.reset();
+    writeLatency.reset();
+    victimSearch.reset();
+    rateBase = null;
+  } // end reset()
+
+
+  // Returns a snapshot together with the one rates are measured from,
+  // which moves up once it is a second old
+  private synchronized MetricsSnapshot[] rateSnapshots() {
+    MetricsSnapshot now = snapshot();
+    MetricsSnapshot base = rateBase;
+    if (base == null) {
+      rateBase = now;
+      return new MetricsSnapshot[] { now, now };
+    }
+    if (now.getTime() - base.getTime() >= 1000000000L)
+      rateBase = now;
+    return new MetricsSnapshot[] { now, base };
+  } // end rateSnapshots()
+
+
+  // The BufMgrMXBean attributes
+
+  public String getReplacer() {
+    return mgr.getReplacerName();
+  } // end getReplacer()
+
+  public int getNumBuffers() {
+    return mgr.getNumBuffers();
+  } // end getNumBuffers()
+
+  public int getPinnedFrames() {
+    return snapshot().getPinnedFrames();
+  } // end getPinnedFrames()
+
+  public int getDirtyFrames() {
+    return snapshot().getDirtyFrames();
+  } // end getDirtyFrames()
+
+  public long getPins() {
+    return hits.sum() + misses.sum();
+  } // end getPins()
+
+  public long getHits() {
+    return hits.sum();
+  } // end getHits()
+
+  public long getMisses() {
+    return misses.sum();
+  } // end getMisses()
+
+  public double getHitRatio() {
+    return snapshot().getHitRatio();
+  } // end getHitRatio()
+
+  public long getEvictions() {
+    return evictions.sum();
+  } // end getEvictions()
+
+  public long getDirtyWriteBacks() {
+    return dirtyWriteBacks.sum();
+  } // end getDirtyWriteBacks()
+
+  public long getUnpins() {
+    return unpins.sum();
+  } // end getUnpins()
+
+  public double getPinRate() {
+    MetricsSnapshot[] s = rateSnapshots();
+    return s[0].getPinRate(s[1]);
+  } // end getPinRate()
+
+  public double getUnpinRate() {
+    MetricsSnapshot[] s = rateSnapshots();
+    return s[0].getUnpinRate(s[1]);
+  } // end getUnpinRate()
+
+  public double getEvictionRate() {
+    MetricsSnapshot[] s = rateSnapshots();
+    return s[0].getEvictionRate(s[1]);
+  } // end getEvictionRate()
+
+  public double getMeanVictimSearch() {
+    return victimSearch.mean();
+  } // end getMeanVictimSearch()
+
+  public long getP99VictimSearch() {
+    return Histogram.percentile(victimSearch.counts(), 0.99);
+  } // end getP99VictimSearch()
+
+  public long getPagesRead() {
+    return pagesRead.sum();
+  } // end getPagesRead()
+
+  public long getPagesWritten() {
+    return pagesWritten.sum();
+  } // end getPagesWritten()
+
+  public long getReadFailures() {
+    return readFailures.sum();
+  } // end getReadFailures()
+
+  public double getMeanReadMicros() {
+    return readLatency.mean() / 1000;
+  } // end getMeanReadMicros()
+
+  public double getP99ReadMicros() {
+    return Histogram.percentile(readLatency.counts(), 0.99) / 1000.0;
+  } // end getP99ReadMicros()
+
+  public double getMeanWriteMicros() {
+    return writeLatency.mean() / 1000;
+  } // end getMeanWriteMicros()
+
+  public double getP99WriteMicros() {
+    return Histogram.percentile(writeLatency.counts(), 0.99) / 1000.0;
+  } // end getP99WriteMicros()
+
+} // end BufMgrMetrics
@@ -0,0 +1,82 @@
+/*  File Clock.java */
+
+package bufmgr;
+
+// A clock algorithm for buffer pool replacement policy. 
+// It picks up the frame in the buffer pool to be replaced. 
+// This is the default replacement policy.
+
+// NOTE: Storing the state in the seperate replacer class decouples the replacer
+// from the buffer manager and enables the program to change replacers on the fly 
+class Clock extends Replacer {
+  
+  // Constructor
+  // NOTE: javamgr is stored as the public internal variable mgr
+  public Clock(BufMgr javamgr) {
+      super(javamgr);
+  }
+  
+  // Determine which frame will be replaced
+  // NOTE: synchronized so that only one thread moves the clock hand at a time
+  public synchronized int pick_victim() throws 
+    BufferPoolExceededException, 
+    PagePinnedException {
+    
+    // The current frame in the Buffer Table
+    FrameDesc frame;
+      
+    // num is used to determine how many times we have iterated through the state array
+    int num = 0;
+      
+    // numBuffers is the size of the state array
+    int numBuffers = mgr.getNumBuffers();
+      
+    // Mod by the numBuffers to ensure the head (aka clock hand) is within the array 
+    // NOTE: head is a member variable of replacer class
+    head = ( head + 1) % numBuffers;
+      
+    // Iterate through the state array to find an available frame in the buffer pool
+    while (true) {
+      
+      // Pin the frame to ensure other threads don't try to use it. The claim
+      // fails if another thread pinned the page since its state was updated
+      if ( state_bit[head].state == Available ) {
+        frame = (mgr.frameTable())[head];
+        if (frame.claim())
+          break;
+      }
+        
+      // On first pass, set all referenced states to available
+      else if ( state_bit[head].state == Referenced )
+        state_bit[head].state = Available;
+  
+      // If you have iterated through the array twice without an available frame
+      // then there are no available frames in the buffer pool. 
+      if ( num == numBuffers * 2 ) 
+        throw new BufferPoolExceededException (null, "CLOCK: The Buffer Pool is full.");
+        
+      // Increment num
+      num++;
+        
+      // Move to the next position in the array
+      head = (head+1) % numBuffers;
+    } // end while
+    
+    state_bit[head].state = Pinned;        
+    searched(num + 1);
+      
+    return head;
+  } // end pick_victim()
+  
+  // Returns the replacer being used
+  public final String name() { 
+    return "Clock"; 
+  } // end name()
+  
+  // Displays the information from the current replacer subclass
+  public void info() {
+    super.info();
+    System.out.println ("head:\t" + head);
+  } // end info()
+  
+} // end of Clock
@@ -0,0 +1,463 @@
+/*  File ClockPro.java */
+
+package bufmgr;
+
+import global.*;
+
+// A CLOCK-Pro algorithm for buffer pool replacement policy. Like Clock it
+// only sets a reference bit on a hit, but it tells hot pages (reused 
+// within a short distance) from cold pages, in the way LIRS does. A cold 
+// page gets a test period when it is read in. If it is referenced again 
+// during its test period it becomes hot. A cold page evicted during its 
+// test period is kept as a non-resident entry, and a miss on it also 
+// makes it hot. Pages of a large scan stay cold and are replaced before
+// any hot page. The target number of cold frames grows when cold pages 
+// are re-referenced during their test period and shrinks when test 
+// periods expire.
+
+// NOTE: All pages are kept in one circular list with three hands: the
+// cold hand replaces cold pages, the hot hand turns hot pages into cold 
+// pages, and the test hand ends test periods. New pages are inserted at
+// the list head, just behind the hot hand.
+class ClockPro extends Replacer {
+  
+  // Number of frames, follows the buffer pool size
+  private int c;
+  
+  // Target number of cold resident pages
+  private int mc;
+  
+  // The circular list of entries, an entry is a resident page (frame[e]
+  // is its frame) or a non-resident cold page in its test period 
+  private FrameList clockList;
+  
+  // pid[e] is the page number of entry e
+  private int[] pid;
+  
+  // frame[e] is the frame holding the page of entry e, -1 if non-resident
+  private int[] frame;
+  
+  // Status bits of each entry
+  private boolean[] hot;
+  private boolean[] test;
+  private boolean[] ref;
+  
+  // entryOf[f] is the entry of the page in frame f, -1 if empty
+  private int[] entryOf;
+  
+  // Maps the page number of a non-resident entry to the entry
+  private BufHashTbl nonResident;
+  
+  // Stack of unused entries
+  private int[] freeEntries;
+  private int numFree;
+  
+  // Frames that do not hold a page
+  private FrameList empty;
+  
+  // The three clock hands, -1 when the list is empty
+  private int handCold;
+  private int handHot;
+  private int handTest;
+  
+  // Number of hot pages, cold resident pages and non-resident pages
+  private int hotCount;
+  private int coldCount;
+  private int nonResidentCount;
+  
+  
+  // Constructor
+  public ClockPro(BufMgr javamgr) {
+    super(javamgr);
+    reset(javamgr.getMaxBuffers(), javamgr.getNumBuffers());
+  } // end constructor
+  
+  
+  // Empties the list and makes every frame in use empty, the list can
+  // hold the entries of up to capacity frames
+  private void reset(int capacity, int numBuffers) {
+    c = numBuffers;
+    mc = Math.max(1, c / 10);
+    
+    // At most capacity resident and capacity non-resident entries, plus 
+    // one added before the test hand removes the oldest
+    int entries = 2 * capacity + 2;
+    clockList = new FrameList(entries);
+    pid = new int[entries];
+    frame = new int[entries];
+    hot = new boolean[entries];
+    test = new boolean[entries];
+    ref = new boolean[entries];
+    freeEntries = new int[entries];
+    for (int i = 0; i < entries; i++)
+      freeEntries[i] = entries - 1 - i;
+    numFree = entries;
+    
+    entryOf = new int[capacity];
+    empty = new FrameList(capacity);
+    for (int i = 0; i < capacity; i++) {
+      entryOf[i] = -1;
+      if (i < c)
+        empty.addLast(i);
+    }
+    nonResident = new BufHashTbl(capacity);
+    
+    handCold = handHot = handTest = -1;
+    hotCount = coldCount = nonResidentCount = 0;
+  } // end reset()
+  
+  
+  // Resets the list along with the state array
+  protected synchronized void setBufferManager(BufMgr mgrArg) {
+    super.setBufferManager(mgrArg);
+    reset(mgrArg.getMaxBuffers(), mgrArg.getNumBuffers());
+  } // end setBufferManager()
+  
+  
+  // Returns the entry after e on the circular list
+  private int advance(int e) {
+    int n = clockList.next(e);
+    return (n < 0) ? clockList.first() : n;
+  } // end advance()
+  
+  
+  // Returns the hand, moved to the first entry if it is not on the list
+  private int position(int hand) {
+    return (hand < 0) ? clockList.first() : hand;
+  } // end position()
+  
+  
+  // Inserts entry e at the list head, just behind the hot hand
+  private void insertAtHead(int e) {
+    if (handHot < 0 || handHot == e) {
+      clockList.addLast(e);
+      if (handHot < 0)
+        handHot = e;
+    }
+    else
+      clockList.insertBefore(e, handHot);
+    if (handCold < 0)
+      handCold = e;
+    if (handTest < 0)
+      handTest = e;
+  } // end insertAtHead()
+  
+  
+  // Takes an entry off the list, moving any hand that points at it
+  private void removeEntry(int e) {
+    int n = (clockList.size() > 1) ? advance(e) : -1;
+    if (handCold == e)
+      handCold = n;
+    if (handHot == e)
+      handHot = n;
+    if (handTest == e)
+      handTest = n;
+    clockList.remove(e);
+    freeEntries[numFree++] = e;
+  } // end removeEntry()
+  
+  
+  // A hit only sets the reference bit
+  public synchronized void pin(int frameNo) throws InvalidFrameNumberException {
+    super.pin(frameNo);
+    if (entryOf[frameNo] >= 0)
+      ref[entryOf[frameNo]] = true;
+  } // end pin()
+  
+  
+  // A freed page is gone for good, its entry leaves the list
+  public synchronized void free(int frameNo) throws PagePinnedException {
+    super.free(frameNo);
+    int e = entryOf[frameNo];
+    if (e >= 0) {
+      if (hot[e])
+        hotCount--;
+      else
+        coldCount--;
+      removeEntry(e);
+      entryOf[frameNo] = -1;
+    }
+    empty.addLast(frameNo);
+  } // end free()
+  
+  
+  // A retired frame leaves the list and is not reused
+  public synchronized void retire(int frameNo) {
+    super.retire(frameNo);
+    int e = entryOf[frameNo];
+    if (e >= 0) {
+      if (hot[e])
+        hotCount--;
+      else
+        coldCount--;
+      removeEntry(e);
+      entryOf[frameNo] = -1;
+    }
+    empty.remove(frameNo);
+  } // end retire()
+  
+  
+  // An unpinned page becomes an unreferenced cold page out of its test
+  // period, so the cold hand replaces it on its next pass
+  public synchronized void demote(int frameNo) {
+    int e = entryOf[frameNo];
+    if ((e < 0) || ((mgr.frameTable())[frameNo].pin_count() != 0))
+      return;
+    if (hot[e]) {
+      hot[e] = false;
+      hotCount--;
+      coldCount++;
+    }
+    ref[e] = false;
+    test[e] = false;
+  } // end demote()
+  
+  
+  // Ends the test period of cold entry e, a non-resident entry leaves 
+  // the list. Returns true if the entry was removed.
+  private boolean endTest(int e) {
+    test[e] = false;
+    mc = Math.max(1, mc - 1);
+    if (frame[e] < 0) {
+      nonResident.remove(pid[e]);
+      nonResidentCount--;
+      removeEntry(e);
+      return true;
+    }
+    return false;
+  } // end endTest()
+  
+  
+  // Runs the hot hand until one hot page has been turned into a cold
+  // page, ending the test periods of the cold pages it passes
+  private void runHandHot() {
+    
+    // Every hot page is demoted within two laps as the first lap clears 
+    // the reference bits
+    int steps = 2 * clockList.size() + 2;
+    while ((hotCount > 0) && (steps-- > 0)) {
+      int e = position(handHot);
+      handHot = advance(e);
+      
+      if (hot[e]) {
+        if (ref[e])
+          ref[e] = false;
+        else {
+          hot[e] = false;
+          hotCount--;
+          coldCount++;
+          return;
+        }
+      }
+      else if (test[e])
+        endTest(e);
+    } // end while
+  } // end runHandHot()
+  
+  
+  // Turns the first unpinned hot page into an unreferenced cold page and
+  // returns its entry, used when every cold page is pinned
+  private int demoteUnpinned() throws BufferPoolExceededException {
+    FrameDesc[] frames = mgr.frameTable();
+    for (int e = clockList.first(); e >= 0; e = clockList.next(e)) {
+      if (hot[e] && (frames[frame[e]].pin_count() == 0)) {
+        hot[e] = false;
+        ref[e] = false;
+        hotCount--;
+        coldCount++;
+        return e;
+      }
+    }
+    throw new BufferPoolExceededException (null, "CLOCK-Pro: The Buffer Pool is full.");
+  } // end demoteUnpinned()
+  
+  
+  // Runs the test hand until there are at most c non-resident entries
+  private void runHandTest() {
+    while (nonResidentCount > c) {
+      int e = position(handTest);
+      handTest = advance(e);
+      if (!hot[e] && test[e])
+        endTest(e);
+    } // end while
+  } // end runHandTest()
+  
+  
+  // Runs the cold hand until an unpinned cold page is replaced, returns 
+  // its frame, already claimed
+  private int runHandCold() throws BufferPoolExceededException {
+    
+    FrameDesc[] frames = mgr.frameTable();
+    
+    // Each lap clears reference bits or promotes pages, so a page is
+    // found within a few laps unless every frame is pinned
+    int limit = 4 * (clockList.size() + 1);
+    int steps = limit;
+    
+    // Number of entries passed in a row that cannot be replaced
+    int skipped = 0;
+    
+    while (steps-- > 0) {
+      
+      // Make a cold page if every resident page is hot, or if the cold
+      // hand went around the list without finding an unpinned cold page
+      if (coldCount == 0)
+        runHandHot();
+      if (skipped > clockList.size()) {
+        handCold = demoteUnpinned();
+        skipped = 0;
+      }
+      
+      int e = position(handCold);
+      if (e < 0)
+        break;
+      handCold = advance(e);
+      
+      // Only unpinned cold resident pages can be replaced
+      if (hot[e] || (frame[e] < 0) || (frames[frame[e]].pin_count() != 0)) {
+        skipped++;
+        continue;
+      }
+      skipped = 0;
+      
+      if (ref[e]) {
+        ref[e] = false;
+        
+        // Re-referenced during its test period, the page becomes hot
+        if (test[e]) {
+          test[e] = false;
+          hot[e] = true;
+          coldCount--;
+          hotCount++;
+          mc = Math.min(Math.max(1, c - 1), mc + 1);
+          insertAtHead(e);
+          while (hotCount > c - mc)
+            runHandHot();
+        }
+        // Otherwise it gets a new test period
+        else {
+          test[e] = true;
+          insertAtHead(e);
+        }
+        continue;
+      } // end if
+      
+      // A frame the buffer manager holds to write or retire it keeps its
+      // entry, it is released without going through the replacer
+      int f = frame[e];
+      if (frames[f].claim() == false)
+        continue;
+      
+      // A page in its test period is remembered as a non-resident entry
+      entryOf[f] = -1;
+      coldCount--;
+      if (test[e]) {
+        frame[e] = -1;
+        nonResident.insert(pid[e], e);
+        nonResidentCount++;
+        runHandTest();
+      }
+      else
+        removeEntry(e);
+      searched(limit - steps);
+      return f;
+    } // end while
+    
+    throw new BufferPoolExceededException (null, "CLOCK-Pro: The Buffer Pool is full.");
+  } // end runHandCold()
+  
+  
+  // Determine which frame will be replaced, without knowing the new page
+  public int pick_victim() throws 
+    BufferPoolExceededException, 
+    PagePinnedException {
+    return pick_victim(new PageId(INVALID_PAGE));
+  } // end pick_victim()
+  
+  
+  // Determine which frame will be replaced by pageNo and add pageNo to 
+  // the list, as a hot page if it was a non-resident entry
+  public synchronized int pick_victim(PageId pageNo) throws 
+    BufferPoolExceededException, 
+    PagePinnedException {
+    
+    FrameDesc[] frames = mgr.frameTable();
+    
+    // The buffer pool may have been resized
+    c = mgr.getNumBuffers();
+    mc = Math.min(mc, Math.max(1, c - 1));
+    
+    // Use an empty frame if there is one
+    // A frame the buffer manager holds stays in the list
+    int f = empty.claimFirst(frames);
+    if (f < 0)
+      f = runHandCold();
+    else
+      searched(empty.skipped() + 1);
+    
+    // The page was evicted during its test period, so it is reused within 
+    // a short distance and becomes hot. Otherwise it starts as a cold
+    // page in its test period.
+    int e = nonResident.lookup(pageNo.pid);
+    boolean reused = (e >= 0);
+    if (reused) {
+      nonResident.remove(pageNo.pid);
+      nonResidentCount--;
+      removeEntry(e);
+      mc = Math.min(Math.max(1, c - 1), mc + 1);
+    }
+    
+    e = freeEntries[--numFree];
+    pid[e] = pageNo.pid;
+    frame[e] = f;
+    ref[e] = false;
+    hot[e] = reused;
+    test[e] = !reused;
+    entryOf[f] = e;
+    insertAtHead(e);
+    
+    if (hot[e]) {
+      hotCount++;
+      while ((hotCount > c - mc) && (hotCount > 0))
+        runHandHot();
+    }
+    else
+      coldCount++;
+    
+    state_bit[f].state = Pinned;
+    return f;
+  } // end pick_victim()
+  
+  
+  // Lists the unpinned and unreferenced cold pages in the order the cold
+  // hand reaches them, the pages it replaces on its next pass
+  public synchronized int next_victims(int[] frames) {
+    FrameDesc[] frameTable = mgr.frameTable();
+    int n = 0;
+    int e = position(handCold);
+    for (int i = clockList.size(); (i > 0) && (e >= 0) && (n < frames.length); i--) {
+      if (!hot[e] && !ref[e] && (frame[e] >= 0) && (frameTable[frame[e]].pin_count() == 0))
+        frames[n++] = frame[e];
+      e = advance(e);
+    } // end for
+    return n;
+  } // end next_victims()
+  
+  
+  // Returns the replacer being used
+  public String name() { 
+    return "CLOCK-Pro"; 
+  } // end name()
+  
+  
+  // Displays the information from the current replacer subclass
+  public synchronized void info() {
+    super.info();
+    System.out.println ("cold target:\t" + mc);
+    System.out.println ("hot:\t" + hotCount);
+    System.out.println ("cold:\t" + coldCount);
+    System.out.println ("non-resident:\t" + nonResidentCount);
+    System.out.println ("empty:\t" + empty.size());
+  } // end info()
+  
+} // end ClockPro
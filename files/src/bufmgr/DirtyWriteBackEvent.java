@@ -0,0 +1,35 @@
+/*  File DirtyWriteBackEvent.java */
+
+package bufmgr;
+
+import jdk.jfr.*;
+
+// A Flight Recorder event for a write of dirty pages made by a thread
+// using the buffer pool, either a victim written before its frame is
+// reused or a run of contiguous pages written by a flush.
+
+// NOTE: Disabled unless a recording enables minibase.DirtyWriteBack
+@Name("minibase.DirtyWriteBack")
+@Label("Dirty Write-Back")
+@Category({ "Minibase", "Buffer Manager" })
+@Description("Dirty pages written to disk by a thread using the buffer pool")
+@Enabled(false)
+@StackTrace(true)
+class DirtyWriteBackEvent extends Event {
+
+  @Label("Page Id")
+  @Description("The first page written")
+  int pageId;
+
+  @Label("Pages")
+  int pages;
+
+  @Label("Frame")
+  @Description("The frame of the first page written")
+  int frame;
+
+  @Label("Cause")
+  @Description("victim or flush")
+  String cause;
+
+} // end DirtyWriteBackEvent
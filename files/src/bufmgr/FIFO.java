@@ -0,0 +1,128 @@
+/*  File FIFO.java */
+
+package bufmgr;
+
+// A first in first out algorithm for buffer pool replacement policy.
+// It picks the unpinned frame whose page was read into the pool first,
+// no matter how often the page was used since.
+
+// NOTE: The unpinned frames are kept in a heap keyed by the time their
+// page was loaded, so a victim is found in O(log n). Empty frames have
+// key 0 and are used first.
+class FIFO extends Replacer {
+  
+  // Unpinned frames keyed by load time
+  protected FrameHeap candidates;
+  
+  // loaded[f] is the time the page in frame f was loaded, 0 if empty
+  protected long[] loaded;
+  
+  // Incremented each time a page is loaded
+  protected long clock;
+  
+  
+  // Constructor
+  public FIFO(BufMgr javamgr) {
+    super(javamgr);
+    reset(javamgr.getMaxBuffers(), javamgr.getNumBuffers());
+  } // end constructor
+  
+  
+  // Makes every frame in use an empty candidate, the heap can hold up to
+  // capacity frames
+  private void reset(int capacity, int numBuffers) {
+    candidates = new FrameHeap(capacity);
+    loaded = new long[capacity];
+    clock = 0;
+    for (int i = 0; i < numBuffers; i++)
+      candidates.add(i, 0);
+  } // end reset()
+  
+  
+  // Resets the heap along with the state array
+  protected synchronized void setBufferManager(BufMgr mgrArg) {
+    super.setBufferManager(mgrArg);
+    reset(mgrArg.getMaxBuffers(), mgrArg.getNumBuffers());
+  } // end setBufferManager()
+  
+  
+  // A pinned frame is no longer a replacement candidate
+  public synchronized void pin(int frameNo) throws InvalidFrameNumberException {
+    super.pin(frameNo);
+    candidates.remove(frameNo);
+  } // end pin()
+  
+  
+  // A frame becomes a candidate again, keeping its original load time
+  public synchronized boolean unpin(int frameNo) throws 
+    InvalidFrameNumberException, 
+    PageUnpinnedException {
+    
+    boolean unpinned = super.unpin(frameNo);
+    if ((mgr.frameTable())[frameNo].pin_count() == 0)
+      candidates.add(frameNo, loaded[frameNo]);
+    return unpinned;
+  } // end unpin()
+  
+  
+  // A freed frame is empty and will be reused first
+  public synchronized void free(int frameNo) throws PagePinnedException {
+    super.free(frameNo);
+    loaded[frameNo] = 0;
+    candidates.add(frameNo, 0);
+  } // end free()
+  
+  
+  // A retired frame is no longer a candidate
+  public synchronized void retire(int frameNo) {
+    super.retire(frameNo);
+    loaded[frameNo] = 0;
+    candidates.remove(frameNo);
+  } // end retire()
+  
+  
+  // An unpinned frame is replaced as if it had been loaded first
+  public synchronized void demote(int frameNo) {
+    if (candidates.contains(frameNo))
+      candidates.update(frameNo, 0);
+  } // end demote()
+  
+  
+  // Determine which frame will be replaced
+  public synchronized int pick_victim() throws 
+    BufferPoolExceededException, 
+    PagePinnedException {
+    
+    // A frame the buffer manager holds to write or retire it stays in the
+    // heap, it is released without going through the replacer
+    int frameNo = candidates.claimSmallest(mgr.frameTable());
+    if (frameNo >= 0) {
+      state_bit[frameNo].state = Pinned;
+      loaded[frameNo] = ++clock;
+      searched(candidates.skipped() + 1);
+      return frameNo;
+    }
+    
+    throw new BufferPoolExceededException (null, "FIFO: The Buffer Pool is full.");
+  } // end pick_victim()
+  
+  
+  // Lists the candidates from the one loaded first
+  public synchronized int next_victims(int[] frames) {
+    return candidates.smallest(frames);
+  } // end next_victims()
+  
+  
+  // Returns the replacer being used
+  public String name() { 
+    return "FIFO"; 
+  } // end name()
+  
+  
+  // Displays the information from the current replacer subclass
+  public void info() {
+    super.info();
+    System.out.println ("candidates:\t" + candidates.size());
+  } // end info()
+  
+} // end FIFO
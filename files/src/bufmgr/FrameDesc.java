@@ -0,0 +1,112 @@
+/*  File FrameDesc.java */
+
+package bufmgr;
+
+import java.util.concurrent.atomic.*;
+import global.*;
+
+// A frame description class. It describes each page in the buffer
+// pool, the page number in the file, whether it is dirty or not,
+// its pin count, and the pin count change when pinning or unpinning 
+// a page.
+
+// The Buffer Table
+// NOTE: pin_cnt is only changed through atomic operations so that threads
+// pinning and unpinning the same frame never lose an update
+class FrameDesc implements GlobalConst {
+  
+  // Atomic access to pin_cnt without an AtomicInteger per frame
+  private static final AtomicIntegerFieldUpdater<FrameDesc> PIN_CNT =
+    AtomicIntegerFieldUpdater.newUpdater(FrameDesc.class, "pin_cnt");
+  
+  // The page within file, or INVALID_PAGE if the frame is empty. 
+  public PageId pageNo;     
+  
+  // true if altered since last write
+  public volatile boolean dirty;     
+                         
+  // pin count 
+  public volatile int pin_cnt;   
+  
+  // true if the page should be replaced first once it is unpinned
+  public volatile boolean probation;
+  
+  // true while the page is being read from disk into this frame or
+  // written from it
+  private volatile boolean io_in_progress;
+
+
+  // Constructor
+  public FrameDesc() {
+    pageNo = new PageId();
+    pageNo.pid = INVALID_PAGE;
+    dirty   = false;
+    pin_cnt = 0;
+  } // end constructor
+
+
+  // getPinCount
+  public int pin_count() { 
+    return(pin_cnt); 
+  } // end pin_count()
+
+  
+  // increments pin count
+  public int pin() { 
+    return(PIN_CNT.incrementAndGet(this)); 
+  } // end pin()
+
+  
+  // decrements pin count
+  public int unpin() {
+    int cnt;
+    do {
+      cnt = pin_cnt;
+      if (cnt <= 0)
+        return 0;
+    } while (!PIN_CNT.compareAndSet(this, cnt, cnt - 1));
+    return(cnt - 1);
+  } // end unpin()
+  
+  
+  // Pins the frame only if nobody else has it pinned, used by the
+  // replacer to take ownership of a victim
+  public boolean claim() {
+    return PIN_CNT.compareAndSet(this, 0, 1);
+  } // end claim()
+  
+  
+  // Marks the frame as being read from or written to disk
+  public void startIO() {
+    io_in_progress = true;
+  } // end startIO()
+  
+  
+  // Marks the read or write as finished and wakes up any thread waiting
+  // for it
+  public synchronized void endIO() {
+    io_in_progress = false;
+    notifyAll();
+  } // end endIO()
+  
+  
+  // Blocks until the page has been read into or written from this frame
+  public void waitIO() {
+    if (!io_in_progress)
+      return;
+    
+    synchronized (this) {
+      boolean interrupted = false;
+      while (io_in_progress) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  } // end waitIO()
+
+} // end FrameDesc
@@ -0,0 +1,236 @@
+/*  File FrameHeap.java */
+
+package bufmgr;
+
+import java.util.*;
+
+// An indexed binary min-heap of frame numbers ordered by a long key. 
+// The position of every frame in the heap is kept in an array, so a 
+// frame's key can be changed or the frame removed in O(log n), and the
+// frame with the smallest key is found in O(1). Nothing is allocated 
+// after construction.
+
+class FrameHeap {
+  
+  // heap[0 .. size-1] holds the frame numbers in heap order
+  private int[] heap;
+  
+  // pos[f] is the index of frame f in heap, or -1 if f is not in the heap
+  private int[] pos;
+  
+  // key[f] is the key of frame f
+  private long[] key;
+  
+  // Number of frames in the heap
+  private int size;
+  
+  // Heap of indices into heap used by smallest()
+  private int[] frontier;
+  
+  // Frames taken out by claimSmallest() while another thread holds them
+  private int[] held;
+  
+  // Number of frames passed over by the last claimSmallest()
+  private int skipped;
+
+
+  // Constructor for frame numbers 0 .. capacity-1
+  public FrameHeap(int capacity) {
+    heap = new int[capacity];
+    pos = new int[capacity];
+    key = new long[capacity];
+    frontier = new int[capacity];
+    held = new int[capacity];
+    Arrays.fill(pos, -1);
+    size = 0;
+  } // end constructor
+  
+  
+  // Returns true if the frame is in the heap
+  public boolean contains(int frameNo) {
+    return pos[frameNo] >= 0;
+  } // end contains()
+  
+  
+  // Returns the number of frames in the heap
+  public int size() {
+    return size;
+  } // end size()
+  
+  
+  // Returns the key of the frame
+  public long key(int frameNo) {
+    return key[frameNo];
+  } // end key()
+  
+  
+  // Adds the frame with the given key, or changes its key if present
+  public void add(int frameNo, long k) {
+    if (pos[frameNo] >= 0) {
+      update(frameNo, k);
+      return;
+    }
+    key[frameNo] = k;
+    heap[size] = frameNo;
+    pos[frameNo] = size;
+    siftUp(size++);
+  } // end add()
+  
+  
+  // Changes the key of a frame in the heap
+  public void update(int frameNo, long k) {
+    long old = key[frameNo];
+    key[frameNo] = k;
+    if (k < old)
+      siftUp(pos[frameNo]);
+    else
+      siftDown(pos[frameNo]);
+  } // end update()
+  
+  
+  // Removes the frame, returns false if it was not in the heap
+  public boolean remove(int frameNo) {
+    int i = pos[frameNo];
+    if (i < 0)
+      return false;
+    
+    pos[frameNo] = -1;
+    size--;
+    if (i != size) {
+      int last = heap[size];
+      heap[i] = last;
+      pos[last] = i;
+      siftDown(i);
+      siftUp(pos[last]);
+    }
+    return true;
+  } // end remove()
+  
+  
+  // Returns the frame with the smallest key, or -1 if the heap is empty
+  public int peek() {
+    return (size == 0) ? -1 : heap[0];
+  } // end peek()
+  
+  
+  // Removes and returns the frame with the smallest key, or -1 if empty
+  public int poll() {
+    int frameNo = peek();
+    if (frameNo >= 0)
+      remove(frameNo);
+    return frameNo;
+  } // end poll()
+  
+  
+  // Claims the frame with the smallest key that nobody holds, removes it
+  // and returns it, or -1 if there is none. A frame held by another
+  // thread, which releases it without telling the replacer, is put back
+  // with its key.
+  public int claimSmallest(FrameDesc[] frames) {
+    int frameNo;
+    skipped = 0;
+    while ((frameNo = poll()) >= 0) {
+      if (frames[frameNo].claim())
+        break;
+      held[skipped++] = frameNo;
+    } // end while
+    
+    for (int i = 0; i < skipped; i++)
+      add(held[i], key[held[i]]);
+    return frameNo;
+  } // end claimSmallest()
+  
+  
+  // Returns the number of frames held by other threads that the last
+  // claimSmallest() passed over
+  public int skipped() {
+    return skipped;
+  } // end skipped()
+  
+  
+  // Lists up to frames.length frames with the smallest keys, smallest
+  // first, without removing them. Returns the number of frames listed.
+  // NOTE: only the children of the entries listed are looked at, so this
+  // takes O(k log k) for k frames, not O(n).
+  public int smallest(int[] frames) {
+    int n = 0;
+    int m = 0;
+    if (size > 0)
+      frontier[m++] = 0;
+    
+    while ((m > 0) && (n < frames.length)) {
+      
+      // Take the entry with the smallest key off the frontier
+      int i = frontier[0];
+      frontier[0] = frontier[--m];
+      int j = 0;
+      while (true) {
+        int child = 2 * j + 1;
+        if (child >= m)
+          break;
+        if ((child + 1 < m) && (key[heap[frontier[child + 1]]] < key[heap[frontier[child]]]))
+          child++;
+        if (key[heap[frontier[j]]] <= key[heap[frontier[child]]])
+          break;
+        int t = frontier[j];
+        frontier[j] = frontier[child];
+        frontier[child] = t;
+        j = child;
+      }
+      frames[n++] = heap[i];
+      
+      // Its children come next
+      for (int c = 2 * i + 1; (c <= 2 * i + 2) && (c < size); c++) {
+        j = m++;
+        frontier[j] = c;
+        while (j > 0) {
+          int parent = (j - 1) >>> 1;
+          if (key[heap[frontier[parent]]] <= key[heap[frontier[j]]])
+            break;
+          int t = frontier[j];
+          frontier[j] = frontier[parent];
+          frontier[parent] = t;
+          j = parent;
+        }
+      }
+    } // end while
+    return n;
+  } // end smallest()
+  
+  
+  // Moves the entry at index i up until its parent is not larger
+  private void siftUp(int i) {
+    int frameNo = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (key[heap[parent]] <= key[frameNo])
+        break;
+      heap[i] = heap[parent];
+      pos[heap[i]] = i;
+      i = parent;
+    }
+    heap[i] = frameNo;
+    pos[frameNo] = i;
+  } // end siftUp()
+  
+  
+  // Moves the entry at index i down until no child is smaller
+  private void siftDown(int i) {
+    int frameNo = heap[i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size)
+        break;
+      if ((child + 1 < size) && (key[heap[child + 1]] < key[heap[child]]))
+        child++;
+      if (key[frameNo] <= key[heap[child]])
+        break;
+      heap[i] = heap[child];
+      pos[heap[i]] = i;
+      i = child;
+    }
+    heap[i] = frameNo;
+    pos[frameNo] = i;
+  } // end siftDown()
+  
+} // end FrameHeap
@@ -0,0 +1,183 @@
+/*  File FrameList.java */
+
+package bufmgr;
+
+import java.util.*;
+
+// A doubly linked list of frame numbers used by the replacement policies.
+// The links are stored in two int arrays indexed by frame number, so a
+// frame can be added, moved or removed in O(1) without any allocation.
+// A frame is in at most one position of the list at a time.
+
+class FrameList {
+  
+  // Link value of a frame that is not in the list
+  private static final int NONE = -1;
+  
+  // next[f] and prev[f] are the neighbours of frame f, the sentinel at
+  // index capacity is both the head and the tail of the circular list
+  private int[] next;
+  private int[] prev;
+  
+  // The index of the sentinel
+  private int nil;
+  
+  // Number of frames in the list
+  private int size;
+  
+  // Number of frames passed over by the last claimFirst() or claimLast()
+  private int skipped;
+
+
+  // Constructor for frame numbers 0 .. capacity-1
+  public FrameList(int capacity) {
+    next = new int[capacity + 1];
+    prev = new int[capacity + 1];
+    Arrays.fill(next, NONE);
+    Arrays.fill(prev, NONE);
+    nil = capacity;
+    next[nil] = nil;
+    prev[nil] = nil;
+    size = 0;
+  } // end constructor
+  
+  
+  // Returns true if the frame is in the list
+  public boolean contains(int frameNo) {
+    return next[frameNo] != NONE;
+  } // end contains()
+  
+  
+  // Returns the number of frames in the list
+  public int size() {
+    return size;
+  } // end size()
+  
+  
+  // Links frameNo between before and after
+  private void link(int frameNo, int before, int after) {
+    next[before] = frameNo;
+    prev[frameNo] = before;
+    next[frameNo] = after;
+    prev[after] = frameNo;
+    size++;
+  } // end link()
+  
+  
+  // Adds the frame at the head, moving it if it is already in the list
+  public void addFirst(int frameNo) {
+    remove(frameNo);
+    link(frameNo, nil, next[nil]);
+  } // end addFirst()
+  
+  
+  // Adds the frame at the tail, moving it if it is already in the list
+  public void addLast(int frameNo) {
+    remove(frameNo);
+    link(frameNo, prev[nil], nil);
+  } // end addLast()
+  
+  
+  // Adds the frame just before the frame at, which must be in the list,
+  // moving frameNo if it is already in the list
+  public void insertBefore(int frameNo, int at) {
+    if (frameNo == at)
+      return;
+    remove(frameNo);
+    link(frameNo, prev[at], at);
+  } // end insertBefore()
+  
+  
+  // Removes the frame, returns false if it was not in the list
+  public boolean remove(int frameNo) {
+    if (next[frameNo] == NONE)
+      return false;
+    
+    next[prev[frameNo]] = next[frameNo];
+    prev[next[frameNo]] = prev[frameNo];
+    next[frameNo] = NONE;
+    prev[frameNo] = NONE;
+    size--;
+    return true;
+  } // end remove()
+  
+  
+  // Returns the frame at the head, or -1 if the list is empty
+  public int first() {
+    return (next[nil] == nil) ? -1 : next[nil];
+  } // end first()
+  
+  
+  // Returns the frame at the tail, or -1 if the list is empty
+  public int last() {
+    return (prev[nil] == nil) ? -1 : prev[nil];
+  } // end last()
+  
+  
+  // Returns the frame after frameNo, or -1 at the tail
+  public int next(int frameNo) {
+    return (next[frameNo] == nil) ? -1 : next[frameNo];
+  } // end next()
+  
+  
+  // Returns the frame before frameNo, or -1 at the head
+  public int prev(int frameNo) {
+    return (prev[frameNo] == nil) ? -1 : prev[frameNo];
+  } // end prev()
+  
+  
+  // Removes and returns the frame at the head, or -1 if the list is empty
+  public int removeFirst() {
+    int frameNo = first();
+    if (frameNo >= 0)
+      remove(frameNo);
+    return frameNo;
+  } // end removeFirst()
+  
+  
+  // Claims the frame nearest the head that nobody holds, removes it and
+  // returns it, or -1 if there is none. A frame held by another thread,
+  // which releases it without telling the replacer, keeps its place.
+  public int claimFirst(FrameDesc[] frames) {
+    skipped = 0;
+    for (int frameNo = first(); frameNo >= 0; frameNo = next(frameNo)) {
+      if (frames[frameNo].claim()) {
+        remove(frameNo);
+        return frameNo;
+      }
+      skipped++;
+    } // end for
+    return -1;
+  } // end claimFirst()
+  
+  
+  // Same as claimFirst() from the tail
+  public int claimLast(FrameDesc[] frames) {
+    skipped = 0;
+    for (int frameNo = last(); frameNo >= 0; frameNo = prev(frameNo)) {
+      if (frames[frameNo].claim()) {
+        remove(frameNo);
+        return frameNo;
+      }
+      skipped++;
+    } // end for
+    return -1;
+  } // end claimLast()
+  
+  
+  // Returns the number of frames held by other threads that the last
+  // claimFirst() or claimLast() passed over
+  public int skipped() {
+    return skipped;
+  } // end skipped()
+  
+  
+  // Removes and returns the frame at the tail, or -1 if the list is empty
+  public int removeLast() {
+    int frameNo = last();
+    if (frameNo >= 0)
+      remove(frameNo);
+    return frameNo;
+  } // end removeLast()
+  
+} // end FrameList
@@ -0,0 +1,127 @@
+/*  File GhostList.java */
+
+package bufmgr;
+
+import global.*;
+
+// A bounded list of page numbers in least recently added order. It is 
+// used by replacement algorithms to remember pages that were evicted 
+// from the buffer pool (ghost entries) without keeping their contents.
+// When the list is full, adding a page drops the oldest one. Page
+// numbers are located with a BufHashTbl, so every operation is O(1)
+// and nothing is allocated after construction.
+
+class GhostList implements GlobalConst {
+  
+  // Maximum number of pages in the list
+  private int capacity;
+  
+  // Maps a page number to the slot holding it
+  private BufHashTbl index;
+  
+  // pids[s] is the page number stored in slot s
+  private int[] pids;
+  
+  // The used slots, oldest first
+  private FrameList order;
+  
+  // Stack of unused slots
+  private int[] freeSlots;
+  private int numFree;
+
+
+  // Constructor
+  public GhostList(int capacity) {
+    this.capacity = Math.max(capacity, 1);
+    index = new BufHashTbl(this.capacity);
+    pids = new int[this.capacity];
+    order = new FrameList(this.capacity);
+    freeSlots = new int[this.capacity];
+    for (int i = 0; i < this.capacity; i++)
+      freeSlots[i] = this.capacity - 1 - i;
+    numFree = this.capacity;
+  } // end constructor
+  
+  
+  // Returns the number of pages in the list
+  public int size() {
+    return order.size();
+  } // end size()
+  
+  
+  // Returns the maximum number of pages in the list
+  public int capacity() {
+    return capacity;
+  } // end capacity()
+  
+  
+  // Returns true if the page is in the list
+  public boolean contains(int pid) {
+    return index.lookup(pid) >= 0;
+  } // end contains()
+  
+  
+  // Returns the slot holding the page, or -1 if it is not in the list.
+  // Slots are numbered 0 .. capacity-1, so callers can keep data about
+  // each page in their own arrays indexed by slot.
+  public int slotOf(int pid) {
+    return index.lookup(pid);
+  } // end slotOf()
+  
+  
+  // Adds the page as the newest entry, dropping the oldest entry if the
+  // list is full. Returns the dropped page, or INVALID_PAGE.
+  public int add(int pid) {
+    if (pid == INVALID_PAGE)
+      return INVALID_PAGE;
+    
+    // Already present, make it the newest entry
+    int slot = index.lookup(pid);
+    if (slot >= 0) {
+      order.addLast(slot);
+      return INVALID_PAGE;
+    }
+    
+    int dropped = INVALID_PAGE;
+    if (numFree == 0)
+      dropped = removeFirst();
+    
+    slot = freeSlots[--numFree];
+    pids[slot] = pid;
+    index.insert(pid, slot);
+    order.addLast(slot);
+    return dropped;
+  } // end add()
+  
+  
+  // Removes the page, returns false if it was not in the list
+  public boolean remove(int pid) {
+    int slot = index.lookup(pid);
+    if (slot < 0)
+      return false;
+    
+    release(slot);
+    return true;
+  } // end remove()
+  
+  
+  // Removes and returns the oldest page, or INVALID_PAGE if empty
+  public int removeFirst() {
+    int slot = order.first();
+    if (slot < 0)
+      return INVALID_PAGE;
+    
+    int pid = pids[slot];
+    release(slot);
+    return pid;
+  } // end removeFirst()
+  
+  
+  // Returns a slot to the free stack
+  private void release(int slot) {
+    index.remove(pids[slot]);
+    order.remove(slot);
+    freeSlots[numFree++] = slot;
+  } // end release()
+  
+} // end GhostList
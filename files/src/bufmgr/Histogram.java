@@ -0,0 +1,94 @@
+/*  File Histogram.java */
+
+package bufmgr;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// A histogram of non-negative values, such as latencies in nanoseconds or
+// victim search lengths. Value v is counted in bucket b where 2^(b-1) <= v
+// < 2^b, bucket 0 holds 0, so percentiles are exact to a factor of two.
+
+// NOTE: Each bucket is a LongAdder, threads recording at the same time
+// update separate cells instead of contending on one counter.
+public class Histogram {
+
+  // One bucket per bit of a long, plus one for 0
+  private static final int BUCKETS = 65;
+
+  // Number of values counted in each bucket
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+  // Sum of the values recorded
+  private final LongAdder sum = new LongAdder();
+
+
+  // Constructor
+  public Histogram() {
+    for (int i = 0; i < BUCKETS; i++)
+      buckets[i] = new LongAdder();
+  } // end constructor
+
+
+  // Records a value, a negative value is recorded as 0
+  public void record(long value) {
+    if (value < 0)
+      value = 0;
+    buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+    sum.add(value);
+  } // end record()
+
+
+  // Returns the number of values in each bucket
+  public long[] counts() {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++)
+      counts[i] = buckets[i].sum();
+    return counts;
+  } // end counts()
+
+
+  // Returns the number of values recorded
+  public long count() {
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++)
+      n += buckets[i].sum();
+    return n;
+  } // end count()
+
+
+  // Returns the mean of the values recorded, 0 if there are none
+  public double mean() {
+    long n = count();
+    return (n == 0) ? 0 : (double)sum.sum() / n;
+  } // end mean()
+
+
+  // Returns the upper bound of the bucket holding the q-th quantile of
+  // counts, q in [0, 1], 0 if counts is empty
+  public static long percentile(long[] counts, double q) {
+    long n = 0;
+    for (int i = 0; i < counts.length; i++)
+      n += counts[i];
+    if (n == 0)
+      return 0;
+
+    long rank = Math.max(1, (long)Math.ceil(q * n));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank)
+        return (i == 0) ? 0 : (i == 64) ? Long.MAX_VALUE : (1L << i) - 1;
+    }
+    return Long.MAX_VALUE;
+  } // end percentile()
+
+
+  // Clears the histogram
+  // NOTE: values recorded while it is cleared may be lost
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++)
+      buckets[i].reset();
+    sum.reset();
+  } // end reset()
+
+} // end Histogram
@@ -0,0 +1,150 @@
+/*  File LFU.java */
+
+package bufmgr;
+
+// A least frequently used algorithm for buffer pool replacement policy.
+// It picks the unpinned frame whose page was pinned the fewest times 
+// since it was loaded, and the least recently used one among ties.
+
+// NOTE: The unpinned frames are kept in a heap keyed by reference count
+// and last use, so a victim is found in O(log n). Empty frames have 
+// key 0 and are used first.
+class LFU extends Replacer {
+  
+  // Bits of the heap key used for the time of last use
+  private static final int TIME_BITS = 40;
+  
+  // Largest reference count that fits in the heap key
+  private static final long MAX_COUNT = (1L << (63 - TIME_BITS)) - 1;
+  
+  // Unpinned frames keyed by (reference count, time of last use)
+  protected FrameHeap candidates;
+  
+  // count[f] is the number of times the page in frame f was pinned
+  protected long[] count;
+  
+  // lastUse[f] is the time the page in frame f was last pinned
+  protected long[] lastUse;
+  
+  // Incremented on every pin
+  protected long clock;
+  
+  
+  // Constructor
+  public LFU(BufMgr javamgr) {
+    super(javamgr);
+    reset(javamgr.getMaxBuffers(), javamgr.getNumBuffers());
+  } // end constructor
+  
+  
+  // Makes every frame in use an empty candidate, the heap can hold up to
+  // capacity frames
+  private void reset(int capacity, int numBuffers) {
+    candidates = new FrameHeap(capacity);
+    count = new long[capacity];
+    lastUse = new long[capacity];
+    clock = 0;
+    for (int i = 0; i < numBuffers; i++)
+      candidates.add(i, 0);
+  } // end reset()
+  
+  
+  // Resets the heap along with the state array
+  protected synchronized void setBufferManager(BufMgr mgrArg) {
+    super.setBufferManager(mgrArg);
+    reset(mgrArg.getMaxBuffers(), mgrArg.getNumBuffers());
+  } // end setBufferManager()
+  
+  
+  // Returns the heap key of a frame
+  private long key(int frameNo) {
+    return (Math.min(count[frameNo], MAX_COUNT) << TIME_BITS) 
+      | (lastUse[frameNo] & ((1L << TIME_BITS) - 1));
+  } // end key()
+  
+  
+  // Counts the reference, a pinned frame is no longer a candidate
+  public synchronized void pin(int frameNo) throws InvalidFrameNumberException {
+    super.pin(frameNo);
+    count[frameNo]++;
+    lastUse[frameNo] = ++clock;
+    candidates.remove(frameNo);
+  } // end pin()
+  
+  
+  // A frame becomes a candidate again when its last pin is released
+  public synchronized boolean unpin(int frameNo) throws 
+    InvalidFrameNumberException, 
+    PageUnpinnedException {
+    
+    boolean unpinned = super.unpin(frameNo);
+    if ((mgr.frameTable())[frameNo].pin_count() == 0)
+      candidates.add(frameNo, key(frameNo));
+    return unpinned;
+  } // end unpin()
+  
+  
+  // A freed frame is empty and will be reused first
+  public synchronized void free(int frameNo) throws PagePinnedException {
+    super.free(frameNo);
+    count[frameNo] = 0;
+    lastUse[frameNo] = 0;
+    candidates.add(frameNo, 0);
+  } // end free()
+  
+  
+  // A retired frame is no longer a candidate and its count is dropped
+  public synchronized void retire(int frameNo) {
+    super.retire(frameNo);
+    count[frameNo] = 0;
+    lastUse[frameNo] = 0;
+    candidates.remove(frameNo);
+  } // end retire()
+  
+  
+  // An unpinned frame is replaced as if it had never been referenced
+  public synchronized void demote(int frameNo) {
+    if (candidates.contains(frameNo))
+      candidates.update(frameNo, 0);
+  } // end demote()
+  
+  
+  // Determine which frame will be replaced
+  public synchronized int pick_victim() throws 
+    BufferPoolExceededException, 
+    PagePinnedException {
+    
+    // A frame the buffer manager holds to write or retire it stays in the
+    // heap, it is released without going through the replacer
+    int frameNo = candidates.claimSmallest(mgr.frameTable());
+    if (frameNo >= 0) {
+      state_bit[frameNo].state = Pinned;
+      count[frameNo] = 1;
+      lastUse[frameNo] = ++clock;
+      searched(candidates.skipped() + 1);
+      return frameNo;
+    }
+    
+    throw new BufferPoolExceededException (null, "LFU: The Buffer Pool is full.");
+  } // end pick_victim()
+  
+  
+  // Lists the candidates from the least frequently used one
+  public synchronized int next_victims(int[] frames) {
+    return candidates.smallest(frames);
+  } // end next_victims()
+  
+  
+  // Returns the replacer being used
+  public String name() { 
+    return "LFU"; 
+  } // end name()
+  
+  
+  // Displays the information from the current replacer subclass
+  public void info() {
+    super.info();
+    System.out.println ("candidates:\t" + candidates.size());
+  } // end info()
+  
+} // end LFU
@@ -0,0 +1,145 @@
+/*  File LRU.java */
+
+package bufmgr;
+
+// A least recently used algorithm for buffer pool replacement policy.
+// It picks the unpinned frame whose page was unpinned the longest time
+// ago. Point lookup workloads keep their hot pages with this policy.
+
+// NOTE: The unpinned frames are kept in a linked list in the order they
+// were unpinned, so a victim is found in O(1) instead of sweeping the
+// state array. Empty frames are kept in their own list and used first.
+class LRU extends Replacer {
+  
+  // Unpinned frames holding a page, least recently unpinned first
+  protected FrameList candidates;
+  
+  // Frames that do not hold a page
+  protected FrameList empty;
+  
+  // Frames looked at by the pick_victim() running
+  protected int looked;
+  
+  
+  // Constructor
+  public LRU(BufMgr javamgr) {
+    super(javamgr);
+    reset(javamgr.getMaxBuffers(), javamgr.getNumBuffers());
+  } // end constructor
+  
+  
+  // Puts every frame in use on the empty list, the lists can hold up to
+  // capacity frames
+  private void reset(int capacity, int numBuffers) {
+    candidates = new FrameList(capacity);
+    empty = new FrameList(capacity);
+    for (int i = 0; i < numBuffers; i++)
+      empty.addLast(i);
+  } // end reset()
+  
+  
+  // Resets the lists along with the state array
+  protected synchronized void setBufferManager(BufMgr mgrArg) {
+    super.setBufferManager(mgrArg);
+    reset(mgrArg.getMaxBuffers(), mgrArg.getNumBuffers());
+  } // end setBufferManager()
+  
+  
+  // A pinned frame is no longer a replacement candidate
+  public synchronized void pin(int frameNo) throws InvalidFrameNumberException {
+    super.pin(frameNo);
+    candidates.remove(frameNo);
+  } // end pin()
+  
+  
+  // A frame becomes the most recently used candidate when its last pin
+  // is released
+  public synchronized boolean unpin(int frameNo) throws 
+    InvalidFrameNumberException, 
+    PageUnpinnedException {
+    
+    boolean unpinned = super.unpin(frameNo);
+    if ((mgr.frameTable())[frameNo].pin_count() == 0)
+      candidates.addLast(frameNo);
+    return unpinned;
+  } // end unpin()
+  
+  
+  // A freed frame goes to the empty list to be reused first
+  public synchronized void free(int frameNo) throws PagePinnedException {
+    super.free(frameNo);
+    candidates.remove(frameNo);
+    empty.addLast(frameNo);
+  } // end free()
+  
+  
+  // A retired frame leaves both lists
+  public synchronized void retire(int frameNo) {
+    super.retire(frameNo);
+    candidates.remove(frameNo);
+    empty.remove(frameNo);
+  } // end retire()
+  
+  
+  // An unpinned frame moves to the least recently used end
+  public synchronized void demote(int frameNo) {
+    if (candidates.contains(frameNo))
+      candidates.addFirst(frameNo);
+  } // end demote()
+  
+  
+  // Lists the candidates from the least recently used one
+  public synchronized int next_victims(int[] frames) {
+    int n = 0;
+    for (int f = candidates.first(); (f >= 0) && (n < frames.length); f = candidates.next(f))
+      frames[n++] = f;
+    return n;
+  } // end next_victims()
+  
+  
+  // Claims and returns the next frame to replace, or -1 if there is none.
+  // Adds the frames passed over to looked.
+  protected int nextVictim(FrameDesc[] frames) {
+    int frameNo = empty.claimFirst(frames);
+    looked += empty.skipped();
+    if (frameNo < 0) {
+      frameNo = candidates.claimFirst(frames);
+      looked += candidates.skipped();
+    }
+    return frameNo;
+  } // end nextVictim()
+  
+  
+  // Determine which frame will be replaced
+  public synchronized int pick_victim() throws 
+    BufferPoolExceededException, 
+    PagePinnedException {
+    
+    // A frame the buffer manager holds to write or retire it stays in its
+    // list, it is released without going through the replacer
+    looked = 1;
+    int frameNo = nextVictim(mgr.frameTable());
+    if (frameNo >= 0) {
+      state_bit[frameNo].state = Pinned;
+      searched(looked);
+      return frameNo;
+    }
+    
+    throw new BufferPoolExceededException (null, name().toUpperCase() + ": The Buffer Pool is full.");
+  } // end pick_victim()
+  
+  
+  // Returns the replacer being used
+  public String name() { 
+    return "LRU"; 
+  } // end name()
+  
+  
+  // Displays the information from the current replacer subclass
+  public void info() {
+    super.info();
+    System.out.println ("candidates:\t" + candidates.size());
+    System.out.println ("empty:\t" + empty.size());
+  } // end info()
+  
+} // end LRU
@@ -0,0 +1,240 @@
+/*  File LRUK.java */
+
+package bufmgr;
+
+import global.*;
+
+// An LRU-K algorithm for buffer pool replacement policy. It picks the 
+// unpinned frame whose K-th most recent reference is the oldest, so a
+// page needs K references to be considered popular. Pages referenced
+// fewer than K times are replaced first, least recently used first.
+// The reference history of recently evicted pages is retained, so a page
+// that comes back is not mistaken for a page seen for the first time.
+
+// NOTE: Time is counted in page references. A reference that comes within
+// the correlated reference period of the page's last reference (such as
+// the pin/unpin loops of DB.allocate_page and DB.set_bits) only updates
+// its last reference time and does not count as a new reference. The
+// unpinned frames are kept in a heap so a victim is found in O(log n).
+class LRUK extends Replacer {
+  
+  // Default number of references tracked per page
+  public static final int DEFAULT_K = 2;
+  
+  // Number of references tracked per page
+  private int k;
+  
+  // References within this many ticks of the last one are correlated
+  private long correlatedPeriod;
+  
+  // Number of evicted pages whose history is retained
+  private int retained;
+  
+  // Incremented on every reference
+  private long clock;
+  
+  // hist[f*k + i] is the time of the (i+1)-th most recent uncorrelated 
+  // reference to the page in frame f, 0 if it has fewer references
+  private long[] hist;
+  
+  // last[f] is the time of the most recent reference to the page in frame f
+  private long[] last;
+  
+  // The retained history of evicted pages, indexed by ghost slot
+  private GhostList ghosts;
+  private long[] ghostHist;
+  private long[] ghostLast;
+  
+  // Unpinned frames keyed by their K-th most recent reference
+  private FrameHeap candidates;
+  
+  
+  // Constructor for LRU-2 with a correlated reference period of an 
+  // eighth of the pool
+  public LRUK(BufMgr javamgr) {
+    this(javamgr, DEFAULT_K, Math.max(2, javamgr.getNumBuffers() / 8));
+  } // end constructor
+  
+  
+  // Constructor, k is the number of references tracked per page and 
+  // correlatedPeriod is counted in page references
+  public LRUK(BufMgr javamgr, int k, long correlatedPeriod) {
+    super(javamgr);
+    this.k = Math.max(k, 1);
+    this.correlatedPeriod = Math.max(correlatedPeriod, 0);
+    reset(javamgr.getMaxBuffers(), javamgr.getNumBuffers());
+  } // end constructor
+  
+  
+  // Clears all history and makes every frame in use an empty candidate,
+  // the heap can hold up to capacity frames
+  private void reset(int capacity, int numBuffers) {
+    retained = Math.max(numBuffers, 1);
+    clock = 0;
+    hist = new long[capacity * k];
+    last = new long[capacity];
+    ghosts = new GhostList(retained);
+    ghostHist = new long[retained * k];
+    ghostLast = new long[retained];
+    candidates = new FrameHeap(capacity);
+    for (int i = 0; i < numBuffers; i++)
+      candidates.add(i, Long.MIN_VALUE);
+  } // end reset()
+  
+  
+  // Resets the history along with the state array
+  protected synchronized void setBufferManager(BufMgr mgrArg) {
+    super.setBufferManager(mgrArg);
+    reset(mgrArg.getMaxBuffers(), mgrArg.getNumBuffers());
+  } // end setBufferManager()
+  
+  
+  // Records a reference to the page in frame f at the current time
+  private void reference(int f) {
+    long now = ++clock;
+    int base = f * k;
+    
+    // An uncorrelated reference starts a new entry in the history. The
+    // older entries are moved by the length of the correlated period 
+    // that just ended, so that period counts as a single reference.
+    if ((hist[base] == 0) || (now - last[f] > correlatedPeriod)) {
+      long period = (hist[base] == 0) ? 0 : last[f] - hist[base];
+      for (int i = k - 1; i > 0; i--)
+        hist[base + i] = (hist[base + i - 1] == 0) ? 0 : hist[base + i - 1] + period;
+      hist[base] = now;
+    }
+    last[f] = now;
+  } // end reference()
+  
+  
+  // Returns the heap key of frame f, pages with fewer than K references
+  // come first ordered by their most recent reference
+  private long key(int f) {
+    long kth = hist[f * k + k - 1];
+    if (kth == 0)
+      return Long.MIN_VALUE / 2 + hist[f * k];
+    return kth;
+  } // end key()
+  
+  
+  // Counts the reference, a pinned frame is no longer a candidate
+  public synchronized void pin(int frameNo) throws InvalidFrameNumberException {
+    super.pin(frameNo);
+    reference(frameNo);
+    candidates.remove(frameNo);
+  } // end pin()
+  
+  
+  // A frame becomes a candidate again when its last pin is released
+  public synchronized boolean unpin(int frameNo) throws 
+    InvalidFrameNumberException, 
+    PageUnpinnedException {
+    
+    boolean unpinned = super.unpin(frameNo);
+    if ((mgr.frameTable())[frameNo].pin_count() == 0)
+      candidates.add(frameNo, key(frameNo));
+    return unpinned;
+  } // end unpin()
+  
+  
+  // A freed page is gone for good, so its history is dropped
+  public synchronized void free(int frameNo) throws PagePinnedException {
+    super.free(frameNo);
+    clear(frameNo);
+    candidates.add(frameNo, Long.MIN_VALUE);
+  } // end free()
+  
+  
+  // A retired frame is no longer a candidate and its history is dropped
+  public synchronized void retire(int frameNo) {
+    super.retire(frameNo);
+    clear(frameNo);
+    candidates.remove(frameNo);
+  } // end retire()
+  
+  
+  // An unpinned frame is replaced before any frame holding a page, its
+  // history is kept
+  public synchronized void demote(int frameNo) {
+    if (candidates.contains(frameNo))
+      candidates.update(frameNo, Long.MIN_VALUE + 1);
+  } // end demote()
+  
+  
+  // Clears the history of frame f
+  private void clear(int f) {
+    for (int i = 0; i < k; i++)
+      hist[f * k + i] = 0;
+    last[f] = 0;
+  } // end clear()
+  
+  
+  // Determine which frame will be replaced, without knowing the new page
+  public int pick_victim() throws 
+    BufferPoolExceededException, 
+    PagePinnedException {
+    return pick_victim(new PageId(INVALID_PAGE));
+  } // end pick_victim()
+  
+  
+  // Determine which frame will be replaced by pageNo. The history of the
+  // evicted page is retained and the history of pageNo restored.
+  public synchronized int pick_victim(PageId pageNo) throws 
+    BufferPoolExceededException, 
+    PagePinnedException {
+    
+    // A frame the buffer manager holds to write or retire it stays in the
+    // heap, it is released without going through the replacer
+    FrameDesc[] frames = mgr.frameTable();
+    int frameNo = candidates.claimSmallest(frames);
+    if (frameNo < 0)
+      throw new BufferPoolExceededException (null, "LRU-K: The Buffer Pool is full.");
+    
+    // Retain the history of the evicted page
+    int oldpid = frames[frameNo].pageNo.pid;
+    if ((oldpid != INVALID_PAGE) && (last[frameNo] != 0)) {
+      ghosts.add(oldpid);
+      int slot = ghosts.slotOf(oldpid);
+      System.arraycopy(hist, frameNo * k, ghostHist, slot * k, k);
+      ghostLast[slot] = last[frameNo];
+    }
+    
+    // Restore the history of the new page if it was evicted recently
+    int slot = ghosts.slotOf(pageNo.pid);
+    if (slot >= 0) {
+      System.arraycopy(ghostHist, slot * k, hist, frameNo * k, k);
+      last[frameNo] = ghostLast[slot];
+      ghosts.remove(pageNo.pid);
+    }
+    else
+      clear(frameNo);
+    
+    reference(frameNo);
+    state_bit[frameNo].state = Pinned;
+    searched(candidates.skipped() + 1);
+    return frameNo;
+  } // end pick_victim()
+  
+  
+  // Lists the candidates from the one with the oldest K-th reference
+  public synchronized int next_victims(int[] frames) {
+    return candidates.smallest(frames);
+  } // end next_victims()
+  
+  
+  // Returns the replacer being used
+  public String name() { 
+    return "LRU-K"; 
+  } // end name()
+  
+  
+  // Displays the information from the current replacer subclass
+  public synchronized void info() {
+    super.info();
+    System.out.println ("K:\t" + k);
+    System.out.println ("correlated period:\t" + correlatedPeriod);
+    System.out.println ("candidates:\t" + candidates.size());
+    System.out.println ("retained:\t" + ghosts.size());
+  } // end info()
+  
+} // end LRUK
@@ -0,0 +1,55 @@
+/*  File MRU.java */
+
+package bufmgr;
+
+// A most recently used algorithm for buffer pool replacement policy.
+// It picks the unpinned frame whose page was unpinned last. A sequential
+// scan larger than the pool keeps reusing the same frames with this
+// policy instead of flushing every other page out of the pool.
+
+// NOTE: Shares the candidate list of LRU and takes the victim from the
+// other end of it
+class MRU extends LRU {
+  
+  // Constructor
+  public MRU(BufMgr javamgr) {
+    super(javamgr);
+  } // end constructor
+  
+  
+  // An unpinned frame moves to the most recently used end, where the 
+  // victims are taken
+  public synchronized void demote(int frameNo) {
+    if (candidates.contains(frameNo))
+      candidates.addLast(frameNo);
+  } // end demote()
+  
+  
+  // Lists the candidates from the most recently used one
+  public synchronized int next_victims(int[] frames) {
+    int n = 0;
+    for (int f = candidates.last(); (f >= 0) && (n < frames.length); f = candidates.prev(f))
+      frames[n++] = f;
+    return n;
+  } // end next_victims()
+  
+  
+  // Claims and returns the next frame to replace, or -1 if there is none.
+  // Adds the frames passed over to looked.
+  protected int nextVictim(FrameDesc[] frames) {
+    int frameNo = empty.claimFirst(frames);
+    looked += empty.skipped();
+    if (frameNo < 0) {
+      frameNo = candidates.claimLast(frames);
+      looked += candidates.skipped();
+    }
+    return frameNo;
+  } // end nextVictim()
+  
+  
+  // Returns the replacer being used
+  public String name() { 
+    return "MRU"; 
+  } // end name()
+  
+} // end MRU
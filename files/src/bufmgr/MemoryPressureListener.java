@@ -0,0 +1,176 @@
+/*  File MemoryPressureListener.java */
+
+package bufmgr;
+
+import java.lang.management.*;
+import java.util.*;
+import javax.management.*;
+
+// Shrinks the buffer pool when the Java heap runs short. A usage threshold
+// is set on each heap memory pool that supports one, and every time the
+// heap is still above the threshold after a garbage collection the buffer
+// pool gives back a quarter of its frames, down to minBuffers.
+
+// NOTE: The JVM sends the notifications from its own thread, so the resize
+// runs on a daemon thread of its own and a notification that arrives
+// while a resize is running is ignored. Only the heap is watched, it is
+// what the frames of an on-heap buffer pool use: an off-heap pool keeps
+// its frames outside the heap and is never shrunk.
+public class MemoryPressureListener implements NotificationListener {
+
+  // The buffer manager that is shrunk
+  private final BufMgr mgr;
+
+  // Fraction of each heap pool's maximum size above which the pool is full
+  private final double threshold;
+
+  // The buffer pool is never shrunk below this many frames
+  private final int minBuffers;
+
+  // The heap pools a threshold was set on
+  private final List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+
+  // true while a resize started by a notification runs
+  private boolean shrinking;
+
+  // Number of times the buffer pool was shrunk
+  private volatile long shrinks;
+  
+  // Number of resizes that failed or stopped short of their target, and
+  // the last error, null if none
+  private volatile long failures;
+  private volatile Exception lastFailure;
+
+
+  // Constructor
+  MemoryPressureListener(BufMgr mgr, double threshold, int minBuffers) {
+    this.mgr = mgr;
+    this.threshold = threshold;
+    this.minBuffers = Math.max(1, minBuffers);
+  } // end constructor
+
+
+  // Sets the thresholds and starts listening to the memory notifications,
+  // unless the buffer pool is off-heap
+  synchronized void start() {
+    if (mgr.isOffHeap())
+      return;
+    
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      long max = pool.getUsage().getMax();
+      if ((pool.getType() == MemoryType.HEAP) && pool.isCollectionUsageThresholdSupported()
+          && (max > 0)) {
+        pool.setCollectionUsageThreshold((long)(max * threshold));
+        pools.add(pool);
+      }
+    } // end for
+
+    NotificationEmitter emitter = (NotificationEmitter)ManagementFactory.getMemoryMXBean();
+    emitter.addNotificationListener(this, null, null);
+  } // end start()
+
+
+  // Stops listening and clears the thresholds
+  synchronized void stop() {
+    NotificationEmitter emitter = (NotificationEmitter)ManagementFactory.getMemoryMXBean();
+    try {
+      emitter.removeNotificationListener(this);
+    } catch (ListenerNotFoundException e) {
+    }
+
+    for (MemoryPoolMXBean pool : pools)
+      pool.setCollectionUsageThreshold(0);
+    pools.clear();
+  } // end stop()
+
+
+  // Shrinks the buffer pool when a heap pool stays above its threshold
+  // after a garbage collection
+  public void handleNotification(Notification notification, Object handback) {
+    if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()))
+      return;
+
+    final int target;
+    synchronized (this) {
+      int numBuffers = mgr.getNumBuffers();
+      int size = Math.max(minBuffers, numBuffers - numBuffers / 4);
+      if (shrinking || pools.isEmpty() || (size >= numBuffers))
+        return;
+      shrinking = true;
+      target = size;
+    }
+
+    // shrinking is cleared by the thread, or here if it never started
+    boolean started = false;
+    try {
+      Thread t = new Thread(new Runnable() {
+        public void run() {
+          try {
+            if (mgr.resize(target) > target)
+              fail(null);
+            else
+              shrinks++;
+          } catch (BufMgrException | RuntimeException e) {
+            fail(e);
+          } finally {
+            done();
+          }
+        }
+      }, "BufMgr memory pressure resize");
+      t.setDaemon(true);
+      t.start();
+      started = true;
+    } finally {
+      if (started == false) {
+        fail(null);
+        done();
+      }
+    } // end try
+  } // end handleNotification()
+  
+  
+  // Counts a resize that failed with e, or stopped short if e is null
+  private void fail(Exception e) {
+    failures++;
+    if (e != null)
+      lastFailure = e;
+  } // end fail()
+  
+  
+  // Lets the next notification start a resize
+  private synchronized void done() {
+    shrinking = false;
+  } // end done()
+
+
+  // Returns the fraction of the heap above which the buffer pool shrinks
+  public double getThreshold() {
+    return threshold;
+  } // end getThreshold()
+
+
+  // Returns the smallest size the buffer pool is shrunk to
+  public int getMinBuffers() {
+    return minBuffers;
+  } // end getMinBuffers()
+
+
+  // Returns the number of times the buffer pool was shrunk
+  public long getShrinks() {
+    return shrinks;
+  } // end getShrinks()
+  
+  
+  // Returns the number of resizes that failed or stopped short of their
+  // target
+  public long getFailures() {
+    return failures;
+  } // end getFailures()
+  
+  
+  // Returns the error of the last resize that failed, null if none did
+  public Exception getLastFailure() {
+    return lastFailure;
+  } // end getLastFailure()
+
+} // end MemoryPressureListener
@@ -0,0 +1,288 @@
+/*  File MetricsSnapshot.java */
+
+package bufmgr;
+
+// The buffer manager metrics at one point in time. Counters count from
+// when the buffer manager was created or its metrics were last reset,
+// rates are worked out from two snapshots.
+
+// NOTE: The counters are read one after the other while other threads
+// update them, so a snapshot is consistent only to within the operations
+// that ran while it was taken.
+public class MetricsSnapshot {
+
+  // When the snapshot was taken, from System.nanoTime()
+  private final long time;
+
+  // Name of the replacer in use
+  private final String replacer;
+
+  // Frames in the buffer pool, pinned and holding a dirty page
+  private final int numBuffers;
+  private final int pinnedFrames;
+  private final int dirtyFrames;
+
+  // Pins of a page in the pool and of a page read in
+  private final long hits;
+  private final long misses;
+
+  // Pages replaced, and dirty victims written before their frame was reused
+  private final long evictions;
+  private final long dirtyWriteBacks;
+
+  // Pages unpinned
+  private final long unpins;
+
+  // Read and write calls and the pages they moved
+  private final long reads;
+  private final long pagesRead;
+  private final long writes;
+  private final long pagesWritten;
+
+  // Pages that could not be read, by a miss or read ahead
+  private final long readFailures;
+
+  // Histograms of read and write call latencies in nanoseconds and of the
+  // frames looked at for each victim
+  private final long[] readLatency;
+  private final long[] writeLatency;
+  private final long[] victimSearch;
+  private final double meanRead;
+  private final double meanWrite;
+  private final double meanSearch;
+
+
+  // Constructor, reads the counters of metrics and the frames of mgr
+  MetricsSnapshot(BufMgrMetrics metrics, BufMgr mgr) {
+    time = System.nanoTime();
+    replacer = mgr.getReplacerName();
+
+    FrameDesc[] frames = mgr.frameTable();
+    numBuffers = mgr.getNumBuffers();
+    int pinned = 0;
+    int dirty = 0;
+    for (int i = 0; i < numBuffers; i++) {
+      if (frames[i].pin_count() != 0)
+        pinned++;
+      if (frames[i].dirty)
+        dirty++;
+    }
+    pinnedFrames = pinned;
+    dirtyFrames = dirty;
+
+    hits = metrics.hits.sum();
+    misses = metrics.misses.sum();
+    evictions = metrics.evictions.sum();
+    dirtyWriteBacks = metrics.dirtyWriteBacks.sum();
+    unpins = metrics.unpins.sum();
+    pagesRead = metrics.pagesRead.sum();
+    pagesWritten = metrics.pagesWritten.sum();
+    readFailures = metrics.readFailures.sum();
+
+    readLatency = metrics.readLatency.counts();
+    writeLatency = metrics.writeLatency.counts();
+    victimSearch = metrics.victimSearch.counts();
+    reads = total(readLatency);
+    writes = total(writeLatency);
+    meanRead = metrics.readLatency.mean();
+    meanWrite = metrics.writeLatency.mean();
+    meanSearch = metrics.victimSearch.mean();
+  } // end constructor
+
+
+  // Returns the number of values in a histogram
+  private static long total(long[] counts) {
+    long n = 0;
+    for (int i = 0; i < counts.length; i++)
+      n += counts[i];
+    return n;
+  } // end total()
+
+
+  // Returns when the snapshot was taken, from System.nanoTime()
+  public long getTime() {
+    return time;
+  } // end getTime()
+
+
+  // Returns the name of the replacer in use
+  public String getReplacer() {
+    return replacer;
+  } // end getReplacer()
+
+
+  // Returns the number of frames in the buffer pool
+  public int getNumBuffers() {
+    return numBuffers;
+  } // end getNumBuffers()
+
+
+  // Returns the number of pinned frames
+  public int getPinnedFrames() {
+    return pinnedFrames;
+  } // end getPinnedFrames()
+
+
+  // Returns the number of frames holding a dirty page
+  public int getDirtyFrames() {
+    return dirtyFrames;
+  } // end getDirtyFrames()
+
+
+  // Returns the number of pins of a page already in the buffer pool
+  public long getHits() {
+    return hits;
+  } // end getHits()
+
+
+  // Returns the number of pins of a page that had to be read in
+  public long getMisses() {
+    return misses;
+  } // end getMisses()
+
+
+  // Returns the number of pages pinned
+  public long getPins() {
+    return hits + misses;
+  } // end getPins()
+
+
+  // Returns the fraction of pins that found their page in the buffer pool
+  public double getHitRatio() {
+    long pins = hits + misses;
+    return (pins == 0) ? 0 : (double)hits / pins;
+  } // end getHitRatio()
+
+
+  // Returns the number of pages replaced
+  public long getEvictions() {
+    return evictions;
+  } // end getEvictions()
+
+
+  // Returns the number of dirty victims written before their frame was
+  // reused
+  public long getDirtyWriteBacks() {
+    return dirtyWriteBacks;
+  } // end getDirtyWriteBacks()
+
+
+  // Returns the number of pages unpinned
+  public long getUnpins() {
+    return unpins;
+  } // end getUnpins()
+
+
+  // Returns the number of read calls
+  public long getReads() {
+    return reads;
+  } // end getReads()
+
+
+  // Returns the number of pages read
+  public long getPagesRead() {
+    return pagesRead;
+  } // end getPagesRead()
+
+
+  // Returns the number of write calls
+  public long getWrites() {
+    return writes;
+  } // end getWrites()
+
+
+  // Returns the number of pages written
+  public long getPagesWritten() {
+    return pagesWritten;
+  } // end getPagesWritten()
+
+
+  // Returns the number of pages that could not be read, by a miss or
+  // read ahead
+  public long getReadFailures() {
+    return readFailures;
+  } // end getReadFailures()
+
+
+  // Returns the mean latency of a read call in microseconds
+  public double getMeanReadMicros() {
+    return meanRead / 1000;
+  } // end getMeanReadMicros()
+
+
+  // Returns the q-th quantile of the read call latency in microseconds,
+  // exact to a factor of two
+  public double getReadMicros(double q) {
+    return Histogram.percentile(readLatency, q) / 1000.0;
+  } // end getReadMicros()
+
+
+  // Returns the mean latency of a write call in microseconds
+  public double getMeanWriteMicros() {
+    return meanWrite / 1000;
+  } // end getMeanWriteMicros()
+
+
+  // Returns the q-th quantile of the write call latency in microseconds,
+  // exact to a factor of two
+  public double getWriteMicros(double q) {
+    return Histogram.percentile(writeLatency, q) / 1000.0;
+  } // end getWriteMicros()
+
+
+  // Returns the mean number of frames looked at to find a victim
+  public double getMeanVictimSearch() {
+    return meanSearch;
+  } // end getMeanVictimSearch()
+
+
+  // Returns the q-th quantile of the frames looked at to find a victim,
+  // exact to a factor of two
+  public long getVictimSearch(double q) {
+    return Histogram.percentile(victimSearch, q);
+  } // end getVictimSearch()
+
+
+  // Returns the pins per second since an earlier snapshot
+  public double getPinRate(MetricsSnapshot earlier) {
+    return perSecond(getPins() - earlier.getPins(), earlier);
+  } // end getPinRate()
+
+
+  // Returns the unpins per second since an earlier snapshot
+  public double getUnpinRate(MetricsSnapshot earlier) {
+    return perSecond(unpins - earlier.unpins, earlier);
+  } // end getUnpinRate()
+
+
+  // Returns the evictions per second since an earlier snapshot
+  public double getEvictionRate(MetricsSnapshot earlier) {
+    return perSecond(evictions - earlier.evictions, earlier);
+  } // end getEvictionRate()
+
+
+  // Returns count per second over the time since an earlier snapshot
+  private double perSecond(long count, MetricsSnapshot earlier) {
+    long elapsed = time - earlier.time;
+    return (elapsed <= 0) ? 0 : count * 1e9 / elapsed;
+  } // end perSecond()
+
+
+  // Returns the snapshot on a few lines
+  public String toString() {
+    return String.format(
+      "%s, %d frames (%d pinned, %d dirty)%n"
+      + "pins %d, hits %d, misses %d, hit ratio %.4f%n"
+      + "evictions %d, dirty write-backs %d, unpins %d%n"
+      + "victim search mean %.2f, p99 %d frames%n"
+      + "reads %d (%d pages, %d failed), mean %.1f us, p99 %.1f us%n"
+      + "writes %d (%d pages), mean %.1f us, p99 %.1f us",
+      replacer, numBuffers, pinnedFrames, dirtyFrames,
+      getPins(), hits, misses, getHitRatio(),
+      evictions, dirtyWriteBacks, unpins,
+      meanSearch, getVictimSearch(0.99),
+      reads, pagesRead, readFailures, getMeanReadMicros(), getReadMicros(0.99),
+      writes, pagesWritten, getMeanWriteMicros(), getWriteMicros(0.99));
+  } // end toString()
+
+} // end MetricsSnapshot
@@ -0,0 +1,36 @@
+/*  File PageEvictionEvent.java */
+
+package bufmgr;
+
+import jdk.jfr.*;
+
+// A Flight Recorder event for a page replaced in the buffer pool, lasting
+// while the frame was taken over, including the write of a dirty victim.
+
+// NOTE: Disabled unless a recording enables minibase.PageEviction
+@Name("minibase.PageEviction")
+@Label("Page Eviction")
+@Category({ "Minibase", "Buffer Manager" })
+@Description("A page replaced by another page in the buffer pool")
+@Enabled(false)
+@StackTrace(true)
+class PageEvictionEvent extends Event {
+
+  @Label("Evicted Page Id")
+  int evictedPageId;
+
+  @Label("Page Id")
+  @Description("The page read into the frame")
+  int pageId;
+
+  @Label("Frame")
+  int frame;
+
+  @Label("Dirty")
+  @Description("The evicted page was written before the frame was reused")
+  boolean dirty;
+
+  @Label("Replacer")
+  String replacer;
+
+} // end PageEvictionEvent
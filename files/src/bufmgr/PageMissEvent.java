@@ -0,0 +1,34 @@
+/*  File PageMissEvent.java */
+
+package bufmgr;
+
+import jdk.jfr.*;
+
+// A Flight Recorder event for a pin that had to read its page, from the
+// moment the replacer was asked for a victim until the page was in the
+// frame. The stack trace shows which caller waited on the I/O.
+
+// NOTE: Disabled unless a recording enables minibase.PageMiss, a disabled
+// event costs the buffer manager nothing but a check of shouldCommit()
+@Name("minibase.PageMiss")
+@Label("Page Miss")
+@Category({ "Minibase", "Buffer Manager" })
+@Description("A page pinned that was not in the buffer pool")
+@Enabled(false)
+@StackTrace(true)
+class PageMissEvent extends Event {
+
+  @Label("Page Id")
+  int pageId;
+
+  @Label("Frame")
+  int frame;
+
+  @Label("Empty Page")
+  @Description("The page was not read, the caller fills it")
+  boolean emptyPage;
+
+  @Label("Replacer")
+  String replacer;
+
+} // end PageMissEvent
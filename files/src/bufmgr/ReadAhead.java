@@ -0,0 +1,246 @@
+/*  File ReadAhead.java */
+
+package bufmgr;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import global.*;
+
+// Sequential read-ahead for the buffer pool. Each pinned page is matched
+// against a few streams of consecutive pages. Once a stream is seen to be
+// sequential the pages ahead of it are read by a background thread, with
+// one call for each run of pages, before they are pinned.
+
+// NOTE: The read-ahead window starts at MIN_WINDOW pages and doubles each
+// time the stream catches up with half of it, up to maxWindow pages. A
+// page that does not follow any stream starts a new one with no window,
+// so random access reads nothing ahead. The buffer manager puts the pages
+// read ahead on probation, they are replaced first unless pinned. Only
+// misses and the first pin of a page read ahead are passed to access(),
+// other hits do not take its lock.
+public class ReadAhead implements Runnable, GlobalConst {
+
+  // Number of streams followed at the same time
+  private static final int STREAMS = 8;
+
+  // Window of a stream once it is seen to be sequential
+  private static final int MIN_WINDOW = 4;
+
+  // Number of runs waiting to be read past which new runs are dropped
+  private static final int MAX_QUEUED = 16;
+
+  // The buffer manager the pages are read into
+  private final BufMgr mgr;
+
+  // Largest number of pages read ahead of a stream
+  private final int maxWindow;
+
+  // Last page pinned in each stream, INVALID_PAGE if the slot is unused
+  private final int[] last;
+
+  // Pages read ahead last time in each stream, 0 until it is sequential
+  private final int[] window;
+
+  // Last page read ahead, or queued to be, in each stream
+  private final int[] ahead;
+
+  // When each stream was last used, the least recent one is reused
+  private final long[] used;
+  private long clock;
+
+  // Ring of the runs waiting to be read as (first page << 32) | number
+  // of pages, the oldest one at queueHead
+  private final long[] queue = new long[MAX_QUEUED];
+  private int queueHead;
+  private int queued;
+
+  // Held while a run is read, the frames taken for the run are all
+  // released when it is unlocked
+  private final ReentrantLock reading = new ReentrantLock();
+
+  // The reader thread, null once stopped
+  private Thread thread;
+
+  // false once the reader is asked to stop
+  private volatile boolean running;
+
+  // Runs queued and pages read since read-ahead was enabled
+  private volatile long runsQueued;
+  private volatile long pagesRead;
+
+
+  // Constructor
+  ReadAhead(BufMgr mgr, int maxWindow) {
+    this.mgr = mgr;
+    this.maxWindow = maxWindow;
+    last = new int[STREAMS];
+    window = new int[STREAMS];
+    ahead = new int[STREAMS];
+    used = new long[STREAMS];
+    Arrays.fill(last, INVALID_PAGE);
+  } // end constructor
+
+
+  // Starts the reader thread
+  synchronized void start() {
+    running = true;
+    thread = new Thread(this, "BufMgr read-ahead");
+    thread.setDaemon(true);
+    thread.start();
+  } // end start()
+
+
+  // Stops the reader thread and waits for it to finish its run
+  void stop() {
+    Thread t;
+    synchronized (this) {
+      running = false;
+      queued = 0;
+      notifyAll();
+      t = thread;
+      thread = null;
+    }
+
+    if ((t == null) || (t == Thread.currentThread()))
+      return;
+
+    boolean interrupted = false;
+    while (t.isAlive()) {
+      try {
+        t.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  } // end stop()
+
+
+  // Records a miss on page pid, or the first pin of page pid once read
+  // ahead, and queues the pages ahead of its stream once the stream has
+  // used half of its window
+  synchronized void access(int pid) {
+    clock++;
+
+    int s = stream(pid);
+    if (s < 0) {
+
+      // Start a new stream in the least recently used slot
+      s = 0;
+      for (int i = 1; i < STREAMS; i++) {
+        if (used[i] < used[s])
+          s = i;
+      }
+      last[s] = pid;
+      window[s] = 0;
+      ahead[s] = pid;
+      used[s] = clock;
+      return;
+    } // end if
+
+    used[s] = clock;
+    if (pid == last[s])
+      return;
+
+    // The stream is sequential, read ahead once half of the pages read
+    // ahead last time are used, with twice as many pages
+    last[s] = pid;
+    int size;
+    if (window[s] == 0)
+      size = Math.min(MIN_WINDOW, maxWindow);
+    else if (ahead[s] - pid >= window[s] / 2)
+      return;
+    else
+      size = Math.min(window[s] * 2, maxWindow);
+
+    int from = Math.max(ahead[s], pid) + 1;
+    int to = pid + size;
+    ahead[s] = to;
+    window[s] = size;
+
+    if (queued < MAX_QUEUED) {
+      queue[(queueHead + queued++) % MAX_QUEUED] = ((long)from << 32) | (to - from + 1);
+      runsQueued++;
+      notifyAll();
+    }
+  } // end access()
+
+
+  // Returns the stream page pid follows, or -1 if there is none
+  private int stream(int pid) {
+    for (int i = 0; i < STREAMS; i++) {
+      if ((last[i] != INVALID_PAGE)
+          && ((pid == last[i]) || (pid == last[i] + 1)))
+        return i;
+    }
+    return -1;
+  } // end stream()
+
+
+  // Reads the queued runs until stopped
+  public void run() {
+    while (true) {
+      long run;
+      synchronized (this) {
+        while (running && (queued == 0)) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            running = false;
+          }
+        }
+        if (running == false)
+          return;
+        run = queue[queueHead];
+        queueHead = (queueHead + 1) % MAX_QUEUED;
+        queued--;
+      }
+
+      reading.lock();
+      try {
+        pagesRead += mgr.prefetch((int)(run >>> 32), (int)run);
+      } finally {
+        reading.unlock();
+      }
+    }
+  } // end run()
+
+
+  // Waits for the run being read and keeps the reader from starting
+  // another one until resume() is called
+  void pause() {
+    reading.lock();
+  } // end pause()
+
+
+  // Lets the reader go on after pause()
+  void resume() {
+    reading.unlock();
+  } // end resume()
+
+
+  // Returns the largest number of pages read ahead of a stream
+  public int getMaxWindow() {
+    return maxWindow;
+  } // end getMaxWindow()
+
+
+  // Returns the number of runs queued to be read ahead
+  public long getRunsQueued() {
+    return runsQueued;
+  } // end getRunsQueued()
+
+
+  // Returns the number of pages read ahead
+  public long getPagesRead() {
+    return pagesRead;
+  } // end getPagesRead()
+
+
+  // Returns true while the reader thread runs
+  public boolean isRunning() {
+    return running;
+  } // end isRunning()
+
+} // end ReadAhead
@@ -8,7 +8,8 @@ import global.*;
  */
   class STATE {
   
-    int state; 
+    // volatile as frames are pinned and unpinned by several threads
+    volatile int state; 
    //  Available = 12;
    //  Referenced = 13;
    //  Pinned = 14;
@@ -18,6 +19,14 @@ import global.*;
 /** A super class for buffer pool replacement algorithm. It describes
  * which frame to be picked up for replacement by a certain replace
  * algorithm.
+ * <p>
+ * Concurrency: the buffer manager calls pin() on every hit and unpin()
+ * on every unpin. Clock only touches the frame's state there, but the
+ * policies that keep frames in ordered lists or heaps (LRU, MRU, FIFO,
+ * LFU, ARC, LRU-K, CLOCK-Pro) update them under the replacer's monitor,
+ * so with those policies every pin and unpin in the buffer pool takes
+ * the same lock and throughput does not grow with the number of threads
+ * the way it does with Clock.
  */
 abstract class Replacer implements GlobalConst 
 {
@@ -32,7 +41,7 @@ abstract class Replacer implements GlobalConst
   public void pin( int frameNo ) throws InvalidFrameNumberException 
   {
     
-    if ((frameNo < 0) || (frameNo >= (int)mgr.getNumBuffers())) {
+    if ((frameNo < 0) || (frameNo >= (int)mgr.getMaxBuffers())) {
    
       throw new InvalidFrameNumberException (null, "BUFMGR: BAD_BUFFRAMENO.");
     }
@@ -52,7 +61,7 @@ abstract class Replacer implements GlobalConst
    */
   public boolean unpin( int frameNo ) throws InvalidFrameNumberException, PageUnpinnedException
   {
-    if ((frameNo < 0) || (frameNo >= (int)mgr.getNumBuffers())) {
+    if ((frameNo < 0) || (frameNo >= (int)mgr.getMaxBuffers())) {
       
       throw new InvalidFrameNumberException (null, "BUFMGR: BAD_BUFFRAMENO.");
       
@@ -64,9 +73,7 @@ abstract class Replacer implements GlobalConst
 
     }
 
-    (mgr.frameTable())[frameNo].unpin();
-
-    if ((mgr.frameTable())[frameNo].pin_count() == 0)
+    if ((mgr.frameTable())[frameNo].unpin() == 0)
         state_bit[frameNo].state = Referenced;
     return true;
 
@@ -93,9 +100,127 @@ abstract class Replacer implements GlobalConst
   }
   
 
+  /** Takes a frame out of the buffer pool when it shrinks. The buffer
+   * manager has claimed the frame and emptied it, the frame stays pinned
+   * and is no longer a candidate until it is added back with free().
+   *
+   * @param frameNo frame number of the retired frame.
+   */
+  public void retire( int frameNo )
+  {
+    state_bit[frameNo].state = Pinned;
+  }
+  
+
+  /** Makes an unpinned frame one of the next to be replaced, ahead of
+   * frames whose pages were referenced normally. The buffer manager uses
+   * it for pages it does not expect to be used again. Does nothing if the
+   * frame is pinned.
+   *
+   * @param frameNo frame number of the page.
+   */
+  public void demote( int frameNo )
+  {
+    if ((mgr.frameTable())[frameNo].pin_count() == 0)
+      state_bit[frameNo].state = Available;
+  }
+  
+
+  /** Lists the unpinned frames in the order they are expected to be
+   * replaced, without pinning them. The background writer cleans these
+   * frames before they are picked. The default follows the clock hand:
+   * the frames the hand replaces on its current pass come first, then
+   * the referenced frames it only clears on this pass. A subclass that
+   * does not move the hand lists its own candidates.
+   *
+   * @param frames receives the frame numbers, its length is the most
+   *               frames listed.
+   * @return the number of frames listed.
+   */
+  public int next_victims( int [] frames )
+  {
+    FrameDesc[] frameTable = mgr.frameTable();
+    int numBuffers = mgr.getNumBuffers();
+    int start = head;
+    int n = 0;
+    
+    for ( int pass = 0; (pass < 2) && (n < frames.length); pass++ ) {
+      int state = (pass == 0) ? Available : Referenced;
+      for ( int i = 1; (i <= numBuffers) && (n < frames.length); i++ ) {
+        int frameNo = Math.floorMod(start + i, numBuffers);
+        if ((state_bit[frameNo].state == state) && (frameTable[frameNo].pin_count() == 0))
+          frames[n++] = frameNo;
+      }
+    }
+    return n;
+  }
+  
+
+  /** Records the number of frames looked at to find a victim, for the
+   * buffer manager metrics.
+   *
+   * @param frames the frames looked at, including the victim.
+   */
+  protected void searched( int frames )
+  {
+    mgr.getMetrics().victimSearch(frames);
+  }
+  
+
   /** Must pin the returned frame. */
   public abstract int pick_victim() throws BufferPoolExceededException, PagePinnedException;     
  
+  /** Must pin the returned frame. Called by the buffer manager with the
+   * page that will be read into the frame, for replacement algorithms
+   * that remember the pages they evicted.
+   *
+   * @param pageNo the page about to be read into the frame.
+   */
+  public int pick_victim( PageId pageNo ) throws BufferPoolExceededException, PagePinnedException
+  {
+    return pick_victim();
+  }
+ 
+  /** Picks and pins a victim frame for each of the first count pages,
+   * holding the replacer for the whole pass. Stops early when no frame
+   * is left.
+   *
+   * @param pageNos the pages about to be read into the frames.
+   * @param count the number of frames wanted.
+   * @param frames receives the frame numbers.
+   * @return the number of frames picked.
+   * @throws PagePinnedException if the replacer fails on a pinned page,
+   *         the frames picked so far are given back first.
+   */
+  public synchronized int pick_victims( PageId [] pageNos, int count, int [] frames )
+    throws PagePinnedException
+  {
+    int n = 0;
+    try {
+      while (n < count) {
+        int frameNo = pick_victim(pageNos[n]);
+        if (frameNo < 0)
+          break;
+        frames[n++] = frameNo;
+      }
+    }
+    catch (BufferPoolExceededException e) {
+      // no frame is left, the frames picked so far are returned
+    }
+    catch (PagePinnedException e) {
+      for (int i = 0; i < n; i++) {
+        try {
+          unpin(frames[i]);
+        }
+        catch (Exception unpin) {
+          e.addSuppressed(unpin);
+        }
+      }
+      throw e;
+    }
+    return n;
+  }
+ 
   /** Retruns the name of the replacer algorithm. */
   public abstract String name();
 
@@ -151,7 +276,7 @@ abstract class Replacer implements GlobalConst
   protected Replacer(BufMgr javamgr)
   {
     mgr = javamgr;
-    int numbuf = javamgr.getNumBuffers();
+    int numbuf = javamgr.getMaxBuffers();
     state_bit = new STATE[numbuf];
     for(int i=0; i<numbuf; i++) {
     	state_bit[i] = new STATE();
@@ -166,7 +291,8 @@ abstract class Replacer implements GlobalConst
 
   /** Sets the buffer manager to be eqaul to the buffer manager
    * in the argument, gets the total number of buffer frames, 
-   * and mainstains the head of the clock.
+   * and mainstains the head of the clock. The frames the buffer
+   * pool may grow into are kept pinned.
    *
    * @param mgr the buffer manage to be assigned to.
    */
@@ -181,8 +307,8 @@ abstract class Replacer implements GlobalConst
     //state_bit = new(Sh_StateArr) STATE[numBuffers];
 
 
-    for ( int index=0; index < numBuffers; ++index ) {
-      state_bit[index].state = Available;
+    for ( int index=0; index < state_bit.length; ++index ) {
+      state_bit[index].state = (index < numBuffers) ? Available : Pinned;
     }
     
     
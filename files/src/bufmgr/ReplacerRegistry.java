@@ -0,0 +1,64 @@
+/*  File ReplacerRegistry.java */
+
+package bufmgr;
+
+import java.util.*;
+import java.util.function.*;
+
+// The registry of buffer pool replacement policies. The replacerArg given
+// to the BufMgr constructor is looked up here (ignoring case) to build
+// the replacer. A new policy only needs to be registered under its name.
+// NOTE: Clock is the default and the only policy whose hits take no lock
+// shared by all threads, prefer it when many threads pin pages.
+
+class ReplacerRegistry {
+  
+  // Replacer constructors by lower case policy name, in registration order
+  private static final Map<String, Function<BufMgr, Replacer>> factories = 
+    new LinkedHashMap<String, Function<BufMgr, Replacer>>();
+  
+  // Policy names as registered
+  private static final Map<String, String> names = 
+    new LinkedHashMap<String, String>();
+  
+  // The built in policies
+  static {
+    register("Clock", Clock::new);
+    register("LRU", LRU::new);
+    register("MRU", MRU::new);
+    register("FIFO", FIFO::new);
+    register("LFU", LFU::new);
+    register("ARC", ARC::new);
+    register("LRU-K", LRUK::new);
+    register("CLOCK-Pro", ClockPro::new);
+  }
+  
+  
+  // Registers a policy, replacing any policy with the same name
+  public static synchronized void register(String name, Function<BufMgr, Replacer> factory) {
+    String key = name.toLowerCase(Locale.ROOT);
+    factories.put(key, factory);
+    names.put(key, name);
+  } // end register()
+  
+  
+  // Returns the names of all registered policies
+  public static synchronized List<String> names() {
+    return new ArrayList<String>(names.values());
+  } // end names()
+  
+  
+  // Builds the replacer registered under name for the buffer manager
+  // NOTE: a null name selects Clock, the default replacement policy
+  public static synchronized Replacer create(String name, BufMgr mgr) {
+    if (name == null)
+      name = "Clock";
+    
+    Function<BufMgr, Replacer> factory = factories.get(name.toLowerCase(Locale.ROOT));
+    if (factory == null)
+      throw new IllegalArgumentException ("BUFMGR: Unknown replacement policy " + name 
+                                          + ", expected one of " + names.values());
+    return factory.apply(mgr);
+  } // end create()
+  
+} // end ReplacerRegistry
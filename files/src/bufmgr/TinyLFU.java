@@ -0,0 +1,146 @@
+/*  File TinyLFU.java */
+
+package bufmgr;
+
+import java.util.*;
+
+// A W-TinyLFU admission filter for the buffer pool. Every page reference
+// is counted in a count-min sketch of 4 bit counters, and all counters 
+// are halved after a sample of references so that old popularity fades. 
+// On a miss the new page is compared with the page in the victim frame
+// before the victim is replaced: only a page estimated to be more popular
+// is admitted to the pool. A page that is not admitted still has to be
+// read in, so the victim is given back and the page is read into the 
+// frame of the oldest page of a small window of pages that were not 
+// admitted. A scan of one-hit pages therefore cycles through the window
+// frames instead of evicting hot pages.
+
+// NOTE: The sketch uses one long (16 counters) per frame, so its size
+// depends on the pool, not on the database. Counters are updated without
+// locking as a lost increment only makes an estimate slightly lower.
+class TinyLFU {
+  
+  // Mask that halves all 16 counters of a long at once
+  private static final long RESET_MASK = 0x7777777777777777L;
+  
+  // Seeds of the four hash functions of the sketch
+  private static final int[] SEEDS = { 
+    0x97CB3127, 0xB0D4D35F, 0x6B6B4F1D, 0xC3A5C85C 
+  };
+  
+  // The sketch, each long holds 16 counters of 4 bits
+  private long[] table;
+  
+  // table.length - 1
+  private int tableMask;
+  
+  // Number of references after which the counters are halved
+  private int sampleSize;
+  
+  // Number of references counted since the last halving
+  private int additions;
+  
+  // The window of pages that were not admitted, a ring of frame and page
+  // numbers with the oldest entry at windowNext once the ring is full.
+  // A frame whose page was replaced since is reused only once its entry
+  // is overwritten.
+  private int[] windowFrames;
+  private int[] windowPids;
+  private int windowNext;
+  private int windowCount;
+
+
+  // Constructor for a pool of numBuffers frames
+  public TinyLFU(int numBuffers) {
+    int size = 1;
+    while (size < numBuffers)
+      size <<= 1;
+    table = new long[size];
+    tableMask = size - 1;
+    sampleSize = 10 * Math.max(numBuffers, 16);
+    additions = 0;
+    
+    int window = Math.max(1, numBuffers / 100);
+    windowFrames = new int[window];
+    windowPids = new int[window];
+    windowNext = 0;
+    windowCount = 0;
+  } // end constructor
+  
+  
+  // Returns the i-th hash of the page number
+  private int hash(int pid, int i) {
+    int h = (pid + SEEDS[i]) * SEEDS[i];
+    return h ^ (h >>> 17);
+  } // end hash()
+  
+  
+  // Counts a reference to the page
+  public void increment(int pid) {
+    boolean added = false;
+    for (int i = 0; i < SEEDS.length; i++) {
+      int h = hash(pid, i);
+      int index = h & tableMask;
+      int shift = ((h >>> 24) & 15) << 2;
+      long word = table[index];
+      if (((word >>> shift) & 15) < 15) {
+        table[index] = word + (1L << shift);
+        added = true;
+      }
+    }
+    
+    if (added && (++additions >= sampleSize))
+      reset();
+  } // end increment()
+  
+  
+  // Returns the estimated number of references to the page
+  public int frequency(int pid) {
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < SEEDS.length; i++) {
+      int h = hash(pid, i);
+      int shift = ((h >>> 24) & 15) << 2;
+      int count = (int) ((table[h & tableMask] >>> shift) & 15);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  } // end frequency()
+  
+  
+  // Halves every counter so that the sketch follows changes in popularity
+  private void reset() {
+    for (int i = 0; i < table.length; i++)
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    additions = additions / 2;
+  } // end reset()
+  
+  
+  // Returns true if the candidate page may displace the victim page
+  // NOTE: an empty frame always admits the candidate
+  public boolean admit(int candidatePid, int victimPid) {
+    if (victimPid < 0)
+      return true;
+    return frequency(candidatePid) > frequency(victimPid);
+  } // end admit()
+  
+  
+  // Returns the oldest page of the window as (frame number << 32) | page
+  // number, or -1 while the window is not full
+  public synchronized long oldest() {
+    if (windowCount < windowFrames.length)
+      return -1;
+    return ((long)windowFrames[windowNext] << 32) | (windowPids[windowNext] & 0xFFFFFFFFL);
+  } // end oldest()
+  
+  
+  // Puts a page that was not admitted in the window in place of the 
+  // oldest page
+  public synchronized void enterWindow(int frameNo, int pid) {
+    if (windowCount < windowFrames.length)
+      windowCount++;
+    windowFrames[windowNext] = frameNo;
+    windowPids[windowNext] = pid;
+    windowNext = (windowNext + 1) % windowFrames.length;
+  } // end enterWindow()
+  
+} // end TinyLFU
@@ -0,0 +1,240 @@
+/*  File TraceRecorder.java */
+
+package bufmgr;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+// Records the page accesses of a buffer manager to a file: each pin,
+// unpin and free with its page, flags and time. TraceSimulator replays
+// a trace against every replacer to compare policies and pool sizes.
+
+// The file starts with a 16 byte header: MAGIC, VERSION and RECORD_SIZE
+// (int, short, short) and the time recording started in milliseconds
+// since the epoch (long). Then come 16 byte records of the nanoseconds
+// since the start (long), the page id (int), the operation and the flags
+// (a byte each) and 2 unused bytes, all big-endian.
+
+// NOTE: Threads put their records in a ring and a flusher thread writes
+// them out in order, so a record costs an atomic increment and two
+// stores. A thread only waits when the ring is full; records made while
+// the recorder stops or after a write failed are dropped.
+public class TraceRecorder implements Runnable {
+
+  // Operations
+  public static final byte PIN = 0;
+  public static final byte UNPIN = 1;
+  public static final byte FREE = 2;
+
+  // Flags, DIRTY on an unpin that dirtied the page, EMPTY on a pin of a
+  // page that is not read
+  public static final byte DIRTY = 1;
+  public static final byte EMPTY = 2;
+
+  // File format
+  public static final int MAGIC = 0x4D425452;
+  public static final short VERSION = 1;
+  public static final short RECORD_SIZE = 16;
+  public static final int HEADER_SIZE = 16;
+
+  // Records written with one call
+  private static final int BATCH = 4096;
+
+  // Nanoseconds the flusher sleeps when the ring is empty
+  private static final long INTERVAL = 10000000L;
+
+  // The ring, times[i] and entries[i] (page id, operation and flags) are
+  // record number published[i] - 1
+  private final long[] times;
+  private final long[] entries;
+  private final AtomicLongArray published;
+  private final int mask;
+
+  // Number of the next record
+  private final AtomicLong next = new AtomicLong();
+
+  // Records written to the file, their slots can be reused
+  private volatile long flushed;
+
+  // The trace file and the records being written to it
+  private final String path;
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+
+  // System.nanoTime() when recording started
+  private final long start;
+
+  // The flusher thread, null once stopped
+  private Thread thread;
+
+  // false once the recorder is asked to stop or a write failed
+  private volatile boolean running;
+
+  // The write that failed, null if none did
+  private volatile IOException failure;
+
+
+  // Constructor, creates the trace file and a ring of at least capacity
+  // records
+  TraceRecorder(String path, int capacity) throws IOException {
+    int size = Integer.highestOneBit(Math.max(BATCH, capacity - 1) << 1);
+    times = new long[size];
+    entries = new long[size];
+    published = new AtomicLongArray(size);
+    mask = size - 1;
+
+    this.path = path;
+    channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                               StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    buffer = ByteBuffer.allocateDirect(BATCH * RECORD_SIZE);
+
+    start = System.nanoTime();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putShort(VERSION).putShort(RECORD_SIZE).putLong(System.currentTimeMillis());
+    header.flip();
+    while (header.hasRemaining())
+      channel.write(header);
+  } // end constructor
+
+
+  // Starts the flusher thread
+  synchronized void start() {
+    running = true;
+    thread = new Thread(this, "BufMgr trace recorder");
+    thread.setDaemon(true);
+    thread.start();
+  } // end start()
+
+
+  // Stops the flusher thread once it has written the records made so far,
+  // and closes the file
+  void stop() {
+    Thread t;
+    synchronized (this) {
+      running = false;
+      t = thread;
+      thread = null;
+    }
+
+    if ((t == null) || (t == Thread.currentThread()))
+      return;
+
+    LockSupport.unpark(t);
+    boolean interrupted = false;
+    while (t.isAlive()) {
+      try {
+        t.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  } // end stop()
+
+
+  // Records an operation on page pid
+  void record(byte op, int pid, int flags) {
+    long s = next.getAndIncrement();
+
+    // Wait for the flusher to make room
+    while (s - flushed > mask) {
+      if (running == false)
+        return;
+      LockSupport.unpark(thread);
+      Thread.yield();
+    } // end while
+
+    int i = (int)s & mask;
+    times[i] = System.nanoTime() - start;
+    entries[i] = ((long)pid << 32) | ((op & 0xFF) << 8) | (flags & 0xFF);
+    published.lazySet(i, s + 1);
+
+    // Wake the flusher when the ring is half full
+    if ((s & (mask >> 1)) == 0)
+      LockSupport.unpark(thread);
+  } // end record()
+
+
+  // Writes the records to the file until stopped, then closes it
+  public void run() {
+    try {
+      while (true) {
+        boolean stopping = (running == false);
+        drain();
+        if (stopping)
+          break;
+        LockSupport.parkNanos(INTERVAL);
+      } // end while
+    } catch (IOException e) {
+      failure = e;
+      running = false;
+    } finally {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        if (failure == null)
+          failure = e;
+      }
+    } // end try
+  } // end run()
+
+
+  // Writes every record published so far, up to the first one still
+  // being made
+  private void drain() throws IOException {
+    long s = flushed;
+    while (true) {
+      int i = (int)s & mask;
+      boolean ready = (published.get(i) == s + 1);
+      if (ready) {
+        long entry = entries[i];
+        buffer.putLong(times[i]);
+        buffer.putInt((int)(entry >>> 32));
+        buffer.put((byte)(entry >>> 8));
+        buffer.put((byte)entry);
+        buffer.putShort((short)0);
+        s++;
+      } // end if
+
+      if ((ready == false) || (buffer.hasRemaining() == false)) {
+        buffer.flip();
+        while (buffer.hasRemaining())
+          channel.write(buffer);
+        buffer.clear();
+        flushed = s;
+        if (ready == false)
+          return;
+      } // end if
+    } // end while
+  } // end drain()
+
+
+  // Returns the path of the trace file
+  public String getPath() {
+    return path;
+  } // end getPath()
+
+
+  // Returns the number of records written to the file
+  public long getRecords() {
+    return flushed;
+  } // end getRecords()
+
+
+  // Returns true until the recorder is stopped or a write fails
+  public boolean isRunning() {
+    return running;
+  } // end isRunning()
+
+
+  // Returns the write that failed, null if none did
+  public IOException getFailure() {
+    return failure;
+  } // end getFailure()
+
+} // end TraceRecorder
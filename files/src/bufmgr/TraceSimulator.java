@@ -0,0 +1,194 @@
+/*  File TraceSimulator.java */
+
+package bufmgr;
+
+import global.*;
+import diskmgr.*;
+import java.io.*;
+import java.util.*;
+
+// Replays a page access trace written by TraceRecorder against every
+// replacer in the ReplacerRegistry at several Buffer Pool sizes and prints
+// the hit ratio of each, one column per replacer and one row per size,
+// so the curves show which policy to use and how large a pool it needs.
+
+// Usage: java bufmgr.TraceSimulator trace [sizes [replacers]]
+//   sizes      comma separated frame counts, by default powers of two from
+//              16 up to the number of distinct pages in the trace
+//   replacers  comma separated replacer names, by default all of them
+
+// NOTE: The trace is replayed in order through a BufMgr of each size, no
+// page is read or written: pins do not read their page and unpins do not
+// dirty it, so the hit ratio is measured but dirty write-backs are not.
+// A pin that finds every frame pinned counts as a miss and its unpin is
+// skipped, and so is an unpin of a page pinned before the trace started.
+// Freed pages are left to be replaced, the simulation has no database to
+// give them back to.
+public class TraceSimulator {
+
+  // The trace
+  private final int[] pids;
+  private final byte[] ops;
+  private int records;
+
+  // Pins in the trace and distinct pages pinned
+  private long pins;
+  private int pages;
+
+
+  // Constructor, reads the trace file
+  public TraceSimulator(String path) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+      if (in.readInt() != TraceRecorder.MAGIC)
+        throw new IOException ("Not a page access trace: " + path);
+      short version = in.readShort();
+      short size = in.readShort();
+      if ((version != TraceRecorder.VERSION) || (size < 10))
+        throw new IOException ("Unsupported trace version " + version + ": " + path);
+      in.readLong();
+
+      long n = (new File(path).length() - TraceRecorder.HEADER_SIZE) / size;
+      if (n > Integer.MAX_VALUE - 8)
+        throw new IOException ("Trace too long: " + path);
+      pids = new int[(int)n];
+      ops = new byte[(int)n];
+
+      HashSet<Integer> distinct = new HashSet<Integer>();
+      for (records = 0; records < n; records++) {
+        in.readLong();
+        pids[records] = in.readInt();
+        ops[records] = in.readByte();
+        in.skipBytes(size - 13);
+        if (ops[records] == TraceRecorder.PIN) {
+          pins++;
+          distinct.add(pids[records]);
+        } // end if
+      } // end for
+      pages = distinct.size();
+    } // end try
+  } // end constructor
+
+
+  // Returns the number of records in the trace
+  public int getRecords() {
+    return records;
+  } // end getRecords()
+
+
+  // Returns the number of pins in the trace
+  public long getPins() {
+    return pins;
+  } // end getPins()
+
+
+  // Returns the number of distinct pages pinned
+  public int getPages() {
+    return pages;
+  } // end getPages()
+
+
+  // Returns the hit ratio of the trace with numBuffers frames and the
+  // replacer registered under name
+  public double hitRatio(String name, int numBuffers) {
+    BufMgr mgr = new BufMgr(numBuffers, name);
+    Page page = new Page();
+    PageId pid = new PageId();
+
+    // Pins of each page that went through the buffer manager
+    HashMap<Integer, Integer> pinned = new HashMap<Integer, Integer>();
+    long failed = 0;
+
+    for (int i = 0; i < records; i++) {
+      pid.pid = pids[i];
+
+      if (ops[i] == TraceRecorder.PIN) {
+        try {
+          mgr.pinPage(pid, page, true);
+          pinned.merge(pids[i], 1, Integer::sum);
+        } catch (Exception e) {
+          failed++;
+        } // end try
+      } // end if
+
+      else if (ops[i] == TraceRecorder.UNPIN) {
+        Integer count = pinned.get(pids[i]);
+        if (count == null)
+          continue;
+        if (count == 1)
+          pinned.remove(pids[i]);
+        else
+          pinned.put(pids[i], count - 1);
+        try {
+          mgr.unpinPage(pid, false);
+        } catch (Exception e) {
+        } // end try
+      } // end if
+    } // end for
+
+    MetricsSnapshot s = mgr.getMetrics().snapshot();
+    long total = s.getPins() + failed;
+    return (total == 0) ? 0 : (double)s.getHits() / total;
+  } // end hitRatio()
+
+
+  // Returns the default pool sizes, powers of two from 16 up to the first
+  // that holds every page of the trace
+  public int[] defaultSizes() {
+    ArrayList<Integer> sizes = new ArrayList<Integer>();
+    int n = 16;
+    while (true) {
+      sizes.add(n);
+      if ((n >= pages) || (n >= (1 << 30)))
+        break;
+      n <<= 1;
+    } // end while
+
+    int[] result = new int[sizes.size()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = sizes.get(i);
+    return result;
+  } // end defaultSizes()
+
+
+  // Prints the hit ratio of each replacer at each size
+  public void print(int[] sizes, List<String> replacers, PrintStream out) {
+    out.printf("%10s", "frames");
+    for (String name : replacers)
+      out.printf(" %10s", name);
+    out.println();
+
+    for (int size : sizes) {
+      out.printf("%10d", size);
+      for (String name : replacers)
+        out.printf(" %10.4f", hitRatio(name, size));
+      out.println();
+    } // end for
+  } // end print()
+
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: java bufmgr.TraceSimulator trace [sizes [replacers]]");
+      System.exit(1);
+    } // end if
+
+    TraceSimulator sim = new TraceSimulator(args[0]);
+
+    int[] sizes = sim.defaultSizes();
+    if (args.length > 1) {
+      String[] s = args[1].split(",");
+      sizes = new int[s.length];
+      for (int i = 0; i < s.length; i++)
+        sizes[i] = Integer.parseInt(s[i].trim());
+    } // end if
+
+    List<String> replacers = ReplacerRegistry.names();
+    if (args.length > 2)
+      replacers = Arrays.asList(args[2].split(","));
+
+    System.out.println("# " + args[0] + ": " + sim.getRecords() + " records, "
+                       + sim.getPins() + " pins of " + sim.getPages() + " pages");
+    sim.print(sizes, replacers, System.out);
+  } // end main()
+
+} // end TraceSimulator
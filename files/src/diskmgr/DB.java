@@ -3,6 +3,9 @@
 package diskmgr;
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import bufmgr.*;
 import global.*;
 
@@ -11,6 +14,10 @@ public class DB implements GlobalConst {
   
   private static final int bits_per_page = MAX_SPACE * 8;
   
+  // The space map seen as little-endian 64-bit words, page p is bit p%64
+  private static final VarHandle LONG_VIEW =
+    MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+  
   
   /** Open the database with the given name.
    *
@@ -29,8 +36,8 @@ public class DB implements GlobalConst {
     
     name = fname;
     
-    // Creaat a random access file
-    fp = new RandomAccessFile(fname, "rw");
+    // Open the database file
+    file = PageFile.open(fname, io_mode);
     
     PageId pageId = new PageId();
     Page apage = new Page();
@@ -46,12 +53,31 @@ public class DB implements GlobalConst {
     num_pages = firstpg.getNumDBPages();
     
     unpinPage(pageId, false /* undirty*/);
+    
+    // Index the free runs of the existing space map and the file entries
+    build_free_extents();
+    build_file_directory();
   }
   
   /** default constructor.
    */
   public DB() { }
   
+  /** Constructor with the I/O mode used for the database file.
+   * "channel" reads and writes pages at their position in the file,
+   * "mapped" maps the file into memory so that page I/O is a memory copy,
+   * "direct" bypasses the operating system's page cache. If direct I/O is
+   * not available the database falls back to "channel", db_io_mode()
+   * returns the mode in use and db_io_fallback() the reason. The system
+   * property diskmgr.direct.maxBlockSize lowers the largest device block
+   * size direct I/O is used with, 64KB by default.
+   *
+   * @param mode the I/O mode, null for "channel"
+   */
+  public DB(String mode) {
+    io_mode = mode;
+  }
+  
   
   /** DB Constructors.
    * Create a database with the specified number of pages where the page
@@ -78,12 +104,11 @@ public class DB implements GlobalConst {
     
     DBfile.delete();
     
-    // Creaat a random access file
-    fp = new RandomAccessFile(fname, "rw");
+    // Create the database file
+    file = PageFile.open(fname, io_mode);
     
     // Make the file num_pages pages long, filled with zeroes.
-    fp.seek((long)(num_pages*MINIBASE_PAGESIZE-1));
-    fp.writeByte(0);
+    file.extend(num_pages);
     
     // Initialize space map and directory pages.
     
@@ -102,15 +127,36 @@ public class DB implements GlobalConst {
     // 0 and 1 and as many additional pages for the space map as are needed.
     int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
     
+    // Every page is free until set_bits() marks the first page and the map
+    free_extents = new FreeExtents();
+    free_extents.free(0, num_pages);
+    
     set_bits(pageId, 1+num_map_pages, 1);
     
+    build_file_directory();
+  }
+  
+  /** Make the pages written so far durable. In the mapped mode the
+   * ranges written since the last flush are forced to the device.
+   *
+   * @exception FileIOException file I/O error
+   */
+  public void flush()
+    throws FileIOException {
+    
+    try{
+      file.flush();
+    }
+    catch (IOException e) {
+      throw new FileIOException(e, "DB file I/O error");
+    }
   }
   
   /** Close DB file.
    * @exception IOException I/O errors.
    */
   public void closeDB() throws IOException {
-    fp.close();
+    file.close();
   }
   
   
@@ -120,7 +166,7 @@ public class DB implements GlobalConst {
   public void DBDestroy() 
     throws IOException {
     
-    fp.close();
+    file.close();
     File DBfile = new File(name);
     DBfile.delete();
   }
@@ -142,13 +188,37 @@ public class DB implements GlobalConst {
     if((pageno.pid < 0)||(pageno.pid >= num_pages))
       throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
     
-    // Seek to the correct page
-    fp.seek((long)(pageno.pid *MINIBASE_PAGESIZE));
+    // Read the page at its position, no seek is needed
+    try{
+      file.read(pageno.pid, apage);
+    }
+    catch (IOException e) {
+      throw new FileIOException(e, "DB file I/O error");
+    }
+    
+  }
+  
+  /** Read a run of contiguous pages, starting with the specified page,
+   * into Page objects. The run is read with as few system calls as possible.
+   *
+   * @param start_pageno pageId of the first page of the run
+   * @param pages page objects which hold the contents of the run,
+   *              pages.length is the run size
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void read_pages(PageId start_pageno, Page [] pages)
+    throws InvalidPageNumberException, 
+	   FileIOException, 
+	   IOException {
+
+    if((start_pageno.pid < 0)||(start_pageno.pid + pages.length > num_pages))
+      throw new InvalidPageNumberException(null, "BAD_PAGE_NUMBER");
     
-    // Read the appropriate number of bytes.
-    byte [] buffer = apage.getpage();  //new byte[MINIBASE_PAGESIZE];
     try{
-      fp.read(buffer);
+      file.read(start_pageno.pid, pages);
     }
     catch (IOException e) {
       throw new FileIOException(e, "DB file I/O error");
@@ -173,12 +243,36 @@ public class DB implements GlobalConst {
     if((pageno.pid < 0)||(pageno.pid >= num_pages))
       throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
     
-    // Seek to the correct page
-    fp.seek((long)(pageno.pid *MINIBASE_PAGESIZE));
+    // Write the page at its position, no seek is needed
+    try{
+      file.write(pageno.pid, apage);
+    }
+    catch (IOException e) {
+      throw new FileIOException(e, "DB file I/O error");
+    }
+    
+  }
+  
+  /** Write Page objects to a run of contiguous pages, starting with the
+   * specified page. The run is written with as few system calls as possible.
+   *
+   * @param start_pageno pageId of the first page of the run
+   * @param pages the page objects to write, pages.length is the run size
+   *
+   * @exception InvalidPageNumberException invalid page number
+   * @exception FileIOException file I/O error
+   * @exception IOException I/O errors
+   */
+  public void write_pages(PageId start_pageno, Page [] pages)
+    throws InvalidPageNumberException, 
+	   FileIOException, 
+	   IOException {
+
+    if((start_pageno.pid < 0)||(start_pageno.pid + pages.length > num_pages))
+      throw new InvalidPageNumberException(null, "INVALID_PAGE_NUMBER");
     
-    // Write the appropriate number of bytes.
     try{
-      fp.write(apage.getpage());
+      file.write(start_pageno.pid, pages);
     }
     catch (IOException e) {
       throw new FileIOException(e, "DB file I/O error");
@@ -210,6 +304,15 @@ public class DB implements GlobalConst {
   }
   
   /** user specified run_size
+   * The run is taken next fit: it continues in the free run holding the
+   * page after the last run allocated, or in the next free run if that
+   * one is large enough. Otherwise it is taken best fit from the smallest
+   * free run that holds it. The space map used to be scanned first fit
+   * from page 0, so a page freed before the last run allocated is no
+   * longer the next one handed out.
+   * A run of 0 pages marks nothing and returns the next-fit position.
+   * It throws OutOfSpaceException when no page is free, where the first
+   * fit scan returned page 0.
    *
    * @param start_page_num the starting page id of the run of pages
    * @param run_size the number of page need allocated
@@ -221,7 +324,7 @@ public class DB implements GlobalConst {
    * @exception IOException I/O errors
    * @exception DiskMgrException error caused by other layers
    */
-  public void allocate_page(PageId start_page_num, int runsize)
+  public synchronized void allocate_page(PageId start_page_num, int runsize)
     throws OutOfSpaceException, 
 	   InvalidRunSizeException, 
 	   InvalidPageNumberException, 
@@ -231,78 +334,33 @@ public class DB implements GlobalConst {
 
     if(runsize < 0) throw new InvalidRunSizeException(null, "Negative run_size");
     
-    int run_size = runsize;
-    int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
-    int current_run_start = 0; 
-    int current_run_length = 0;
-    
-    
-    // This loop goes over each page in the space map.
-    PageId pgid = new PageId();
-    byte [] pagebuf;
-    int byteptr;
-    
-    for(int i=0; i< num_map_pages; ++i) {// start forloop01
-	
-      pgid.pid = 1 + i;
-      // Pin the space-map page.
-      
-      Page apage = new Page();
-      pinPage(pgid, apage, false /*read disk*/);
-      
-      pagebuf = apage.getpage();
-      byteptr = 0;
-      
-      // get the num of bits on current page
-      int num_bits_this_page = num_pages - i*bits_per_page;
-      if(num_bits_this_page > bits_per_page)
-	num_bits_this_page = bits_per_page;
-      
-      // Walk the page looking for a sequence of 0 bits of the appropriate
-      // length.  The outer loop steps through the page's bytes, the inner
-      // one steps through each byte's bits.
-      
-      for(; num_bits_this_page>0 
-	    && current_run_length < run_size; ++byteptr) {// start forloop02
-	  
-	
-	Integer intmask = new Integer(1);
-	Byte mask = new Byte(intmask.byteValue());
-	byte tmpmask = mask.byteValue();
-	
-	while (mask.intValue()!=0 && (num_bits_this_page>0)
-	       &&(current_run_length < run_size))
-	  
-	  {	      
-	    if( (pagebuf[byteptr] & tmpmask ) != 0)
-	      {
-		current_run_start += current_run_length + 1;
-		current_run_length = 0;
-	      }
-	    else ++current_run_length;
-	    
-	    
-	    tmpmask <<=1;
-	    mask = new Byte(tmpmask);
-	    --num_bits_this_page;
-	  }
-	
-	
-      }//end of forloop02
-      // Unpin the space-map page.
-      
-      unpinPage(pgid, false /*undirty*/);
-      
-    }// end of forloop01
+    SpaceMapAllocateEvent event = new SpaceMapAllocateEvent();
+    event.begin();
     
-    if(current_run_length >= run_size)
+    // Find the run in the free extent index instead of walking the map
+    int start = free_extents.find(runsize);
+    if(start >= 0)
       {
-	start_page_num.pid = current_run_start;
-	set_bits(start_page_num, run_size, 1);
+	start_page_num.pid = start;
+	set_bits(start_page_num, runsize, 1);
 	
+	if(event.shouldCommit())
+	  {
+	    event.startPageId = start;
+	    event.runSize = runsize;
+	    event.found = true;
+	    event.commit();
+	  }
 	return;
       }
     
+    if(event.shouldCommit())
+      {
+	event.startPageId = -1;
+	event.runSize = runsize;
+	event.found = false;
+	event.commit();
+      }
     throw new OutOfSpaceException(null, "No space left");
   }
   
@@ -367,7 +425,7 @@ public class DB implements GlobalConst {
    * @exception IOException I/O errors
    * @exception DiskMgrException error caused by other layers
    */
-  public void add_file_entry(String fname, PageId start_page_num)
+  public synchronized void add_file_entry(String fname, PageId start_page_num)
     throws FileNameTooLongException, 
 	   InvalidPageNumberException, 
 	   InvalidRunSizeException,
@@ -383,95 +441,75 @@ public class DB implements GlobalConst {
       throw new InvalidPageNumberException(null, " DB bad page number");
     
     // Does the file already exist?  
-    
-    if( get_file_entry(fname) != null) 
+    if(directory.get(fname) != null) 
       throw new DuplicateEntryException(null, "DB fileentry already exists");
     
-    Page apage = new Page();
+    // Have to add a new header page if every slot is taken.
+    long free = directory.take_slot();
+    if(free < 0)
+      free = add_header_page();
     
-    boolean found = false;
-    int free_slot = 0;
-    PageId hpid = new PageId();
-    PageId nexthpid = new PageId(0);
-    DBHeaderPage dp;
-    do
-      {// Start DO01
-	//  System.out.println("start do01");
-        hpid.pid = nexthpid.pid;
-	
-	// Pin the header page
-	pinPage(hpid, apage, false /*read disk*/);
-        
-	// This complication is because the first page has a different
-        // structure from that of subsequent pages.
-	if(hpid.pid==0)
-	  {
-	    dp = new DBFirstPage();
-	    ((DBFirstPage) dp).openPage(apage);
-	  }
-	else
-	  {
-	    dp = new DBDirectoryPage();
-	    ((DBDirectoryPage) dp).openPage(apage);
-	  }
-	
-	nexthpid = dp.getNextPage();
-	int entry = 0;
-	
-	PageId tmppid = new PageId();
-	while(entry < dp.getNumOfEntries())
-	  {
-	    dp.getFileEntry(tmppid, entry);
-	    if(tmppid.pid == INVALID_PAGE)  break;
-	    entry ++;
-	  }
-	
-	if(entry < dp.getNumOfEntries())
-	  {
-	    free_slot = entry;
-	    found = true;
-	  }
-	else if (nexthpid.pid != INVALID_PAGE)
-	  {
-	    // We only unpin if we're going to continue looping.
-	    unpinPage(hpid, false /* undirty*/);
-	  }
-	
-      }while((nexthpid.pid != INVALID_PAGE)&&(!found)); // End of DO01
+    PageId hpid = new PageId((int)(free >>> 32));
+    int free_slot = (int)free;
     
-    // Have to add a new header page if possible.
-    if(!found)
-      {
-	try{
-	  allocate_page(nexthpid);
-	}
-	catch(Exception e){         //need rethrow an exception!!!!
-          unpinPage(hpid, false /* undirty*/);
-	  e.printStackTrace();
-	}
-	
-	// Set the next-page pointer on the previous directory page.
-	dp.setNextPage(nexthpid);
-	unpinPage(hpid, true /* dirty*/);
-	
-	// Pin the newly-allocated directory page.
-	hpid.pid = nexthpid.pid;
-	
-	pinPage(hpid, apage, true/*no diskIO*/);
-	dp = new DBDirectoryPage(apage);
-	
-	free_slot = 0;
-      }
+    // Write the entry to its header page first, then to the index.  The
+    // slot is given back if the header page cannot be pinned or written.
+    Page apage = new Page();
+    DBHeaderPage dp;
+    try{
+      dp = pin_header(hpid, apage);
+    }
+    catch (DiskMgrException e) {
+      directory.free_slot(hpid.pid, free_slot);
+      throw e;
+    }
+    try{
+      dp.setFileEntry(start_page_num, fname, free_slot);
+    }
+    catch (IOException e) {
+      unpinPage(hpid, false /* undirty*/);
+      directory.free_slot(hpid.pid, free_slot);
+      throw e;
+    }
+    unpinPage(hpid, true /* dirty*/);
     
-    // At this point, "hpid" has the page id of the header page with the free
-    // slot; "pg" points to the pinned page; "dp" has the directory_page
-    // pointer; "free_slot" is the entry number in the directory where we're
-    // going to put the new file entry.
+    directory.put(fname, start_page_num.pid, hpid.pid, free_slot);
+  }
+  
+  /** Allocate a header page, link it to the end of the chain and record
+   * its slots as free.
+   *
+   * @return the first slot of the new page, as (header page << 32) | slot
+   */
+  private long add_header_page()
+    throws OutOfSpaceException, 
+	   InvalidRunSizeException, 
+	   InvalidPageNumberException, 
+	   FileIOException, 
+	   IOException, 
+	   DiskMgrException {
     
-    dp.setFileEntry(start_page_num, fname, free_slot);
+    PageId nexthpid = new PageId();
+    allocate_page(nexthpid);
     
+    // Set the next-page pointer on the last directory page.
+    Page apage = new Page();
+    PageId hpid = new PageId(directory.last_header());
+    DBHeaderPage dp = pin_header(hpid, apage);
+    dp.setNextPage(nexthpid);
     unpinPage(hpid, true /* dirty*/);
     
+    // Initialize the newly-allocated directory page.
+    pinPage(nexthpid, apage, true/*no diskIO*/);
+    dp = new DBDirectoryPage(apage);
+    int num_entries = dp.getNumOfEntries();
+    unpinPage(nexthpid, true /* dirty*/);
+    
+    directory.set_last_header(nexthpid.pid);
+    for(int entry = num_entries - 1; entry > 0; entry--)
+      directory.free_slot(nexthpid.pid, entry);
+    
+    return ((long)nexthpid.pid << 32);
   }
   
   /** Delete the entry corresponding to a file from the header page(s).
@@ -484,75 +522,32 @@ public class DB implements GlobalConst {
    * @exception InvalidPageNumberException invalid page number
    * @exception DiskMgrException error caused by other layers
    */
-  public void delete_file_entry(String fname)
+  public synchronized void delete_file_entry(String fname)
     throws FileEntryNotFoundException, 
 	   IOException,
 	   FileIOException,
 	   InvalidPageNumberException, 
 	   DiskMgrException {
     
-    Page apage = new Page();
-    boolean found = false;
-    int slot = 0;
-    PageId hpid = new PageId();
-    PageId nexthpid = new PageId(0);
-    PageId tmppid = new PageId();
-    DBHeaderPage dp;
-    
-    do
-      { // startDO01
-        hpid.pid = nexthpid.pid;
-	
-	// Pin the header page.
-	pinPage(hpid, apage, false/*read disk*/);
-
-	// This complication is because the first page has a different
-        // structure from that of subsequent pages.
-	if(hpid.pid==0)
-	  {
-	    dp = new DBFirstPage();
-	    ((DBFirstPage)dp).openPage(apage);
-	  }
-	else
-	  {
-	    dp = new DBDirectoryPage();
-	    ((DBDirectoryPage) dp).openPage(apage);
-	  }
-	nexthpid = dp.getNextPage();
-	
-	int entry = 0;
-	
-	String tmpname;
-	while(entry < dp.getNumOfEntries())
-	  {
-	    tmpname = dp.getFileEntry(tmppid, entry);
-	    
-	    if((tmppid.pid != INVALID_PAGE)&&
-	       (tmpname.compareTo(fname) == 0)) break; 
-	    entry ++;
-	  }
-	
-        if(entry < dp.getNumOfEntries())
-	  {
-	    slot = entry;
-	    found = true;
-	  }
-	else
-	  {
-	    unpinPage(hpid, false /*undirty*/);
-	  }
-	
-      } while((nexthpid.pid != INVALID_PAGE) && (!found)); // EndDO01
-    
-    if(!found)  // Entry not found - nothing deleted
+    FileDirectory.Entry entry = directory.get(fname);
+    if(entry == null)  // Entry not found - nothing deleted
       throw new FileEntryNotFoundException(null, "DB file not found");
     
     // Have to delete record at hpnum:slot
-    tmppid.pid = INVALID_PAGE;
-    dp.setFileEntry(tmppid, "\0", slot);
-    
+    Page apage = new Page();
+    PageId hpid = new PageId(entry.header_pid);
+    DBHeaderPage dp = pin_header(hpid, apage);
+    try{
+      dp.setFileEntry(new PageId(INVALID_PAGE), "\0", entry.slot);
+    }
+    catch (IOException e) {
+      unpinPage(hpid, false /*undirty*/);
+      throw e;
+    }
     unpinPage(hpid, true /*dirty*/);
     
+    directory.remove(fname);
+    directory.free_slot(entry.header_pid, entry.slot);
   }
   
   /** Get the entry corresponding to the given file.
@@ -570,67 +565,89 @@ public class DB implements GlobalConst {
 	   InvalidPageNumberException, 
 	   DiskMgrException {
 
+    DirectoryLookupEvent event = new DirectoryLookupEvent();
+    event.begin();
+    
+    FileDirectory.Entry entry = directory.get(name);
+    
+    if(event.shouldCommit())
+      {
+	event.fileName = name;
+	event.startPageId = (entry == null) ? -1 : entry.start_pid;
+	event.found = (entry != null);
+	event.commit();
+      }
+    
+    if(entry == null)  // Entry not found - don't post error, just fail.
+      return null;
+    
+    return new PageId(entry.start_pid);
+  }
+  
+  /** Pin a header page and open it as the first page or a directory page.
+   * The first page has a different structure from that of subsequent pages.
+   *
+   * @param hpid the header page
+   * @param apage the page object to pin it in
+   * @return the opened header page
+   */
+  private DBHeaderPage pin_header(PageId hpid, Page apage)
+    throws DiskMgrException {
+    
+    pinPage(hpid, apage, false /*read disk*/);
+    
+    if(hpid.pid==0)
+      {
+	DBFirstPage fp = new DBFirstPage();
+	fp.openPage(apage);
+	return fp;
+      }
+    
+    DBDirectoryPage dp = new DBDirectoryPage();
+    dp.openPage(apage);
+    return dp;
+  }
+  
+  /** Load the file directory index by walking the chain of header pages
+   * once.
+   */
+  private synchronized void build_file_directory()
+    throws IOException, 
+	   DiskMgrException {
+    
+    FileDirectory directory = new FileDirectory();
+    
     Page apage = new Page();
-    boolean found = false;
-    int slot = 0;
     PageId hpid = new PageId();
     PageId nexthpid = new PageId(0);
-    DBHeaderPage dp;
+    PageId tmppid = new PageId();
     
     do
-      {// Start DO01
-	
-	// System.out.println("get_file_entry do-loop01: "+name);
+      {
         hpid.pid = nexthpid.pid;
-	
-        // Pin the header page.
-        pinPage(hpid, apage, false /*no diskIO*/);
-	
-	// This complication is because the first page has a different
-        // structure from that of subsequent pages.
-	if(hpid.pid==0)
-	  {
-	    dp = new DBFirstPage();
-	    ((DBFirstPage) dp).openPage(apage);
-	  }
-	else
-	  {
-	    dp = new DBDirectoryPage();
-	    ((DBDirectoryPage) dp).openPage(apage);
-	  }
+	DBHeaderPage dp = pin_header(hpid, apage);
 	nexthpid = dp.getNextPage();
 	
-	int entry = 0;
-	PageId tmppid = new PageId();
-	String tmpname;
-	
-	while(entry < dp.getNumOfEntries())
+	// Free slots are pushed last first so that the first one is reused first
+	for(int entry = dp.getNumOfEntries() - 1; entry >= 0; entry--)
 	  {
-	    tmpname = dp.getFileEntry(tmppid, entry);
-	    
-	    if((tmppid.pid != INVALID_PAGE)&&
-	       (tmpname.compareTo(name) == 0)) break; 
-	    entry ++;
+	    dp.getFileEntry(tmppid, entry);
+	    if(tmppid.pid == INVALID_PAGE)
+	      directory.free_slot(hpid.pid, entry);
 	  }
-	if(entry < dp.getNumOfEntries())
+	for(int entry = 0; entry < dp.getNumOfEntries(); entry++)
 	  {
-	    slot =  entry;
-	    found = true;
+	    String tmpname = dp.getFileEntry(tmppid, entry);
+	    if(tmppid.pid != INVALID_PAGE)
+	      directory.put(tmpname, tmppid.pid, hpid.pid, entry);
 	  }
 	
 	unpinPage(hpid, false /*undirty*/);
 	
-      }while((nexthpid.pid!=INVALID_PAGE)&&(!found));// End of DO01
-    
-    if(!found)  // Entry not found - don't post error, just fail.
-      {    
-	//  System.out.println("entry NOT found");
-	return null;
-      }
+      }while(nexthpid.pid != INVALID_PAGE);
     
-    PageId startpid = new PageId();
-    dp.getFileEntry(startpid, slot);
-    return startpid;
+    directory.set_last_header(hpid.pid);
+    this.directory = directory;
   }
   
   /** Functions to return some characteristics of the database.
@@ -638,6 +655,15 @@ public class DB implements GlobalConst {
   public String db_name(){return name;}
   public int db_num_pages(){return num_pages;}
   public int db_page_size(){return MINIBASE_PAGESIZE;}
+  public String db_io_mode(){return file.mode();}
+  
+  /** Why the database file was opened for "channel" I/O instead of the
+   * mode asked for, such as the device block size for "direct" I/O.
+   *
+   * @return the error met opening the file in that mode, null if there
+   * was none
+   */
+  public Exception db_io_fallback(){return file.fallback();}
   
   /** Print out the space map of the database.
    * The space map is a bitmap showing which
@@ -719,14 +745,27 @@ public class DB implements GlobalConst {
       
     }
   
-  private RandomAccessFile fp;
+  // NOTE: page I/O is positional and needs no lock, space map and directory
+  // updates are synchronized on the DB object itself. Lookups in the
+  // directory only take the directory's read lock.
+  private PageFile file;
+  private String io_mode;
+  private FreeExtents free_extents;
+  private volatile FileDirectory directory;
+  
+  // Reused by set_bits() and build_free_extents() so that updating the
+  // space map allocates nothing
+  private final PageId map_pgid = new PageId();
+  private final Page map_page = new Page();
   private int num_pages;
   private String name;
   
   
-  /** Set runsize bits starting from start to value specified
+  /** Set runsize bits starting from start to value specified.
+   * Each space-map page of the run is pinned once, whole bytes and 64-bit
+   * words are filled directly and nothing is allocated.
    */
-  private void set_bits( PageId start_page, int run_size, int bit )
+  private synchronized void set_bits( PageId start_page, int run_size, int bit )
     throws InvalidPageNumberException, 
 	   FileIOException, 
 	   IOException, 
@@ -735,76 +774,129 @@ public class DB implements GlobalConst {
     if((start_page.pid<0) || (start_page.pid+run_size > num_pages))
       throw new InvalidPageNumberException(null, "Bad page number");
     
+    if(run_size <= 0)
+      return;
+    
     // Locate the run within the space map.
     int first_map_page = start_page.pid/bits_per_page + 1;
     int last_map_page = (start_page.pid+run_size-1)/bits_per_page +1;
     int first_bit_no = start_page.pid % bits_per_page;
+    int bits_left = run_size;
     
     // The outer loop goes over all space-map pages we need to touch.
-    
-    for(PageId pgid = new PageId(first_map_page);
-	pgid.pid <= last_map_page;
-	pgid.pid = pgid.pid+1, first_bit_no = 0)
-      {//Start forloop01
-	
-        // Pin the space-map page.
-	Page pg = new Page();
-	
-	
-	pinPage(pgid, pg, false/*no diskIO*/);
-	
-	
-	byte [] pgbuf = pg.getpage();
+    for(map_pgid.pid = first_map_page; map_pgid.pid <= last_map_page;
+	map_pgid.pid++, first_bit_no = 0)
+      {
+	pinPage(map_pgid, map_page, false/*read disk*/);
 	
 	// Locate the piece of the run that fits on this page.
-	int first_byte_no = first_bit_no/8;
-	int first_bit_offset = first_bit_no%8;
-	int last_bit_no = first_bit_no + run_size -1;
+	int bits_this_page = Math.min(bits_left, bits_per_page - first_bit_no);
+	fill_bits(map_page.getpage(), first_bit_no, first_bit_no + bits_this_page, bit);
+	bits_left -= bits_this_page;
 	
-	if(last_bit_no >= bits_per_page )
-	  last_bit_no = bits_per_page - 1;
-	
-        int last_byte_no = last_bit_no / 8;
+	unpinPage(map_pgid, true /*dirty*/);
+      }
+    
+    // Keep the free extent index in step with the map
+    if(bit==1)
+      free_extents.use(start_page.pid, run_size);
+    else
+      free_extents.free(start_page.pid, run_size);
+  }
+  
+  /** Set bits first_bit to end_bit - 1 of a space-map page to bit. The
+   * partial bytes at either end are masked, whole bytes and 64-bit words
+   * in between are stored directly.
+   */
+  private static void fill_bits( byte [] map, int first_bit, int end_bit, int bit )
+    {
+      byte fill_byte = (byte)((bit==1) ? 0xff : 0);
+      long fill_word = (bit==1) ? -1L : 0L;
+      int b = first_bit;
+      
+      // Bits in the first byte
+      if(((b & 7) != 0) || (end_bit - b < 8)) {
+	int n = Math.min(8 - (b & 7), end_bit - b);
+	set_byte_bits(map, b >> 3, ((1 << n) - 1) << (b & 7), bit);
+	b += n;
+      }
+      
+      // Whole bytes up to a word boundary
+      for(; (b + 8 <= end_bit) && ((b & 63) != 0); b += 8)
+	map[b >> 3] = fill_byte;
+      
+      // Whole words
+      for(; b + 64 <= end_bit; b += 64)
+	LONG_VIEW.set(map, b >> 3, fill_word);
+      
+      // Whole bytes after the last word
+      for(; b + 8 <= end_bit; b += 8)
+	map[b >> 3] = fill_byte;
+      
+      // Bits in the last byte
+      if(b < end_bit)
+	set_byte_bits(map, b >> 3, (1 << (end_bit - b)) - 1, bit);
+    }
+  
+  /** Set the bits of map[byte_no] selected by mask to bit.
+   */
+  private static void set_byte_bits( byte [] map, int byte_no, int mask, int bit )
+    {
+      if(bit==1)
+	map[byte_no] |= (byte)mask;
+      else
+	map[byte_no] &= (byte)~mask;
+    }
+
+  /** Build the free extent index from the space map. The map is read one
+   * 64-bit word at a time and runs of 0 bits are found with
+   * Long.numberOfTrailingZeros.
+   */
+  private synchronized void build_free_extents()
+    throws DiskMgrException {
+    
+    free_extents = new FreeExtents();
+    
+    int num_map_pages = (num_pages + bits_per_page -1)/bits_per_page;
+    int run_start = -1;
+    
+    for(int i=0; i< num_map_pages; ++i) {
+      
+      map_pgid.pid = 1 + i;
+      pinPage(map_pgid, map_page, false /*read disk*/);
+      byte [] map = map_page.getpage();
+      
+      for(int w=0; w < bits_per_page/64; ++w) {
+        int base = i*bits_per_page + w*64;
+        if(base >= num_pages)
+          break;
         
-	// This loop actually flips the bits on the current page.
-	int cur_posi = first_byte_no;
-	for(;cur_posi <= last_byte_no; ++cur_posi, first_bit_offset=0)
-	  {//start forloop02
-	    
-	    int max_bits_this_byte = 8 - first_bit_offset;
-	    int num_bits_this_byte = (run_size > max_bits_this_byte?
-				      max_bits_this_byte : run_size);
-	    
-            int imask =1;
-	    int temp;
-	    imask = ((imask << num_bits_this_byte) -1)<<first_bit_offset;
-	    Integer intmask = new Integer(imask);
-	    Byte mask = new Byte(intmask.byteValue());
-	    byte bytemask = mask.byteValue();
-	    
-	    if(bit==1)
-	      {
-	        temp = (pgbuf[cur_posi] | bytemask);
-	        intmask = new Integer(temp);
-		pgbuf[cur_posi] = intmask.byteValue();
-	      }
-	    else
-	      {
-		
-		temp = pgbuf[cur_posi] & (255^bytemask);
-	        intmask = new Integer(temp);
-		pgbuf[cur_posi] = intmask.byteValue();
-	      }
-	    run_size -= num_bits_this_byte;
-	    
-	  }//end of forloop02
-	
-	// Unpin the space-map page.
-	
-	unpinPage(pgid, true /*dirty*/);
-	
-      }//end of forloop01
+        // Bits past the last page count as used
+        long word = (long)LONG_VIEW.get(map, w*8);
+        if(num_pages - base < 64)
+          word |= -1L << (num_pages - base);
+        
+        // Step from one change between used and free to the next
+        int bit = 0;
+        while(bit < 64) {
+          long rest = ((run_start < 0) ? ~word : word) >>> bit;
+          if(rest == 0)
+            break;
+          bit += Long.numberOfTrailingZeros(rest);
+          if(run_start < 0)
+            run_start = base + bit;
+          else {
+            free_extents.free(run_start, base + bit - run_start);
+            run_start = -1;
+          }
+        }
+      }
+      
+      unpinPage(map_pgid, false /*undirty*/);
+    }
     
+    if(run_start >= 0)
+      free_extents.free(run_start, num_pages - run_start);
   }
 
   /**
@@ -0,0 +1,344 @@
+/* File DirectPageFile.java */
+
+package diskmgr;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.locks.ReentrantLock;
+import com.sun.nio.file.ExtendedOpenOption;
+import global.*;
+
+/**
+ * The database file opened for direct I/O, bypassing the operating
+ * system's page cache so that the buffer manager is the only cache.
+ * Every transfer goes through a buffer aligned to the device block size
+ * and covers whole blocks. If a block holds more than one page, writing
+ * a page reads the block, puts the page in it and writes it back while
+ * the block is locked.
+ */
+class DirectPageFile extends PageFile {
+
+  /**
+   * Number of locks guarding blocks during a read-modify-write
+   */
+  private static final int LOCKS = 64;
+
+  /**
+   * Largest block size direct I/O is used with
+   */
+  private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+  /**
+   * System property that lowers the largest block size direct I/O is
+   * used with, a file on a device with larger blocks uses channel I/O
+   */
+  private static final String MAX_BLOCK_SIZE_PROPERTY = "diskmgr.direct.maxBlockSize";
+
+  /**
+   * The device block size, every transfer is aligned to it
+   */
+  private final int blockSize;
+
+  /**
+   * Block b is guarded by locks[b % LOCKS]
+   */
+  private final ReentrantLock [] locks;
+
+  /**
+   * Per thread aligned buffer large enough for a run of MAX_RUN pages
+   */
+  private final ThreadLocal<ByteBuffer> alignedBuffer;
+
+  /**
+   * Opens the file for direct I/O, or for channel I/O if the file system
+   * or its block size does not allow direct I/O. PageFile.mode() tells
+   * which one was opened and PageFile.fallback() why.
+   * @param fname the file name
+   * @exception IOException I/O errors
+   */
+  public static PageFile open(String fname)
+    throws IOException
+    {
+      Path path = Paths.get(fname);
+      FileChannel channel = null;
+      Exception reason;
+      try {
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                   StandardOpenOption.CREATE, ExtendedOpenOption.DIRECT);
+        long size = Files.getFileStore(path).getBlockSize();
+        int maxSize = Integer.getInteger(MAX_BLOCK_SIZE_PROPERTY, MAX_BLOCK_SIZE);
+        if ((size > 0) && (size <= Math.min(maxSize, MAX_BLOCK_SIZE)) && ((size & (size - 1)) == 0))
+          return new DirectPageFile(channel, (int)size);
+
+        reason = new IOException("Block size " + size + " of " + fname + " is not a power of "
+                                 + "two up to " + Math.min(maxSize, MAX_BLOCK_SIZE));
+        channel.close();
+      }
+      catch (IOException | UnsupportedOperationException e) {
+        reason = e;
+        if (channel != null) {
+          try {
+            channel.close();
+          }
+          catch (IOException close) {
+            e.addSuppressed(close);
+          }
+        }
+      }
+
+      PageFile file = new PageFile(fname);
+      file.setFallback(reason);
+      return file;
+    }
+
+  /**
+   * Constructor of class DirectPageFile
+   * @param channel the file opened with ExtendedOpenOption.DIRECT
+   * @param blockSize the device block size, a power of two
+   */
+  private DirectPageFile(FileChannel channel, int blockSize)
+    {
+      super(channel);
+      this.blockSize = blockSize;
+
+      locks = new ReentrantLock[LOCKS];
+      for (int i = 0; i < LOCKS; i++)
+        locks[i] = new ReentrantLock();
+
+      final int capacity = alignUp(MAX_RUN * MINIBASE_PAGESIZE) + 2 * blockSize;
+      alignedBuffer = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+          return ByteBuffer.allocateDirect(capacity + DirectPageFile.this.blockSize)
+            .alignedSlice(DirectPageFile.this.blockSize);
+        }
+      };
+    }
+
+  /**
+   * Returns "direct"
+   */
+  public String mode()
+    {
+      return "direct";
+    }
+
+  /**
+   * Makes the file at least num_pages pages long, filled with zeroes.
+   * The size is rounded up to whole blocks.
+   * @param num_pages number of pages in the file
+   * @exception IOException I/O errors
+   */
+  public void extend(int num_pages)
+    throws IOException
+    {
+      if (channel.size() < position(num_pages)) {
+        Page zero = new Page();
+        write(num_pages - 1, new Page[] { zero }, 0, 1);
+      }
+    }
+
+  /**
+   * Reads page pid into apage
+   * @param pid the page number
+   * @param apage the page to fill
+   * @exception IOException I/O errors
+   */
+  public void read(int pid, Page apage)
+    throws IOException
+    {
+      read(pid, new Page[] { apage }, 0, 1);
+    }
+
+  /**
+   * Writes apage to page pid
+   * @param pid the page number
+   * @param apage the page to write
+   * @exception IOException I/O errors
+   */
+  public void write(int pid, Page apage)
+    throws IOException
+    {
+      write(pid, new Page[] { apage }, 0, 1);
+    }
+
+  /**
+   * Reads the run of pages starting at pid, one page per entry of pages.
+   * Each MAX_RUN pages are read with a single call.
+   * @param pid the first page number
+   * @param pages the pages to fill
+   * @exception IOException I/O errors
+   */
+  public void read(int pid, Page [] pages)
+    throws IOException
+    {
+      for (int i = 0; i < pages.length; i += MAX_RUN)
+        read(pid + i, pages, i, Math.min(MAX_RUN, pages.length - i));
+    }
+
+  /**
+   * Writes pages to the run of pages starting at pid.
+   * Each MAX_RUN pages are written with a single call.
+   * @param pid the first page number
+   * @param pages the pages to write
+   * @exception IOException I/O errors
+   */
+  public void write(int pid, Page [] pages)
+    throws IOException
+    {
+      for (int i = 0; i < pages.length; i += MAX_RUN)
+        write(pid + i, pages, i, Math.min(MAX_RUN, pages.length - i));
+    }
+
+  /**
+   * Reads the n pages starting at pid into pages[from] and up
+   */
+  private void read(int pid, Page [] pages, int from, int n)
+    throws IOException
+    {
+      long pos = position(pid);
+      long start = alignDown(pos);
+      int length = (int)(alignUp(pos + n * MINIBASE_PAGESIZE) - start);
+
+      ByteBuffer aligned = alignedBuffer.get();
+      readBlocks(aligned, start, length);
+      scatter(aligned, (int)(pos - start), pages, from, n);
+    }
+
+  /**
+   * Writes pages[from] and up to the n pages starting at pid. Blocks only
+   * partly covered by the pages are read first and locked until written.
+   */
+  private void write(int pid, Page [] pages, int from, int n)
+    throws IOException
+    {
+      long pos = position(pid);
+      long end = pos + n * MINIBASE_PAGESIZE;
+      long start = alignDown(pos);
+      int length = (int)(alignUp(end) - start);
+      ByteBuffer aligned = alignedBuffer.get();
+
+      // The pages cover whole blocks, no other page shares them
+      if ((start == pos) && (start + length == end)) {
+        gather(aligned, 0, pages, from, n);
+        writeBlocks(aligned, start, length);
+        return;
+      }
+
+      long firstBlock = start / blockSize;
+      int blocks = length / blockSize;
+      lock(firstBlock, blocks);
+      try {
+        readBlocks(aligned, start, length);
+        gather(aligned, (int)(pos - start), pages, from, n);
+        writeBlocks(aligned, start, length);
+      }
+      finally {
+        unlock(firstBlock, blocks);
+      }
+    }
+
+  /**
+   * Reads length bytes at start into aligned, the part past the end of
+   * the file is zeroed
+   */
+  private void readBlocks(ByteBuffer aligned, long start, int length)
+    throws IOException
+    {
+      aligned.clear();
+      aligned.limit(length);
+      readFully(aligned, start);
+      while (aligned.hasRemaining())
+        aligned.put((byte)0);
+    }
+
+  /**
+   * Writes the first length bytes of aligned at start
+   */
+  private void writeBlocks(ByteBuffer aligned, long start, int length)
+    throws IOException
+    {
+      aligned.clear();
+      aligned.limit(length);
+      writeFully(aligned, start);
+    }
+
+  /**
+   * Copies n pages at offset in aligned into pages[from] and up
+   */
+  private static void scatter(ByteBuffer aligned, int offset, Page [] pages, int from, int n)
+    {
+      for (int i = 0; i < n; i++) {
+        aligned.limit(offset + (i + 1) * MINIBASE_PAGESIZE);
+        aligned.position(offset + i * MINIBASE_PAGESIZE);
+        pageBuffer(pages[from + i]).put(aligned);
+      }
+    }
+
+  /**
+   * Copies pages[from] and up into aligned at offset
+   */
+  private static void gather(ByteBuffer aligned, int offset, Page [] pages, int from, int n)
+    {
+      aligned.clear();
+      aligned.position(offset);
+      for (int i = 0; i < n; i++)
+        aligned.put(pageBuffer(pages[from + i]));
+    }
+
+  /**
+   * Locks the blocks first to first + count - 1, always in lock order
+   */
+  private void lock(long first, int count)
+    {
+      for (int i = 0; i < LOCKS; i++) {
+        if (guards(i, first, count))
+          locks[i].lock();
+      }
+    }
+
+  /**
+   * Unlocks the blocks first to first + count - 1
+   */
+  private void unlock(long first, int count)
+    {
+      for (int i = LOCKS - 1; i >= 0; i--) {
+        if (guards(i, first, count))
+          locks[i].unlock();
+      }
+    }
+
+  /**
+   * Returns true if lock i guards one of the blocks first to first + count - 1
+   */
+  private static boolean guards(int i, long first, int count)
+    {
+      return (count >= LOCKS) || (((i - first % LOCKS) + LOCKS) % LOCKS < count);
+    }
+
+  /**
+   * Rounds pos down to a block boundary
+   */
+  private long alignDown(long pos)
+    {
+      return pos & -(long)blockSize;
+    }
+
+  /**
+   * Rounds pos up to a block boundary
+   */
+  private long alignUp(long pos)
+    {
+      return (pos + blockSize - 1) & -(long)blockSize;
+    }
+
+  /**
+   * Rounds size up to a block boundary
+   */
+  private int alignUp(int size)
+    {
+      return (size + blockSize - 1) & -blockSize;
+    }
+
+}
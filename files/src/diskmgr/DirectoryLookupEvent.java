@@ -0,0 +1,39 @@
+/* File DirectoryLookupEvent.java */
+
+package diskmgr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for a lookup of a file entry in the file
+ * directory.
+ * NOTE: disabled unless a recording enables minibase.DirectoryLookup,
+ * a disabled event costs get_file_entry only a check of shouldCommit().
+ */
+@Name("minibase.DirectoryLookup")
+@Label("Directory Lookup")
+@Category({ "Minibase", "Disk Manager" })
+@Description("A file entry looked up in the file directory")
+@Enabled(false)
+@StackTrace(true)
+class DirectoryLookupEvent extends Event {
+
+  /**
+   * Name of the file looked up
+   */
+  @Label("File Name")
+  String fileName;
+
+  /**
+   * First page of the file, -1 if it has no entry
+   */
+  @Label("Start Page Id")
+  int startPageId;
+
+  /**
+   * Whether the file has an entry
+   */
+  @Label("Found")
+  boolean found;
+
+}
@@ -0,0 +1,159 @@
+/* File FileDirectory.java */
+
+package diskmgr;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * In-memory index of the file entries stored in the DB header pages.
+ * It maps each file name to its start page and to the header page and
+ * slot holding the entry, and keeps the free slots of the header pages,
+ * so looking up, adding or deleting a file pins no page to search.
+ * NOTE: the header pages stay the authority, the DB writes every change
+ * to them first and the index is loaded from them when the DB is opened.
+ * The entries are guarded by a read/write lock of their own so that
+ * lookups run in parallel and never wait for the DB. Changes are made
+ * by the DB while it holds its own lock, which also guards the free
+ * slots and the last header page.
+ */
+class FileDirectory {
+
+  /**
+   * Where a file entry is stored
+   */
+  static class Entry {
+
+    /** the start page of the file */
+    final int start_pid;
+
+    /** the header page holding the entry */
+    final int header_pid;
+
+    /** the entry number on the header page */
+    final int slot;
+
+    Entry(int start_pid, int header_pid, int slot)
+      {
+        this.start_pid = start_pid;
+        this.header_pid = header_pid;
+        this.slot = slot;
+      }
+  }
+
+  /**
+   * The file entries by name
+   */
+  private HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+  /**
+   * Guards entries
+   */
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Free slots as (header page << 32) | slot, used as a stack
+   */
+  private long [] free_slots = new long[16];
+  private int num_free = 0;
+
+  /**
+   * The last header page of the chain, a new header page is linked to it
+   */
+  private int last_header = 0;
+
+  /**
+   * Returns the entry of the named file, or null if there is none
+   */
+  public Entry get(String name)
+    {
+      lock.readLock().lock();
+      try {
+        return entries.get(name);
+      }
+      finally {
+        lock.readLock().unlock();
+      }
+    }
+
+  /**
+   * Records the entry of the named file. If the name is already taken
+   * the first entry is kept, as a walk of the header pages would find it.
+   */
+  public void put(String name, int start_pid, int header_pid, int slot)
+    {
+      lock.writeLock().lock();
+      try {
+        entries.putIfAbsent(name, new Entry(start_pid, header_pid, slot));
+      }
+      finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+  /**
+   * Removes and returns the entry of the named file, or null if there is none
+   */
+  public Entry remove(String name)
+    {
+      lock.writeLock().lock();
+      try {
+        return entries.remove(name);
+      }
+      finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+  /**
+   * Returns the number of files
+   */
+  public int size()
+    {
+      lock.readLock().lock();
+      try {
+        return entries.size();
+      }
+      finally {
+        lock.readLock().unlock();
+      }
+    }
+
+  /**
+   * Records a free slot
+   */
+  public void free_slot(int header_pid, int slot)
+    {
+      if (num_free == free_slots.length)
+        free_slots = Arrays.copyOf(free_slots, num_free * 2);
+      free_slots[num_free++] = ((long)header_pid << 32) | slot;
+    }
+
+  /**
+   * Takes a free slot, returned as (header page << 32) | slot, or -1 if
+   * every header page is full
+   */
+  public long take_slot()
+    {
+      if (num_free == 0)
+        return -1;
+      return free_slots[--num_free];
+    }
+
+  /**
+   * Returns the last header page of the chain
+   */
+  public int last_header()
+    {
+      return last_header;
+    }
+
+  /**
+   * Sets the last header page of the chain
+   */
+  public void set_last_header(int header_pid)
+    {
+      last_header = header_pid;
+    }
+
+}
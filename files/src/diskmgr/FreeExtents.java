@@ -0,0 +1,238 @@
+/* File FreeExtents.java */
+
+package diskmgr;
+
+import java.util.Arrays;
+
+/**
+ * In-memory index of the runs of free pages in the space map. Each run
+ * (extent) is kept by its first page and by its size in sorted arrays of
+ * primitives, so a run of a given size is found in O(log n) and adding or
+ * removing an extent moves the extents after it without allocating. A next-fit cursor makes consecutive
+ * allocations continue where the previous one ended.
+ * NOTE: the space map on disk stays the authority, the index is rebuilt
+ * from it when the database is opened.
+ */
+class FreeExtents {
+
+  /**
+   * First page and length of each extent, ordered by first page
+   */
+  private int[] starts = new int[16];
+  private int[] lengths = new int[16];
+
+  /**
+   * The extents ordered by size then first page, as (length << 32) | start
+   */
+  private long[] bySize = new long[16];
+
+  /**
+   * Number of extents
+   */
+  private int count = 0;
+
+  /**
+   * Page following the last run handed out
+   */
+  private int cursor = 0;
+
+  /**
+   * Number of free pages
+   */
+  private long freePages = 0;
+
+  /**
+   * Returns the first page of a free run of run_size pages, or -1 if no
+   * extent is large enough. The run starts at the cursor if the cursor's
+   * extent has room, otherwise it is taken from the smallest extent that
+   * fits. The run is not marked as used, see use().
+   * @param run_size the number of pages wanted
+   */
+  public int find(int run_size)
+    {
+      // Next fit, continue in the extent holding the cursor or the next one
+      int i = floor(cursor);
+      if ((i >= 0) && ((long)starts[i] + lengths[i] >= (long)cursor + run_size))
+        return advance(cursor, run_size);
+
+      i = floor(cursor - 1) + 1;
+      if ((i < count) && (lengths[i] >= run_size))
+        return advance(starts[i], run_size);
+
+      // Best fit
+      int fit = ceiling(bySize, (long)run_size << 32);
+      if (fit == count)
+        return -1;
+      return advance((int)bySize[fit], run_size);
+    }
+
+  /**
+   * Moves the cursor past the run and returns its first page
+   */
+  private int advance(int start, int run_size)
+    {
+      cursor = start + run_size;
+      return start;
+    }
+
+  /**
+   * Marks pages start to start + run_size - 1 as free, merging them with
+   * the extents they touch or overlap
+   * @param start the first page
+   * @param run_size the number of pages
+   */
+  public void free(int start, int run_size)
+    {
+      if (run_size <= 0)
+        return;
+
+      int first = start;
+      int end = start + run_size;
+
+      // Take in an extent that ends at or after start
+      int i = floor(start);
+      if ((i >= 0) && (starts[i] + lengths[i] >= start)) {
+        first = starts[i];
+        end = Math.max(end, first + lengths[i]);
+        remove(i);
+      }
+      else
+        i++;
+
+      // Take in the extents that begin inside the run or right after it
+      while ((i < count) && (starts[i] <= end)) {
+        end = Math.max(end, starts[i] + lengths[i]);
+        remove(i);
+      }
+
+      add(first, end - first);
+    }
+
+  /**
+   * Marks pages start to start + run_size - 1 as used, splitting the
+   * extents they overlap
+   * @param start the first page
+   * @param run_size the number of pages
+   */
+  public void use(int start, int run_size)
+    {
+      if (run_size <= 0)
+        return;
+
+      int end = start + run_size;
+
+      // The extent starting before the run keeps the part before it
+      int i = floor(start - 1);
+      if ((i >= 0) && (starts[i] + lengths[i] > start)) {
+        int eStart = starts[i];
+        int eEnd = eStart + lengths[i];
+        remove(i);
+        add(eStart, start - eStart);
+        if (eEnd > end)
+          add(end, eEnd - end);
+      }
+
+      // The extents starting inside the run keep the part after it
+      i = floor(start - 1) + 1;
+      while ((i < count) && (starts[i] < end)) {
+        int eEnd = starts[i] + lengths[i];
+        remove(i);
+        if (eEnd > end)
+          add(end, eEnd - end);
+      }
+    }
+
+  /**
+   * Returns the number of free pages
+   */
+  public long freePages()
+    {
+      return freePages;
+    }
+
+  /**
+   * Returns the number of extents
+   */
+  public int size()
+    {
+      return count;
+    }
+
+  /**
+   * Returns the index of the last extent starting at or before page, or
+   * -1 if there is none
+   */
+  private int floor(int page)
+    {
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (starts[mid] <= page)
+          low = mid + 1;
+        else
+          high = mid - 1;
+      }
+      return high;
+    }
+
+  /**
+   * Returns the index of the first of the count values of a sorted array
+   * that is at least key, or count if there is none
+   */
+  private int ceiling(long[] values, long key)
+    {
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (values[mid] < key)
+          low = mid + 1;
+        else
+          high = mid - 1;
+      }
+      return low;
+    }
+
+  /**
+   * Adds an extent that overlaps no other
+   */
+  private void add(int start, int length)
+    {
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, 2 * count);
+        lengths = Arrays.copyOf(lengths, 2 * count);
+        bySize = Arrays.copyOf(bySize, 2 * count);
+      }
+
+      int i = floor(start) + 1;
+      System.arraycopy(starts, i, starts, i + 1, count - i);
+      System.arraycopy(lengths, i, lengths, i + 1, count - i);
+      starts[i] = start;
+      lengths[i] = length;
+
+      long key = ((long)length << 32) | start;
+      int j = ceiling(bySize, key);
+      System.arraycopy(bySize, j, bySize, j + 1, count - j);
+      bySize[j] = key;
+
+      count++;
+      freePages += length;
+    }
+
+  /**
+   * Removes the extent at index i
+   */
+  private void remove(int i)
+    {
+      long key = ((long)lengths[i] << 32) | starts[i];
+      int j = ceiling(bySize, key);
+      System.arraycopy(bySize, j + 1, bySize, j, count - j - 1);
+
+      freePages -= lengths[i];
+      System.arraycopy(starts, i + 1, starts, i, count - i - 1);
+      System.arraycopy(lengths, i + 1, lengths, i, count - i - 1);
+      count--;
+    }
+
+}
@@ -0,0 +1,236 @@
+/* File MappedPageFile.java */
+
+package diskmgr;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import global.*;
+
+/**
+ * The database file mapped into memory. The file is mapped in segments of
+ * SEGMENT_PAGES pages, so reading or writing a page is a memory copy and
+ * needs no system call. Written pages reach the device when the file is
+ * flushed, only the ranges written since the last flush are forced.
+ */
+class MappedPageFile extends PageFile {
+
+  /**
+   * Number of pages in each mapped segment
+   */
+  private static final int SEGMENT_PAGES = 1 << 16;
+
+  /**
+   * The mapped segments, segment i holds pages i * SEGMENT_PAGES and up.
+   * Only the last segment may be shorter than SEGMENT_PAGES pages.
+   */
+  private volatile MappedByteBuffer [] segments;
+
+  /**
+   * First and last page + 1 written in each segment since the last flush,
+   * dirtyLo[i] >= dirtyHi[i] if the segment is clean
+   */
+  private int [] dirtyLo;
+  private int [] dirtyHi;
+
+  /**
+   * Opens the file, creating it if it does not exist, and maps it
+   * @param fname the file name
+   * @exception IOException I/O errors
+   */
+  public MappedPageFile(String fname)
+    throws IOException
+    {
+      super(fname);
+      segments = new MappedByteBuffer[0];
+      dirtyLo = new int[0];
+      dirtyHi = new int[0];
+      map((int)(channel.size() / MINIBASE_PAGESIZE));
+    }
+
+  /**
+   * Returns "mapped"
+   */
+  public String mode()
+    {
+      return "mapped";
+    }
+
+  /**
+   * Makes the file at least num_pages pages long and maps the new pages
+   * @param num_pages number of pages in the file
+   * @exception IOException I/O errors
+   */
+  public void extend(int num_pages)
+    throws IOException
+    {
+      super.extend(num_pages);
+      map(num_pages);
+    }
+
+  /**
+   * Maps the first num_pages pages of the file. The segments already
+   * mapped are kept, a short last segment is mapped again at its new size.
+   */
+  private synchronized void map(int num_pages)
+    throws IOException
+    {
+      int count = (num_pages + SEGMENT_PAGES - 1) / SEGMENT_PAGES;
+      if (count < segments.length)
+        return;
+
+      MappedByteBuffer [] grown = new MappedByteBuffer[count];
+      int [] lo = new int[count];
+      int [] hi = new int[count];
+      System.arraycopy(segments, 0, grown, 0, segments.length);
+      System.arraycopy(dirtyLo, 0, lo, 0, dirtyLo.length);
+      System.arraycopy(dirtyHi, 0, hi, 0, dirtyHi.length);
+
+      for (int i = 0; i < count; i++) {
+        int pages = Math.min(SEGMENT_PAGES, num_pages - i * SEGMENT_PAGES);
+        if ((grown[i] != null) && (grown[i].capacity() >= pages * MINIBASE_PAGESIZE))
+          continue;
+
+        // Pages written through the old mapping must reach the file first
+        if (grown[i] != null)
+          grown[i].force();
+        grown[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                               position(i * SEGMENT_PAGES), (long)pages * MINIBASE_PAGESIZE);
+      }
+
+      dirtyLo = lo;
+      dirtyHi = hi;
+      segments = grown;
+    }
+
+  /**
+   * Returns the segment holding page pid
+   */
+  private MappedByteBuffer segment(int pid)
+    throws IOException
+    {
+      MappedByteBuffer [] mapped = segments;
+      int i = pid / SEGMENT_PAGES;
+      if ((i >= mapped.length) || (offset(pid) >= mapped[i].capacity()))
+        throw new EOFException("Page " + pid + " is not mapped");
+      return mapped[i];
+    }
+
+  /**
+   * Returns the offset of page pid within its segment
+   */
+  private static int offset(int pid)
+    {
+      return (pid % SEGMENT_PAGES) * MINIBASE_PAGESIZE;
+    }
+
+  /**
+   * Copies page pid into apage
+   * @param pid the page number
+   * @param apage the page to fill
+   * @exception IOException I/O errors
+   */
+  public void read(int pid, Page apage)
+    throws IOException
+    {
+      MappedByteBuffer seg = segment(pid);
+      ByteBuffer buffer = apage.getbuffer();
+      if (buffer == null)
+        seg.get(offset(pid), apage.getpage(), 0, MINIBASE_PAGESIZE);
+      else
+        buffer.put(0, seg, offset(pid), MINIBASE_PAGESIZE);
+    }
+
+  /**
+   * Copies apage to page pid
+   * @param pid the page number
+   * @param apage the page to write
+   * @exception IOException I/O errors
+   */
+  public void write(int pid, Page apage)
+    throws IOException
+    {
+      MappedByteBuffer seg = segment(pid);
+      ByteBuffer buffer = apage.getbuffer();
+      if (buffer == null)
+        seg.put(offset(pid), apage.getpage(), 0, MINIBASE_PAGESIZE);
+      else
+        seg.put(offset(pid), buffer, 0, MINIBASE_PAGESIZE);
+      written(pid, 1);
+    }
+
+  /**
+   * Copies the run of pages starting at pid, one page per entry of pages
+   * @param pid the first page number
+   * @param pages the pages to fill
+   * @exception IOException I/O errors
+   */
+  public void read(int pid, Page [] pages)
+    throws IOException
+    {
+      for (int i = 0; i < pages.length; i++)
+        read(pid + i, pages[i]);
+    }
+
+  /**
+   * Copies pages to the run of pages starting at pid
+   * @param pid the first page number
+   * @param pages the pages to write
+   * @exception IOException I/O errors
+   */
+  public void write(int pid, Page [] pages)
+    throws IOException
+    {
+      for (int i = 0; i < pages.length; i++)
+        write(pid + i, pages[i]);
+    }
+
+  /**
+   * Records that run pages starting at pid were written
+   */
+  private synchronized void written(int pid, int run)
+    {
+      int i = pid / SEGMENT_PAGES;
+      int first = pid % SEGMENT_PAGES;
+      if (dirtyLo[i] >= dirtyHi[i]) {
+        dirtyLo[i] = first;
+        dirtyHi[i] = first + run;
+      }
+      else {
+        dirtyLo[i] = Math.min(dirtyLo[i], first);
+        dirtyHi[i] = Math.max(dirtyHi[i], first + run);
+      }
+    }
+
+  /**
+   * Forces the ranges written since the last flush to the device
+   * @exception IOException I/O errors
+   */
+  public synchronized void flush()
+    throws IOException
+    {
+      MappedByteBuffer [] mapped = segments;
+      for (int i = 0; i < mapped.length; i++) {
+        if (dirtyLo[i] >= dirtyHi[i])
+          continue;
+
+        mapped[i].force(dirtyLo[i] * MINIBASE_PAGESIZE,
+                        (dirtyHi[i] - dirtyLo[i]) * MINIBASE_PAGESIZE);
+        dirtyLo[i] = 0;
+        dirtyHi[i] = 0;
+      }
+    }
+
+  /**
+   * Flushes the mapping and closes the file
+   * @exception IOException I/O errors
+   */
+  public void close()
+    throws IOException
+    {
+      flush();
+      super.close();
+    }
+
+}
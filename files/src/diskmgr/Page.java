@@ -2,6 +2,7 @@
 
 package diskmgr;
 
+import java.nio.ByteBuffer;
 import global.*;
 
  /**
@@ -29,8 +30,19 @@ public class Page implements GlobalConst{
       data = apage;
     }
   
+  /**
+   * Constructor of class Page that wraps frame memory outside the heap
+   * @param 	abuffer   a buffer of page size, e.g. a slice of the buffer pool arena
+   */
+  public Page(ByteBuffer abuffer)
+    {
+      buffer = abuffer;
+      data = null;
+    }
+  
   /**
    * return the data byte array
+   * NOTE: a page wrapping a ByteBuffer has no byte array and returns null
    * @return 	the byte array of the page
    */
   public byte [] getpage()
@@ -46,6 +58,26 @@ public class Page implements GlobalConst{
   public void setpage(byte [] array)
     {
       data = array;
+      buffer = null;
+    }
+  
+  /**
+   * return the buffer wrapped by this page
+   * @return 	the buffer of the page, or null if the page is a byte array
+   */
+  public ByteBuffer getbuffer()
+    {
+      return buffer;
+    }
+  
+  /**
+   * set the page with the given buffer
+   * @param 	abuffer   a buffer of page size
+   */
+  public void setbuffer(ByteBuffer abuffer)
+    {
+      buffer = abuffer;
+      data = null;
     }
   
   /**
@@ -54,4 +86,10 @@ public class Page implements GlobalConst{
    */
   protected byte [] data;
   
+  /**
+   * private field: The page memory when it lives outside the heap
+   * 
+   */
+  protected ByteBuffer buffer;
+  
 }
@@ -0,0 +1,265 @@
+/* File PageFile.java */
+
+package diskmgr;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import global.*;
+
+/**
+ * The database file seen as an array of pages. Every read and write is
+ * positional, there is no shared file pointer, so any number of threads
+ * can page in and out at the same time.
+ */
+class PageFile implements GlobalConst {
+
+  /**
+   * Largest run of pages moved by one read or write call
+   */
+  protected static final int MAX_RUN = 64;
+
+  /**
+   * Per thread buffer used to move a run of pages with a single call
+   */
+  private static final ThreadLocal<ByteBuffer> runBuffer = new ThreadLocal<ByteBuffer>() {
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocateDirect(MAX_RUN * MINIBASE_PAGESIZE);
+    }
+  };
+
+  /**
+   * The open database file
+   */
+  protected FileChannel channel;
+
+  /**
+   * Why the file was opened for channel I/O instead of the mode asked
+   * for, null if it was not
+   */
+  private Exception fallback;
+
+  /**
+   * Opens the file with the named I/O mode: "channel" for positional
+   * reads and writes, "mapped" to map the file into memory, or "direct"
+   * to bypass the operating system's page cache
+   * @param fname the file name
+   * @param mode the I/O mode, null for "channel"
+   * @exception IOException I/O errors
+   */
+  public static PageFile open(String fname, String mode)
+    throws IOException
+    {
+      if ((mode == null) || mode.equalsIgnoreCase("channel"))
+        return new PageFile(fname);
+      if (mode.equalsIgnoreCase("mapped"))
+        return new MappedPageFile(fname);
+      if (mode.equalsIgnoreCase("direct"))
+        return DirectPageFile.open(fname);
+      throw new IllegalArgumentException("Unknown I/O mode: " + mode);
+    }
+
+  /**
+   * Opens the file, creating it if it does not exist
+   * @param fname the file name
+   * @exception IOException I/O errors
+   */
+  public PageFile(String fname)
+    throws IOException
+    {
+      this(FileChannel.open(Paths.get(fname), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE));
+    }
+
+  /**
+   * Constructor of class PageFile
+   * @param channel the open database file
+   */
+  protected PageFile(FileChannel channel)
+    {
+      this.channel = channel;
+    }
+
+  /**
+   * Returns the name of the I/O mode
+   */
+  public String mode()
+    {
+      return "channel";
+    }
+
+  /**
+   * Returns why the file was opened for channel I/O instead of the mode
+   * asked for, or null if it was opened in that mode
+   */
+  public Exception fallback()
+    {
+      return fallback;
+    }
+
+  /**
+   * Records why the file was opened for channel I/O instead of the mode
+   * asked for
+   * @param reason the error met opening the file in that mode
+   */
+  void setFallback(Exception reason)
+    {
+      fallback = reason;
+    }
+
+  /**
+   * Makes the file at least num_pages pages long, filled with zeroes
+   * @param num_pages number of pages in the file
+   * @exception IOException I/O errors
+   */
+  public void extend(int num_pages)
+    throws IOException
+    {
+      long size = (long)num_pages * MINIBASE_PAGESIZE;
+      if (channel.size() < size)
+        channel.write(ByteBuffer.allocate(1), size - 1);
+    }
+
+  /**
+   * Reads page pid into apage
+   * @param pid the page number
+   * @param apage the page to fill
+   * @exception IOException I/O errors
+   */
+  public void read(int pid, Page apage)
+    throws IOException
+    {
+      readFully(pageBuffer(apage), position(pid));
+    }
+
+  /**
+   * Writes apage to page pid
+   * @param pid the page number
+   * @param apage the page to write
+   * @exception IOException I/O errors
+   */
+  public void write(int pid, Page apage)
+    throws IOException
+    {
+      writeFully(pageBuffer(apage), position(pid));
+    }
+
+  /**
+   * Reads the run of pages starting at pid, one page per entry of pages.
+   * Each MAX_RUN pages are read with a single call.
+   * @param pid the first page number
+   * @param pages the pages to fill
+   * @exception IOException I/O errors
+   */
+  public void read(int pid, Page [] pages)
+    throws IOException
+    {
+      ByteBuffer run = runBuffer.get();
+      for (int i = 0; i < pages.length; i += MAX_RUN) {
+        int n = Math.min(MAX_RUN, pages.length - i);
+
+        run.clear();
+        run.limit(n * MINIBASE_PAGESIZE);
+        readFully(run, position(pid + i));
+
+        // Scatter the run over the pages
+        for (int j = 0; j < n; j++) {
+          run.limit((j + 1) * MINIBASE_PAGESIZE);
+          run.position(j * MINIBASE_PAGESIZE);
+          pageBuffer(pages[i + j]).put(run);
+        }
+      }
+    }
+
+  /**
+   * Writes pages to the run of pages starting at pid.
+   * Each MAX_RUN pages are written with a single call.
+   * @param pid the first page number
+   * @param pages the pages to write
+   * @exception IOException I/O errors
+   */
+  public void write(int pid, Page [] pages)
+    throws IOException
+    {
+      ByteBuffer run = runBuffer.get();
+      for (int i = 0; i < pages.length; i += MAX_RUN) {
+        int n = Math.min(MAX_RUN, pages.length - i);
+
+        // Gather the pages into the run
+        run.clear();
+        for (int j = 0; j < n; j++)
+          run.put(pageBuffer(pages[i + j]));
+        run.flip();
+        writeFully(run, position(pid + i));
+      }
+    }
+
+  /**
+   * Makes the pages written so far part of the file. A page written
+   * through the channel already is, so there is nothing to do.
+   * @exception IOException I/O errors
+   */
+  public void flush()
+    throws IOException
+    {
+    }
+
+  /**
+   * Closes the file
+   * @exception IOException I/O errors
+   */
+  public void close()
+    throws IOException
+    {
+      channel.close();
+    }
+
+  /**
+   * Returns the file offset of page pid
+   */
+  protected static long position(int pid)
+    {
+      return (long)pid * MINIBASE_PAGESIZE;
+    }
+
+  /**
+   * Returns a buffer over the whole page, positioned at its start
+   */
+  protected static ByteBuffer pageBuffer(Page apage)
+    {
+      ByteBuffer buffer = apage.getbuffer();
+      if (buffer == null)
+        return ByteBuffer.wrap(apage.getpage(), 0, MINIBASE_PAGESIZE);
+
+      buffer = buffer.duplicate();
+      buffer.clear();
+      buffer.limit(MINIBASE_PAGESIZE);
+      return buffer;
+    }
+
+  /**
+   * Reads until dst is full or the end of the file is reached
+   */
+  protected void readFully(ByteBuffer dst, long pos)
+    throws IOException
+    {
+      while (dst.hasRemaining()) {
+        int n = channel.read(dst, pos);
+        if (n < 0)
+          break;
+        pos += n;
+      }
+    }
+
+  /**
+   * Writes all of src
+   */
+  protected void writeFully(ByteBuffer src, long pos)
+    throws IOException
+    {
+      while (src.hasRemaining())
+        pos += channel.write(src, pos);
+    }
+
+}
@@ -0,0 +1,40 @@
+/* File SpaceMapAllocateEvent.java */
+
+package diskmgr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for a run of pages allocated from the space map,
+ * lasting from the search of the free extent index until the map bits
+ * are set.
+ * NOTE: disabled unless a recording enables minibase.SpaceMapAllocate,
+ * a disabled event costs allocate_page only a check of shouldCommit().
+ */
+@Name("minibase.SpaceMapAllocate")
+@Label("Space Map Allocate")
+@Category({ "Minibase", "Disk Manager" })
+@Description("A run of pages allocated from the space map")
+@Enabled(false)
+@StackTrace(true)
+class SpaceMapAllocateEvent extends Event {
+
+  /**
+   * First page of the run, -1 if no run was found
+   */
+  @Label("Start Page Id")
+  int startPageId;
+
+  /**
+   * Number of pages asked for
+   */
+  @Label("Run Size")
+  int runSize;
+
+  /**
+   * Whether a free run was found
+   */
+  @Label("Found")
+  boolean found;
+
+}
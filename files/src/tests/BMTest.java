@@ -3,6 +3,12 @@ package tests;
 import java.io.*;
 import java.util.*;
 import java.lang.*;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import global.*;
 import bufmgr.*;
 import diskmgr.*;
@@ -38,7 +44,7 @@ class BMDriver extends TestDriver implements GlobalConst {
     System.out.print ("\n" + "Running " + testName() + " tests...." + "\n");
     
     try {
-      SystemDefs sysdef = new SystemDefs( dbpath, NUMBUF+20, NUMBUF, "Clock" );
+      SystemDefs sysdef = new SystemDefs( dbpath, NUMBUF+100, NUMBUF, "Clock" );
     }
     
     catch (Exception e) {
@@ -117,6 +123,19 @@ class BMDriver extends TestDriver implements GlobalConst {
     if (!test4()) { _passAll = FAIL; }
     if (!test5()) { _passAll = FAIL; }
     if (!test6()) { _passAll = FAIL; }
+    if (!test7()) { _passAll = FAIL; }
+    if (!test8()) { _passAll = FAIL; }
+    if (!test9()) { _passAll = FAIL; }
+    if (!test10()) { _passAll = FAIL; }
+    if (!test11()) { _passAll = FAIL; }
+    if (!test12()) { _passAll = FAIL; }
+    if (!test13()) { _passAll = FAIL; }
+    if (!test14()) { _passAll = FAIL; }
+    if (!test15()) { _passAll = FAIL; }
+    if (!test16()) { _passAll = FAIL; }
+    if (!test17()) { _passAll = FAIL; }
+    if (!test18()) { _passAll = FAIL; }
+    if (!test19()) { _passAll = FAIL; }
     
     return _passAll;
   }
@@ -590,33 +609,1941 @@ class BMDriver extends TestDriver implements GlobalConst {
 }
 
   /**
-   * overrides the test4 function in TestDriver
+   * overrides the test4 function in TestDriver.  It checks that the
+   * admission filter keeps a hot set of pages in the buffer pool while
+   * a scan of pages used only once goes through it.
    *
    * @return whether test4 has passed
    */
   protected boolean test4 () {
+    
+    System.out.print("\n  Test 4 checks that the admission filter keeps " +
+                     "hot pages through a scan\n");
+    
+    int numBuffers = 200;
+    int hotPages = 150;
+    int numPins = 20000;
+    Page pg = new Page();
+    boolean status = OK;
+    
+    // A pool of its own, the pages are pinned empty so nothing is read
+    BufMgr bm = new BufMgr(numBuffers, "Clock");
+    bm.setAdmissionFilter(true);
+    Random random = new Random(427);
+    int scanPid = hotPages;
+    long hotPins = 0;
+    long hotHits = 0;
+
+    System.out.print("  - Pin a hot set of " + hotPages + " pages and a scan " +
+                     "in turns in " + numBuffers + " frames\n");
+
+    for ( int index=0; status == OK && index < numPins; ++index ) {
+      boolean hot = (index % 2 == 0);
+      PageId pid = new PageId(hot ? random.nextInt(hotPages) : scanPid++);
+      long hits = bm.getMetrics().getHits();
+      
+      try {
+        bm.pinPage( pid, pg, /*emptyPage:*/ true );
+        bm.unpinPage( pid, /*dirty:*/ false );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not pin page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+      
+      // Count the pins of the hot set once it has been read in
+      if ( hot && index >= numPins / 10 ) {
+        hotPins++;
+        hotHits += bm.getMetrics().getHits() - hits;
+      }
+    }
+    
+    if ( status == OK && hotHits < hotPins * 9 / 10 ) {
+      status = FAIL;
+      System.err.print("*** The scan replaced hot pages: " + hotHits + " hits of " +
+                       hotPins + " pins of the hot set\n");
+    }
+    
+    if ( status == OK && bm.getNumUnpinnedBuffers() != numBuffers ) {
+      status = FAIL;
+      System.err.print("*** A frame was left pinned\n");
+    }
+    
+    if ( status == OK )
+      System.out.print("  Test 4 completed successfully.\n");
 
-    return true;
+    return status;
   }
 
   /**
-   * overrides the test5 function in TestDriver
+   * overrides the test5 function in TestDriver.  It checks the victim
+   * each replacer picks, and that the replacers keeping the history of
+   * the pages they replaced remember them.
    *
    * @return whether test5 has passed
    */
   protected boolean test5 () {
 
-    return true;
+    System.out.print("\n  Test 5 checks the victims of the replacement policies\n");
+
+    // Pages 1 to 3 are pinned twice and page 4 once, then page 5 needs a
+    // frame. The victim is the page pinned the longest ago for LRU, Clock
+    // and FIFO, and the page pinned once or most recently for the others.
+    String[] replacers = { "Clock", "LRU", "MRU", "FIFO", "LFU", "ARC", "LRU-K", "CLOCK-Pro" };
+    int[] victims      = { 1,       1,     4,     1,      4,     4,     4,       4 };
+    int[] accesses     = { 1, 2, 3, 1, 2, 3, 4, 5 };
+    boolean status = OK;
+
+    for ( int r=0; status == OK && r < replacers.length; ++r ) {
+      System.out.print("  - " + replacers[r] + " replaces page " + victims[r] + "\n");
+
+      for ( int pid=1; status == OK && pid <= 4; ++pid ) {
+        try {
+          BufMgr bm = new BufMgr(4, replacers[r]);
+          for ( int index=0; index < accesses.length; ++index )
+            pinAndUnpin(bm, accesses[index]);
+
+          if ( pinAndUnpin(bm, pid) == (pid == victims[r]) ) {
+            status = FAIL;
+            System.err.print("*** " + replacers[r] + (pid == victims[r] ? " kept" : " replaced") +
+                             " page " + pid + "\n");
+          }
+        }
+        catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Could not pin page " + pid + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    // Page 1 is replaced and comes back, then a scan as long as the pool
+    // goes through. A replacer that knows page 1 was used before keeps it.
+    String[] ghosts = { "ARC", "LRU-K", "CLOCK-Pro" };
+    int[] scan = { 1, 2, 3, 4, 5, 1, 6, 7, 8, 9 };
+
+    for ( int r=0; status == OK && r < ghosts.length; ++r ) {
+      System.out.print("  - " + ghosts[r] + " keeps a page that came back " +
+                       "after it was replaced\n");
+
+      try {
+        BufMgr bm = new BufMgr(4, ghosts[r]);
+        for ( int index=0; index < scan.length; ++index )
+          pinAndUnpin(bm, scan[index]);
+
+        if ( pinAndUnpin(bm, 1) == false ) {
+          status = FAIL;
+          System.err.print("*** " + ghosts[r] + " replaced page 1 during the scan\n");
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not pin page 1\n");
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 5 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * Pins and unpins page pid of bm without reading it, and leaves pid in
+   * the first bytes of the frame so that the next pin can tell whether
+   * the page stayed in the buffer pool.
+   *
+   * @return whether the page was in the buffer pool
+   */
+  protected boolean pinAndUnpin (BufMgr bm, int pid) throws Exception {
+
+    PageId pageId = new PageId(pid);
+    Page page = new Page();
+    bm.pinPage( pageId, page, /*emptyPage:*/ true );
+    boolean resident = ( Convert.getIntValue( 0, page.getpage() ) == pid );
+    Convert.setIntValue( pid, 0, page.getpage() );
+    bm.unpinPage( pageId, /*dirty:*/ false );
+    return resident;
   }
 
   /**
-   * overrides the test6 function in TestDriver
+   * overrides the test6 function in TestDriver.  It pins batches of
+   * pages with pinPages().
    *
    * @return whether test6 has passed
    */
   protected boolean test6 () {
 
-    return true;
+    System.out.print("\n  Test 6 pins batches of pages\n");
+
+    int numBuffers = 8;
+    int numPages = 6;
+    boolean status = OK;
+    PageId firstPid = new PageId();
+    Page pg = new Page();
+    BufMgr bm = new BufMgr(numBuffers, "Clock");
+
+    System.out.print("  - Allocate and write " + numPages + " pages\n");
+    try {
+      firstPid = bm.newPage( pg, numPages );
+      bm.unpinPage( firstPid, /*dirty:*/ false );
+
+      for ( int index=0; index < numPages; ++index ) {
+        PageId pid = new PageId(firstPid.pid + index);
+        bm.pinPage( pid, pg, /*emptyPage:*/ true );
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+        bm.unpinPage( pid, /*dirty:*/ true );
+      }
+      bm.flushAllPages();
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not write the pages\n");
+      e.printStackTrace();
+    }
+
+    // The first half of the pages are pinned again before the batch, the
+    // others are read
+    PageId[] pids = new PageId[numPages];
+    Page[] pages = new Page[numPages];
+    for ( int index=0; index < numPages; ++index ) {
+      pids[index] = new PageId(firstPid.pid + index);
+      pages[index] = new Page();
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Pin the pages with one call and check their contents\n");
+      try {
+        bm = new BufMgr(numBuffers, "Clock");
+        for ( int index=0; index < numPages / 2; ++index )
+          bm.pinPage( pids[index], pg, /*emptyPage:*/ false );
+        bm.pinPages( pids, pages, /*emptyPage:*/ false );
+        for ( int index=0; index < numPages / 2; ++index )
+          bm.unpinPage( pids[index], /*dirty:*/ false );
+
+        for ( int index=0; status == OK && index < numPages; ++index ) {
+          int data = Convert.getIntValue( 0, pages[index].getpage() );
+          if ( data != pids[index].pid + 99999 ) {
+            status = FAIL;
+            System.err.print("*** Read wrong data back from page " + pids[index].pid + "\n");
+          }
+        }
+
+        if ( status == OK && bm.getNumUnpinnedBuffers() != numBuffers - numPages ) {
+          status = FAIL;
+          System.err.print("*** The batch pinned " + (numBuffers - bm.getNumUnpinnedBuffers()) +
+                           " frames\n");
+        }
+
+        bm.unpinPages( pids, new boolean[numPages] );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not pin the batch\n");
+        e.printStackTrace();
+      }
+    }
+
+    // A batch larger than the pool fails and leaves no frame pinned
+    if ( status == OK ) {
+      System.out.print("  - Pin more pages than there are frames\n");
+      PageId[] more = new PageId[numBuffers + 2];
+      Page[] morePages = new Page[numBuffers + 2];
+      for ( int index=0; index < more.length; ++index ) {
+        more[index] = new PageId(firstPid.pid + index);
+        morePages[index] = new Page();
+      }
+
+      try {
+        bm.pinPages( more, morePages, /*emptyPage:*/ true );
+      }
+      catch (ChainException e) {
+        status = checkException (e, "bufmgr.BufferPoolExceededException");
+        if (status == FAIL) {
+          System.err.print("*** Pinning too many pages\n");
+          System.out.println ("  --> Failed as expected \n");
+        }
+      }
+      catch (Exception e) {e.printStackTrace();}
+
+      if (status == OK) {
+        status = FAIL;
+        System.err.print ("The expected exception was not thrown\n");
+      }
+      else {
+        status = OK;
+      }
+
+      if ( status == OK && bm.getNumUnpinnedBuffers() != numBuffers ) {
+        status = FAIL;
+        System.err.print("*** The failed batch left " + (numBuffers - bm.getNumUnpinnedBuffers()) +
+                         " frames pinned\n");
+      }
+    }
+
+    try {
+      bm.freePage( firstPid );
+      for ( int index=1; index < numPages; ++index )
+        bm.freePage( new PageId(firstPid.pid + index) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 6 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It shrinks and grows the buffer pool while some of its frames are
+   * pinned.
+   *
+   * @return whether test7 has passed
+   */
+  protected boolean test7 () {
+
+    System.out.print("\n  Test 7 resizes the buffer pool while pages are pinned\n");
+
+    int numBuffers = 4;
+    int maxBuffers = 8;
+    boolean status = OK;
+    final PageId[] pids = new PageId[maxBuffers];
+    Page pg = new Page();
+    final BufMgr bm = new BufMgr(numBuffers, "Clock", 1, false, maxBuffers);
+
+    System.out.print("  - Grow the pool to " + maxBuffers + " frames and pin a page " +
+                     "in each\n");
+    try {
+      bm.resize(maxBuffers);
+      PageId firstPid = bm.newPage( pg, maxBuffers );
+      bm.unpinPage( firstPid, /*dirty:*/ false );
+
+      for ( int index=0; index < maxBuffers; ++index ) {
+        pids[index] = new PageId(firstPid.pid + index);
+        bm.pinPage( pids[index], pg, /*emptyPage:*/ true );
+        Convert.setIntValue( pids[index].pid + 99999, 0, pg.getpage() );
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not pin the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Shrinking stops when the pinned frames are not unpinned " +
+                       "in time\n");
+      try {
+        int size = bm.resize( numBuffers, /*timeoutMillis:*/ 50 );
+        if ( size != maxBuffers || bm.getShrinkFailures() != 1 ) {
+          status = FAIL;
+          System.err.print("*** The pool shrank to " + size + " frames with every " +
+                           "frame pinned\n");
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not resize the pool\n");
+        e.printStackTrace();
+      }
+    }
+
+    // The pages are unpinned dirty while the pool shrinks, the retired
+    // frames must be written
+    if ( status == OK ) {
+      System.out.print("  - Shrink to " + numBuffers + " frames while the pages are " +
+                       "unpinned\n");
+      Thread unpinner = new Thread() {
+          public void run() {
+            try {
+              Thread.sleep(50);
+              for ( int index=0; index < pids.length; ++index )
+                bm.unpinPage( pids[index], /*dirty:*/ true );
+            }
+            catch (Exception e) {
+              e.printStackTrace();
+            }
+          }
+        };
+
+      try {
+        unpinner.start();
+        int size = bm.resize( numBuffers, /*timeoutMillis:*/ 10000 );
+        unpinner.join();
+
+        if ( size != numBuffers || bm.getNumUnpinnedBuffers() != numBuffers ) {
+          status = FAIL;
+          System.err.print("*** The pool has " + size + " frames, " +
+                           bm.getNumUnpinnedBuffers() + " unpinned\n");
+        }
+
+        bm.flushAllPages();
+        for ( int index=0; status == OK && index < maxBuffers; ++index ) {
+          SystemDefs.JavabaseDB.read_page( pids[index], pg );
+          if ( Convert.getIntValue( 0, pg.getpage() ) != pids[index].pid + 99999 ) {
+            status = FAIL;
+            System.err.print("*** Page " + pids[index].pid + " was not written\n");
+          }
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not shrink the pool\n");
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Grow the pool back and pin every page again\n");
+      try {
+        bm.resize(maxBuffers);
+        for ( int index=0; index < maxBuffers; ++index )
+          bm.pinPage( pids[index], pg, /*emptyPage:*/ false );
+        if ( bm.getNumUnpinnedBuffers() != 0 ) {
+          status = FAIL;
+          System.err.print("*** " + bm.getNumUnpinnedBuffers() + " frames left unpinned\n");
+        }
+        for ( int index=0; index < maxBuffers; ++index )
+          bm.unpinPage( pids[index], /*dirty:*/ false );
+        for ( int index=0; index < maxBuffers; ++index )
+          bm.freePage( pids[index] );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not pin the pages\n");
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 7 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It pins and dirties pages from several threads while the background
+   * writer cleans them, under the replacers that keep their unpinned
+   * frames in lists or heaps, and checks that every frame can still be
+   * replaced afterwards.
+   *
+   * @return whether test8 has passed
+   */
+  protected boolean test8 () {
+
+    System.out.print("\n  Test 8 runs the background writer against pinning " +
+                     "threads\n");
+
+    String[] replacers = { "LRU", "MRU", "FIFO", "LFU", "ARC", "LRU-K", "CLOCK-Pro" };
+    final int numBuffers = 6;
+    final int numPages = 8;
+    final int numThreads = 3;
+    final int numPins = 5000;
+    boolean status = OK;
+
+    for ( int r=0; status == OK && r < replacers.length; ++r ) {
+      System.out.print("  - " + replacers[r] + "\n");
+
+      final BufMgr bm = new BufMgr(numBuffers, replacers[r]);
+      final PageId firstPid = new PageId();
+      final Exception[] failure = new Exception[1];
+
+      try {
+        firstPid.pid = bm.newPage( new Page(), numPages ).pid;
+        bm.unpinPage( firstPid, /*dirty:*/ false );
+        bm.startBackgroundWriter( 1.0, 1 );
+
+        // The last thread flushes the pool while the others pin pages
+        final Thread[] threads = new Thread[numThreads + 1];
+        for ( int t=0; t < numThreads; ++t ) {
+          final int seed = t;
+          threads[t] = new Thread() {
+              public void run() {
+                Random random = new Random(seed);
+                Page page = new Page();
+                try {
+                  for ( int index=0; index < numPins; ++index ) {
+                    PageId pid = new PageId(firstPid.pid + random.nextInt(numPages));
+                    bm.pinPage( pid, page, /*emptyPage:*/ false );
+                    bm.unpinPage( pid, /*dirty:*/ true );
+                  }
+                }
+                catch (Exception e) {
+                  synchronized (failure) {
+                    failure[0] = e;
+                  }
+                }
+              }
+            };
+        }
+        threads[numThreads] = new Thread() {
+            public void run() {
+              try {
+                for ( int t=0; t < numThreads; ++t ) {
+                  while ( threads[t].isAlive() ) {
+                    try {
+                      bm.flushAllPages();
+                    }
+                    catch (PagePinnedException e) {
+                      // A page was pinned, the pool is flushed again
+                    }
+                  }
+                }
+              }
+              catch (Exception e) {
+                synchronized (failure) {
+                  failure[0] = e;
+                }
+              }
+            }
+          };
+        for ( int t=0; t <= numThreads; ++t )
+          threads[t].start();
+        for ( int t=0; t <= numThreads; ++t )
+          threads[t].join();
+        bm.stopBackgroundWriter();
+      }
+      catch (Exception e) {
+        failure[0] = e;
+      }
+
+      if ( failure[0] != null ) {
+        status = FAIL;
+        System.err.print("*** Could not pin a page with " + numThreads +
+                         " threads in " + numBuffers + " frames\n");
+        failure[0].printStackTrace();
+      }
+
+      // A frame the replacer lost cannot be used for any of these pages
+      if ( status == OK ) {
+        PageId[] pids = new PageId[numBuffers];
+        try {
+          for ( int index=0; index < numBuffers; ++index ) {
+            pids[index] = new PageId(firstPid.pid + index);
+            bm.pinPage( pids[index], new Page(), /*emptyPage:*/ false );
+          }
+          for ( int index=0; index < numBuffers; ++index )
+            bm.unpinPage( pids[index], /*dirty:*/ false );
+        }
+        catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Could not pin a page in each of the " + numBuffers +
+                           " frames\n");
+          e.printStackTrace();
+        }
+      }
+
+      if ( status == OK && bm.getNumUnpinnedBuffers() != numBuffers ) {
+        status = FAIL;
+        System.err.print("*** " + (numBuffers - bm.getNumUnpinnedBuffers()) +
+                         " frames left pinned\n");
+      }
+
+      try {
+        bm.flushAllPages();
+        for ( int index=0; index < numPages; ++index )
+          bm.freePage( new PageId(firstPid.pid + index) );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not free the pages\n");
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 8 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It dirties pages pinned out of page order and flushes them with one
+   * and with several threads. The runs of contiguous dirty pages must be
+   * written with one call each and the pages must stay in the buffer pool.
+   *
+   * @return whether test9 has passed
+   */
+  protected boolean test9 () {
+
+    System.out.print("\n  Test 9 flushes runs of contiguous dirty pages\n");
+
+    final int numPages = 8;
+    int[] order = { 5, 2, 7, 0, 3, 6, 1, 4 };
+    BufMgr bm = new BufMgr(numPages, "Clock");
+    Page pg = new Page();
+    PageId firstPid = new PageId();
+    boolean status = OK;
+
+    try {
+      firstPid = bm.newPage( pg, numPages );
+      bm.unpinPage( firstPid, /*dirty:*/ false );
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages + " new pages\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+
+    // Page 4 is left clean so the dirty pages make runs 0-3 and 5-7
+    System.out.print("  - Flush 2 runs with one thread\n");
+    status = dirtyPages( bm, firstPid.pid, order, new int[] { 4 }, 1000 );
+    if ( status == OK )
+      status = flushRuns( bm, 1, 2, 7 );
+    if ( status == OK )
+      status = checkPages( firstPid.pid, numPages, new int[] { 4 }, 1000 );
+
+    // Pages 2 and 5 are left clean so the dirty pages make 3 runs
+    if ( status == OK ) {
+      System.out.print("  - Flush 3 runs with 3 threads\n");
+      status = dirtyPages( bm, firstPid.pid, order, new int[] { 2, 5 }, 2000 );
+      if ( status == OK )
+        status = flushRuns( bm, 3, 3, 6 );
+      if ( status == OK )
+        status = checkPages( firstPid.pid, numPages, new int[] { 2, 5 }, 2000 );
+    }
+
+    try {
+      for ( int index=0; index < numPages; ++index )
+        bm.freePage( new PageId(firstPid.pid + index) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 9 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * Pins the pages firstPid + order[i] in turn and writes value + i on
+   * them, the pages firstPid + clean[j] are unpinned without being dirtied.
+   *
+   * @return whether the pages could be written
+   */
+  protected boolean dirtyPages (BufMgr bm, int firstPid, int[] order, int[] clean, int value) {
+
+    Page page = new Page();
+    for ( int index=0; index < order.length; ++index ) {
+      PageId pid = new PageId(firstPid + order[index]);
+      boolean dirty = !contains( clean, order[index] );
+      try {
+        bm.pinPage( pid, page, /*emptyPage:*/ false );
+        if ( dirty )
+          Convert.setIntValue( value + order[index], 0, page.getpage() );
+        bm.unpinPage( pid, dirty );
+      }
+      catch (Exception e) {
+        System.err.print("*** Could not write page " + pid.pid + "\n");
+        e.printStackTrace();
+        return FAIL;
+      }
+    }
+    return OK;
+  }
+
+  /**
+   * Flushes the buffer pool with ioThreads threads and checks the number
+   * of write calls and of pages written, and that every page stays in the
+   * buffer pool clean.
+   *
+   * @return whether the flush was as expected
+   */
+  protected boolean flushRuns (BufMgr bm, int ioThreads, long writes, long pages) {
+
+    try {
+      MetricsSnapshot before = bm.getMetrics().snapshot();
+      bm.flushAllPages( ioThreads );
+      MetricsSnapshot after = bm.getMetrics().snapshot();
+
+      if ( after.getWrites() - before.getWrites() != writes
+           || after.getPagesWritten() - before.getPagesWritten() != pages ) {
+        System.err.print("*** Wrote " + (after.getPagesWritten() - before.getPagesWritten()) +
+                         " pages in " + (after.getWrites() - before.getWrites()) +
+                         " calls instead of " + pages + " pages in " + writes + " calls\n");
+        return FAIL;
+      }
+      if ( after.getDirtyFrames() != 0 ) {
+        System.err.print("*** " + after.getDirtyFrames() + " frames still dirty\n");
+        return FAIL;
+      }
+      if ( after.getMisses() != before.getMisses() 
+           || bm.getNumUnpinnedBuffers() != bm.getNumBuffers() ) {
+        System.err.print("*** The flush changed the pages in the buffer pool\n");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not flush the buffer pool\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+    return OK;
+  }
+
+  /**
+   * @return whether value is one of the values
+   */
+  protected boolean contains (int[] values, int value) {
+
+    for ( int index=0; index < values.length; ++index ) {
+      if ( values[index] == value )
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Reads the pages back with another buffer manager and checks that each
+   * page firstPid + i but the clean ones holds value + i.
+   *
+   * @return whether the pages were written
+   */
+  protected boolean checkPages (int firstPid, int numPages, int[] clean, int value) {
+
+    BufMgr bm = new BufMgr(numPages, "Clock");
+    Page page = new Page();
+    for ( int index=0; index < numPages; ++index ) {
+      if ( contains( clean, index ) )
+        continue;
+
+      PageId pid = new PageId(firstPid + index);
+      try {
+        bm.pinPage( pid, page, /*emptyPage:*/ false );
+        int data = Convert.getIntValue( 0, page.getpage() );
+        bm.unpinPage( pid, /*dirty:*/ false );
+        if ( data != value + index ) {
+          System.err.print("*** Read " + data + " from page " + pid.pid + " instead of " +
+                           (value + index) + "\n");
+          return FAIL;
+        }
+      }
+      catch (Exception e) {
+        System.err.print("*** Could not read page " + pid.pid + "\n");
+        e.printStackTrace();
+        return FAIL;
+      }
+    }
+    return OK;
+  }
+
+  /**
+   * It grows the buffer pool past the size its Page Table was made for,
+   * so that the table has to grow, then frees every other page so that
+   * entries are shifted back over the freed slots. Every page left must
+   * still be found in its frame.
+   *
+   * @return whether test10 has passed
+   */
+  protected boolean test10 () {
+
+    System.out.print("\n  Test 10 grows the Page Table and removes pages from it\n");
+
+    final int numPages = 40;
+    BufMgr bm = new BufMgr(4, "Clock", 1, false, numPages);
+    Page pg = new Page();
+    PageId firstPid = new PageId();
+    boolean status = OK;
+
+    try {
+      firstPid = bm.newPage( pg, numPages );
+      bm.unpinPage( firstPid, /*dirty:*/ false );
+      bm.resize( numPages );
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages + " new pages\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+
+    System.out.print("  - Pin " + numPages + " pages at once\n");
+    for ( int index=0; status == OK && index < numPages; ++index ) {
+      PageId pid = new PageId(firstPid.pid + index);
+      try {
+        bm.pinPage( pid, pg, /*emptyPage:*/ true );
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not pin page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Find every page again\n");
+      status = findPages( bm, firstPid.pid, numPages, 1 );
+    }
+
+    // Every other page leaves the table, the others are shifted back
+    if ( status == OK ) {
+      System.out.print("  - Free every other page and find the others\n");
+      try {
+        for ( int index=0; index < numPages; ++index )
+          bm.unpinPage( new PageId(firstPid.pid + index), /*dirty:*/ true );
+        for ( int index=0; index < numPages; index += 2 )
+          bm.freePage( new PageId(firstPid.pid + index) );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not free the pages\n");
+        e.printStackTrace();
+      }
+
+      if ( status == OK )
+        status = findPages( bm, firstPid.pid + 1, numPages / 2, 2 );
+    }
+
+    try {
+      for ( int index=1; index < numPages; index += 2 )
+        bm.freePage( new PageId(firstPid.pid + index) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 10 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * Pins and unpins count pages from firstPid, step pages apart, and checks
+   * that each is found in the buffer pool with the page number + 99999 on it.
+   *
+   * @return whether every page was found
+   */
+  protected boolean findPages (BufMgr bm, int firstPid, int count, int step) {
+
+    long misses = bm.getMetrics().getMisses();
+    if ( readBack( bm, firstPid, count, step ) == FAIL )
+      return FAIL;
+
+    if ( bm.getMetrics().getMisses() != misses ) {
+      System.err.print("*** " + (bm.getMetrics().getMisses() - misses) +
+                       " pages were not found in the buffer pool\n");
+      return FAIL;
+    }
+    return OK;
+  }
+
+  /**
+   * Pins and unpins count pages from firstPid, step pages apart, and checks
+   * that each holds its page number + 99999.
+   *
+   * @return whether every page held its page number
+   */
+  protected boolean readBack (BufMgr bm, int firstPid, int count, int step) {
+
+    Page page = new Page();
+    for ( int index=0; index < count; ++index ) {
+      PageId pid = new PageId(firstPid + index * step);
+      try {
+        bm.pinPage( pid, page, /*emptyPage:*/ false );
+        int data = Convert.getIntValue( 0, page.getpage() );
+        bm.unpinPage( pid, /*dirty:*/ false );
+        if ( data != pid.pid + 99999 ) {
+          System.err.print("*** Read " + data + " from page " + pid.pid + " instead of " +
+                           (pid.pid + 99999) + "\n");
+          return FAIL;
+        }
+      }
+      catch (Exception e) {
+        System.err.print("*** Could not pin page " + pid.pid + "\n");
+        e.printStackTrace();
+        return FAIL;
+      }
+    }
+    return OK;
+  }
+
+  /**
+   * It pins and unpins pages from several threads in a buffer manager
+   * whose Page Table is split into stripes. Each thread checks the page
+   * it pins holds its page number, and no frame may be left pinned.
+   *
+   * @return whether test11 has passed
+   */
+  protected boolean test11 () {
+
+    System.out.print("\n  Test 11 pins pages from several threads\n");
+
+    final int numBuffers = 16;
+    final int numPages = 24;
+    final int numThreads = 4;
+    final int numPins = 5000;
+    final BufMgr bm = new BufMgr(numBuffers, "Clock", numThreads);
+    Page pg = new Page();
+    final PageId firstPid = new PageId();
+    final Exception[] failure = new Exception[1];
+    boolean status = OK;
+
+    try {
+      firstPid.pid = bm.newPage( pg, numPages ).pid;
+      bm.unpinPage( firstPid, /*dirty:*/ false );
+      for ( int index=0; index < numPages; ++index ) {
+        PageId pid = new PageId(firstPid.pid + index);
+        bm.pinPage( pid, pg, /*emptyPage:*/ true );
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+        bm.unpinPage( pid, /*dirty:*/ true );
+      }
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not write " + numPages + " new pages\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+
+    System.out.print("  - " + numThreads + " threads pin " + numPins + " pages each\n");
+    long pins = bm.getMetrics().getPins();
+    Thread[] threads = new Thread[numThreads];
+    for ( int t=0; t < numThreads; ++t ) {
+      final int seed = t;
+      threads[t] = new Thread() {
+          public void run() {
+            Random random = new Random(seed);
+            Page page = new Page();
+            try {
+              for ( int index=0; index < numPins; ++index ) {
+                PageId pid = new PageId(firstPid.pid + random.nextInt(numPages));
+                bm.pinPage( pid, page, /*emptyPage:*/ false );
+                int data = Convert.getIntValue( 0, page.getpage() );
+                bm.unpinPage( pid, /*dirty:*/ false );
+                if ( data != pid.pid + 99999 )
+                  throw new IllegalStateException("Read " + data + " from page " + pid.pid);
+              }
+            }
+            catch (Exception e) {
+              synchronized (failure) {
+                failure[0] = e;
+              }
+            }
+          }
+        };
+      threads[t].start();
+    }
+
+    try {
+      for ( int t=0; t < numThreads; ++t )
+        threads[t].join();
+    }
+    catch (InterruptedException e) {
+      failure[0] = e;
+    }
+
+    if ( failure[0] != null ) {
+      status = FAIL;
+      System.err.print("*** A thread could not pin its pages\n");
+      failure[0].printStackTrace();
+    }
+
+    if ( status == OK && bm.getMetrics().getPins() - pins != numThreads * numPins ) {
+      status = FAIL;
+      System.err.print("*** Counted " + (bm.getMetrics().getPins() - pins) + " pins instead of " +
+                       (numThreads * numPins) + "\n");
+    }
+
+    if ( status == OK && bm.getNumUnpinnedBuffers() != numBuffers ) {
+      status = FAIL;
+      System.err.print("*** " + (numBuffers - bm.getNumUnpinnedBuffers()) +
+                       " frames left pinned\n");
+    }
+
+    try {
+      for ( int index=0; index < numPages; ++index )
+        bm.freePage( new PageId(firstPid.pid + index) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 11 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It writes pages through an off-heap buffer pool with fewer frames than
+   * pages, reads them back and checks that they reach the disk. A page
+   * unpinned clean is not copied back to the arena.
+   *
+   * @return whether test12 has passed
+   */
+  protected boolean test12 () {
+
+    System.out.print("\n  Test 12 writes and reads pages off the heap\n");
+
+    final int numBuffers = 4;
+    final int numPages = 8;
+    BufMgr bm = new BufMgr(numBuffers, "Clock", 1, /*offHeap:*/ true);
+    Page pg = new Page();
+    PageId firstPid = new PageId();
+    boolean status = OK;
+
+    if ( !bm.isOffHeap() ) {
+      System.err.print("*** The buffer pool is not off the heap\n");
+      return FAIL;
+    }
+
+    System.out.print("  - Write " + numPages + " pages in " + numBuffers + " frames\n");
+    try {
+      firstPid = bm.newPage( pg, numPages );
+      bm.unpinPage( firstPid, /*dirty:*/ false );
+      for ( int index=0; index < numPages; ++index ) {
+        PageId pid = new PageId(firstPid.pid + index);
+        bm.pinPage( pid, pg, /*emptyPage:*/ true );
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+        bm.unpinPage( pid, /*dirty:*/ true );
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not write the pages\n");
+      e.printStackTrace();
+    }
+
+    // Half the pages were replaced and are read back from the disk
+    if ( status == OK ) {
+      System.out.print("  - Read the pages back\n");
+      status = readBack( bm, firstPid.pid, numPages, 1 );
+    }
+
+    // The arena still holds the page, the change to the copy is dropped
+    if ( status == OK ) {
+      System.out.print("  - Change a page and unpin it clean\n");
+      PageId pid = new PageId(firstPid.pid + numPages - 1);
+      try {
+        bm.pinPage( pid, pg, /*emptyPage:*/ false );
+        Convert.setIntValue( 0, 0, pg.getpage() );
+        bm.unpinPage( pid, /*dirty:*/ false );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not pin page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+      if ( status == OK )
+        status = readBack( bm, pid.pid, 1, 1 );
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Flush the pool and read the pages from the heap\n");
+      try {
+        bm.flushAllPages();
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not flush the pages\n");
+        e.printStackTrace();
+      }
+      if ( status == OK )
+        status = readBack( new BufMgr(numPages, "Clock"), firstPid.pid, numPages, 1 );
+    }
+
+    try {
+      for ( int index=0; index < numPages; ++index )
+        bm.freePage( new PageId(firstPid.pid + index) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 12 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It scans a run of pages in order with read-ahead enabled and checks
+   * how many pages were read ahead and by misses. It then scans the run
+   * again with a database that fails every read of more than one page,
+   * so that each run read ahead fails, and checks that the failures are
+   * counted and that every page is still read by its own miss.
+   *
+   * @return whether test13 has passed
+   */
+  protected boolean test13 () {
+
+    System.out.print("\n  Test 13 reads pages ahead of a sequential scan\n");
+
+    final int numBuffers = 32;
+    final int numPages = 24;
+    Page pg = new Page();
+    PageId firstPid = new PageId();
+    boolean status = OK;
+
+    System.out.print("  - Write " + numPages + " pages\n");
+    try {
+      BufMgr writer = new BufMgr(numBuffers, "Clock");
+      firstPid = writer.newPage( pg, numPages );
+      writer.unpinPage( firstPid, /*dirty:*/ false );
+      for ( int index=0; index < numPages; ++index ) {
+        PageId pid = new PageId(firstPid.pid + index);
+        writer.pinPage( pid, pg, /*emptyPage:*/ true );
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+        writer.unpinPage( pid, /*dirty:*/ true );
+      }
+      writer.flushAllPages();
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not write the pages\n");
+      e.printStackTrace();
+    }
+
+    // Every page is read once, by a miss or ahead of the scan, and the
+    // pages read ahead past the scan are at most one window
+    if ( status == OK ) {
+      System.out.print("  - Scan the pages with read-ahead\n");
+      BufMgr bm = new BufMgr(numBuffers, "Clock");
+      bm.setReadAhead(8);
+      ReadAhead ra = bm.getReadAhead();
+      status = scanPages( bm, firstPid.pid, numPages );
+      bm.setReadAhead(0);
+
+      MetricsSnapshot m = bm.getMetrics().snapshot();
+      if ( status == OK && (m.getPins() != numPages || m.getReadFailures() != 0) ) {
+        status = FAIL;
+        System.err.print("*** Counted " + m.getPins() + " pins and " + m.getReadFailures() +
+                         " failed reads\n");
+      }
+      if ( status == OK && (ra.getPagesRead() == 0 || m.getMisses() >= numPages) ) {
+        status = FAIL;
+        System.err.print("*** Read " + ra.getPagesRead() + " pages ahead for " +
+                         m.getMisses() + " misses\n");
+      }
+      if ( status == OK && (m.getPagesRead() != m.getMisses() + ra.getPagesRead()
+                            || m.getPagesRead() > numPages + ra.getMaxWindow()
+                            || m.getReads() >= m.getPagesRead()) ) {
+        status = FAIL;
+        System.err.print("*** Read " + m.getPagesRead() + " pages in " + m.getReads() +
+                         " calls for " + m.getMisses() + " misses and " +
+                         ra.getPagesRead() + " pages read ahead\n");
+      }
+    }
+
+    // The frames of a run that failed are released, so each page is read
+    // by its own miss and holds the right data
+    if ( status == OK ) {
+      System.out.print("  - Scan the pages with every run read ahead failing\n");
+      DB saved = SystemDefs.JavabaseDB;
+      SystemDefs.JavabaseDB = failRuns( saved );
+      try {
+
+        BufMgr bm = new BufMgr(numBuffers, "Clock");
+        bm.setReadAhead(8);
+        ReadAhead ra = bm.getReadAhead();
+        status = scanPages( bm, firstPid.pid, numPages );
+        bm.setReadAhead(0);
+
+        MetricsSnapshot m = bm.getMetrics().snapshot();
+        if ( status == OK && (m.getReadFailures() == 0 || ra.getPagesRead() != 0
+                              || m.getPagesRead() != numPages) ) {
+          status = FAIL;
+          System.err.print("*** Counted " + m.getReadFailures() + " failed reads, read " +
+                           m.getPagesRead() + " pages and " + ra.getPagesRead() + 
+                           " pages ahead\n");
+        }
+      }
+      finally {
+        SystemDefs.JavabaseDB = saved;
+      }
+    }
+
+    try {
+      BufMgr bm = new BufMgr(numBuffers, "Clock");
+      for ( int index=0; index < numPages; ++index )
+        bm.freePage( new PageId(firstPid.pid + index) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 13 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * Pins and unpins count pages from firstPid in order, like readBack(),
+   * leaving the read-ahead thread time to read between pins. A pin that
+   * waited for a run that could not be read ahead is tried again.
+   *
+   * @return whether every page held its page number
+   */
+  protected boolean scanPages (BufMgr bm, int firstPid, int count) {
+
+    Page page = new Page();
+    for ( int index=0; index < count; ++index ) {
+      PageId pid = new PageId(firstPid + index);
+      try {
+        try {
+          bm.pinPage( pid, page, /*emptyPage:*/ false );
+        }
+        catch (PageNotReadException e) {
+          bm.pinPage( pid, page, /*emptyPage:*/ false );
+        }
+        int data = Convert.getIntValue( 0, page.getpage() );
+        bm.unpinPage( pid, /*dirty:*/ false );
+        if ( data != pid.pid + 99999 ) {
+          System.err.print("*** Read " + data + " from page " + pid.pid + " instead of " +
+                           (pid.pid + 99999) + "\n");
+          return FAIL;
+        }
+        Thread.sleep(2);
+      }
+      catch (Exception e) {
+        System.err.print("*** Could not pin page " + pid.pid + "\n");
+        e.printStackTrace();
+        return FAIL;
+      }
+    }
+    return OK;
+  }
+
+  /**
+   * Returns a database that reads single pages from db and fails to read
+   * more than one page at a time.
+   *
+   * @return the database standing in for db
+   */
+  protected DB failRuns (final DB db) {
+
+    return new DB() {
+      public void read_page(PageId pageno, Page apage)
+        throws InvalidPageNumberException, FileIOException, IOException {
+        db.read_page( pageno, apage );
+      }
+      public void read_pages(PageId start_pageno, Page [] pages) throws FileIOException {
+        throw new FileIOException(null, "No runs");
+      }
+      public int db_num_pages() {
+        return db.db_num_pages();
+      }
+    };
+  }
+
+  /**
+   * It pins a batch of pages, one of them resident, with a database that
+   * cannot read the others. The batch must leave no page pinned and no
+   * frame in the Page Table for a page not read, and the error thrown
+   * must keep each page dropped as a suppressed exception.
+   *
+   * @return whether test14 has passed
+   */
+  protected boolean test14 () {
+
+    System.out.print("\n  Test 14 pins a batch of pages that cannot be read\n");
+
+    final int numBuffers = 8;
+    final int numPages = 6;
+    BufMgr bm = new BufMgr(numBuffers, "Clock");
+    Page pg = new Page();
+    PageId firstPid = new PageId();
+    boolean status = OK;
+
+    System.out.print("  - Write " + numPages + " pages and keep the second one resident\n");
+    try {
+      firstPid = bm.newPage( pg, numPages );
+      bm.unpinPage( firstPid, /*dirty:*/ false );
+      for ( int index=0; index < numPages; ++index ) {
+        PageId pid = new PageId(firstPid.pid + index);
+        bm.pinPage( pid, pg, /*emptyPage:*/ true );
+        Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+        bm.unpinPage( pid, /*dirty:*/ true );
+      }
+      bm.flushAllPages();
+      bm = new BufMgr(numBuffers, "Clock");
+      status = readBack( bm, firstPid.pid + 1, 1, 1 );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not write the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Pin the pages in one batch with every run failing\n");
+      PageId[] pids = new PageId[numPages];
+      Page[] pages = new Page[numPages];
+      for ( int index=0; index < numPages; ++index ) {
+        pids[index] = new PageId(firstPid.pid + index);
+        pages[index] = new Page();
+      }
+
+      DB saved = SystemDefs.JavabaseDB;
+      SystemDefs.JavabaseDB = failRuns( saved );
+      try {
+        bm.pinPages( pids, pages, /*emptyPage:*/ false );
+        status = FAIL;
+        System.err.print("*** Pinned pages that could not be read\n");
+      }
+      catch (PageNotReadException e) {
+        Throwable[] dropped = e.getSuppressed();
+        int notRead = 0;
+        for ( int index=0; index < dropped.length; ++index ) {
+          if ( dropped[index] instanceof PageNotReadException )
+            ++notRead;
+        }
+        if ( dropped.length != numPages - 1 || notRead != dropped.length ) {
+          status = FAIL;
+          System.err.print("*** Kept " + dropped.length + " exceptions for " + (numPages - 1) +
+                           " pages not read\n");
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not pin the batch\n");
+        e.printStackTrace();
+      }
+      finally {
+        SystemDefs.JavabaseDB = saved;
+      }
+
+      if ( status == OK && bm.getNumUnpinnedBuffers() != numBuffers ) {
+        status = FAIL;
+        System.err.print("*** Left " + (numBuffers - bm.getNumUnpinnedBuffers()) +
+                         " frames pinned\n");
+      }
+    }
+
+    // A page left in the Page Table without its data would read back wrong
+    if ( status == OK ) {
+      System.out.print("  - Read the pages back\n");
+      status = readBack( bm, firstPid.pid, numPages, 1 );
+    }
+
+    try {
+      for ( int index=0; index < numPages; ++index )
+        bm.freePage( new PageId(firstPid.pid + index) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 14 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It checks the ring size of the access strategies, then scans a run of
+   * pages with a ring while the admission filter is on and checks that the
+   * scan reused the frames of its ring and left the other pages in place.
+   *
+   * @return whether test15 has passed
+   */
+  protected boolean test15 () {
+
+    System.out.print("\n  Test 15 scans pages through a ring of frames\n");
+
+    final int numBuffers = 32;
+    final int numHot = 16;
+    final int numScan = 40;
+    final int ringSize = 4;
+    BufMgr bm = new BufMgr(numBuffers, "Clock");
+    BufMgr alloc = new BufMgr(numBuffers, "Clock");
+    bm.setAdmissionFilter(true);
+    Page pg = new Page();
+    PageId hotPid = new PageId();
+    PageId scanPid = new PageId();
+    boolean status = OK;
+
+    // A ring is kept to an eighth of the buffer pool
+    System.out.print("  - Check the ring sizes\n");
+    bm.setRingSize( AccessStrategy.Type.SEQUENTIAL_SCAN, 16 );
+    int capped = bm.getAccessStrategy( AccessStrategy.Type.SEQUENTIAL_SCAN ).getRingSize();
+    bm.setRingSize( AccessStrategy.Type.SEQUENTIAL_SCAN, ringSize );
+    AccessStrategy scan = bm.getAccessStrategy( AccessStrategy.Type.SEQUENTIAL_SCAN );
+    int normal = bm.getAccessStrategy( AccessStrategy.Type.NORMAL ).getRingSize();
+    if ( capped != numBuffers / 8 || scan.getRingSize() != ringSize || normal != 0 ) {
+      status = FAIL;
+      System.err.print("*** Got rings of " + capped + ", " + scan.getRingSize() + " and " +
+                       normal + " frames\n");
+    }
+    try {
+      bm.setRingSize( AccessStrategy.Type.VACUUM, 0 );
+      status = FAIL;
+      System.err.print("*** Set a ring of no frames\n");
+    }
+    catch (IllegalArgumentException e) {
+      // A ring needs a frame
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Pin " + numHot + " pages, then scan " + numScan + 
+                       " pages with a ring of " + ringSize + " frames\n");
+      try {
+        hotPid = alloc.newPage( pg, numHot );
+        alloc.unpinPage( hotPid, /*dirty:*/ false );
+        scanPid = alloc.newPage( pg, numScan );
+        alloc.unpinPage( scanPid, /*dirty:*/ false );
+        int[] firsts = { hotPid.pid, scanPid.pid };
+        int[] counts = { numHot, numScan };
+        for ( int run=0; run < firsts.length; ++run ) {
+          for ( int index=0; index < counts[run]; ++index ) {
+            PageId pid = new PageId(firsts[run] + index);
+            alloc.pinPage( pid, pg, /*emptyPage:*/ true );
+            Convert.setIntValue( pid.pid + 99999, 0, pg.getpage() );
+            alloc.unpinPage( pid, /*dirty:*/ true );
+          }
+        }
+        alloc.flushAllPages();
+
+        for ( int index=0; index < numHot; ++index ) {
+          PageId pid = new PageId(hotPid.pid + index);
+          bm.pinPage( pid, pg, /*emptyPage:*/ false );
+          bm.unpinPage( pid, /*dirty:*/ false );
+        }
+
+        MetricsSnapshot before = bm.getMetrics().snapshot();
+        for ( int index=0; index < numScan; ++index ) {
+          PageId pid = new PageId(scanPid.pid + index);
+          bm.pinPage( pid, pg, /*emptyPage:*/ false, scan );
+          bm.unpinPage( pid, /*dirty:*/ false );
+        }
+        MetricsSnapshot after = bm.getMetrics().snapshot();
+
+        // Each frame of the ring is reused once it is full
+        long misses = after.getMisses() - before.getMisses();
+        long evictions = after.getEvictions() - before.getEvictions();
+        if ( misses != numScan || evictions != numScan - ringSize ) {
+          status = FAIL;
+          System.err.print("*** Scanned with " + misses + " misses and " + evictions +
+                           " evictions\n");
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not scan the pages\n");
+        e.printStackTrace();
+      }
+    }
+
+    // The pages pinned before the scan are still in the buffer pool, and of
+    // the scan only the pages in the ring. They are pinned last first so
+    // that no miss replaces one before it is looked for.
+    if ( status == OK ) {
+      System.out.print("  - Find the pages left in the buffer pool\n");
+      status = findPages( bm, hotPid.pid, numHot, 1 );
+      if ( status == OK )
+        status = findPages( bm, scanPid.pid + numScan - 1, ringSize, -1 );
+      if ( status == OK ) {
+        long misses = bm.getMetrics().getMisses();
+        status = readBack( bm, scanPid.pid + numScan - 1 - ringSize, 1, 1 );
+        if ( status == OK && bm.getMetrics().getMisses() != misses + 1 ) {
+          status = FAIL;
+          System.err.print("*** Found a scanned page outside the ring\n");
+        }
+      }
+    }
+
+    try {
+      for ( int index=0; index < numHot; ++index )
+        alloc.freePage( new PageId(hotPid.pid + index) );
+      for ( int index=0; index < numScan; ++index )
+        alloc.freePage( new PageId(scanPid.pid + index) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 15 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It shrinks and grows the buffer pool while several threads pin and
+   * dirty pages, under the replacers that keep their unpinned frames in
+   * lists or heaps, and checks that every frame can still be replaced
+   * afterwards.
+   *
+   * @return whether test16 has passed
+   */
+  protected boolean test16 () {
+
+    System.out.print("\n  Test 16 resizes the buffer pool against pinning threads\n");
+
+    String[] replacers = { "LRU", "MRU", "FIFO", "LFU", "ARC", "LRU-K", "CLOCK-Pro" };
+    final int numBuffers = 8;
+    final int numPages = 10;
+    final int numThreads = 3;
+    final int numPins = 2000;
+    boolean status = OK;
+
+    for ( int r=0; status == OK && r < replacers.length; ++r ) {
+      System.out.print("  - " + replacers[r] + "\n");
+
+      final BufMgr bm = new BufMgr(numBuffers, replacers[r], 1, false, numBuffers);
+      final PageId firstPid = new PageId();
+      final Exception[] failure = new Exception[1];
+
+      try {
+        firstPid.pid = bm.newPage( new Page(), numPages ).pid;
+        bm.unpinPage( firstPid, /*dirty:*/ false );
+
+        Thread[] threads = new Thread[numThreads];
+        for ( int t=0; t < numThreads; ++t ) {
+          final int seed = t;
+          threads[t] = new Thread() {
+              public void run() {
+                Random random = new Random(seed);
+                Page page = new Page();
+                try {
+                  for ( int index=0; index < numPins; ++index ) {
+                    PageId pid = new PageId(firstPid.pid + random.nextInt(numPages));
+                    bm.pinPage( pid, page, /*emptyPage:*/ false );
+                    bm.unpinPage( pid, /*dirty:*/ true );
+                  }
+                }
+                catch (Exception e) {
+                  synchronized (failure) {
+                    failure[0] = e;
+                  }
+                }
+              }
+            };
+          threads[t].start();
+        }
+
+        // Each shrink retires the frames of the upper half that it can
+        // claim while they are unpinned
+        for ( int t=0; t < numThreads; ++t ) {
+          while ( threads[t].isAlive() ) {
+            bm.resize( numBuffers / 2, 50 );
+            bm.resize( numBuffers );
+          }
+        }
+      }
+      catch (Exception e) {
+        failure[0] = e;
+      }
+
+      if ( failure[0] != null ) {
+        status = FAIL;
+        System.err.print("*** Could not pin a page with " + numThreads +
+                         " threads while resizing the pool\n");
+        failure[0].printStackTrace();
+      }
+
+      // A frame the replacer lost cannot be used for any of these pages
+      if ( status == OK ) {
+        PageId[] pids = new PageId[numBuffers];
+        try {
+          for ( int index=0; index < numBuffers; ++index ) {
+            pids[index] = new PageId(firstPid.pid + index);
+            bm.pinPage( pids[index], new Page(), /*emptyPage:*/ false );
+          }
+          for ( int index=0; index < numBuffers; ++index )
+            bm.unpinPage( pids[index], /*dirty:*/ false );
+        }
+        catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Could not pin a page in each of the " + numBuffers +
+                           " frames\n");
+          e.printStackTrace();
+        }
+      }
+
+      if ( status == OK && bm.getNumUnpinnedBuffers() != numBuffers ) {
+        status = FAIL;
+        System.err.print("*** " + (numBuffers - bm.getNumUnpinnedBuffers()) +
+                         " frames left pinned\n");
+      }
+
+      try {
+        bm.flushAllPages();
+        for ( int index=0; index < numPages; ++index )
+          bm.freePage( new PageId(firstPid.pid + index) );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not free the pages\n");
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 16 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It pins, dirties and replaces a few pages and checks the counts of the
+   * metrics snapshot, the same counts read through JMX, and that reset()
+   * clears them.
+   *
+   * @return whether test17 has passed
+   */
+  protected boolean test17 () {
+
+    System.out.print("\n  Test 17 counts pins, misses and write-backs in the metrics\n");
+
+    final int numBuffers = 4;
+    BufMgr bm = new BufMgr(numBuffers, "Clock");
+    BufMgr alloc = new BufMgr(numBuffers, "Clock");
+    Page pg = new Page();
+    PageId firstPid = new PageId();
+    PageId last = new PageId();
+    MetricsSnapshot m = null;
+    boolean status = OK;
+
+    // A hit, then a miss for each page, every frame left dirty, and one
+    // more page that replaces a dirty victim and stays pinned
+    System.out.print("  - Pin " + (numBuffers + 1) + " pages in " + numBuffers + " frames\n");
+    try {
+      firstPid = alloc.newPage( pg, numBuffers + 1 );
+      alloc.unpinPage( firstPid, /*dirty:*/ false );
+
+      bm.pinPage( firstPid, pg, /*emptyPage:*/ false );
+      bm.pinPage( firstPid, pg, /*emptyPage:*/ false );
+      bm.unpinPage( firstPid, /*dirty:*/ false );
+      bm.unpinPage( firstPid, /*dirty:*/ true );
+      for ( int index=1; index < numBuffers; ++index ) {
+        PageId pid = new PageId(firstPid.pid + index);
+        bm.pinPage( pid, pg, /*emptyPage:*/ false );
+        bm.unpinPage( pid, /*dirty:*/ true );
+      }
+      last = new PageId(firstPid.pid + numBuffers);
+      bm.pinPage( last, pg, /*emptyPage:*/ false );
+      m = bm.getMetrics().snapshot();
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not pin the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Check the snapshot\n");
+      long[] found = { m.getHits(), m.getMisses(), m.getPins(), m.getEvictions(),
+                       m.getDirtyWriteBacks(), m.getUnpins(), m.getReads(),
+                       m.getPagesRead(), m.getWrites(), m.getPagesWritten(),
+                       m.getPinnedFrames(), m.getDirtyFrames() };
+      long[] expected = { 1, numBuffers + 1, numBuffers + 2, 1,
+                          1, numBuffers + 1, numBuffers + 1,
+                          numBuffers + 1, 1, 1,
+                          1, numBuffers - 1 };
+      String[] names = { "hits", "misses", "pins", "evictions",
+                         "dirty write-backs", "unpins", "reads",
+                         "pages read", "writes", "pages written",
+                         "pinned frames", "dirty frames" };
+      for ( int index=0; index < found.length; ++index ) {
+        if ( found[index] != expected[index] ) {
+          status = FAIL;
+          System.err.print("*** Counted " + found[index] + " " + names[index] +
+                           " instead of " + expected[index] + "\n");
+        }
+      }
+      if ( Math.abs(m.getHitRatio() - 1.0 / (numBuffers + 2)) > 1e-9 ) {
+        status = FAIL;
+        System.err.print("*** Got a hit ratio of " + m.getHitRatio() + "\n");
+      }
+    }
+
+    // The MBean reads the same counters
+    if ( status == OK ) {
+      System.out.print("  - Read the counts through JMX\n");
+      try {
+        ObjectName name = bm.registerMBean( "test17" );
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        long hits = (Long)server.getAttribute( name, "Hits" );
+        long misses = (Long)server.getAttribute( name, "Misses" );
+        int pinned = (Integer)server.getAttribute( name, "PinnedFrames" );
+        bm.unregisterMBean();
+        if ( hits != m.getHits() || misses != m.getMisses() || pinned != m.getPinnedFrames() ) {
+          status = FAIL;
+          System.err.print("*** Read " + hits + " hits, " + misses + " misses and " + pinned +
+                           " pinned frames through JMX\n");
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not read the MBean\n");
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Reset the metrics\n");
+      try {
+        bm.unpinPage( last, /*dirty:*/ false );
+        bm.getMetrics().reset();
+        m = bm.getMetrics().snapshot();
+        if ( m.getPins() != 0 || m.getUnpins() != 0 || m.getEvictions() != 0 
+             || m.getReads() != 0 || m.getWrites() != 0 || m.getPinnedFrames() != 0 ) {
+          status = FAIL;
+          System.err.print("*** The counters were not cleared:\n" + m + "\n");
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not unpin page " + last.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    try {
+      bm.flushAllPages();
+      for ( int index=0; index <= numBuffers; ++index )
+        bm.freePage( new PageId(firstPid.pid + index) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 17 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It records the buffer manager's Flight Recorder events while a page
+   * replaces a dirty victim and the pool is flushed, and checks the
+   * events and their fields.
+   *
+   * @return whether test18 has passed
+   */
+  protected boolean test18 () {
+
+    System.out.print("\n  Test 18 records Flight Recorder events\n");
+
+    final int numBuffers = 4;
+    BufMgr bm = new BufMgr(numBuffers, "Clock");
+    BufMgr alloc = new BufMgr(numBuffers, "Clock");
+    Page pg = new Page();
+    PageId firstPid = new PageId();
+    List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+    boolean status = OK;
+
+    // Every frame is left dirty, so the last page replaces a dirty victim
+    System.out.print("  - Pin " + (numBuffers + 1) + " pages in " + numBuffers +
+                     " frames and flush them while recording\n");
+    try {
+      firstPid = alloc.newPage( pg, numBuffers + 1 );
+      alloc.unpinPage( firstPid, /*dirty:*/ false );
+
+      Recording recording = new Recording();
+      recording.enable( "minibase.PageMiss" );
+      recording.enable( "minibase.PageEviction" );
+      recording.enable( "minibase.DirtyWriteBack" );
+      recording.start();
+      for ( int index=0; index <= numBuffers; ++index ) {
+        PageId pid = new PageId(firstPid.pid + index);
+        bm.pinPage( pid, pg, /*emptyPage:*/ false );
+        bm.unpinPage( pid, /*dirty:*/ index < numBuffers );
+      }
+      bm.flushAllPages();
+      recording.stop();
+
+      File file = File.createTempFile( "buftest", ".jfr" );
+      recording.dump( file.toPath() );
+      recording.close();
+      events = RecordingFile.readAllEvents( file.toPath() );
+      file.delete();
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not record the events\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Check the events\n");
+      int misses = 0;
+      int evictions = 0;
+      int victims = 0;
+      int flushed = 0;
+      for ( RecordedEvent event : events ) {
+        String type = event.getEventType().getName();
+        if ( type.equals("minibase.PageMiss") ) {
+          ++misses;
+          if ( event.getInt("pageId") != firstPid.pid + misses - 1 
+               || !event.getString("replacer").equals(bm.getReplacerName()) ) {
+            status = FAIL;
+            System.err.print("*** Recorded a miss of page " + event.getInt("pageId") + 
+                             " by " + event.getString("replacer") + "\n");
+          }
+        }
+        else if ( type.equals("minibase.PageEviction") ) {
+          ++evictions;
+          if ( event.getInt("pageId") != firstPid.pid + numBuffers || !event.getBoolean("dirty") ) {
+            status = FAIL;
+            System.err.print("*** Recorded page " + event.getInt("pageId") + 
+                             " replacing page " + event.getInt("evictedPageId") + "\n");
+          }
+        }
+        else if ( type.equals("minibase.DirtyWriteBack") ) {
+          if ( event.getString("cause").equals("victim") )
+            victims += event.getInt("pages");
+          else
+            flushed += event.getInt("pages");
+        }
+      }
+      if ( misses != numBuffers + 1 || evictions != 1 || victims != 1 
+           || flushed != numBuffers - 1 ) {
+        status = FAIL;
+        System.err.print("*** Recorded " + misses + " misses, " + evictions + 
+                         " evictions, " + victims + " victims and " + flushed + 
+                         " pages flushed\n");
+      }
+    }
+
+    try {
+      for ( int index=0; index <= numBuffers; ++index )
+        bm.freePage( new PageId(firstPid.pid + index) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 18 completed successfully.\n");
+
+    return status;
+  }
+
+  /**
+   * It records the page accesses of a random workload, replays the trace
+   * with the replacer and pool size it ran with and checks that the
+   * replay gets the hit ratio the buffer manager measured.
+   *
+   * @return whether test19 has passed
+   */
+  protected boolean test19 () {
+
+    System.out.print("\n  Test 19 records page accesses and replays them\n");
+
+    String[] replacers = { "Clock", "LRU", "LFU", "ARC" };
+    final int numBuffers = 8;
+    final int numPages = 20;
+    final int numPins = 2000;
+    BufMgr alloc = new BufMgr(numBuffers, "Clock");
+    Page pg = new Page();
+    PageId firstPid = new PageId();
+    boolean status = OK;
+
+    try {
+      firstPid = alloc.newPage( pg, numPages );
+      alloc.unpinPage( firstPid, /*dirty:*/ false );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not allocate the pages\n");
+      e.printStackTrace();
+    }
+
+    for ( int r=0; status == OK && r < replacers.length; ++r ) {
+      System.out.print("  - " + replacers[r] + "\n");
+      BufMgr bm = new BufMgr(numBuffers, replacers[r]);
+      File file = null;
+      try {
+        file = File.createTempFile( "buftest", ".trace" );
+
+        // Every other pin keeps the page pinned over the next pin
+        TraceRecorder trace = bm.startTrace( file.getPath(), 1024 );
+        Random random = new Random(r);
+        PageId held = null;
+        for ( int index=0; index < numPins; ++index ) {
+          PageId pid = new PageId(firstPid.pid + random.nextInt(numPages));
+          bm.pinPage( pid, pg, /*emptyPage:*/ false );
+          if ( held != null )
+            bm.unpinPage( held, /*dirty:*/ false );
+          held = (index % 2 == 0) ? pid : null;
+          if ( held == null )
+            bm.unpinPage( pid, /*dirty:*/ false );
+        }
+        if ( held != null )
+          bm.unpinPage( held, /*dirty:*/ false );
+        bm.stopTrace();
+
+        if ( trace.getFailure() != null || trace.getRecords() != 2 * numPins ) {
+          status = FAIL;
+          System.err.print("*** Recorded " + trace.getRecords() + " records instead of " +
+                           (2 * numPins) + "\n");
+          if ( trace.getFailure() != null )
+            trace.getFailure().printStackTrace();
+        }
+
+        TraceSimulator sim = new TraceSimulator( file.getPath() );
+        if ( status == OK && (sim.getRecords() != 2 * numPins || sim.getPins() != numPins 
+                              || sim.getPages() != numPages) ) {
+          status = FAIL;
+          System.err.print("*** Read " + sim.getRecords() + " records, " + sim.getPins() +
+                           " pins and " + sim.getPages() + " pages back\n");
+        }
+
+        // Only the first pin of each page misses in a pool that holds them all
+        double measured = bm.getMetrics().snapshot().getHitRatio();
+        double replayed = sim.hitRatio( replacers[r], numBuffers );
+        double all = sim.hitRatio( replacers[r], numPages );
+        if ( status == OK && (replayed != measured 
+                              || all != (double)(numPins - numPages) / numPins) ) {
+          status = FAIL;
+          System.err.print("*** Replayed a hit ratio of " + replayed + " for " + measured +
+                           ", and " + all + " with every page in the pool\n");
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not record and replay the trace\n");
+        e.printStackTrace();
+      }
+      finally {
+        if ( file != null )
+          file.delete();
+      }
+    }
+
+    try {
+      for ( int index=0; index < numPages; ++index )
+        alloc.freePage( new PageId(firstPid.pid + index) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 19 completed successfully.\n");
+
+    return status;
   }
 
   /**
@@ -0,0 +1,1119 @@
+package tests;
+
+import java.io.*;
+import java.util.*;
+import java.lang.*;
+import global.*;
+import bufmgr.*;
+import diskmgr.*;
+import chainexception.*;
+
+/**
+ * This class provides the functions to test the disk manager
+ */
+class DBDriver extends TestDriver implements GlobalConst {
+
+  private boolean OK = true;
+  private boolean FAIL = false;
+
+  // Number of pages in the test database
+  private static final int NUM_PAGES = 300;
+
+  // SystemDefs' database and buffer pool while openDatabase() replaces them
+  private DB savedDB;
+  private BufMgr savedBM;
+
+  /**
+   * DBDriver Constructor, inherited from TestDriver
+   */
+  public DBDriver () {
+    super("dbtest");
+  }
+
+  /**
+   * calls the runTests function in TestDriver
+   */
+  public boolean runTests () {
+
+    System.out.print ("\n" + "Running " + testName() + " tests...." + "\n");
+
+    try {
+      SystemDefs sysdef = new SystemDefs( dbpath, NUM_PAGES, NUMBUF, "Clock" );
+    }
+
+    catch (Exception e) {
+      Runtime.getRuntime().exit(1);
+    }
+
+    String remove_cmd = "/bin/rm -rf ";
+    String remove_logcmd = remove_cmd + logpath;
+    String remove_dbcmd = remove_cmd + dbpath;
+
+    //Run the tests. Return type different from C++
+    boolean _pass = runAllTests();
+
+    //Clean up
+    try {
+      Runtime.getRuntime().exec(remove_logcmd);
+      Runtime.getRuntime().exec(remove_dbcmd);
+    }
+    catch (IOException e) {
+      System.err.println (""+e);
+    }
+
+    System.out.print ("\n" + "..." + testName() + " tests ");
+    System.out.print (_pass==OK ? "completely successfully" : "failed");
+    System.out.print (".\n\n");
+
+    return _pass;
+  }
+
+  protected boolean runAllTests (){
+
+    boolean _passAll = OK;
+
+    if (!test1()) { _passAll = FAIL; }
+    if (!test2()) { _passAll = FAIL; }
+    if (!test3()) { _passAll = FAIL; }
+    if (!test4()) { _passAll = FAIL; }
+    if (!test5()) { _passAll = FAIL; }
+    if (!test6()) { _passAll = FAIL; }
+    if (!test7()) { _passAll = FAIL; }
+    if (!test8()) { _passAll = FAIL; }
+
+    return _passAll;
+  }
+
+
+  /**
+   * overrides the test1 function in TestDriver.  It fills the database,
+   * then frees runs of pages inside it and checks that they are split
+   * and merged into the right free runs.
+   *
+   * @return whether test1 has passed
+   */
+  protected boolean test1 () {
+
+    System.out.print("\n  Test 1 splits and merges runs of free pages:\n");
+
+    boolean status = OK;
+    ArrayList<Integer> allocated = new ArrayList<Integer>();
+    PageId pid = new PageId();
+    int first = 0;
+
+    System.out.print("  - Allocate every free page\n");
+    status = fillDatabase( allocated );
+
+    // The last 10 pages of the database are the run worked on
+    if ( status == OK ) {
+      first = NUM_PAGES - 10;
+      for ( int index=first; status == OK && index < NUM_PAGES; ++index ) {
+        if ( !allocated.contains(index) ) {
+          status = FAIL;
+          System.err.print("*** Page " + index + " was not allocated\n");
+        }
+      }
+    }
+
+    // Freeing pages 3 to 6 of the run leaves a single free run of 4 pages
+    if ( status == OK ) {
+      System.out.print("  - Free 4 pages in the middle of a run\n");
+      try {
+        SystemDefs.JavabaseDB.deallocate_page( new PageId(first + 3), 4 );
+        status = allocateFails( 5 );
+
+        if ( status == OK ) {
+          SystemDefs.JavabaseDB.allocate_page( pid, 4 );
+          if ( pid.pid != first + 3 ) {
+            status = FAIL;
+            System.err.print("*** Allocated page " + pid.pid + " instead of page " +
+                             (first + 3) + "\n");
+          }
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not free the pages\n");
+        e.printStackTrace();
+      }
+    }
+
+    // Three runs freed one after the other merge into one run of 8 pages
+    if ( status == OK ) {
+      System.out.print("  - Free 3 runs next to each other\n");
+      try {
+        SystemDefs.JavabaseDB.deallocate_page( new PageId(first + 3), 4 );
+        SystemDefs.JavabaseDB.deallocate_page( new PageId(first + 1), 2 );
+        SystemDefs.JavabaseDB.deallocate_page( new PageId(first + 7), 2 );
+        status = allocateFails( 9 );
+
+        if ( status == OK ) {
+          SystemDefs.JavabaseDB.allocate_page( pid, 8 );
+          if ( pid.pid != first + 1 ) {
+            status = FAIL;
+            System.err.print("*** Allocated page " + pid.pid + " instead of page " +
+                             (first + 1) + "\n");
+          }
+        }
+
+        if ( status == OK )
+          status = allocateFails( 1 );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not free the pages\n");
+        e.printStackTrace();
+      }
+    }
+
+    try {
+      for ( int index=0; index < allocated.size(); ++index )
+        SystemDefs.JavabaseDB.deallocate_page( new PageId(allocated.get(index)) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 1 completed successfully.\n");
+
+    return status;
+  }
+
+
+  /**
+   * Allocates a run of runSize pages and checks that it starts at page start.
+   *
+   * @return whether the run was allocated at page start
+   */
+  protected boolean allocateAt (int runSize, int start) {
+
+    PageId pid = new PageId();
+    try {
+      SystemDefs.JavabaseDB.allocate_page( pid, runSize );
+      if ( pid.pid != start ) {
+        System.err.print("*** Allocated " + runSize + " pages at page " + pid.pid +
+                         " instead of page " + start + "\n");
+        return FAIL;
+      }
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not allocate " + runSize + " pages\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+    return OK;
+  }
+
+
+  /**
+   * Allocates every free page of the database and adds them to allocated.
+   *
+   * @return whether the pages could be allocated
+   */
+  protected boolean fillDatabase (ArrayList<Integer> allocated) {
+
+    PageId pid = new PageId();
+    try {
+      while (true) {
+        SystemDefs.JavabaseDB.allocate_page( pid );
+        allocated.add(pid.pid);
+      }
+    }
+    catch (OutOfSpaceException e) {
+      // The database is full
+      return OK;
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not allocate the pages\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+  }
+
+
+  /**
+   * Checks that a run of runSize pages cannot be allocated.
+   *
+   * @return whether the allocation failed
+   */
+  protected boolean allocateFails (int runSize) {
+
+    PageId pid = new PageId();
+    try {
+      SystemDefs.JavabaseDB.allocate_page( pid, runSize );
+      System.err.print("*** Allocated " + runSize + " pages at page " + pid.pid +
+                       " in a full database\n");
+      return FAIL;
+    }
+    catch (OutOfSpaceException e) {
+      return OK;
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not allocate " + runSize + " pages\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+  }
+
+
+  /**
+   * overrides the test2 function in TestDriver.  It adds, looks up and
+   * deletes file entries, over more than one header page, and reopens
+   * the database to check that the entries are read back.
+   *
+   * @return whether test2 has passed
+   */
+  protected boolean test2 () {
+
+    System.out.print("\n  Test 2 adds and deletes file entries:\n");
+
+    int numFiles = 100;
+    boolean status = OK;
+    PageId pid = new PageId();
+
+    System.out.print("  - Add " + numFiles + " file entries\n");
+    try {
+      for ( int index=0; index < numFiles; ++index ) {
+        SystemDefs.JavabaseDB.allocate_page( pid );
+        SystemDefs.JavabaseDB.add_file_entry( "file" + index, pid );
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not add the file entries\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Add a file entry that already exists\n");
+      try {
+        SystemDefs.JavabaseDB.add_file_entry( "file0", pid );
+      }
+      catch (ChainException e) {
+        status = checkException (e, "diskmgr.DuplicateEntryException");
+        if (status == FAIL) {
+          System.err.print("*** Adding file0 twice\n");
+          System.out.println ("  --> Failed as expected \n");
+        }
+      }
+      catch (Exception e) {e.printStackTrace();}
+
+      if (status == OK) {
+        status = FAIL;
+        System.err.print ("The expected exception was not thrown\n");
+      }
+      else {
+        status = OK;
+      }
+    }
+
+    // Every other entry is deleted, its slot is reused by the next add
+    if ( status == OK ) {
+      System.out.print("  - Delete every other file entry and add them again\n");
+      try {
+        for ( int index=0; index < numFiles; index += 2 )
+          SystemDefs.JavabaseDB.delete_file_entry( "file" + index );
+
+        for ( int index=0; status == OK && index < numFiles; ++index ) {
+          PageId start = SystemDefs.JavabaseDB.get_file_entry( "file" + index );
+          if ( (index % 2 == 0) != (start == null) ) {
+            status = FAIL;
+            System.err.print("*** Found the wrong entry for file" + index + "\n");
+          }
+        }
+
+        for ( int index=0; index < numFiles; index += 2 ) {
+          SystemDefs.JavabaseDB.allocate_page( pid );
+          SystemDefs.JavabaseDB.add_file_entry( "file" + index, pid );
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not delete the file entries\n");
+        e.printStackTrace();
+      }
+    }
+
+    // The index is loaded again from the header pages
+    if ( status == OK ) {
+      System.out.print("  - Reopen the database and look up every entry\n");
+      try {
+        PageId[] starts = new PageId[numFiles];
+        for ( int index=0; index < numFiles; ++index )
+          starts[index] = SystemDefs.JavabaseDB.get_file_entry( "file" + index );
+
+        SystemDefs.JavabaseBM.flushAllPages();
+        DB db = new DB();
+        db.openDB( dbpath );
+
+        for ( int index=0; status == OK && index < numFiles; ++index ) {
+          PageId start = db.get_file_entry( "file" + index );
+          if ( start == null || start.pid != starts[index].pid ) {
+            status = FAIL;
+            System.err.print("*** Read the wrong entry back for file" + index + "\n");
+          }
+        }
+        if ( status == OK && db.get_file_entry( "file" + numFiles ) != null ) {
+          status = FAIL;
+          System.err.print("*** Found an entry that was never added\n");
+        }
+        db.closeDB();
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not reopen the database\n");
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Delete every file entry\n");
+      try {
+        for ( int index=0; index < numFiles; ++index ) {
+          PageId start = SystemDefs.JavabaseDB.get_file_entry( "file" + index );
+          SystemDefs.JavabaseDB.delete_file_entry( "file" + index );
+          SystemDefs.JavabaseDB.deallocate_page( start );
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not delete the file entries\n");
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 2 completed successfully.\n");
+
+    return status;
+  }
+
+
+  /**
+   * overrides the test3 function in TestDriver.  It writes and reads a run
+   * longer than one I/O call, page by page and as a run, then has several
+   * threads read and write their own pages of the run at the same time.
+   *
+   * @return whether test3 has passed
+   */
+  protected boolean test3 () {
+
+    System.out.print("\n  Test 3 reads and writes runs of pages:\n");
+
+    final int runSize = 70;
+    final int numThreads = 4;
+    final DB db = SystemDefs.JavabaseDB;
+    final PageId start = new PageId();
+    boolean status = OK;
+
+    try {
+      db.allocate_page( start, runSize );
+    }
+    catch (Exception e) {
+      System.err.print("*** Could not allocate " + runSize + " pages\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+
+    System.out.print("  - Write a run of " + runSize + " pages and read each page\n");
+    try {
+      Page[] pages = new Page[runSize];
+      for ( int index=0; index < runSize; ++index ) {
+        pages[index] = new Page();
+        stamp( pages[index], start.pid + index );
+      }
+      db.write_pages( start, pages );
+
+      Page page = new Page();
+      for ( int index=0; status == OK && index < runSize; ++index ) {
+        db.read_page( new PageId(start.pid + index), page );
+        status = checkStamp( page, start.pid + index );
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not write the run\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Write each page and read the run\n");
+      try {
+        for ( int index=0; index < runSize; ++index ) {
+          Page page = new Page();
+          stamp( page, -(start.pid + index) );
+          db.write_page( new PageId(start.pid + index), page );
+        }
+
+        Page[] pages = new Page[runSize];
+        for ( int index=0; index < runSize; ++index )
+          pages[index] = new Page();
+        db.read_pages( start, pages );
+        for ( int index=0; status == OK && index < runSize; ++index )
+          status = checkStamp( pages[index], -(start.pid + index) );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not read the run\n");
+        e.printStackTrace();
+      }
+    }
+
+    // Thread t owns the pages t, t + numThreads, ... of the run
+    if ( status == OK ) {
+      System.out.print("  - " + numThreads + " threads write and read their pages\n");
+      final Exception[] failure = new Exception[1];
+      Thread[] threads = new Thread[numThreads];
+      for ( int t=0; t < numThreads; ++t ) {
+        final int first = t;
+        threads[t] = new Thread() {
+            public void run() {
+              Page page = new Page();
+              try {
+                for ( int round=0; round < 20; ++round ) {
+                  for ( int index=first; index < runSize; index += numThreads ) {
+                    PageId pid = new PageId(start.pid + index);
+                    stamp( page, pid.pid * 100 + round );
+                    db.write_page( pid, page );
+                    db.read_page( pid, page );
+                    if ( checkStamp( page, pid.pid * 100 + round ) == FAIL )
+                      throw new IllegalStateException("Read the wrong data from page " + pid.pid);
+                  }
+                }
+              }
+              catch (Exception e) {
+                synchronized (failure) {
+                  failure[0] = e;
+                }
+              }
+            }
+          };
+        threads[t].start();
+      }
+
+      try {
+        for ( int t=0; t < numThreads; ++t )
+          threads[t].join();
+      }
+      catch (InterruptedException e) {
+        failure[0] = e;
+      }
+
+      if ( failure[0] != null ) {
+        status = FAIL;
+        System.err.print("*** A thread read back the wrong page\n");
+        failure[0].printStackTrace();
+      }
+    }
+
+    try {
+      db.deallocate_page( start, runSize );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 3 completed successfully.\n");
+
+    return status;
+  }
+
+
+  /**
+   * overrides the test6 function in TestDriver.  It checks the order
+   * pages are allocated in: next fit after the last run, best fit when
+   * the run does not fit there, and no page at all from a full database.
+   *
+   * @return whether test6 has passed
+   */
+  protected boolean test6 () {
+
+    System.out.print("\n  Test 6 allocates pages next fit then best fit:\n");
+
+    boolean status = OK;
+    ArrayList<Integer> allocated = new ArrayList<Integer>();
+    PageId pid = new PageId();
+
+    // The cursor is left after page anchor, runs of 1, 1, 2, 8 and 3 pages
+    // are freed before and after it
+    int anchor = NUM_PAGES - 40;
+    int[] holes = { NUM_PAGES - 50, NUM_PAGES - 30, NUM_PAGES - 28, NUM_PAGES - 20, 
+                    NUM_PAGES - 8 };
+    int[] sizes = { 1, 1, 2, 8, 3 };
+
+    // Consecutive runs follow each other
+    System.out.print("  - Allocate 3 runs one after the other\n");
+    try {
+      PageId first = new PageId();
+      SystemDefs.JavabaseDB.allocate_page( first, 2 );
+      SystemDefs.JavabaseDB.allocate_page( pid, 1 );
+      int second = pid.pid;
+      SystemDefs.JavabaseDB.allocate_page( pid, 1 );
+      if ( second != first.pid + 2 || pid.pid != second + 1 ) {
+        status = FAIL;
+        System.err.print("*** Allocated pages " + first.pid + ", " + second + " and " +
+                         pid.pid + "\n");
+      }
+      SystemDefs.JavabaseDB.deallocate_page( first, 2 );
+      SystemDefs.JavabaseDB.deallocate_page( new PageId(second), 2 );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not allocate the runs\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Fill the database and ask for no page\n");
+      status = fillDatabase( allocated );
+      if ( status == OK )
+        status = allocateFails( 0 );
+    }
+
+    if ( status == OK ) {
+      System.out.print("  - Free runs of 1, 1, 2, 8 and 3 pages\n");
+      try {
+        ArrayList<Integer> pages = new ArrayList<Integer>();
+        pages.add(anchor);
+        for ( int index=0; index < holes.length; ++index ) {
+          for ( int page=holes[index]; page < holes[index] + sizes[index]; ++page )
+            pages.add(page);
+        }
+        for ( int index=0; status == OK && index < pages.size(); ++index ) {
+          if ( !allocated.contains(pages.get(index)) ) {
+            status = FAIL;
+            System.err.print("*** Page " + pages.get(index) + " was not allocated\n");
+          }
+        }
+
+        if ( status == OK ) {
+          SystemDefs.JavabaseDB.deallocate_page( new PageId(anchor) );
+          status = allocateAt( 1, anchor );
+        }
+        if ( status == OK ) {
+          for ( int index=0; index < holes.length; ++index )
+            SystemDefs.JavabaseDB.deallocate_page( new PageId(holes[index]), sizes[index] );
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not free the runs\n");
+        e.printStackTrace();
+      }
+    }
+
+    // The page comes from the first run after the cursor, not from page 0 on
+    if ( status == OK ) {
+      System.out.print("  - Allocate 1 page next fit\n");
+      status = allocateAt( 1, holes[1] );
+    }
+
+    // The next run after the cursor is too small, 3 pages come from the
+    // smallest run that holds them
+    if ( status == OK ) {
+      System.out.print("  - Allocate 3 pages best fit\n");
+      status = allocateAt( 3, holes[4] );
+    }
+
+    // The pages left free are allocated again so each page is freed once
+    if ( status == OK )
+      status = fillDatabase( new ArrayList<Integer>() );
+
+    try {
+      for ( int index=0; index < allocated.size(); ++index )
+        SystemDefs.JavabaseDB.deallocate_page( new PageId(allocated.get(index)) );
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not free the pages\n");
+      e.printStackTrace();
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 6 completed successfully.\n");
+
+    return status;
+  }
+
+
+  /**
+   * overrides the test7 function in TestDriver.  It allocates every page
+   * of a database with three space-map pages, frees runs that start and
+   * end inside a byte, across a 64-bit word and across a map page, and
+   * reopens the database to check that exactly those pages are free.
+   *
+   * @return whether test7 has passed
+   */
+  protected boolean test7 () {
+
+    System.out.print("\n  Test 7 sets space-map bits across byte, word and page boundaries:\n");
+
+    int bitsPerPage = MAX_SPACE * 8;
+    int numPages = 2 * bitsPerPage + 100;
+    String path = dbpath + ".bits";
+    int[] runs = { 7, 3,                        // across a byte
+                   61, 7,                       // across a word
+                   130, 300,                    // whole words and partial ends
+                   bitsPerPage - 5, 10,         // across the first map page
+                   2 * bitsPerPage - 70, 140,   // across the second map page
+                   numPages - 3, 3 };           // the last pages
+    TreeSet<Integer> freed = new TreeSet<Integer>();
+    boolean status = OK;
+
+    System.out.print("  - Allocate all " + numPages + " pages in one run\n");
+    try {
+      DB db = openDatabase( "channel", path, numPages );
+      try {
+        PageId pid = new PageId();
+        db.allocate_page( pid );
+        db.deallocate_page( pid );
+        int first = pid.pid;
+        db.allocate_page( pid, numPages - first );
+        if ( pid.pid != first ) {
+          status = FAIL;
+          System.err.print("*** Allocated the run at page " + pid.pid + 
+                           " instead of " + first + "\n");
+        }
+
+        System.out.print("  - Free " + runs.length/2 + " runs\n");
+        for ( int index=0; status == OK && index < runs.length; index += 2 ) {
+          db.deallocate_page( new PageId(runs[index]), runs[index+1] );
+          for ( int page=runs[index]; page < runs[index] + runs[index+1]; ++page )
+            freed.add(page);
+        }
+      }
+      finally {
+        closeDatabase( db, false );
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not set the space map\n");
+      e.printStackTrace();
+    }
+
+    // Reopening builds the free extents from the space map
+    if ( status == OK ) {
+      System.out.print("  - Reopen the database and allocate the free pages one at a time\n");
+      ArrayList<Integer> allocated = new ArrayList<Integer>();
+      try {
+        DB db = openDatabase( "channel", path, 0 );
+        try {
+          status = fillDatabase( allocated );
+        }
+        finally {
+          closeDatabase( db, false );
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not reopen the database\n");
+        e.printStackTrace();
+      }
+
+      if ( status == OK && !freed.equals(new TreeSet<Integer>(allocated)) ) {
+        status = FAIL;
+        System.err.print("*** Found " + allocated.size() + " free pages instead of " +
+                         freed.size() + "\n");
+      }
+    }
+
+    // The single pages set the bits back one at a time
+    if ( status == OK ) {
+      System.out.print("  - Reopen the database and check that it is full\n");
+      try {
+        DB db = openDatabase( "channel", path, 0 );
+        try {
+          status = allocateFails( 1 );
+        }
+        finally {
+          closeDatabase( db, true );
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not reopen the database\n");
+        e.printStackTrace();
+      }
+    }
+
+    new File(path).delete();
+
+    if ( status == OK )
+      System.out.print("  Test 7 completed successfully.\n");
+
+    return status;
+  }
+
+
+  /**
+   * overrides the test8 function in TestDriver.  It adds a file entry
+   * while every frame of the buffer pool is pinned, so that the header
+   * page cannot be pinned, and checks that the slot taken for the entry
+   * is given back.
+   *
+   * @return whether test8 has passed
+   */
+  protected boolean test8 () {
+
+    System.out.print("\n  Test 8 gives a slot back when its header page cannot be pinned:\n");
+
+    String path = dbpath + ".slots";
+    boolean status = OK;
+
+    System.out.print("  - Count the free slots of a new database\n");
+    int expected = countFreeSlots( path, false );
+
+    System.out.print("  - Count them after adding an entry with the buffer pool full\n");
+    int found = countFreeSlots( path, true );
+
+    if ( expected <= 0 || found != expected ) {
+      status = FAIL;
+      System.err.print("*** Found " + found + " free slots instead of " + expected + "\n");
+    }
+
+    new File(path).delete();
+
+    if ( status == OK )
+      System.out.print("  Test 8 completed successfully.\n");
+
+    return status;
+  }
+
+
+  /**
+   * Creates a database at path, first failing to add an entry while the
+   * buffer pool is full if failFirst is set, then fills the database and
+   * adds entries until a new header page would be needed.
+   *
+   * @return the number of entries added, or -1 if the test failed
+   */
+  protected int countFreeSlots (String path, boolean failFirst) {
+
+    int count = -1;
+    try {
+      DB db = openDatabase( "channel", path, NUMBUF + 20 );
+      try {
+        if ( failFirst ) {
+          // Pages 1 to NUMBUF take every frame and push the first page out
+          for ( int pid=1; pid <= NUMBUF; ++pid )
+            SystemDefs.JavabaseBM.pinPage( new PageId(pid), new Page(), false );
+          try {
+            db.add_file_entry( "full", new PageId(1) );
+            System.err.print("*** Added an entry with the buffer pool full\n");
+            return -1;
+          }
+          catch (DiskMgrException e) {
+            // The header page could not be pinned
+          }
+          finally {
+            for ( int pid=1; pid <= NUMBUF; ++pid )
+              SystemDefs.JavabaseBM.unpinPage( new PageId(pid), false );
+          }
+        }
+
+        if ( fillDatabase( new ArrayList<Integer>() ) == OK ) {
+          try {
+            for ( count=0; ; ++count )
+              db.add_file_entry( "entry" + count, new PageId(1) );
+          }
+          catch (OutOfSpaceException e) {
+            // Every slot is taken and no header page can be added
+          }
+        }
+      }
+      finally {
+        closeDatabase( db, true );
+      }
+    }
+    catch (Exception e) {
+      count = -1;
+      System.err.print("*** Could not add the file entries\n");
+      e.printStackTrace();
+    }
+    return count;
+  }
+
+
+  /**
+   * overrides the test4 function in TestDriver.  It writes pages and a
+   * file entry to a database mapped into memory and closes it, then reads
+   * them back with the database opened for channel I/O and mapped again.
+   *
+   * @return whether test4 has passed
+   */
+  protected boolean test4 () {
+
+    System.out.print("\n  Test 4 keeps the pages written to a mapped database:\n");
+
+    int runSize = 10;
+    String path = dbpath + ".mapped";
+    PageId start = new PageId();
+    boolean status = OK;
+
+    System.out.print("  - Write " + runSize + " pages to a mapped database\n");
+    try {
+      DB db = openDatabase( "mapped", path, 100 );
+      try {
+        if ( !db.db_io_mode().equals("mapped") ) {
+          status = FAIL;
+          System.err.print("*** Opened the database for " + db.db_io_mode() + " I/O\n");
+        }
+
+        db.allocate_page( start, runSize );
+        db.add_file_entry( "mapped", start );
+        Page[] pages = new Page[runSize];
+        for ( int index=0; index < runSize; ++index ) {
+          pages[index] = new Page();
+          stamp( pages[index], start.pid + index );
+        }
+        db.write_pages( start, pages );
+
+        // The last page is written on its own after the run
+        Page page = new Page();
+        stamp( page, -(start.pid + runSize - 1) );
+        db.write_page( new PageId(start.pid + runSize - 1), page );
+      }
+      finally {
+        closeDatabase( db, false );
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not write the mapped database\n");
+      e.printStackTrace();
+    }
+
+    String[] modes = { "channel", "mapped" };
+    for ( int m=0; status == OK && m < modes.length; ++m ) {
+      System.out.print("  - Read the pages back with " + modes[m] + " I/O\n");
+      try {
+        DB db = openDatabase( modes[m], path, 0 );
+        try {
+          PageId found = db.get_file_entry( "mapped" );
+          if ( found == null || found.pid != start.pid ) {
+            status = FAIL;
+            System.err.print("*** Read the wrong file entry back\n");
+          }
+
+          Page page = new Page();
+          for ( int index=0; status == OK && index < runSize; ++index ) {
+            db.read_page( new PageId(start.pid + index), page );
+            status = checkStamp( page, (index == runSize - 1) ? -(start.pid + index) 
+                                                              : start.pid + index );
+          }
+        }
+        finally {
+          closeDatabase( db, m == modes.length - 1 );
+        }
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not read the mapped database\n");
+        e.printStackTrace();
+      }
+    }
+
+    new File(path).delete();
+
+    if ( status == OK )
+      System.out.print("  Test 4 completed successfully.\n");
+
+    return status;
+  }
+
+
+  /**
+   * overrides the test5 function in TestDriver.  It opens a database for
+   * direct I/O with a largest block size below any device's, so that it
+   * falls back to channel I/O, and checks that the reason is kept.
+   *
+   * @return whether test5 has passed
+   */
+  protected boolean test5 () {
+
+    System.out.print("\n  Test 5 falls back from direct I/O:\n");
+
+    String path = dbpath + ".direct";
+    boolean status = OK;
+
+    System.out.print("  - Open a database for direct I/O with 256 byte blocks at most\n");
+    String maxBlockSize = System.getProperty("diskmgr.direct.maxBlockSize");
+    System.setProperty("diskmgr.direct.maxBlockSize", "256");
+    try {
+      DB db = openDatabase( "direct", path, 20 );
+      try {
+        Exception reason = db.db_io_fallback();
+        if ( !db.db_io_mode().equals("channel") ) {
+          status = FAIL;
+          System.err.print("*** Opened the database for " + db.db_io_mode() + " I/O\n");
+        }
+        else if ( reason == null || reason.getMessage().indexOf("Block size") < 0 ) {
+          status = FAIL;
+          System.err.print("*** The reason for the fall back was not kept: " + reason + "\n");
+        }
+
+        // The fall back is a working database
+        if ( status == OK ) {
+          PageId pid = new PageId();
+          Page page = new Page();
+          db.allocate_page( pid );
+          stamp( page, pid.pid );
+          db.write_page( pid, page );
+          db.read_page( pid, page );
+          status = checkStamp( page, pid.pid );
+        }
+      }
+      finally {
+        closeDatabase( db, true );
+      }
+    }
+    catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Could not open the database\n");
+      e.printStackTrace();
+    }
+    finally {
+      if ( maxBlockSize == null )
+        System.clearProperty("diskmgr.direct.maxBlockSize");
+      else
+        System.setProperty("diskmgr.direct.maxBlockSize", maxBlockSize);
+    }
+
+    // A database opened in the mode asked for has no reason
+    if ( status == OK ) {
+      System.out.print("  - Open a database for channel I/O\n");
+      try {
+        DB db = openDatabase( "channel", path, 20 );
+        if ( db.db_io_fallback() != null ) {
+          status = FAIL;
+          System.err.print("*** Found a reason for a fall back: " + db.db_io_fallback() + "\n");
+        }
+        closeDatabase( db, true );
+      }
+      catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not open the database\n");
+        e.printStackTrace();
+      }
+    }
+
+    if ( status == OK )
+      System.out.print("  Test 5 completed successfully.\n");
+
+    return status;
+  }
+
+
+  /**
+   * Flushes the buffer pool and opens the database at path, created with
+   * numPages pages unless numPages is 0. DB reads and writes its header
+   * pages through SystemDefs.JavabaseBM, so the database and a new buffer
+   * pool stand in for SystemDefs' until closeDatabase() is called.
+   *
+   * @return the database opened
+   */
+  protected DB openDatabase (String mode, String path, int numPages) throws Exception {
+
+    SystemDefs.JavabaseBM.flushAllPages();
+    savedDB = SystemDefs.JavabaseDB;
+    savedBM = SystemDefs.JavabaseBM;
+
+    DB db = new DB(mode);
+    SystemDefs.JavabaseDB = db;
+    SystemDefs.JavabaseBM = new BufMgr(NUMBUF, "Clock");
+    try {
+      if ( numPages > 0 )
+        db.openDB( path, numPages );
+      else
+        db.openDB( path );
+    }
+    catch (Exception e) {
+      SystemDefs.JavabaseDB = savedDB;
+      SystemDefs.JavabaseBM = savedBM;
+      throw e;
+    }
+    return db;
+  }
+
+
+  /**
+   * Flushes the buffer pool of the database opened by openDatabase(),
+   * closes or destroys it and puts SystemDefs' database back.
+   */
+  protected void closeDatabase (DB db, boolean destroy) throws Exception {
+
+    try {
+      SystemDefs.JavabaseBM.flushAllPages();
+      if ( destroy )
+        db.DBDestroy();
+      else
+        db.closeDB();
+    }
+    finally {
+      SystemDefs.JavabaseDB = savedDB;
+      SystemDefs.JavabaseBM = savedBM;
+    }
+  }
+
+
+  /**
+   * Writes value at the start and at the end of the page.
+   */
+  protected void stamp (Page page, int value) throws IOException {
+
+    Convert.setIntValue( value, 0, page.getpage() );
+    Convert.setIntValue( value, MINIBASE_PAGESIZE - 4, page.getpage() );
+  }
+
+
+  /**
+   * Checks that the page holds value at its start and at its end.
+   *
+   * @return whether the page holds value
+   */
+  protected boolean checkStamp (Page page, int value) throws IOException {
+
+    int first = Convert.getIntValue( 0, page.getpage() );
+    int last = Convert.getIntValue( MINIBASE_PAGESIZE - 4, page.getpage() );
+    if ( first != value || last != value ) {
+      System.err.print("*** Read " + first + " and " + last + " instead of " + value + "\n");
+      return FAIL;
+    }
+    return OK;
+  }
+
+
+  /**
+   * overrides the testName function in TestDriver
+   *
+   * @return the name of the test
+   */
+  protected String testName () {
+    return "Disk Manager";
+  }
+}
+
+public class DBTest {
+
+   public static void main (String argv[]) {
+
+     DBDriver dbt = new DBDriver();
+     boolean dbstatus;
+
+     dbstatus = dbt.runTests();
+
+     if (dbstatus != true) {
+       System.err.println ("Error encountered during disk manager tests:\n");
+       Runtime.getRuntime().exit(1);
+     }
+
+     Runtime.getRuntime().exit(0);
+   }
+}